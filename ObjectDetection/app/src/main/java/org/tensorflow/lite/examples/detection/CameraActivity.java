@@ -20,6 +20,7 @@ import android.Manifest;
 import android.app.Fragment;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.graphics.Matrix;
 import android.hardware.Camera;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCharacteristics;
@@ -33,6 +34,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Trace;
 import androidx.annotation.NonNull;
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
@@ -49,9 +51,17 @@ import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
+import org.tensorflow.lite.examples.detection.env.LogRingBuffer;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.PreviewBufferPool;
+import org.tensorflow.lite.examples.detection.env.YuvInputSampler;
+import org.tensorflow.lite.examples.detection.replay.YuvSequenceWriter;
 
 public abstract class CameraActivity extends AppCompatActivity
     implements OnImageAvailableListener,
@@ -63,16 +73,40 @@ public abstract class CameraActivity extends AppCompatActivity
   private static final int PERMISSIONS_REQUEST = 1;
 
   private static final String PERMISSION_CAMERA = Manifest.permission.CAMERA;
+  // Number of stripes the YUV to ARGB conversion is split into. The calling thread converts one
+  // stripe itself, so the conversion pool holds one thread less.
+  private static final int NUM_CONVERSION_STRIPES =
+      Math.min(4, Runtime.getRuntime().availableProcessors());
+  // Camera2 preview images the ImageReader can hand out at once: one held by the pipeline while
+  // it reads the planes in place, and room to acquire the next one meanwhile.
+  private static final int NUM_PREVIEW_IMAGES = 3;
+  // Camera1 callback buffers: one being processed, one holding the newest frame meanwhile, and one
+  // for the camera to fill. Check the counters logged when the camera stops to tune this.
+  private static final int NUM_PREVIEW_BUFFERS = 3;
   protected int previewWidth = 0;
   protected int previewHeight = 0;
   private boolean debug = false;
   private Handler handler;
   private HandlerThread handlerThread;
+  private ExecutorService conversionExecutor;
   private boolean useCamera2API;
+  private String cameraId;
   private boolean isProcessingFrame = false;
+  private final PreviewBufferPool previewBufferPool = new PreviewBufferPool(NUM_PREVIEW_BUFFERS);
+  // Handler of the thread android.hardware.Camera delivers preview frames on.
+  private Handler previewHandler;
   private byte[][] yuvBytes = new byte[3][];
+  // The direct plane buffers of the current Camera2 image, valid until it is closed.
+  private final ByteBuffer[] yuvPlanes = new ByteBuffer[3];
+  // Whether yuvBytes holds a copy of the current Camera2 image.
+  private boolean yuvBytesFilled = false;
   private int[] rgbBytes = null;
+  private int[] scaledRgbBytes = null;
   private int yRowStride;
+  private int uvRowStride;
+  private int uvPixelStride;
+  // True when frames arrive as NV21 from android.hardware.Camera, false for Camera2 planes.
+  private boolean isNv21 = false;
   private Runnable postInferenceCallback;
   private Runnable imageConverter;
 
@@ -169,50 +203,186 @@ public abstract class CameraActivity extends AppCompatActivity
     minusImageView.setOnClickListener(this);
   }
 
+  /**
+   * Converts the current frame to full resolution ARGB. The buffer is only allocated and filled
+   * when a consumer asks for it; detection itself works on the planes directly.
+   */
   protected int[] getRgbBytes() {
+    if (rgbBytes == null) {
+      rgbBytes = new int[previewWidth * previewHeight];
+    }
     imageConverter.run();
     return rgbBytes;
   }
 
+  /**
+   * Converts the current frame to ARGB at the given size, decoding only the pixels needed for it.
+   * The returned buffer is reused by the next call. Only valid until readyForNextImage() is called.
+   */
+  protected int[] getScaledRgbBytes(
+      final int width, final int height, final ImageUtils.ScaleFilter filter) {
+    if (scaledRgbBytes == null || scaledRgbBytes.length != width * height) {
+      scaledRgbBytes = new int[width * height];
+    }
+    if (isNv21) {
+      ImageUtils.convertYUV420SPToARGB8888(
+          yuvBytes[0], previewWidth, previewHeight, scaledRgbBytes, width, height, filter);
+    } else {
+      ImageUtils.convertYUV420ToARGB8888(
+          yuvPlanes[0],
+          yuvPlanes[1],
+          yuvPlanes[2],
+          previewWidth,
+          previewHeight,
+          yRowStride,
+          uvRowStride,
+          uvPixelStride,
+          scaledRgbBytes,
+          width,
+          height,
+          filter);
+    }
+    return scaledRgbBytes;
+  }
+
   protected int getLuminanceStride() {
     return yRowStride;
   }
 
   protected byte[] getLuminance() {
-    return yuvBytes[0];
+    return getYuvBytes()[0];
+  }
+
+  /**
+   * Returns the Y, U and V data of the current frame. For NV21 frames all three entries refer to
+   * the same array. Camera2 planes are only copied into arrays when this is called; prefer
+   * getYuvPlanes() for those. Only valid until readyForNextImage() is called.
+   */
+  protected byte[][] getYuvBytes() {
+    if (!isNv21 && !yuvBytesFilled) {
+      fillBytes(yuvPlanes, yuvBytes);
+      yuvBytesFilled = true;
+    }
+    return yuvBytes;
+  }
+
+  /**
+   * Returns the direct Y, U and V plane buffers of the current Camera2 image, to be read in place
+   * with absolute gets, or null for NV21 frames from android.hardware.Camera. Only valid until
+   * readyForNextImage() is called, which closes the image.
+   */
+  protected ByteBuffer[] getYuvPlanes() {
+    return isNv21 ? null : yuvPlanes;
+  }
+
+  /**
+   * Creates a sampler that reads the current frame layout straight into a model input of the
+   * given size. Must be called after the first frame has arrived, once the strides are known.
+   *
+   * @param dstToFrame Transform from model input coordinates back into the frame.
+   */
+  protected YuvInputSampler createYuvInputSampler(
+      final int dstWidth, final int dstHeight, final Matrix dstToFrame) {
+    final float[] values = new float[9];
+    dstToFrame.getValues(values);
+    if (isNv21) {
+      return YuvInputSampler.forNv21(previewWidth, previewHeight, dstWidth, dstHeight, values);
+    }
+    return new YuvInputSampler(
+        previewWidth,
+        previewHeight,
+        yRowStride,
+        uvRowStride,
+        uvPixelStride,
+        0,
+        0,
+        dstWidth,
+        dstHeight,
+        values);
+  }
+
+  /**
+   * Creates a recording of the camera frames in their current layout, to be replayed off the
+   * device. Must be called after the first frame has arrived, once the strides are known.
+   *
+   * @param rotation Rotation that brings the frames upright.
+   */
+  protected YuvSequenceWriter createSequenceWriter(final File file, final int rotation)
+      throws IOException {
+    if (isNv21) {
+      return YuvSequenceWriter.forNv21(file, previewWidth, previewHeight, rotation);
+    }
+    return new YuvSequenceWriter(
+        file,
+        previewWidth,
+        previewHeight,
+        yRowStride,
+        uvRowStride,
+        uvPixelStride,
+        rotation,
+        yuvPlanes[0].remaining(),
+        yuvPlanes[1].remaining(),
+        yuvPlanes[2].remaining());
+  }
+
+  /** Appends the current frame to a recording. Only valid until readyForNextImage() is called. */
+  protected void recordFrame(final YuvSequenceWriter writer, final long timestampNs)
+      throws IOException {
+    if (isNv21) {
+      writer.writeNv21Frame(timestampNs, yuvBytes[0]);
+    } else {
+      writer.writeFrame(timestampNs, yuvPlanes[0], yuvPlanes[1], yuvPlanes[2]);
+    }
   }
 
   /** Callback for android.hardware.Camera API */
   @Override
   public void onPreviewFrame(final byte[] bytes, final Camera camera) {
-    if (isProcessingFrame) {
-      LOGGER.w("Dropping frame!");
+    // While a frame is being processed the pool keeps the newest one for afterwards.
+    final byte[] frame = previewBufferPool.onFrame(bytes);
+    if (frame == null) {
       return;
     }
+    if (previewHandler == null) {
+      previewHandler = new Handler(Looper.myLooper());
+    }
 
     try {
       // Initialize the storage bitmaps once when the resolution is known.
-      if (rgbBytes == null) {
+      if (previewWidth == 0) {
         Camera.Size previewSize = camera.getParameters().getPreviewSize();
         previewHeight = previewSize.height;
         previewWidth = previewSize.width;
-        rgbBytes = new int[previewWidth * previewHeight];
         onPreviewSizeChosen(new Size(previewSize.width, previewSize.height), 90);
       }
     } catch (final Exception e) {
       LOGGER.e(e, "Exception!");
+      previewBufferPool.release(frame);
       return;
     }
 
+    processPreviewFrame(frame, camera);
+  }
+
+  private void processPreviewFrame(final byte[] bytes, final Camera camera) {
     isProcessingFrame = true;
+    isNv21 = true;
     yuvBytes[0] = bytes;
+    yuvBytes[1] = bytes;
+    yuvBytes[2] = bytes;
     yRowStride = previewWidth;
 
     imageConverter =
         new Runnable() {
           @Override
           public void run() {
-            ImageUtils.convertYUV420SPToARGB8888(bytes, previewWidth, previewHeight, rgbBytes);
+            final ExecutorService executor = conversionExecutor;
+            if (executor != null) {
+              ImageUtils.convertYUV420SPToARGB8888(
+                  bytes, previewWidth, previewHeight, rgbBytes, executor, NUM_CONVERSION_STRIPES);
+            } else {
+              ImageUtils.convertYUV420SPToARGB8888(bytes, previewWidth, previewHeight, rgbBytes);
+            }
           }
         };
 
@@ -220,8 +390,18 @@ public abstract class CameraActivity extends AppCompatActivity
         new Runnable() {
           @Override
           public void run() {
-            camera.addCallbackBuffer(bytes);
             isProcessingFrame = false;
+            final byte[] next = previewBufferPool.release(bytes);
+            if (next != null) {
+              // Posted rather than run here, as this may be called from within processImage().
+              previewHandler.post(
+                  new Runnable() {
+                    @Override
+                    public void run() {
+                      processPreviewFrame(next, camera);
+                    }
+                  });
+            }
           }
         };
     processImage();
@@ -234,9 +414,6 @@ public abstract class CameraActivity extends AppCompatActivity
     if (previewWidth == 0 || previewHeight == 0) {
       return;
     }
-    if (rgbBytes == null) {
-      rgbBytes = new int[previewWidth * previewHeight];
-    }
     try {
       final Image image = reader.acquireLatestImage();
 
@@ -250,26 +427,48 @@ public abstract class CameraActivity extends AppCompatActivity
       }
       isProcessingFrame = true;
       Trace.beginSection("imageAvailable");
+      // The planes are read in place while the image is held; it is closed again by
+      // readyForNextImage().
       final Plane[] planes = image.getPlanes();
-      fillBytes(planes, yuvBytes);
+      for (int i = 0; i < planes.length; ++i) {
+        yuvPlanes[i] = planes[i].getBuffer();
+      }
+      isNv21 = false;
+      yuvBytesFilled = false;
       yRowStride = planes[0].getRowStride();
-      final int uvRowStride = planes[1].getRowStride();
-      final int uvPixelStride = planes[1].getPixelStride();
+      uvRowStride = planes[1].getRowStride();
+      uvPixelStride = planes[1].getPixelStride();
 
       imageConverter =
           new Runnable() {
             @Override
             public void run() {
-              ImageUtils.convertYUV420ToARGB8888(
-                  yuvBytes[0],
-                  yuvBytes[1],
-                  yuvBytes[2],
-                  previewWidth,
-                  previewHeight,
-                  yRowStride,
-                  uvRowStride,
-                  uvPixelStride,
-                  rgbBytes);
+              final ExecutorService executor = conversionExecutor;
+              if (executor != null) {
+                ImageUtils.convertYUV420ToARGB8888(
+                    yuvPlanes[0],
+                    yuvPlanes[1],
+                    yuvPlanes[2],
+                    previewWidth,
+                    previewHeight,
+                    yRowStride,
+                    uvRowStride,
+                    uvPixelStride,
+                    rgbBytes,
+                    executor,
+                    NUM_CONVERSION_STRIPES);
+              } else {
+                ImageUtils.convertYUV420ToARGB8888(
+                    yuvPlanes[0],
+                    yuvPlanes[1],
+                    yuvPlanes[2],
+                    previewWidth,
+                    previewHeight,
+                    yRowStride,
+                    uvRowStride,
+                    uvPixelStride,
+                    rgbBytes);
+              }
             }
           };
 
@@ -278,6 +477,9 @@ public abstract class CameraActivity extends AppCompatActivity
             @Override
             public void run() {
               image.close();
+              for (int i = 0; i < yuvPlanes.length; ++i) {
+                yuvPlanes[i] = null;
+              }
               isProcessingFrame = false;
             }
           };
@@ -305,11 +507,17 @@ public abstract class CameraActivity extends AppCompatActivity
     handlerThread = new HandlerThread("inference");
     handlerThread.start();
     handler = new Handler(handlerThread.getLooper());
+    LogRingBuffer.getInstance().start();
+
+    if (NUM_CONVERSION_STRIPES > 1) {
+      conversionExecutor = Executors.newFixedThreadPool(NUM_CONVERSION_STRIPES - 1);
+    }
   }
 
   @Override
   public synchronized void onPause() {
     LOGGER.d("onPause " + this);
+    LogRingBuffer.getInstance().stop();
 
     handlerThread.quitSafely();
     try {
@@ -320,6 +528,11 @@ public abstract class CameraActivity extends AppCompatActivity
       LOGGER.e(e, "Exception!");
     }
 
+    if (conversionExecutor != null) {
+      conversionExecutor.shutdown();
+      conversionExecutor = null;
+    }
+
     super.onPause();
   }
 
@@ -424,7 +637,7 @@ public abstract class CameraActivity extends AppCompatActivity
   }
 
   protected void setFragment() {
-    String cameraId = chooseCamera();
+    cameraId = chooseCamera();
 
     Fragment fragment;
     if (useCamera2API) {
@@ -443,20 +656,29 @@ public abstract class CameraActivity extends AppCompatActivity
               getDesiredPreviewFrameSize());
 
       camera2Fragment.setCamera(cameraId);
+      camera2Fragment.setMaxImages(NUM_PREVIEW_IMAGES);
       fragment = camera2Fragment;
     } else {
       fragment =
-          new LegacyCameraConnectionFragment(this, getLayoutId(), getDesiredPreviewFrameSize());
+          new LegacyCameraConnectionFragment(
+              this, previewBufferPool, getLayoutId(), getDesiredPreviewFrameSize());
     }
 
     getFragmentManager().beginTransaction().replace(R.id.container, fragment).commit();
   }
 
-  protected void fillBytes(final Plane[] planes, final byte[][] yuvBytes) {
+  /** Returns the ID of the camera the frames come from, or null if none was found. */
+  protected String getCameraId() {
+    return cameraId;
+  }
+
+  protected void fillBytes(final ByteBuffer[] planes, final byte[][] yuvBytes) {
     // Because of the variable row stride it's not possible to know in
     // advance the actual necessary dimensions of the yuv planes.
     for (int i = 0; i < planes.length; ++i) {
-      final ByteBuffer buffer = planes[i].getBuffer();
+      // Copy through a duplicate so the plane can still be read in place afterwards.
+      final ByteBuffer buffer = planes[i].duplicate();
+      buffer.rewind();
       if (yuvBytes[i] == null) {
         LOGGER.d("Initializing buffer %d at size %d", i, buffer.capacity());
         yuvBytes[i] = new byte[buffer.capacity()];
@@ -528,6 +750,16 @@ public abstract class CameraActivity extends AppCompatActivity
     inferenceTimeTextView.setText(inferenceTime);
   }
 
+  /** Shows an interpreter configuration that was not set through the controls. */
+  protected void showInterpreterConfig(final int numThreads, final boolean useNNAPI) {
+    threadsTextView.setText(String.valueOf(numThreads));
+    // Without the listener, so that showing the setting does not set it again.
+    apiSwitchCompat.setOnCheckedChangeListener(null);
+    apiSwitchCompat.setChecked(useNNAPI);
+    apiSwitchCompat.setText(useNNAPI ? "NNAPI" : "TFLITE");
+    apiSwitchCompat.setOnCheckedChangeListener(this);
+  }
+
   protected abstract void processImage();
 
   protected abstract void onPreviewSizeChosen(final Size size, final int rotation);
@@ -77,6 +77,9 @@ public class CameraConnectionFragment extends Fragment {
 
   private static final String FRAGMENT_DIALOG = "dialog";
 
+  /** Preview images the reader hands out at once unless {@link #setMaxImages} says otherwise. */
+  private static final int DEFAULT_MAX_IMAGES = 2;
+
   static {
     ORIENTATIONS.append(Surface.ROTATION_0, 90);
     ORIENTATIONS.append(Surface.ROTATION_90, 0);
@@ -126,6 +129,8 @@ public class CameraConnectionFragment extends Fragment {
   private Handler backgroundHandler;
   /** An {@link ImageReader} that handles preview frame capture. */
   private ImageReader previewReader;
+  /** The number of preview images {@link #previewReader} can hand out at once. */
+  private int maxImages = DEFAULT_MAX_IMAGES;
   /** {@link CaptureRequest.Builder} for the camera preview */
   private CaptureRequest.Builder previewRequestBuilder;
   /** {@link CaptureRequest} generated by {@link #previewRequestBuilder} */
@@ -316,6 +321,18 @@ public class CameraConnectionFragment extends Fragment {
     this.cameraId = cameraId;
   }
 
+  /**
+   * Sets how many preview images may be acquired at the same time. acquireLatestImage() needs one
+   * more than the listener holds on to, so a consumer that keeps an image open while it is being
+   * processed should ask for at least three. Takes effect when the preview is next started.
+   */
+  public void setMaxImages(final int maxImages) {
+    if (maxImages < 2) {
+      throw new IllegalArgumentException("maxImages must be at least 2, got " + maxImages);
+    }
+    this.maxImages = maxImages;
+  }
+
   /** Sets up member variables related to camera. */
   private void setUpCameraOutputs() {
     final Activity activity = getActivity();
@@ -440,7 +457,7 @@ public class CameraConnectionFragment extends Fragment {
       // Create the reader for the preview frames.
       previewReader =
           ImageReader.newInstance(
-              previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, 2);
+              previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, maxImages);
 
       previewReader.setOnImageAvailableListener(imageListener, backgroundHandler);
       previewRequestBuilder.addTarget(previewReader.getSurface());
@@ -1,462 +1,920 @@
-/*
- * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *       http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package org.tensorflow.lite.examples.detection;
-
-import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Matrix;
-import android.graphics.Paint;
-import android.graphics.Paint.Style;
-import android.graphics.RectF;
-import android.graphics.Typeface;
-import android.media.ImageReader.OnImageAvailableListener;
-import android.os.SystemClock;
-import android.util.Log;
-import android.util.Size;
-import android.util.TypedValue;
-import android.widget.Toast;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Locale;
-
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.tensorflow.lite.examples.detection.customview.OverlayView;
-import org.tensorflow.lite.examples.detection.customview.OverlayView.DrawCallback;
-import org.tensorflow.lite.examples.detection.env.BorderedText;
-import org.tensorflow.lite.examples.detection.env.ImageUtils;
-import org.tensorflow.lite.examples.detection.env.Logger;
-import org.tensorflow.lite.examples.detection.tflite.Classifier;
-import org.tensorflow.lite.examples.detection.tflite.TFLiteObjectDetectionAPIModel;
-import org.tensorflow.lite.examples.detection.tracking.MultiBoxTracker;
-import android.speech.tts.TextToSpeech;
-
-
-/**
- * An activity that uses a TensorFlowMultiBoxDetector and ObjectTracker to detect and then track
- * objects.
- */
-public class DetectorActivity extends CameraActivity implements OnImageAvailableListener {
-  private TextToSpeech textToSpeech;
-  ArrayList<String> labels = new ArrayList<String>();
-  ArrayList<Integer> label_index = new ArrayList<Integer>();
-//  ArrayList<String> prev_frame  = new ArrayList<String>();
-  LinkedHashMap<String, Integer> tmp_object_map = new LinkedHashMap<String, Integer>();
-  ArrayList<String> labels_array_to_speak = new ArrayList<>();
-//  ArrayList<String> multiple_labels = new ArrayList<>();
-  ArrayList<String> non_duplicate_label = new ArrayList<>() ;
-  int last_count;
-  LinkedHashMap<String, Integer> label_count_map = new LinkedHashMap<>();
-  int label_count;
-//  int counter = 0;
-  String change = "false";
-  String key;
-
-  private static final Logger LOGGER = new Logger();
-
-  // Configuration values for the prepackaged SSD model.
-  private static final int TF_OD_API_INPUT_SIZE = 300;
-  private static final boolean TF_OD_API_IS_QUANTIZED = true;
-  private static final String TF_OD_API_MODEL_FILE = "detect.tflite";
-  private static final String TF_OD_API_LABELS_FILE = "file:///android_asset/labelmap.txt";
-  private static final DetectorMode MODE = DetectorMode.TF_OD_API;
-  // Minimum detection confidence to track a detection.
-  private static final float MINIMUM_CONFIDENCE_TF_OD_API = 0.5f;
-  private static final boolean MAINTAIN_ASPECT = false;
-  private static final Size DESIRED_PREVIEW_SIZE = new Size(640, 480);
-  private static final boolean SAVE_PREVIEW_BITMAP = false;
-  private static final float TEXT_SIZE_DIP = 10;
-  OverlayView trackingOverlay;
-  private Integer sensorOrientation;
-
-  private Classifier detector;
-
-  private long lastProcessingTimeMs;
-  private Bitmap rgbFrameBitmap = null;
-  private Bitmap croppedBitmap = null;
-  private Bitmap cropCopyBitmap = null;
-
-  private boolean computingDetection = false;
-
-  private long timestamp = 0;
-
-  private Matrix frameToCropTransform;
-  private Matrix cropToFrameTransform;
-
-  private MultiBoxTracker tracker;
-
-  private BorderedText borderedText;
-
-  @Override
-  public void onPreviewSizeChosen(final Size size, final int rotation) {
-    final float textSizePx =
-        TypedValue.applyDimension(
-            TypedValue.COMPLEX_UNIT_DIP, TEXT_SIZE_DIP, getResources().getDisplayMetrics());
-    borderedText = new BorderedText(textSizePx);
-    borderedText.setTypeface(Typeface.MONOSPACE);
-
-    tracker = new MultiBoxTracker(this);
-
-    int cropSize = TF_OD_API_INPUT_SIZE;
-
-    try {
-      detector =
-          TFLiteObjectDetectionAPIModel.create(
-              getAssets(),
-              TF_OD_API_MODEL_FILE,
-              TF_OD_API_LABELS_FILE,
-              TF_OD_API_INPUT_SIZE,
-              TF_OD_API_IS_QUANTIZED);
-      cropSize = TF_OD_API_INPUT_SIZE;
-    } catch (final IOException e) {
-      e.printStackTrace();
-      LOGGER.e(e, "Exception initializing classifier!");
-      Toast toast =
-          Toast.makeText(
-              getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
-      toast.show();
-      finish();
-    }
-
-    previewWidth = size.getWidth();
-    previewHeight = size.getHeight();
-
-    sensorOrientation = rotation - getScreenOrientation();
-    LOGGER.i("Camera orientation relative to screen canvas: %d", sensorOrientation);
-
-    LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
-    rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
-    croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
-
-    frameToCropTransform =
-        ImageUtils.getTransformationMatrix(
-            previewWidth, previewHeight,
-            cropSize, cropSize,
-            sensorOrientation, MAINTAIN_ASPECT);
-
-    cropToFrameTransform = new Matrix();
-    frameToCropTransform.invert(cropToFrameTransform);
-
-    trackingOverlay = (OverlayView) findViewById(R.id.tracking_overlay);
-    trackingOverlay.addCallback(
-        new DrawCallback() {
-          @Override
-          public void drawCallback(final Canvas canvas) {
-            tracker.draw(canvas);
-            if (isDebug()) {
-              tracker.drawDebug(canvas);
-            }
-          }
-        });
-
-    tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
-  }
-
-  @Override
-  protected void processImage() {
-    ++timestamp;
-    final long currTimestamp = timestamp;
-    trackingOverlay.postInvalidate();
-
-    // No mutex needed as this method is not reentrant.
-    if (computingDetection) {
-      readyForNextImage();
-      return;
-    }
-    computingDetection = true;
-    LOGGER.i("Preparing image " + currTimestamp + " for detection in bg thread.");
-
-    rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
-
-    readyForNextImage();
-
-    final Canvas canvas = new Canvas(croppedBitmap);
-    canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
-    // For examining the actual TF input.
-    if (SAVE_PREVIEW_BITMAP) {
-      ImageUtils.saveBitmap(croppedBitmap);
-    }
-
-    runInBackground(
-        new Runnable() {
-          @Override
-          public void run() {
-            LOGGER.i("Running detection on image " + currTimestamp);
-            final long startTime = SystemClock.uptimeMillis();
-            final List<Classifier.Recognition> results = detector.recognizeImage(croppedBitmap);
-            lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
-
-            cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
-            final Canvas canvas = new Canvas(cropCopyBitmap);
-            final Paint paint = new Paint();
-            paint.setColor(Color.RED);
-            paint.setStyle(Style.STROKE);
-            paint.setStrokeWidth(2.0f);
-
-            float minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-            switch (MODE) {
-              case TF_OD_API:
-                minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-                break;
-            }
-//            System.out.println("Before");
-//            System.out.println(results);
-//            System.out.println("After");
-
-            final List<Classifier.Recognition> mappedRecognitions =
-                new LinkedList<Classifier.Recognition>();
-
-            for (final Classifier.Recognition result : results) {
-              final RectF location = result.getLocation();
-              if (location != null && result.getConfidence() >= minimumConfidence) {
-                canvas.drawRect(location, paint);
-
-                cropToFrameTransform.mapRect(location);
-
-                result.setLocation(location);
-                mappedRecognitions.add(result);
-//                System.out.println(Arrays.asList(result).indexOf(2));
-//                System.out.println(result);
-
-                String[] labelAndBoundingBoxes = String.valueOf(result).split(" ");
-
-                labels.add(labelAndBoundingBoxes[1]);
-
-
-
-              }
-            }
-
-            label_index.clear();
-            System.out.println("testing1");
-            for (String label : labels){
-
-              System.out.println("testing2");
-              if (!(non_duplicate_label.contains(label))){
-                non_duplicate_label.add(label);
-                label_count = search(labels, label);
-
-              }
-              System.out.println("testing3");
-              System.out.println(label_count);
-//              multiple_labels.removeAll(Collections.singleton(new String(label)));
-
-              for (int num = 1; num <= label_count; num++ ){
-
-                if ((label_count_map.containsKey(label+"_"+Integer.toString(num))) && (label_count_map.get(label+"_"+Integer.toString(num)) >= 0)) {
-                  last_count = label_count_map.get(label+"_"+Integer.toString(num));
-                  label_count_map.put(label+"_"+Integer.toString(num), last_count + 1);
-
-                }
-                else{
-                  System.out.println("testing4");
-                  label_count_map.put(label+"_"+Integer.toString(num), 1);
-                  System.out.println(label_count_map);
-                }
-//                else if ((label_count_map.containsKey(label+"_"+Integer.toString(num))) && (label_count_map.get(label+"_"+Integer.toString(num)) == 0)){
-//                  System.out.println("testing4");
-//                  label_count_map.put(label+"_"+Integer.toString(num), 1);
-//                  System.out.println(label_count_map);
-//                }else if (!(label_count_map.containsKey(label+"_"+Integer.toString(num)))){
-//                  label_count_map.put(label+"_"+Integer.toString(num), 1);
-//                  System.out.println(label_count_map);
-//                }
-
-                int pos = new ArrayList<String>(label_count_map.keySet()).indexOf(label+"_"+Integer.toString(num));
-                label_index.add(pos);
-                System.out.println("label_index");
-                System.out.println(label_index);
-              }
-            }
-            labels_array_to_speak = printMap(label_count_map);
-            System.out.println("label_count_map");
-            System.out.println(label_count_map);
-            ArrayList<String> keys = new ArrayList(label_count_map.keySet());
-            if (change.equals("true")){
-              tmp_object_map.clear();
-              System.out.println("label_index");
-              System.out.println(label_index);
-              for (int index : label_index){
-                System.out.println("index");
-                System.out.println(index);
-                System.out.println("keys");
-                System.out.println(keys);
-
-                System.out.println("labels_array_to_speak");
-                System.out.println(labels_array_to_speak);
-
-                key = keys.get(index);
-                Integer value = label_count_map.get(key);
-                tmp_object_map.put(key,value);
-              }
-              label_count_map.clear();
-              label_count_map.putAll(tmp_object_map);
-            }
-            change = "true";
-
-//public static void
-                textToSpeech = new TextToSpeech(getApplicationContext(), new TextToSpeech.OnInitListener() {
-                  @Override
-                  public void onInit(int status) {
-                    if (status == TextToSpeech.SUCCESS) {
-                      int ttsLang = textToSpeech.setLanguage(Locale.US);
-//                      String joined2 = String.join(",", array);
-//                      String labels_speak = "";
-//
-//                      for (String s : labels_array_to_speak)
-//                      {
-//                        labels_speak += s + "a";
-//                      }
-                      for (String labels_speak : labels_array_to_speak){
-                      String data = "There is a "+labels_speak+"in front of you";
-                        tts(data);
-                        if (ttsLang == TextToSpeech.LANG_MISSING_DATA
-                                || ttsLang == TextToSpeech.LANG_NOT_SUPPORTED) {
-                          Log.e("TTS", "The Language is not supported!");
-                        } else {
-                          Log.i("TTS", "Language Supported.");
-                        }
-                        Log.i("TTS", "Initialization success.");
-                      }
-                    } else {
-                      Toast.makeText(getApplicationContext(), "TTS Initialization failed!", Toast.LENGTH_SHORT).show();
-                    }
-                  }
-                });
-
-//            }
-            labels.clear();
-            tracker.trackResults(mappedRecognitions, currTimestamp);
-            trackingOverlay.postInvalidate();
-
-            computingDetection = false;
-
-            runOnUiThread(
-                new Runnable() {
-                  @Override
-                  public void run() {
-                    showFrameInfo(previewWidth + "x" + previewHeight);
-                    showCropInfo(cropCopyBitmap.getWidth() + "x" + cropCopyBitmap.getHeight());
-                    showInference(lastProcessingTimeMs + "ms");
-                  }
-                });
-          }
-        });
-  }
-
-  public void tts(String label){
-
-    //                String data = editText.getText().toString();
-    //                Log.i("TTS", "button clicked: " + data);
-    int speechStatus = textToSpeech.speak(label, TextToSpeech.QUEUE_FLUSH, null);
-
-    if (speechStatus == TextToSpeech.ERROR) {
-      Log.e("TTS", "Error in converting Text to Speech!");
-    }
-  }
-
-
-  public ArrayList<String> printMap(LinkedHashMap mp) {
-    ArrayList<String> labels_to_speak = new ArrayList<>();
-    ArrayList<String> keys_array = new ArrayList<>(mp.keySet());
-    String speak_label;
-
-    for (int i = 0; i < keys_array.size(); i++) {
-      int iend = keys_array.get(i).indexOf("_");
-
-      if ((int) mp.get(keys_array.get(i)) >= 10 ){
-
-        if (iend != -1) {
-          speak_label= (keys_array.get(i)).substring(0 , iend);
-        }else{
-          speak_label= keys_array.get(i);
-        }
-
-        labels_to_speak.add(speak_label);
-        System.out.println("inside_print_map");
-        System.out.println(mp.get(keys_array.get(i)));
-        label_count_map.put(keys_array.get(i), 0);
-//        label_count_map.remove(keys_array.get(i));
-      }
-    }
-    return labels_to_speak;
-  }
-
-  static int search(ArrayList<String> labels, String label)
-  {
-    int label_counter = 0;
-    for (int j = 0; j < labels.size(); j++)
-      if (label.equals(labels.get(j)))
-        label_counter++;
-
-    return label_counter;
-  }
-//  public static void writeJson(String name) throws Exception {
-//    JSONObject sampleObject = new JSONObject();
-//    int count = 0;
-//    if (sampleObject.has(name)){
-//      count = (int)sampleObject.get(name) + 1;
-//      sampleObject.put(name, count);
-//    }else{
-//      count = 0;
-//      sampleObject.put(name, count);
-//    }
-
-//    sampleObject.put("age", 35);
-
-//    JSONArray messages = new JSONArray();
-//    messages.add("Hey!");
-//    messages.add("What's up?!");
-
-//    sampleObject.put("messages", messages);
-//    Files.write(Paths.get(filename), sampleObject.toJSONString().getBytes());
-//  }
-
-  @Override
-  protected int getLayoutId() {
-    return R.layout.camera_connection_fragment_tracking;
-  }
-
-  @Override
-  protected Size getDesiredPreviewFrameSize() {
-    return DESIRED_PREVIEW_SIZE;
-  }
-
-  // Which detection model to use: by default uses Tensorflow Object Detection API frozen
-  // checkpoints.
-  private enum DetectorMode {
-    TF_OD_API;
-  }
-
-  @Override
-  protected void setUseNNAPI(final boolean isChecked) {
-    runInBackground(() -> detector.setUseNNAPI(isChecked));
-  }
-
-  @Override
-  protected void setNumThreads(final int numThreads) {
-    runInBackground(() -> detector.setNumThreads(numThreads));
-  }
-}
+/*
+ * Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.lite.examples.detection;
+
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.media.ImageReader.OnImageAvailableListener;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+import android.util.TypedValue;
+import android.widget.Toast;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.tensorflow.lite.examples.detection.customview.OverlayView;
+import org.tensorflow.lite.examples.detection.customview.OverlayView.DrawCallback;
+import org.tensorflow.lite.examples.detection.env.BorderedText;
+import org.tensorflow.lite.examples.detection.env.ImageUtils;
+import org.tensorflow.lite.examples.detection.env.LatencyHistogram;
+import org.tensorflow.lite.examples.detection.env.LogRingBuffer;
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.YuvInputSampler;
+import org.tensorflow.lite.examples.detection.replay.YuvSequenceWriter;
+import org.tensorflow.lite.examples.detection.speech.SpeechService;
+import org.tensorflow.lite.examples.detection.speech.UtteranceQueue.Priority;
+import org.tensorflow.lite.examples.detection.tflite.Classifier;
+import org.tensorflow.lite.examples.detection.tflite.DetectionBatch;
+import org.tensorflow.lite.examples.detection.tflite.DetectionPipeline;
+import org.tensorflow.lite.examples.detection.tflite.DetectorPool;
+import org.tensorflow.lite.examples.detection.tflite.InterpreterTuner;
+import org.tensorflow.lite.examples.detection.tflite.RoiScheduler;
+import org.tensorflow.lite.examples.detection.tflite.TileLayout;
+import org.tensorflow.lite.examples.detection.tflite.TileMerger;
+import org.tensorflow.lite.examples.detection.tflite.TilePlanner;
+import org.tensorflow.lite.examples.detection.tracking.MultiBoxTracker;
+import org.tensorflow.lite.examples.detection.tracking.PresenceVoter;
+import org.tensorflow.lite.examples.detection.tracking.SceneChangeGate;
+
+
+/**
+ * An activity that uses a TensorFlowMultiBoxDetector and ObjectTracker to detect and then track
+ * objects.
+ */
+public class DetectorActivity extends CameraActivity implements OnImageAvailableListener {
+  private static final Logger LOGGER = new Logger();
+  private static final LogRingBuffer FRAME_LOG = LogRingBuffer.getInstance();
+  private static final int PREPARING_IMAGE =
+      FRAME_LOG.register(Log.INFO, "Preparing image %d for detection in bg thread.");
+  private static final int RUNNING_DETECTION =
+      FRAME_LOG.register(Log.INFO, "Running detection on image %d");
+
+  // Configuration values for the prepackaged SSD model. The spec names the model and label files
+  // and describes the input and outputs; another model is run by pointing this at its spec.
+  private static final String TF_OD_API_MODEL_SPEC = "detect.properties";
+  // Results are consumed before the next frame is submitted, so the detector can reuse them.
+  private static final boolean TF_OD_API_RECYCLE_RESULTS = true;
+  private static final DetectorMode MODE = DetectorMode.TF_OD_API;
+  // Minimum detection confidence to track a detection.
+  private static final float MINIMUM_CONFIDENCE_TF_OD_API = 0.5f;
+  private static final boolean MAINTAIN_ASPECT = false;
+  private static final Size DESIRED_PREVIEW_SIZE = new Size(640, 480);
+  private static final boolean SAVE_PREVIEW_BITMAP = false;
+  // Sample the camera planes straight into the model input instead of converting the whole frame
+  // and cropping it through a Bitmap. The Bitmap path is kept for examining the actual TF input.
+  private static final boolean SAMPLE_YUV_INPUT = !SAVE_PREVIEW_BITMAP;
+  // Input buffers for the detection pipeline: one being recognized, one being filled.
+  private static final int NUM_PIPELINE_BUFFERS = 2;
+  // Interpreter threads in all, split across the detectors until the tuner picks a count.
+  private static final int INTERPRETER_THREAD_BUDGET = 4;
+  // Also detect on an external camera such as a USB (UVC) camera if one is plugged in, and
+  // announce what it sees like what the main camera sees. The two streams share a pool of two
+  // detectors, each frame going to whichever one is free, and split the interpreter threads
+  // between them. Only used with SAMPLE_YUV_INPUT.
+  private static final boolean EXTERNAL_CAMERA_STREAM = false;
+  // Decode YUV through lookup tables rather than fixed-point arithmetic. The output is the same;
+  // see YuvToRgbBenchmark for which one is faster on a given device.
+  private static final boolean USE_YUV_LOOKUP_TABLES = false;
+  // Filter used when the Bitmap path converts the frame straight down to the crop scale.
+  private static final ImageUtils.ScaleFilter FRAME_SCALE_FILTER = ImageUtils.ScaleFilter.BOX;
+  // Move the tracked boxes with every camera frame, estimating their motion from the luminance
+  // plane, instead of leaving them where the last detection put them.
+  private static final boolean PROPAGATE_BOXES = true;
+  // Record latency percentiles of every stage and of whole frames, and write them to STATS_FILE
+  // in the app's external files directory whenever the activity is paused, replacing the last
+  // session's.
+  private static final boolean LOG_STATS = false;
+  private static final String STATS_FILE = "latency.csv";
+  // Held while writing STATS_FILE, so that quick pauses do not write it at the same time.
+  private static final Object STATS_FILE_LOCK = new Object();
+  // Frames that can be in flight at once, for remembering when each of them arrived.
+  private static final int FRAME_TIME_SLOTS = 16;
+  // Whether to record the camera frames for the replay module. Takes about 14 MB/s at 640x480.
+  private static final boolean RECORD_SEQUENCE = false;
+  // Run the detector on every n-th frame only. Raising this saves battery; with PROPAGATE_BOXES
+  // the boxes keep following their objects in between.
+  private static final int DETECTION_INTERVAL_FRAMES = 1;
+  // Whether to skip detection on frames that barely differ from the last detected one. While the
+  // scene is static the detector still runs at least every SCENE_GATE_MAX_HEARTBEAT_FRAMES frames.
+  private static final boolean GATE_ON_SCENE_CHANGE = false;
+  private static final int SCENE_GATE_MAX_HEARTBEAT_FRAMES = 8;
+  // Pick the interpreter thread count and delegate by timing the first detections, and tune again
+  // when the latency drifts, e.g. as the device throttles. The pick is remembered for the next
+  // start. Setting either by hand stops the tuning.
+  private static final boolean AUTOTUNE_INTERPRETER = true;
+  private static final float INTERPRETER_TARGET_LATENCY_MS = 50;
+  private static final String TUNER_PREFERENCES = "interpreter_tuner";
+  // Also detect in tiles of the frame at the model's own resolution, so that small or distant
+  // objects such as poles and signs are not scaled away with the rest of the frame. The planner
+  // adds a center tile, then a grid, as far as TILE_FRAME_BUDGET_MS allows. Only used with
+  // SAMPLE_YUV_INPUT, and the tiles assume a crop that covers the whole frame.
+  private static final boolean TILED_INFERENCE = false;
+  private static final float TILE_FRAME_BUDGET_MS = 150;
+  private static final float TILE_OVERLAP = 0.25f;
+  // Detections kept per tile and per frame, and the suppression across tiles, as for a single run.
+  private static final int TILE_MAX_DETECTIONS = 10;
+  private static final float TILE_CLASS_IOU_THRESHOLD = 0.6f;
+  private static final float TILE_CROSS_CLASS_IOU_THRESHOLD = 0.8f;
+  // Instead of tiling, detect a region of interest around the walking path, and the full frame in
+  // its place on every ROI_FULL_FRAME_INTERVAL-th frame to sweep the periphery, so that the path
+  // is seen closer up for the same one run per frame. The region is given as fractions of the
+  // upright frame; at 640x480 this one is 288 pixels square, about the model input. Objects off
+  // the path, and those cut off at its edges, are only detected on the full frames; in between
+  // they are tracked and voted on for announcements as they were last seen. Only used with
+  // SAMPLE_YUV_INPUT.
+  private static final boolean REGION_OF_INTEREST = false;
+  private static final float ROI_LEFT = 0.2f;
+  private static final float ROI_TOP = 0.3f;
+  private static final float ROI_RIGHT = 0.8f;
+  private static final float ROI_BOTTOM = 0.75f;
+  private static final int ROI_FULL_FRAME_INTERVAL = 3;
+  // A class is announced once it was detected in ANNOUNCE_ENTER_FRAMES of the last
+  // ANNOUNCE_WINDOW_FRAMES processed frames, and only again after it was detected in no more than
+  // ANNOUNCE_LEAVE_FRAMES of them in between.
+  private static final int ANNOUNCE_WINDOW_FRAMES = 15;
+  private static final int ANNOUNCE_ENTER_FRAMES = 10;
+  private static final int ANNOUNCE_LEAVE_FRAMES = 3;
+  // An announcement that could not be spoken within this time is dropped.
+  private static final long ANNOUNCE_MAX_AGE_MS = 2000;
+  // Labels that are announced ahead of everything else.
+  private static final Set<String> HAZARD_LABELS =
+      new HashSet<String>(Arrays.asList("bicycle", "car", "motorcycle", "bus", "train", "truck"));
+  private static final float TEXT_SIZE_DIP = 10;
+  OverlayView trackingOverlay;
+  private Integer sensorOrientation;
+
+  // Runs the frames of the main stream, and of the external camera if there is one.
+  private DetectorPool detectorPool;
+  // The first detector of the pool, for its configuration and for the Bitmap path.
+  private Classifier detector;
+
+  private long lastProcessingTimeMs;
+  // The frame at crop scale but still in frame orientation, for the Bitmap path.
+  private Bitmap scaledFrameBitmap = null;
+  private Bitmap croppedBitmap = null;
+  // Width and height of the square model input the frame is cropped to.
+  private int cropSize;
+
+  private boolean computingDetection = false;
+
+  private long timestamp = 0;
+  // Arrival time of recent frames, by timestamp modulo FRAME_TIME_SLOTS.
+  private final long[] frameArrivalNs = new long[FRAME_TIME_SLOTS];
+  // Whether the scene change gate let each of them through as a heartbeat, by the same slots. Set
+  // before the frame is submitted and read with its results on the inference thread.
+  private final boolean[] frameHeartbeats = new boolean[FRAME_TIME_SLOTS];
+  // Time from the arrival of a frame until its results have been handled.
+  private final LatencyHistogram frameLatency = new LatencyHistogram("frame");
+
+  private YuvSequenceWriter sequenceWriter;
+
+  private Matrix frameToCropTransform;
+  private Matrix scaledFrameToCropTransform;
+  private Matrix cropToFrameTransform;
+  // The values of cropToFrameTransform, for mapping a DetectionBatch into frame coordinates.
+  private final float[] cropToFrameValues = new float[9];
+  private YuvInputSampler yuvInputSampler;
+  private DetectionPipeline detectionPipeline;
+  private InterpreterTuner interpreterTuner;
+  private TilePlanner tilePlanner;
+  private RoiScheduler roiScheduler;
+  private TileMerger tileMerger;
+  // Samplers for the tiles of each layout, created on first use.
+  private final HashMap<TileLayout, YuvInputSampler[]> tileSamplers =
+      new HashMap<TileLayout, YuvInputSampler[]>();
+  // The part of the frame the last frame was searched in, for the tracker.
+  private final float[] searchedBounds = new float[4];
+  private final RectF searchedRegion = new RectF();
+
+  // Handles the results of the pipeline on the inference thread.
+  private final DetectionPipeline.ResultCallback pipelineCallback =
+      new DetectionPipeline.ResultCallback() {
+        @Override
+        public void onResults(final long timestamp, final DetectionBatch results) {
+          lastProcessingTimeMs = detectionPipeline.getLastRunTimeMs();
+          // The tuner compares single runs, whatever the number of tiles.
+          final long runTimeUs = detectionPipeline.getLastRunTimeUs();
+          interpreterTuner.recordRun(runTimeUs / detectionPipeline.getLastNumRuns());
+          final TileLayout layout = detectionPipeline.getLastLayout();
+          if (tilePlanner != null) {
+            tilePlanner.recordFrame(layout, runTimeUs);
+          }
+          if (roiScheduler != null) {
+            roiScheduler.recordRun(
+                layout,
+                detectionPipeline.getLastTileRunTimeUs(0),
+                detectionPipeline.getLastTileDetections(0));
+            roiScheduler.recordFrame(layout);
+          }
+          handleResults(results, timestamp, layout);
+        }
+      };
+  // Posted to the inference thread for every frame queued in the pipeline.
+  private final Runnable runNextDetection =
+      new Runnable() {
+        @Override
+        public void run() {
+          detectionPipeline.runNext(pipelineCallback);
+        }
+      };
+
+  private MultiBoxTracker tracker;
+  // The detections of the Bitmap path, refilled on every frame.
+  private DetectionBatch bitmapResults;
+
+  private SceneChangeGate sceneChangeGate;
+
+  private PresenceVoter presenceVoter;
+  private ExternalCameraStream externalStream;
+  // Only used on the external stream's inference thread.
+  private PresenceVoter externalPresenceVoter;
+  // Title of each class index, as labelled by the detector.
+  private String[] classTitles;
+  private SpeechService speechService;
+  private final PresenceVoter.Listener announcementListener =
+      new PresenceVoter.Listener() {
+        @Override
+        public void onEnter(final int classId, final int count) {
+          final String title = classTitles[classId];
+          speechService.speak(
+              title,
+              getAnnouncement(title),
+              HAZARD_LABELS.contains(title) ? Priority.HAZARD : Priority.SCENERY,
+              ANNOUNCE_MAX_AGE_MS);
+        }
+
+        @Override
+        public void onLeave(final int classId) {}
+      };
+
+  // Announces what the external camera sees, on its inference thread.
+  private final DetectionPipeline.ResultCallback externalCallback =
+      new DetectionPipeline.ResultCallback() {
+        @Override
+        public void onResults(final long timestamp, final DetectionBatch results) {
+          final int[] classes = results.getClasses();
+          for (int i = 0; i < results.getCount(); ++i) {
+            externalPresenceVoter.add(classes[i]);
+          }
+          externalPresenceVoter.endFrame(announcementListener);
+        }
+      };
+
+  // Posted to the UI thread after every frame to show its sizes and inference time.
+  private final Runnable frameInfoUpdater =
+      new Runnable() {
+        @Override
+        public void run() {
+          showFrameInfo(previewWidth + "x" + previewHeight);
+          showCropInfo(cropSize + "x" + cropSize);
+          showInference(lastProcessingTimeMs + "ms");
+        }
+      };
+
+  private BorderedText borderedText;
+
+  @Override
+  public void onPreviewSizeChosen(final Size size, final int rotation) {
+    final float textSizePx =
+        TypedValue.applyDimension(
+            TypedValue.COMPLEX_UNIT_DIP, TEXT_SIZE_DIP, getResources().getDisplayMetrics());
+    borderedText = new BorderedText(textSizePx);
+    borderedText.setTypeface(Typeface.MONOSPACE);
+
+    tracker = new MultiBoxTracker(this);
+    speechService = SpeechService.getInstance(this);
+    // Hazards are announced without waiting for the engine even the first time they are seen.
+    for (final String label : HAZARD_LABELS) {
+      speechService.prefetch(getAnnouncement(label));
+    }
+
+    ImageUtils.setUseLookupTables(USE_YUV_LOOKUP_TABLES);
+
+    final String externalCameraId =
+        EXTERNAL_CAMERA_STREAM && SAMPLE_YUV_INPUT
+            ? ExternalCameraStream.findCamera(this, getCameraId())
+            : null;
+    try {
+      final int numDetectors = externalCameraId != null ? 2 : 1;
+      detectorPool =
+          DetectorPool.create(
+              getAssets(),
+              TF_OD_API_MODEL_SPEC,
+              TF_OD_API_RECYCLE_RESULTS,
+              numDetectors,
+              Math.max(numDetectors, INTERPRETER_THREAD_BUDGET));
+      detector = detectorPool.getDetector(0);
+      cropSize = detector.getInputSize();
+      float minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
+      switch (MODE) {
+        case TF_OD_API:
+          minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
+          break;
+      }
+      for (int i = 0; i < detectorPool.size(); ++i) {
+        detectorPool.getDetector(i).enableStatLogging(LOG_STATS);
+        detectorPool.getDetector(i).setMinimumConfidence(minimumConfidence);
+      }
+      frameLatency.reset();
+      interpreterTuner = createInterpreterTuner();
+      presenceVoter =
+          new PresenceVoter(
+              detector.getNumClasses(),
+              ANNOUNCE_WINDOW_FRAMES,
+              ANNOUNCE_ENTER_FRAMES,
+              ANNOUNCE_LEAVE_FRAMES);
+      classTitles = new String[detector.getNumClasses()];
+      for (int i = 0; i < classTitles.length; ++i) {
+        classTitles[i] = detector.getClassTitle(i);
+      }
+      tracker.setClassTitles(classTitles);
+      bitmapResults = new DetectionBatch(detector.getMaxResults());
+      // With gating off the gate still measures how much it would have skipped.
+      sceneChangeGate =
+          new SceneChangeGate(
+              size.getWidth(),
+              size.getHeight(),
+              detector.getNumClasses(),
+              GATE_ON_SCENE_CHANGE ? SCENE_GATE_MAX_HEARTBEAT_FRAMES : 1);
+    } catch (final IOException | IllegalArgumentException e) {
+      // A spec that does not fit its model is reported like a missing model.
+      e.printStackTrace();
+      LOGGER.e(e, "Exception initializing classifier!");
+      Toast toast =
+          Toast.makeText(
+              getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
+      toast.show();
+      finish();
+      // The input size comes from the model, so nothing below can be set up without it.
+      return;
+    }
+
+    previewWidth = size.getWidth();
+    previewHeight = size.getHeight();
+
+    sensorOrientation = rotation - getScreenOrientation();
+    LOGGER.i("Camera orientation relative to screen canvas: %d", sensorOrientation);
+
+    LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
+    croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
+
+    frameToCropTransform =
+        ImageUtils.getTransformationMatrix(
+            previewWidth, previewHeight,
+            cropSize, cropSize,
+            sensorOrientation, MAINTAIN_ASPECT);
+
+    // The crop is square, so whatever the rotation the frame's width and height are scaled by
+    // cropSize / previewWidth and cropSize / previewHeight, or by the larger of the two when the
+    // aspect ratio is kept.
+    float scaleX = cropSize / (float) previewWidth;
+    float scaleY = cropSize / (float) previewHeight;
+    if (MAINTAIN_ASPECT) {
+      scaleX = scaleY = Math.max(scaleX, scaleY);
+    }
+    final int scaledFrameWidth = Math.round(previewWidth * scaleX);
+    final int scaledFrameHeight = Math.round(previewHeight * scaleY);
+    scaledFrameBitmap = Bitmap.createBitmap(scaledFrameWidth, scaledFrameHeight, Config.ARGB_8888);
+    scaledFrameToCropTransform =
+        ImageUtils.getTransformationMatrix(
+            scaledFrameWidth, scaledFrameHeight,
+            cropSize, cropSize,
+            sensorOrientation, MAINTAIN_ASPECT);
+
+    cropToFrameTransform = new Matrix();
+    frameToCropTransform.invert(cropToFrameTransform);
+    cropToFrameTransform.getValues(cropToFrameValues);
+
+    int maxTiles = 0;
+    if (REGION_OF_INTEREST && SAMPLE_YUV_INPUT) {
+      roiScheduler =
+          new RoiScheduler(
+              ROI_LEFT,
+              ROI_TOP,
+              ROI_RIGHT,
+              ROI_BOTTOM,
+              cropSize,
+              detector.getInputSize(),
+              ROI_FULL_FRAME_INTERVAL);
+      maxTiles = roiScheduler.getMaxTiles();
+    } else if (TILED_INFERENCE && SAMPLE_YUV_INPUT) {
+      tilePlanner = createTilePlanner(cropSize);
+      maxTiles = tilePlanner.getMaxTiles();
+    }
+    if (maxTiles > 0) {
+      tileMerger =
+          new TileMerger(
+              maxTiles,
+              TILE_MAX_DETECTIONS,
+              TILE_MAX_DETECTIONS,
+              TILE_CLASS_IOU_THRESHOLD,
+              TILE_CROSS_CLASS_IOU_THRESHOLD);
+      detectionPipeline =
+          new DetectionPipeline(detectorPool, NUM_PIPELINE_BUFFERS, tileMerger, maxTiles);
+    } else {
+      detectionPipeline = new DetectionPipeline(detectorPool, NUM_PIPELINE_BUFFERS);
+    }
+
+    trackingOverlay = (OverlayView) findViewById(R.id.tracking_overlay);
+    trackingOverlay.addCallback(
+        new DrawCallback() {
+          @Override
+          public void drawCallback(final Canvas canvas) {
+            tracker.draw(canvas);
+            if (isDebug()) {
+              tracker.drawDebug(canvas);
+            }
+          }
+        });
+
+    tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
+
+    if (externalCameraId != null) {
+      externalPresenceVoter =
+          new PresenceVoter(
+              detector.getNumClasses(),
+              ANNOUNCE_WINDOW_FRAMES,
+              ANNOUNCE_ENTER_FRAMES,
+              ANNOUNCE_LEAVE_FRAMES);
+      externalStream =
+          new ExternalCameraStream(
+              this, externalCameraId, detectorPool, DESIRED_PREVIEW_SIZE, externalCallback);
+      externalStream.start();
+    }
+  }
+
+  @Override
+  protected void processImage() {
+    ++timestamp;
+    final long currTimestamp = timestamp;
+    frameArrivalNs[(int) (currTimestamp % FRAME_TIME_SLOTS)] = System.nanoTime();
+    trackingOverlay.postInvalidate();
+
+    if (RECORD_SEQUENCE) {
+      recordSequenceFrame(frameArrivalNs[(int) (currTimestamp % FRAME_TIME_SLOTS)]);
+    }
+
+    if (PROPAGATE_BOXES) {
+      final ByteBuffer[] yuvPlanes = getYuvPlanes();
+      if (yuvPlanes != null) {
+        tracker.onFrame(yuvPlanes[0], getLuminanceStride());
+      } else {
+        tracker.onFrame(getYuvBytes()[0], getLuminanceStride());
+      }
+    }
+    if (currTimestamp % DETECTION_INTERVAL_FRAMES != 0) {
+      readyForNextImage();
+      return;
+    }
+
+    if (SAMPLE_YUV_INPUT) {
+      if (!shouldDetect(currTimestamp)) {
+        readyForNextImage();
+        return;
+      }
+      frameHeartbeats[(int) (currTimestamp % FRAME_TIME_SLOTS)] = sceneChangeGate.isHeartbeat();
+      if (yuvInputSampler == null) {
+        yuvInputSampler =
+            createYuvInputSampler(
+                detector.getInputSize(), detector.getInputSize(), cropToFrameTransform);
+      }
+      // Preprocess on this thread while the interpreter may still be busy with the previous
+      // frame, then hand the filled input over to the inference thread. Camera2 planes are read
+      // in place, so the image is only released once they have been sampled.
+      final ByteBuffer[] yuvPlanes = getYuvPlanes();
+      final boolean queued;
+      if (tileMerger != null) {
+        final TileLayout layout =
+            roiScheduler != null ? roiScheduler.getLayout() : tilePlanner.getLayout();
+        final YuvInputSampler[] samplers = getTileSamplers(layout);
+        if (yuvPlanes != null) {
+          queued =
+              detectionPipeline.submit(
+                  yuvPlanes[0], yuvPlanes[1], yuvPlanes[2], layout, samplers, currTimestamp);
+        } else {
+          final byte[][] yuvBytes = getYuvBytes();
+          queued =
+              detectionPipeline.submit(
+                  yuvBytes[0], yuvBytes[1], yuvBytes[2], layout, samplers, currTimestamp);
+        }
+      } else if (yuvPlanes != null) {
+        queued =
+            detectionPipeline.submit(
+                yuvPlanes[0], yuvPlanes[1], yuvPlanes[2], yuvInputSampler, currTimestamp);
+      } else {
+        final byte[][] yuvBytes = getYuvBytes();
+        queued =
+            detectionPipeline.submit(
+                yuvBytes[0], yuvBytes[1], yuvBytes[2], yuvInputSampler, currTimestamp);
+      }
+      readyForNextImage();
+      // A dropped frame does not become the gate's reference, as it is never detected.
+      if (queued) {
+        sceneChangeGate.detectionQueued();
+        runInBackground(runNextDetection);
+      }
+      return;
+    }
+
+    // No mutex needed as this method is not reentrant.
+    if (computingDetection) {
+      readyForNextImage();
+      return;
+    }
+    if (!shouldDetect(currTimestamp)) {
+      readyForNextImage();
+      return;
+    }
+    frameHeartbeats[(int) (currTimestamp % FRAME_TIME_SLOTS)] = sceneChangeGate.isHeartbeat();
+    sceneChangeGate.detectionQueued();
+    computingDetection = true;
+    FRAME_LOG.log(PREPARING_IMAGE, currTimestamp);
+
+    // Only decode the frame at the scale of the crop; it is just rotated into place below.
+    final int scaledFrameWidth = scaledFrameBitmap.getWidth();
+    final int scaledFrameHeight = scaledFrameBitmap.getHeight();
+    scaledFrameBitmap.setPixels(
+        getScaledRgbBytes(scaledFrameWidth, scaledFrameHeight, FRAME_SCALE_FILTER),
+        0,
+        scaledFrameWidth,
+        0,
+        0,
+        scaledFrameWidth,
+        scaledFrameHeight);
+
+    readyForNextImage();
+
+    final Canvas canvas = new Canvas(croppedBitmap);
+    canvas.drawBitmap(scaledFrameBitmap, scaledFrameToCropTransform, null);
+    // For examining the actual TF input.
+    if (SAVE_PREVIEW_BITMAP) {
+      ImageUtils.saveBitmap(croppedBitmap);
+    }
+
+    // There is no external stream on this path, so the pool only has this detector, and it is
+    // only ever run on the inference thread.
+    runInBackground(
+        new Runnable() {
+          @Override
+          public void run() {
+            FRAME_LOG.log(RUNNING_DETECTION, currTimestamp);
+            final long startTime = SystemClock.uptimeMillis();
+            detector.recognizeImage(croppedBitmap, bitmapResults);
+            lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
+            interpreterTuner.recordRun(lastProcessingTimeMs * 1000);
+
+            handleResults(bitmapResults, currTimestamp, null);
+            computingDetection = false;
+          }
+        });
+  }
+
+  /**
+   * Creates the tuner for the detectors and starts it on the inference thread, from the
+   * configuration picked last time if there is one. The tuner picks the threads of each detector,
+   * out of the cores left to it by the others. Picks are remembered per device model and
+   * model spec, so that a backup restored onto another phone does not bring them along.
+   */
+  private InterpreterTuner createInterpreterTuner() {
+    final SharedPreferences preferences = getSharedPreferences(TUNER_PREFERENCES, MODE_PRIVATE);
+    final String key = Build.MANUFACTURER + " " + Build.MODEL + " " + TF_OD_API_MODEL_SPEC;
+    final InterpreterTuner tuner =
+        new InterpreterTuner(
+            new InterpreterTuner.Target() {
+              @Override
+              public void setNumThreads(final int numThreads) {
+                detectorPool.setThreadBudget(numThreads * detectorPool.size());
+              }
+
+              @Override
+              public void setUseNNAPI(final boolean useNNAPI) {
+                detectorPool.setUseNNAPI(useNNAPI);
+              }
+            },
+            Math.max(1, Runtime.getRuntime().availableProcessors() / detectorPool.size()),
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.O_MR1,
+            INTERPRETER_TARGET_LATENCY_MS,
+            new InterpreterTuner.Listener() {
+              @Override
+              public void onTuned(final InterpreterTuner.Config config, final long p90Us) {
+                LOGGER.i("Tuned interpreter to %s, p90 %.1fms", config, p90Us / 1000.0);
+                preferences.edit().putString(key, config.toString()).apply();
+                showInterpreterConfig(config);
+              }
+            });
+    if (AUTOTUNE_INTERPRETER) {
+      final InterpreterTuner.Config known =
+          InterpreterTuner.Config.parse(preferences.getString(key, null));
+      LOGGER.i("Starting interpreter tuner from %s", known != null ? known : "a sweep");
+      runInBackground(
+          new Runnable() {
+            @Override
+            public void run() {
+              tuner.start(known);
+              showInterpreterConfig(tuner.getConfig());
+            }
+          });
+    }
+    return tuner;
+  }
+
+  private void showInterpreterConfig(final InterpreterTuner.Config config) {
+    runOnUiThread(
+        new Runnable() {
+          @Override
+          public void run() {
+            showInterpreterConfig(config.getNumThreads(), config.getUseNNAPI());
+          }
+        });
+  }
+
+  /**
+   * Lays out the tiles for the current preview size and creates the planner that picks between
+   * them.
+   */
+  private TilePlanner createTilePlanner(final int cropSize) {
+    final boolean rotated = sensorOrientation % 180 != 0;
+    final int uprightWidth = rotated ? previewHeight : previewWidth;
+    final int uprightHeight = rotated ? previewWidth : previewHeight;
+    final TileLayout.Mode[] modes = TileLayout.TILING_MODES;
+    final TileLayout[] layouts = new TileLayout[modes.length];
+    for (int i = 0; i < modes.length; ++i) {
+      layouts[i] =
+          TileLayout.create(
+              modes[i],
+              uprightWidth,
+              uprightHeight,
+              cropSize,
+              detector.getInputSize(),
+              TILE_OVERLAP);
+      LOGGER.i("Tile layout %s", layouts[i]);
+    }
+    return new TilePlanner(layouts, TILE_FRAME_BUDGET_MS);
+  }
+
+  /** Returns the samplers mapping each tile's model input into the frame. */
+  private YuvInputSampler[] getTileSamplers(final TileLayout layout) {
+    YuvInputSampler[] samplers = tileSamplers.get(layout);
+    if (samplers == null) {
+      samplers = new YuvInputSampler[layout.getNumTiles()];
+      final Matrix tileToFrame = new Matrix();
+      for (int tile = 0; tile < samplers.length; ++tile) {
+        tileToFrame.setValues(layout.getTileToCrop(tile));
+        tileToFrame.postConcat(cropToFrameTransform);
+        samplers[tile] =
+            createYuvInputSampler(detector.getInputSize(), detector.getInputSize(), tileToFrame);
+      }
+      tileSamplers.put(layout, samplers);
+    }
+    return samplers;
+  }
+
+  /**
+   * Asks the scene change gate whether the current frame differs enough to be detected. The gate
+   * has to be told if the frame is then queued.
+   */
+  private boolean shouldDetect(final long currTimestamp) {
+    final long arrivalNs = frameArrivalNs[(int) (currTimestamp % FRAME_TIME_SLOTS)];
+    final ByteBuffer[] yuvPlanes = getYuvPlanes();
+    if (yuvPlanes != null) {
+      return sceneChangeGate.shouldDetect(yuvPlanes[0], getLuminanceStride(), arrivalNs);
+    }
+    return sceneChangeGate.shouldDetect(getYuvBytes()[0], getLuminanceStride(), arrivalNs);
+  }
+
+  /**
+   * Maps, tracks and announces the detections of one frame. Runs on the inference thread.
+   *
+   * @param results The detections in crop coordinates, which are mapped into the frame in place.
+   * @param layout The tiles the frame was detected in, or null if it was detected as a whole.
+   */
+  private void handleResults(
+      final DetectionBatch results,
+      final long currTimestamp,
+      final TileLayout layout) {
+    // The detector already dropped the detections below the minimum confidence.
+    final int[] classes = results.getClasses();
+    for (int i = 0; i < results.getCount(); ++i) {
+      presenceVoter.add(classes[i]);
+      sceneChangeGate.addDetection(classes[i]);
+    }
+    sceneChangeGate.endDetections(frameHeartbeats[(int) (currTimestamp % FRAME_TIME_SLOTS)]);
+    results.transform(cropToFrameValues);
+
+    if (layout != null && !layout.hasFullFrame()) {
+      // Objects tracked outside the region of interest are kept until the next full frame, and
+      // keep voting as they were last seen, so that they are announced as on full frames.
+      layout.getBounds(searchedBounds);
+      searchedRegion.set(
+          searchedBounds[0], searchedBounds[1], searchedBounds[2], searchedBounds[3]);
+      cropToFrameTransform.mapRect(searchedRegion);
+      tracker.trackResults(results, currTimestamp, searchedRegion);
+      tracker.addUnsearchedClasses(presenceVoter);
+    } else {
+      tracker.trackResults(results, currTimestamp);
+    }
+    presenceVoter.endFrame(announcementListener);
+    trackingOverlay.postInvalidate();
+    if (LOG_STATS) {
+      frameLatency.recordSince(frameArrivalNs[(int) (currTimestamp % FRAME_TIME_SLOTS)]);
+    }
+
+    runOnUiThread(frameInfoUpdater);
+  }
+
+//  public static void writeJson(String name) throws Exception {
+//    JSONObject sampleObject = new JSONObject();
+//    int count = 0;
+//    if (sampleObject.has(name)){
+//      count = (int)sampleObject.get(name) + 1;
+//      sampleObject.put(name, count);
+//    }else{
+//      count = 0;
+//      sampleObject.put(name, count);
+//    }
+
+//    sampleObject.put("age", 35);
+
+//    JSONArray messages = new JSONArray();
+//    messages.add("Hey!");
+//    messages.add("What's up?!");
+
+//    sampleObject.put("messages", messages);
+//    Files.write(Paths.get(filename), sampleObject.toJSONString().getBytes());
+//  }
+
+  @Override
+  public synchronized void onPause() {
+    if (externalStream != null) {
+      LOGGER.i(
+          "External camera: %d frames detected, %d dropped",
+          externalStream.getProcessedFrames(),
+          externalStream.getDroppedFrames());
+      externalStream.stop();
+      externalStream = null;
+    }
+    if (LOG_STATS && detector != null) {
+      writeStats();
+    }
+    super.onPause();
+    // No more frames arrive once the camera thread has been stopped.
+    if (sequenceWriter != null) {
+      try {
+        sequenceWriter.close();
+        LOGGER.i("Recorded %d frames", sequenceWriter.getNumFrames());
+      } catch (final IOException e) {
+        LOGGER.e(e, "Could not finish the recording");
+      }
+      sequenceWriter = null;
+    }
+  }
+
+  private void recordSequenceFrame(final long timestampNs) {
+    try {
+      if (sequenceWriter == null) {
+        final File file =
+            new File(getExternalFilesDir(null), "frames_" + System.currentTimeMillis() + ".yuvs");
+        sequenceWriter = createSequenceWriter(file, sensorOrientation);
+        LOGGER.i("Recording frames to %s", file);
+      }
+      recordFrame(sequenceWriter, timestampNs);
+    } catch (final IOException e) {
+      LOGGER.e(e, "Could not record frame");
+    }
+  }
+
+  /** Logs the latency percentiles and exports the histograms for analysis across devices. */
+  private void writeStats() {
+    LOGGER.i(
+        "Latencies:\n%s\n%s\n%s\n%s",
+        detector.getStatString(),
+        frameLatency,
+        sceneChangeGate.getStatString(),
+        interpreterTuner.getStatString());
+    // The first detector fills the inputs of every stream; the others only run some of them.
+    for (int i = 1; i < detectorPool.size(); ++i) {
+      LOGGER.i("Detector %d: %s", i, detectorPool.getDetector(i).getStatString());
+    }
+    if (tilePlanner != null) {
+      LOGGER.i("%s\n%s", tilePlanner.getStatString(), tileMerger.getStatString());
+    }
+    if (roiScheduler != null) {
+      LOGGER.i("%s", roiScheduler.getStatString());
+    }
+    // The histograms are formatted here, before the next session resets them, and written out in
+    // the background to keep the storage off the UI thread.
+    final StringWriter csv = new StringWriter();
+    try (Writer writer = csv) {
+      writer.write(
+          String.format(
+              "# %s %s, SDK %d, %s\n# %s\n# %s\nstage,latency_us,count\n",
+              Build.MANUFACTURER,
+              Build.MODEL,
+              Build.VERSION.SDK_INT,
+              TF_OD_API_MODEL_SPEC,
+              sceneChangeGate.getStatString(),
+              interpreterTuner.getStatString()));
+      // The merger also runs for the region of interest, whose single tile has no tiling to judge.
+      if (tilePlanner != null) {
+        writer.write("# " + tileMerger.getStatString() + "\n");
+      }
+      detector.writeStats(writer);
+      frameLatency.writeCsv(writer);
+      if (tilePlanner != null) {
+        tilePlanner.writeStats(writer);
+      }
+      if (roiScheduler != null) {
+        roiScheduler.writeStats(writer);
+      }
+    } catch (final IOException e) {
+      LOGGER.e(e, "Could not format latencies");
+      return;
+    }
+    new Thread("WriteStats") {
+      @Override
+      public void run() {
+        final File file = new File(getExternalFilesDir(null), STATS_FILE);
+        synchronized (STATS_FILE_LOCK) {
+          try (Writer writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write(csv.toString());
+            LOGGER.i("Wrote latencies to %s", file);
+          } catch (final IOException e) {
+            LOGGER.e(e, "Could not write latencies to %s", file);
+          }
+        }
+      }
+    }.start();
+  }
+
+  private static String getAnnouncement(final String title) {
+    return "There is a " + title + " in front of you";
+  }
+
+  @Override
+  protected int getLayoutId() {
+    return R.layout.camera_connection_fragment_tracking;
+  }
+
+  @Override
+  protected Size getDesiredPreviewFrameSize() {
+    return DESIRED_PREVIEW_SIZE;
+  }
+
+  // Which detection model to use: by default uses Tensorflow Object Detection API frozen
+  // checkpoints.
+  private enum DetectorMode {
+    TF_OD_API;
+  }
+
+  @Override
+  protected void setUseNNAPI(final boolean isChecked) {
+    runInBackground(
+        () -> {
+          interpreterTuner.stop();
+          detectorPool.setUseNNAPI(isChecked);
+        });
+  }
+
+  @Override
+  protected void setNumThreads(final int numThreads) {
+    runInBackground(
+        () -> {
+          interpreterTuner.stop();
+          detectorPool.setThreadBudget(numThreads * detectorPool.size());
+        });
+  }
+}
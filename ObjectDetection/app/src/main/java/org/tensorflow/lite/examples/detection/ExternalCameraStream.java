@@ -0,0 +1,316 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Matrix;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.media.ImageReader.OnImageAvailableListener;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Size;
+import java.util.Collections;
+import org.tensorflow.lite.examples.detection.env.ImageUtils;
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.YuvInputSampler;
+import org.tensorflow.lite.examples.detection.tflite.DetectionPipeline;
+import org.tensorflow.lite.examples.detection.tflite.DetectorPool;
+
+/**
+ * Detects objects on a second camera, such as a USB (UVC) camera, next to the activity's own.
+ *
+ * <p>The stream has no preview. It reads YUV frames from the camera on one thread, samples them
+ * into the model input through its own {@link DetectionPipeline} on a {@link DetectorPool} and
+ * recognizes them on another, so that its frames are run on whichever detector of the pool the
+ * main stream is not using. The results are handed to a callback on the stream's inference
+ * thread, in the coordinates of the model input.
+ */
+public class ExternalCameraStream {
+  private static final Logger LOGGER = new Logger();
+
+  // Input buffers of the stream's pipeline, as for the main stream.
+  private static final int NUM_PIPELINE_BUFFERS = 2;
+  private static final int MAX_IMAGES = 2;
+
+  private final CameraManager manager;
+  private final String cameraId;
+  private final DetectorPool pool;
+  private final Size desiredSize;
+  private final DetectionPipeline.ResultCallback callback;
+  private final DetectionPipeline pipeline;
+
+  private HandlerThread cameraThread;
+  private Handler cameraHandler;
+  private HandlerThread inferenceThread;
+  private Handler inferenceHandler;
+  private CameraDevice cameraDevice;
+  private CameraCaptureSession captureSession;
+  private ImageReader imageReader;
+  private int sensorOrientation;
+  // Created from the strides of the first frame.
+  private YuvInputSampler sampler;
+  private long timestamp;
+
+  private final Runnable runNextDetection =
+      new Runnable() {
+        @Override
+        public void run() {
+          pipeline.runNext(callback);
+        }
+      };
+
+  private final OnImageAvailableListener imageListener =
+      new OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(final ImageReader reader) {
+          final Image image = reader.acquireLatestImage();
+          if (image == null) {
+            return;
+          }
+          final Image.Plane[] planes = image.getPlanes();
+          if (sampler == null) {
+            sampler = createSampler(image.getWidth(), image.getHeight(), planes);
+          }
+          // The planes are read in place, so the image is only closed once they are sampled.
+          final boolean queued =
+              pipeline.submit(
+                  planes[0].getBuffer(),
+                  planes[1].getBuffer(),
+                  planes[2].getBuffer(),
+                  sampler,
+                  ++timestamp);
+          image.close();
+          if (queued) {
+            inferenceHandler.post(runNextDetection);
+          }
+        }
+      };
+
+  private final CameraDevice.StateCallback stateCallback =
+      new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(final CameraDevice cd) {
+          cameraDevice = cd;
+          createCaptureSession();
+        }
+
+        @Override
+        public void onDisconnected(final CameraDevice cd) {
+          LOGGER.i("External camera %s disconnected", cameraId);
+          cd.close();
+          cameraDevice = null;
+        }
+
+        @Override
+        public void onError(final CameraDevice cd, final int error) {
+          LOGGER.e("External camera %s failed with error %d", cameraId, error);
+          cd.close();
+          cameraDevice = null;
+        }
+      };
+
+  /**
+   * Returns the ID of an external camera other than the given one, or null if there is none.
+   * External cameras are only reported from Android M on.
+   */
+  public static String findCamera(final Context context, final String excludedCameraId) {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+      return null;
+    }
+    final CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+    try {
+      for (final String cameraId : manager.getCameraIdList()) {
+        if (cameraId.equals(excludedCameraId)) {
+          continue;
+        }
+        final Integer facing =
+            manager.getCameraCharacteristics(cameraId).get(CameraCharacteristics.LENS_FACING);
+        if (facing != null && facing == CameraCharacteristics.LENS_FACING_EXTERNAL) {
+          return cameraId;
+        }
+      }
+    } catch (final CameraAccessException e) {
+      LOGGER.e(e, "Not allowed to access camera");
+    }
+    return null;
+  }
+
+  /**
+   * @param pool The detectors to share with the other streams.
+   * @param desiredSize The frame size to ask the camera for, as for the main stream.
+   * @param callback Receives the results of every recognized frame.
+   */
+  public ExternalCameraStream(
+      final Context context,
+      final String cameraId,
+      final DetectorPool pool,
+      final Size desiredSize,
+      final DetectionPipeline.ResultCallback callback) {
+    manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+    this.cameraId = cameraId;
+    this.pool = pool;
+    this.desiredSize = desiredSize;
+    this.callback = callback;
+    pipeline = new DetectionPipeline(pool, NUM_PIPELINE_BUFFERS);
+  }
+
+  /** Opens the camera and starts detecting. The camera permission must have been granted. */
+  public void start() {
+    cameraThread = new HandlerThread("ExternalImageListener");
+    cameraThread.start();
+    cameraHandler = new Handler(cameraThread.getLooper());
+    inferenceThread = new HandlerThread("ExternalInference");
+    inferenceThread.start();
+    inferenceHandler = new Handler(inferenceThread.getLooper());
+
+    try {
+      final CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
+      final Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+      sensorOrientation = orientation != null ? orientation : 0;
+      final StreamConfigurationMap map =
+          characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+      final Size size =
+          CameraConnectionFragment.chooseOptimalSize(
+              map.getOutputSizes(ImageFormat.YUV_420_888),
+              desiredSize.getWidth(),
+              desiredSize.getHeight());
+      LOGGER.i("Opening external camera %s at %dx%d", cameraId, size.getWidth(), size.getHeight());
+      imageReader =
+          ImageReader.newInstance(
+              size.getWidth(), size.getHeight(), ImageFormat.YUV_420_888, MAX_IMAGES);
+      imageReader.setOnImageAvailableListener(imageListener, cameraHandler);
+      manager.openCamera(cameraId, stateCallback, cameraHandler);
+    } catch (final CameraAccessException | SecurityException e) {
+      LOGGER.e(e, "Could not open external camera %s", cameraId);
+    }
+  }
+
+  private void createCaptureSession() {
+    try {
+      final CaptureRequest.Builder requestBuilder =
+          cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+      requestBuilder.addTarget(imageReader.getSurface());
+      cameraDevice.createCaptureSession(
+          Collections.singletonList(imageReader.getSurface()),
+          new CameraCaptureSession.StateCallback() {
+            @Override
+            public void onConfigured(final CameraCaptureSession session) {
+              // The camera is already closed
+              if (null == cameraDevice) {
+                return;
+              }
+              captureSession = session;
+              try {
+                captureSession.setRepeatingRequest(requestBuilder.build(), null, cameraHandler);
+              } catch (final CameraAccessException e) {
+                LOGGER.e(e, "Exception!");
+              }
+            }
+
+            @Override
+            public void onConfigureFailed(final CameraCaptureSession session) {
+              LOGGER.e("Could not configure external camera %s", cameraId);
+            }
+          },
+          cameraHandler);
+    } catch (final CameraAccessException e) {
+      LOGGER.e(e, "Exception!");
+    }
+  }
+
+  /** Samples the whole frame, upright, into the model input. */
+  private YuvInputSampler createSampler(
+      final int width, final int height, final Image.Plane[] planes) {
+    final int inputSize = pool.getDetector(0).getInputSize();
+    final Matrix frameToInput =
+        ImageUtils.getTransformationMatrix(
+            width, height, inputSize, inputSize, sensorOrientation, false);
+    final Matrix inputToFrame = new Matrix();
+    frameToInput.invert(inputToFrame);
+    final float[] values = new float[9];
+    inputToFrame.getValues(values);
+    return new YuvInputSampler(
+        width,
+        height,
+        planes[0].getRowStride(),
+        planes[1].getRowStride(),
+        planes[1].getPixelStride(),
+        0,
+        0,
+        inputSize,
+        inputSize,
+        values);
+  }
+
+  /**
+   * Closes the camera and stops both threads, waiting for the frame being recognized. No results
+   * are delivered once this returns.
+   */
+  public void stop() {
+    // Closing on the camera thread keeps it from racing the session callbacks.
+    cameraHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (null != captureSession) {
+              captureSession.close();
+              captureSession = null;
+            }
+            if (null != cameraDevice) {
+              cameraDevice.close();
+              cameraDevice = null;
+            }
+            if (null != imageReader) {
+              imageReader.close();
+              imageReader = null;
+            }
+          }
+        });
+    quit(cameraThread);
+    quit(inferenceThread);
+    cameraThread = null;
+    cameraHandler = null;
+    inferenceThread = null;
+    inferenceHandler = null;
+  }
+
+  private static void quit(final HandlerThread thread) {
+    thread.quitSafely();
+    try {
+      thread.join();
+    } catch (final InterruptedException e) {
+      LOGGER.e(e, "Exception!");
+    }
+  }
+
+  public int getProcessedFrames() {
+    return pipeline.getProcessedFrames();
+  }
+
+  public int getDroppedFrames() {
+    return pipeline.getDroppedFrames();
+  }
+}
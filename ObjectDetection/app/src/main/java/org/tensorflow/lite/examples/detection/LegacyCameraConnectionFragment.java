@@ -35,6 +35,7 @@ import java.util.List;
 import org.tensorflow.lite.examples.detection.customview.AutoFitTextureView;
 import org.tensorflow.lite.examples.detection.env.ImageUtils;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.PreviewBufferPool;
 
 public class LegacyCameraConnectionFragment extends Fragment {
   private static final Logger LOGGER = new Logger();
@@ -50,6 +51,8 @@ public class LegacyCameraConnectionFragment extends Fragment {
 
   private Camera camera;
   private Camera.PreviewCallback imageListener;
+  /** The callback buffers the camera fills, shared with the preview callback. */
+  private PreviewBufferPool bufferPool;
   private Size desiredSize;
   /** The layout identifier to inflate for this Fragment. */
   private int layout;
@@ -94,7 +97,15 @@ public class LegacyCameraConnectionFragment extends Fragment {
 
           camera.setPreviewCallbackWithBuffer(imageListener);
           Camera.Size s = camera.getParameters().getPreviewSize();
-          camera.addCallbackBuffer(new byte[ImageUtils.getYUVByteSize(s.height, s.width)]);
+          final Camera previewCamera = camera;
+          bufferPool.start(
+              ImageUtils.getYUVByteSize(s.height, s.width),
+              new PreviewBufferPool.BufferSink() {
+                @Override
+                public void addBuffer(final byte[] buffer) {
+                  previewCamera.addCallbackBuffer(buffer);
+                }
+              });
 
           textureView.setAspectRatio(s.height, s.width);
 
@@ -117,8 +128,12 @@ public class LegacyCameraConnectionFragment extends Fragment {
   private HandlerThread backgroundThread;
 
   public LegacyCameraConnectionFragment(
-      final Camera.PreviewCallback imageListener, final int layout, final Size desiredSize) {
+      final Camera.PreviewCallback imageListener,
+      final PreviewBufferPool bufferPool,
+      final int layout,
+      final Size desiredSize) {
     this.imageListener = imageListener;
+    this.bufferPool = bufferPool;
     this.layout = layout;
     this.desiredSize = desiredSize;
   }
@@ -185,6 +200,8 @@ public class LegacyCameraConnectionFragment extends Fragment {
       camera.setPreviewCallback(null);
       camera.release();
       camera = null;
+      LOGGER.i("Preview buffers: %s", bufferPool);
+      bufferPool.stop();
     }
   }
 
@@ -6,7 +6,6 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.speech.tts.TextToSpeech;
 import android.util.Log;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -19,13 +18,14 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
-import java.util.Locale;
 
 import edu.cmu.pocketsphinx.Assets;
 import edu.cmu.pocketsphinx.Hypothesis;
 import edu.cmu.pocketsphinx.RecognitionListener;
 import edu.cmu.pocketsphinx.SpeechRecognizer;
 import edu.cmu.pocketsphinx.SpeechRecognizerSetup;
+import org.tensorflow.lite.examples.detection.speech.SpeechService;
+import org.tensorflow.lite.examples.detection.speech.UtteranceQueue.Priority;
 
 import static android.widget.Toast.makeText;
 
@@ -37,7 +37,9 @@ public class SpeechActivity extends Activity implements
     private static final String OBJECTDETECTION = "open object detection";
     private static final String OCR = "open text reading";
     private static final String MENU_SEARCH = "menu";
-    private TextToSpeech textToSpeech;
+    /* Replies to commands are dropped if they cannot be spoken within this time */
+    private static final long REPLY_MAX_AGE_MS = 3000;
+    private SpeechService speechService;
 
     /* Keyword we are looking for to activate menu */
     private static final String KEYPHRASE = "wakeup eyenovative";
@@ -50,6 +52,7 @@ public class SpeechActivity extends Activity implements
     @Override
     public void onCreate(Bundle state) {
         super.onCreate(state);
+        speechService = SpeechService.getInstance(this);
 
         // Prepare the data for UI
         captions = new HashMap<>();
@@ -95,7 +98,6 @@ public class SpeechActivity extends Activity implements
                         .setText("Failed to init recognizer " + result);
             } else {
                 Log.d("debugging", "onPostExecute: "+KWS_SEARCH);
-                System.out.println("debug on: "+KWS_SEARCH);
                 activityReference.get().switchSearch(KWS_SEARCH);
             }
         }
@@ -181,7 +183,7 @@ public class SpeechActivity extends Activity implements
     @Override
     public void onEndOfSpeech() {
         if (!recognizer.getSearchName().equals(KWS_SEARCH)){
-            System.out.println("debug on onEndOfSpeech"+KWS_SEARCH);
+            Log.d("debugging", "onEndOfSpeech: "+KWS_SEARCH);
             switchSearch(KWS_SEARCH);
         }
     }
@@ -195,7 +197,6 @@ public class SpeechActivity extends Activity implements
         }
         else{
             Log.d("debugging", "switchSearch else: "+searchName);
-            System.out.println("debug on switchSearch: "+searchName);
             recognizer.startListening(searchName, 10000);
         }
 
@@ -207,7 +208,6 @@ public class SpeechActivity extends Activity implements
     private void setupRecognizer(File assetsDir) throws IOException {
         // The recognizer can be configured to perform multiple searches
         // of different kind and switch between them
-        System.out.println("debug on setupRecognizer 239");
         recognizer = SpeechRecognizerSetup.defaultSetup()
                 .setAcousticModel(new File(assetsDir, "en-us-ptm"))
                 .setDictionary(new File(assetsDir, "cmudict-en-us.dict"))
@@ -260,43 +260,15 @@ public class SpeechActivity extends Activity implements
         texttospeechfunction("Opening text reading");
         Intent i=getPackageManager().getLaunchIntentForPackage("com.google.android.gms.samples.vision.ocrreader");
         startActivity(i);
-        System.out.println("OCR");
+        Log.d("debugging", "OCR");
     }
     private void OpenObjectDetection(){
         texttospeechfunction("Opening Object detection");
         startActivity(new Intent(SpeechActivity.this, DetectorActivity.class));
-        System.out.println("Object detection is open");
+        Log.d("debugging", "Object detection is open");
 
     }
     public void texttospeechfunction(String data){
-        textToSpeech = new TextToSpeech(getApplicationContext(), new TextToSpeech.OnInitListener() {
-            @Override
-            public void onInit(int status) {
-                if (status == TextToSpeech.SUCCESS) {
-                    int ttsLang = textToSpeech.setLanguage(Locale.US);
-//                    String data = "Opening Object detection";
-                    tts(data);
-                    if (ttsLang == TextToSpeech.LANG_MISSING_DATA
-                            || ttsLang == TextToSpeech.LANG_NOT_SUPPORTED) {
-                        Log.e("TTS", "The Language is not supported!");
-                    } else {
-                        Log.i("TTS", "Language Supported.");
-                    }
-                    Log.i("TTS", "Initialization success.");
-                } else {
-                    Toast.makeText(getApplicationContext(), "TTS Initialization failed!", Toast.LENGTH_SHORT).show();
-                }
-            }
-        });
-    }
-    public void tts(String label){
-
-        //                String data = editText.getText().toString();
-        //                Log.i("TTS", "button clicked: " + data);
-        int speechStatus = textToSpeech.speak(label, TextToSpeech.QUEUE_FLUSH, null);
-
-        if (speechStatus == TextToSpeech.ERROR) {
-            Log.e("TTS", "Error in converting Text to Speech!");
-        }
+        speechService.speak(data, data, Priority.FEEDBACK, REPLY_MAX_AGE_MS);
     }
 }
\ No newline at end of file
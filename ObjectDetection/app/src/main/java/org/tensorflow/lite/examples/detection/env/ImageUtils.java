@@ -20,9 +20,23 @@ import android.graphics.Matrix;
 import android.os.Environment;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /** Utility class for manipulating images. */
 public class ImageUtils {
+  /** How the downscaling conversions combine the source pixels covered by a destination pixel. */
+  public enum ScaleFilter {
+    /** Averages every source sample that falls inside the destination pixel. */
+    BOX,
+    /** Interpolates between the four source samples nearest to the destination pixel center. */
+    BILINEAR
+  }
+
   // This value is 2 ^ 18 - 1, and is used to clamp the RGB values before their ranges
   // are normalized to eight bits.
   static final int kMaxChannelValue = 262143;
@@ -30,6 +44,36 @@ public class ImageUtils {
   @SuppressWarnings("unused")
   private static final Logger LOGGER = new Logger();
 
+  // Lookup tables for YUV2RGBTable(), each holding one term of the fixed-point sums computed by
+  // YUV2RGB() for every 8 bit input value.
+  private static final int[] Y_TABLE = new int[256];
+  private static final int[] RV_TABLE = new int[256];
+  private static final int[] GU_TABLE = new int[256];
+  private static final int[] GV_TABLE = new int[256];
+  private static final int[] BU_TABLE = new int[256];
+
+  // Maps a channel sum shifted right by 10 bits, plus CLAMP_TABLE_OFFSET, to the clamped 8 bit
+  // channel value. The shifted sums range from -259 (b for y <= 16, u = 0) to 534 (b for y = 255,
+  // u = 255), so the table covers them with some slack on either side.
+  private static final int CLAMP_TABLE_OFFSET = 384;
+  private static final int[] CLAMP_TABLE = new int[1024];
+
+  static {
+    for (int i = 0; i < 256; ++i) {
+      Y_TABLE[i] = 1192 * ((i - 16) < 0 ? 0 : (i - 16));
+      RV_TABLE[i] = 1634 * (i - 128);
+      GU_TABLE[i] = -400 * (i - 128);
+      GV_TABLE[i] = -833 * (i - 128);
+      BU_TABLE[i] = 2066 * (i - 128);
+    }
+    for (int i = 0; i < CLAMP_TABLE.length; ++i) {
+      final int value = i - CLAMP_TABLE_OFFSET;
+      CLAMP_TABLE[i] = value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+  }
+
+  private static volatile boolean useLookupTables = false;
+
   /**
    * Utility method to compute the allocated size in bytes of a YUV420SP image of the given
    * dimensions.
@@ -85,7 +129,22 @@ public class ImageUtils {
     }
   }
 
+  /**
+   * Selects how the YUV to ARGB conversions compute each pixel: with the fixed-point arithmetic of
+   * {@link #YUV2RGB} or with the lookup tables of {@link #YUV2RGBTable}. Both produce exactly the
+   * same output; which one is faster depends on the device's caches and multipliers. Takes effect
+   * from the next conversion.
+   */
+  public static void setUseLookupTables(final boolean useLookupTables) {
+    ImageUtils.useLookupTables = useLookupTables;
+  }
+
+  public static boolean isUsingLookupTables() {
+    return useLookupTables;
+  }
+
   public static void convertYUV420SPToARGB8888(byte[] input, int width, int height, int[] output) {
+    final boolean tables = useLookupTables;
     final int frameSize = width * height;
     for (int j = 0, yp = 0; j < height; j++) {
       int uvp = frameSize + (j >> 1) * width;
@@ -99,12 +158,12 @@ public class ImageUtils {
           u = 0xff & input[uvp++];
         }
 
-        output[yp] = YUV2RGB(y, u, v);
+        output[yp] = tables ? YUV2RGBTable(y, u, v) : YUV2RGB(y, u, v);
       }
     }
   }
 
-  private static int YUV2RGB(int y, int u, int v) {
+  static int YUV2RGB(int y, int u, int v) {
     // Adjust and check YUV values
     y = (y - 16) < 0 ? 0 : (y - 16);
     u -= 128;
@@ -128,6 +187,19 @@ public class ImageUtils {
     return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
   }
 
+  /**
+   * Table-driven equivalent of {@link #YUV2RGB}. The per-channel products come from tables, and
+   * since only bits 10 to 17 of a clamped sum end up in the pixel, clamping and narrowing are a
+   * single lookup of the sum shifted right by 10 bits.
+   */
+  static int YUV2RGBTable(final int y, final int u, final int v) {
+    final int yTerm = Y_TABLE[y];
+    final int r = CLAMP_TABLE[((yTerm + RV_TABLE[v]) >> 10) + CLAMP_TABLE_OFFSET];
+    final int g = CLAMP_TABLE[((yTerm + GV_TABLE[v] + GU_TABLE[u]) >> 10) + CLAMP_TABLE_OFFSET];
+    final int b = CLAMP_TABLE[((yTerm + BU_TABLE[u]) >> 10) + CLAMP_TABLE_OFFSET];
+    return 0xff000000 | (r << 16) | (g << 8) | b;
+  }
+
   public static void convertYUV420ToARGB8888(
       byte[] yData,
       byte[] uData,
@@ -138,6 +210,7 @@ public class ImageUtils {
       int uvRowStride,
       int uvPixelStride,
       int[] out) {
+    final boolean tables = useLookupTables;
     int yp = 0;
     for (int j = 0; j < height; j++) {
       int pY = yRowStride * j;
@@ -146,7 +219,601 @@ public class ImageUtils {
       for (int i = 0; i < width; i++) {
         int uv_offset = pUV + (i >> 1) * uvPixelStride;
 
-        out[yp++] = YUV2RGB(0xff & yData[pY + i], 0xff & uData[uv_offset], 0xff & vData[uv_offset]);
+        final int y = 0xff & yData[pY + i];
+        final int u = 0xff & uData[uv_offset];
+        final int v = 0xff & vData[uv_offset];
+        out[yp++] = tables ? YUV2RGBTable(y, u, v) : YUV2RGB(y, u, v);
+      }
+    }
+  }
+
+  /**
+   * Parallel version of {@link #convertYUV420SPToARGB8888(byte[], int, int, int[])} producing the
+   * same output. The rows are split into numStripes stripes of whole 2x2 blocks that are converted
+   * concurrently on the given executor and the calling thread.
+   */
+  public static void convertYUV420SPToARGB8888(
+      final byte[] input,
+      final int width,
+      final int height,
+      final int[] output,
+      final ExecutorService executor,
+      final int numStripes) {
+    final int frameSize = width * height;
+    convertInStripes(
+        executor,
+        numStripes,
+        height,
+        new RowConverter() {
+          @Override
+          public void convertRows(final int startRow, final int endRow) {
+            // NV21: the chroma plane follows the luminance plane and stores V before U.
+            convertBlockRows(
+                input, width, input, frameSize + 1, input, frameSize, width, 2, width, height,
+                startRow, endRow, output);
+          }
+        });
+  }
+
+  /**
+   * Parallel version of {@link #convertYUV420ToARGB8888(byte[], byte[], byte[], int, int, int, int,
+   * int, int[])} producing the same output. The rows are split into numStripes stripes of whole
+   * 2x2 blocks that are converted concurrently on the given executor and the calling thread.
+   */
+  public static void convertYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out,
+      final ExecutorService executor,
+      final int numStripes) {
+    convertInStripes(
+        executor,
+        numStripes,
+        height,
+        new RowConverter() {
+          @Override
+          public void convertRows(final int startRow, final int endRow) {
+            convertBlockRows(
+                yData, yRowStride, uData, 0, vData, 0, uvRowStride, uvPixelStride, width, height,
+                startRow, endRow, out);
+          }
+        });
+  }
+
+  /**
+   * Converts an NV21 frame straight to ARGB at a smaller size, decoding only the pixels the
+   * destination needs instead of converting the whole frame and scaling the result.
+   *
+   * @param dstWidth Width of the output, usually well below the frame width.
+   * @param dstHeight Height of the output.
+   * @param output Receives dstWidth * dstHeight pixels in row-major order.
+   */
+  public static void convertYUV420SPToARGB8888(
+      final byte[] input,
+      final int width,
+      final int height,
+      final int[] output,
+      final int dstWidth,
+      final int dstHeight,
+      final ScaleFilter filter) {
+    final int frameSize = width * height;
+    convertScaled(
+        input, width, input, frameSize + 1, input, frameSize, width, 2, width, height, output,
+        dstWidth, dstHeight, filter);
+  }
+
+  /**
+   * Converts a YUV420 frame straight to ARGB at a smaller size, decoding only the pixels the
+   * destination needs instead of converting the whole frame and scaling the result.
+   *
+   * @param dstWidth Width of the output, usually well below the frame width.
+   * @param dstHeight Height of the output.
+   * @param out Receives dstWidth * dstHeight pixels in row-major order.
+   */
+  public static void convertYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out,
+      final int dstWidth,
+      final int dstHeight,
+      final ScaleFilter filter) {
+    convertScaled(
+        yData, yRowStride, uData, 0, vData, 0, uvRowStride, uvPixelStride, width, height, out,
+        dstWidth, dstHeight, filter);
+  }
+
+  /**
+   * Converts YUV420 planes held in ByteBuffers, such as the direct buffers of a Camera2 Image, in
+   * place. Produces the same output as the byte[] version without copying the planes first.
+   */
+  public static void convertYUV420ToARGB8888(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out) {
+    convertBlockRows(
+        yData, yRowStride, uData, vData, uvRowStride, uvPixelStride, width, height, 0, height,
+        out);
+  }
+
+  /** Parallel version of the ByteBuffer conversion, split into stripes like the byte[] one. */
+  public static void convertYUV420ToARGB8888(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out,
+      final ExecutorService executor,
+      final int numStripes) {
+    convertInStripes(
+        executor,
+        numStripes,
+        height,
+        new RowConverter() {
+          @Override
+          public void convertRows(final int startRow, final int endRow) {
+            convertBlockRows(
+                yData, yRowStride, uData, vData, uvRowStride, uvPixelStride, width, height,
+                startRow, endRow, out);
+          }
+        });
+  }
+
+  /** Downscaling conversion of YUV420 planes held in ByteBuffers, read in place. */
+  public static void convertYUV420ToARGB8888(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out,
+      final int dstWidth,
+      final int dstHeight,
+      final ScaleFilter filter) {
+    final boolean tables = useLookupTables;
+    final int uvWidth = (width + 1) / 2;
+    final int uvHeight = (height + 1) / 2;
+    int o = 0;
+
+    // Same sampling as convertScaled() does for byte[] planes.
+    if (filter == ScaleFilter.BOX) {
+      for (int j = 0; j < dstHeight; ++j) {
+        final int y0 = j * height / dstHeight;
+        final int y1 = Math.max(y0 + 1, (j + 1) * height / dstHeight);
+        final int cy0 = y0 >> 1;
+        final int cy1 = Math.max(cy0 + 1, (y1 + 1) >> 1);
+
+        for (int i = 0; i < dstWidth; ++i) {
+          final int x0 = i * width / dstWidth;
+          final int x1 = Math.max(x0 + 1, (i + 1) * width / dstWidth);
+          final int cx0 = x0 >> 1;
+          final int cx1 = Math.max(cx0 + 1, (x1 + 1) >> 1);
+
+          final int y = boxAverage(yData, yRowStride, 1, x0, x1, y0, y1);
+          final int u = boxAverage(uData, uvRowStride, uvPixelStride, cx0, cx1, cy0, cy1);
+          final int v = boxAverage(vData, uvRowStride, uvPixelStride, cx0, cx1, cy0, cy1);
+          out[o++] = tables ? YUV2RGBTable(y, u, v) : YUV2RGB(y, u, v);
+        }
+      }
+    } else {
+      for (int j = 0; j < dstHeight; ++j) {
+        final int py = samplePosition(j, height, dstHeight, 1, height);
+        final int cpy = samplePosition(j, height, dstHeight, 2, uvHeight);
+
+        for (int i = 0; i < dstWidth; ++i) {
+          final int px = samplePosition(i, width, dstWidth, 1, width);
+          final int cpx = samplePosition(i, width, dstWidth, 2, uvWidth);
+
+          final int y = bilinear(yData, yRowStride, 1, px, py, width, height);
+          final int u = bilinear(uData, uvRowStride, uvPixelStride, cpx, cpy, uvWidth, uvHeight);
+          final int v = bilinear(vData, uvRowStride, uvPixelStride, cpx, cpy, uvWidth, uvHeight);
+          out[o++] = tables ? YUV2RGBTable(y, u, v) : YUV2RGB(y, u, v);
+        }
+      }
+    }
+  }
+
+  private static void convertScaled(
+      final byte[] yData,
+      final int yRowStride,
+      final byte[] uData,
+      final int uOffset,
+      final byte[] vData,
+      final int vOffset,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int width,
+      final int height,
+      final int[] out,
+      final int dstWidth,
+      final int dstHeight,
+      final ScaleFilter filter) {
+    final boolean tables = useLookupTables;
+    final int uvWidth = (width + 1) / 2;
+    final int uvHeight = (height + 1) / 2;
+    int o = 0;
+
+    if (filter == ScaleFilter.BOX) {
+      for (int j = 0; j < dstHeight; ++j) {
+        // Source rows [y0, y1) and chroma rows [cy0, cy1) covered by this output row. Each span
+        // holds at least one sample, so upscaling degrades to nearest neighbour.
+        final int y0 = j * height / dstHeight;
+        final int y1 = Math.max(y0 + 1, (j + 1) * height / dstHeight);
+        final int cy0 = y0 >> 1;
+        final int cy1 = Math.max(cy0 + 1, (y1 + 1) >> 1);
+
+        for (int i = 0; i < dstWidth; ++i) {
+          final int x0 = i * width / dstWidth;
+          final int x1 = Math.max(x0 + 1, (i + 1) * width / dstWidth);
+          final int cx0 = x0 >> 1;
+          final int cx1 = Math.max(cx0 + 1, (x1 + 1) >> 1);
+
+          final int y = boxAverage(yData, 0, yRowStride, 1, x0, x1, y0, y1);
+          final int u = boxAverage(uData, uOffset, uvRowStride, uvPixelStride, cx0, cx1, cy0, cy1);
+          final int v = boxAverage(vData, vOffset, uvRowStride, uvPixelStride, cx0, cx1, cy0, cy1);
+          out[o++] = tables ? YUV2RGBTable(y, u, v) : YUV2RGB(y, u, v);
+        }
+      }
+    } else {
+      for (int j = 0; j < dstHeight; ++j) {
+        final int py = samplePosition(j, height, dstHeight, 1, height);
+        final int cpy = samplePosition(j, height, dstHeight, 2, uvHeight);
+
+        for (int i = 0; i < dstWidth; ++i) {
+          final int px = samplePosition(i, width, dstWidth, 1, width);
+          final int cpx = samplePosition(i, width, dstWidth, 2, uvWidth);
+
+          final int y = bilinear(yData, 0, yRowStride, 1, px, py, width, height);
+          final int u =
+              bilinear(uData, uOffset, uvRowStride, uvPixelStride, cpx, cpy, uvWidth, uvHeight);
+          final int v =
+              bilinear(vData, vOffset, uvRowStride, uvPixelStride, cpx, cpy, uvWidth, uvHeight);
+          out[o++] = tables ? YUV2RGBTable(y, u, v) : YUV2RGB(y, u, v);
+        }
+      }
+    }
+  }
+
+  /** Returns the rounded mean of the samples in columns [x0, x1) and rows [y0, y1) of a plane. */
+  private static int boxAverage(
+      final byte[] data,
+      final int offset,
+      final int rowStride,
+      final int pixelStride,
+      final int x0,
+      final int x1,
+      final int y0,
+      final int y1) {
+    int sum = 0;
+    for (int y = y0; y < y1; ++y) {
+      final int row = offset + y * rowStride;
+      for (int x = x0; x < x1; ++x) {
+        sum += 0xff & data[row + x * pixelStride];
+      }
+    }
+    final int count = (x1 - x0) * (y1 - y0);
+    return (sum + count / 2) / count;
+  }
+
+  private static int boxAverage(
+      final ByteBuffer data,
+      final int rowStride,
+      final int pixelStride,
+      final int x0,
+      final int x1,
+      final int y0,
+      final int y1) {
+    int sum = 0;
+    for (int y = y0; y < y1; ++y) {
+      final int row = y * rowStride;
+      for (int x = x0; x < x1; ++x) {
+        sum += 0xff & data.get(row + x * pixelStride);
+      }
+    }
+    final int count = (x1 - x0) * (y1 - y0);
+    return (sum + count / 2) / count;
+  }
+
+  /**
+   * Returns where the center of destination pixel i falls in a plane, in 16.16 fixed point and
+   * clamped to the plane. subsampling is 2 for the chroma planes, which hold one sample per two
+   * pixels.
+   */
+  private static int samplePosition(
+      final int i, final int srcSize, final int dstSize, final int subsampling, final int limit) {
+    final long position =
+        ((2L * i + 1) * srcSize << 15) / ((long) dstSize * subsampling) - (1 << 15);
+    final long max = (long) (limit - 1) << 16;
+    return (int) (position < 0 ? 0 : (position > max ? max : position));
+  }
+
+  /** Interpolates a plane at 16.16 fixed-point coordinates with 8 bit weights. */
+  private static int bilinear(
+      final byte[] data,
+      final int offset,
+      final int rowStride,
+      final int pixelStride,
+      final int px,
+      final int py,
+      final int planeWidth,
+      final int planeHeight) {
+    final int x0 = px >> 16;
+    final int y0 = py >> 16;
+    final int x1 = Math.min(x0 + 1, planeWidth - 1);
+    final int y1 = Math.min(y0 + 1, planeHeight - 1);
+    final int fx = (px >> 8) & 0xff;
+    final int fy = (py >> 8) & 0xff;
+
+    final int row0 = offset + y0 * rowStride;
+    final int row1 = offset + y1 * rowStride;
+    final int top =
+        (0xff & data[row0 + x0 * pixelStride]) * (256 - fx)
+            + (0xff & data[row0 + x1 * pixelStride]) * fx;
+    final int bottom =
+        (0xff & data[row1 + x0 * pixelStride]) * (256 - fx)
+            + (0xff & data[row1 + x1 * pixelStride]) * fx;
+    return (top * (256 - fy) + bottom * fy + (1 << 15)) >> 16;
+  }
+
+  private static int bilinear(
+      final ByteBuffer data,
+      final int rowStride,
+      final int pixelStride,
+      final int px,
+      final int py,
+      final int planeWidth,
+      final int planeHeight) {
+    final int x0 = px >> 16;
+    final int y0 = py >> 16;
+    final int x1 = Math.min(x0 + 1, planeWidth - 1);
+    final int y1 = Math.min(y0 + 1, planeHeight - 1);
+    final int fx = (px >> 8) & 0xff;
+    final int fy = (py >> 8) & 0xff;
+
+    final int row0 = y0 * rowStride;
+    final int row1 = y1 * rowStride;
+    final int top =
+        (0xff & data.get(row0 + x0 * pixelStride)) * (256 - fx)
+            + (0xff & data.get(row0 + x1 * pixelStride)) * fx;
+    final int bottom =
+        (0xff & data.get(row1 + x0 * pixelStride)) * (256 - fx)
+            + (0xff & data.get(row1 + x1 * pixelStride)) * fx;
+    return (top * (256 - fy) + bottom * fy + (1 << 15)) >> 16;
+  }
+
+  /** Converts a range of rows of an image, where startRow is even. */
+  private interface RowConverter {
+    void convertRows(int startRow, int endRow);
+  }
+
+  private static void convertInStripes(
+      final ExecutorService executor,
+      final int numStripes,
+      final int height,
+      final RowConverter converter) {
+    // Stripes are made of row pairs so that no 2x2 chroma block is split between two of them.
+    final int blockRows = (height + 1) / 2;
+    final int rowsPerStripe = ((blockRows + numStripes - 1) / numStripes) * 2;
+    if (numStripes <= 1 || rowsPerStripe >= height) {
+      converter.convertRows(0, height);
+      return;
+    }
+
+    final List<Future<?>> futures = new ArrayList<Future<?>>(numStripes - 1);
+    int startRow = rowsPerStripe;
+    while (startRow < height) {
+      final int stripeStart = startRow;
+      final int stripeEnd = Math.min(height, startRow + rowsPerStripe);
+      futures.add(
+          executor.submit(
+              new Runnable() {
+                @Override
+                public void run() {
+                  converter.convertRows(stripeStart, stripeEnd);
+                }
+              }));
+      startRow = stripeEnd;
+    }
+    // The first stripe is converted on the calling thread while the workers run.
+    converter.convertRows(0, rowsPerStripe);
+
+    try {
+      for (final Future<?> future : futures) {
+        future.get();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while converting image", e);
+    } catch (final ExecutionException e) {
+      throw new RuntimeException("Image conversion failed", e.getCause());
+    }
+  }
+
+  /**
+   * Converts rows [startRow, endRow) two at a time, decoding each U/V sample once for the 2x2 block
+   * of pixels sharing it. Matches {@link #YUV2RGB} bit for bit.
+   */
+  private static void convertBlockRows(
+      final byte[] yData,
+      final int yRowStride,
+      final byte[] uData,
+      final int uOffset,
+      final byte[] vData,
+      final int vOffset,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int width,
+      final int height,
+      final int startRow,
+      final int endRow,
+      final int[] out) {
+    final boolean tables = useLookupTables;
+    for (int j = startRow; j < endRow; j += 2) {
+      final boolean hasSecondRow = j + 1 < endRow;
+      final int pY0 = yRowStride * j;
+      final int pY1 = pY0 + yRowStride;
+      final int pUV = uvRowStride * (j >> 1);
+      final int out0 = width * j;
+      final int out1 = out0 + width;
+
+      for (int i = 0; i < width; i += 2) {
+        final int uvOffset = pUV + (i >> 1) * uvPixelStride;
+        final int u = 0xff & uData[uOffset + uvOffset];
+        final int v = 0xff & vData[vOffset + uvOffset];
+        final int rv;
+        final int guv;
+        final int bu;
+        if (tables) {
+          rv = RV_TABLE[v];
+          guv = GV_TABLE[v] + GU_TABLE[u];
+          bu = BU_TABLE[u];
+        } else {
+          rv = 1634 * (v - 128);
+          guv = -833 * (v - 128) - 400 * (u - 128);
+          bu = 2066 * (u - 128);
+        }
+
+        final boolean hasSecondColumn = i + 1 < width;
+        out[out0 + i] = blockToRGB(tables, 0xff & yData[pY0 + i], rv, guv, bu);
+        if (hasSecondColumn) {
+          out[out0 + i + 1] = blockToRGB(tables, 0xff & yData[pY0 + i + 1], rv, guv, bu);
+        }
+        if (hasSecondRow) {
+          out[out1 + i] = blockToRGB(tables, 0xff & yData[pY1 + i], rv, guv, bu);
+          if (hasSecondColumn) {
+            out[out1 + i + 1] = blockToRGB(tables, 0xff & yData[pY1 + i + 1], rv, guv, bu);
+          }
+        }
+      }
+    }
+  }
+
+  /** ByteBuffer twin of the byte[] convertBlockRows(), reading with absolute gets. */
+  private static void convertBlockRows(
+      final ByteBuffer yData,
+      final int yRowStride,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int width,
+      final int height,
+      final int startRow,
+      final int endRow,
+      final int[] out) {
+    final boolean tables = useLookupTables;
+    for (int j = startRow; j < endRow; j += 2) {
+      final boolean hasSecondRow = j + 1 < endRow;
+      final int pY0 = yRowStride * j;
+      final int pY1 = pY0 + yRowStride;
+      final int pUV = uvRowStride * (j >> 1);
+      final int out0 = width * j;
+      final int out1 = out0 + width;
+
+      for (int i = 0; i < width; i += 2) {
+        final int uvOffset = pUV + (i >> 1) * uvPixelStride;
+        final int u = 0xff & uData.get(uvOffset);
+        final int v = 0xff & vData.get(uvOffset);
+        final int rv;
+        final int guv;
+        final int bu;
+        if (tables) {
+          rv = RV_TABLE[v];
+          guv = GV_TABLE[v] + GU_TABLE[u];
+          bu = BU_TABLE[u];
+        } else {
+          rv = 1634 * (v - 128);
+          guv = -833 * (v - 128) - 400 * (u - 128);
+          bu = 2066 * (u - 128);
+        }
+
+        final boolean hasSecondColumn = i + 1 < width;
+        out[out0 + i] = blockToRGB(tables, 0xff & yData.get(pY0 + i), rv, guv, bu);
+        if (hasSecondColumn) {
+          out[out0 + i + 1] = blockToRGB(tables, 0xff & yData.get(pY0 + i + 1), rv, guv, bu);
+        }
+        if (hasSecondRow) {
+          out[out1 + i] = blockToRGB(tables, 0xff & yData.get(pY1 + i), rv, guv, bu);
+          if (hasSecondColumn) {
+            out[out1 + i + 1] = blockToRGB(tables, 0xff & yData.get(pY1 + i + 1), rv, guv, bu);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Same computation as {@link #YUV2RGB}, or {@link #YUV2RGBTable} if tables is set, with the
+   * chroma terms of the block precomputed.
+   */
+  private static int blockToRGB(
+      final boolean tables, int y, final int rv, final int guv, final int bu) {
+    if (tables) {
+      final int yTerm = Y_TABLE[y];
+      return 0xff000000
+          | (CLAMP_TABLE[((yTerm + rv) >> 10) + CLAMP_TABLE_OFFSET] << 16)
+          | (CLAMP_TABLE[((yTerm + guv) >> 10) + CLAMP_TABLE_OFFSET] << 8)
+          | CLAMP_TABLE[((yTerm + bu) >> 10) + CLAMP_TABLE_OFFSET];
+    }
+
+    y = (y - 16) < 0 ? 0 : (y - 16);
+    final int y1192 = 1192 * y;
+    int r = y1192 + rv;
+    int g = y1192 + guv;
+    int b = y1192 + bu;
+
+    r = r > kMaxChannelValue ? kMaxChannelValue : (r < 0 ? 0 : r);
+    g = g > kMaxChannelValue ? kMaxChannelValue : (g < 0 ? 0 : g);
+    b = b > kMaxChannelValue ? kMaxChannelValue : (b < 0 ? 0 : b);
+
+    return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+  }
+
+  /**
+   * Fills a model input with ARGB pixels, as raw RGB bytes for a quantized model or as RGB floats
+   * normalized to (value - mean) / std, starting at the buffer's current position.
+   */
+  public static void convertARGB8888ToInput(
+      final int[] argb,
+      final ByteBuffer out,
+      final boolean quantized,
+      final float mean,
+      final float std) {
+    if (quantized) {
+      for (final int pixel : argb) {
+        out.put((byte) ((pixel >> 16) & 0xFF));
+        out.put((byte) ((pixel >> 8) & 0xFF));
+        out.put((byte) (pixel & 0xFF));
+      }
+    } else {
+      for (final int pixel : argb) {
+        out.putFloat((((pixel >> 16) & 0xFF) - mean) / std);
+        out.putFloat((((pixel >> 8) & 0xFF) - mean) / std);
+        out.putFloat(((pixel & 0xFF) - mean) / std);
       }
     }
   }
@@ -176,7 +843,7 @@ public class ImageUtils {
 
     if (applyRotation != 0) {
       if (applyRotation % 90 != 0) {
-        LOGGER.w("Rotation of %d % 90 != 0", applyRotation);
+        LOGGER.w("Rotation of %d %% 90 != 0", applyRotation);
       }
 
       // Translate so center of image is at origin.
@@ -216,4 +883,73 @@ public class ImageUtils {
 
     return matrix;
   }
+
+  /**
+   * Returns the transformation of {@link #getTransformationMatrix} as values in Matrix.getValues()
+   * order, computed without the Android framework so that it can be used off the device.
+   */
+  public static float[] getTransformationValues(
+      final int srcWidth,
+      final int srcHeight,
+      final int dstWidth,
+      final int dstHeight,
+      final int applyRotation,
+      final boolean maintainAspectRatio) {
+    final boolean transpose = (Math.abs(applyRotation) + 90) % 180 == 0;
+    final int inWidth = transpose ? srcHeight : srcWidth;
+    final int inHeight = transpose ? srcWidth : srcHeight;
+    float scaleX = dstWidth / (float) inWidth;
+    float scaleY = dstHeight / (float) inHeight;
+    if (maintainAspectRatio) {
+      scaleX = scaleY = Math.max(scaleX, scaleY);
+    }
+
+    // Rotation by a multiple of 90 degrees, exact unlike Matrix.postRotate().
+    final double radians = Math.toRadians(applyRotation);
+    final float cos = (float) Math.rint(Math.cos(radians));
+    final float sin = (float) Math.rint(Math.sin(radians));
+    final float a = scaleX * cos;
+    final float b = -scaleX * sin;
+    final float c = scaleY * sin;
+    final float d = scaleY * cos;
+    if (applyRotation == 0) {
+      return new float[] {a, b, 0, c, d, 0, 0, 0, 1};
+    }
+    // Rotated around the centers of the source and destination frames.
+    final float cx = srcWidth / 2.0f;
+    final float cy = srcHeight / 2.0f;
+    return new float[] {
+      a, b, dstWidth / 2.0f - a * cx - b * cy, c, d, dstHeight / 2.0f - c * cx - d * cy, 0, 0, 1
+    };
+  }
+
+  /** Inverts an affine transformation given as values in Matrix.getValues() order. */
+  public static float[] invertTransformation(final float[] values) {
+    final float det = values[0] * values[4] - values[1] * values[3];
+    final float a = values[4] / det;
+    final float b = -values[1] / det;
+    final float c = -values[3] / det;
+    final float d = values[0] / det;
+    final float tx = -(a * values[2] + b * values[5]);
+    final float ty = -(c * values[2] + d * values[5]);
+    return new float[] {a, b, tx, c, d, ty, 0, 0, 1};
+  }
+
+  /**
+   * Returns the affine transformation that applies second and then first, given and returned as
+   * values in Matrix.getValues() order, like Matrix.setConcat(first, second).
+   */
+  public static float[] concatTransformations(final float[] first, final float[] second) {
+    return new float[] {
+      first[0] * second[0] + first[1] * second[3],
+      first[0] * second[1] + first[1] * second[4],
+      first[0] * second[2] + first[1] * second[5] + first[2],
+      first[3] * second[0] + first[4] * second[3],
+      first[3] * second[1] + first[4] * second[4],
+      first[3] * second[2] + first[4] * second[5] + first[5],
+      0,
+      0,
+      1
+    };
+  }
 }
@@ -0,0 +1,171 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies, for percentiles over many frames.
+ *
+ * <p>Latencies are counted in microseconds, in buckets whose width grows with the value, in the
+ * manner of an HDR histogram: each power of two is split into 16 equal buckets, so a percentile
+ * is accurate to within 1/16 of its value over the whole range from a microsecond to an hour,
+ * with a fixed few kilobytes of counters. Recording is a couple of atomic increments, so stages
+ * running on different threads can record into the same histogram without locking.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // Latencies from 2^MAX_EXPONENT microseconds (over an hour) on share the last bucket.
+  private static final int MAX_EXPONENT = 32;
+  private static final int NUM_BUCKETS = SUB_BUCKETS * (MAX_EXPONENT - SUB_BUCKET_BITS + 1);
+
+  private final String name;
+  private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong maxUs = new AtomicLong();
+  private volatile long startNs = System.nanoTime();
+
+  /** @param name Name of what is measured, used when printing and exporting. */
+  public LatencyHistogram(final String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /** Records the time from a System.nanoTime() reading until now. */
+  public void recordSince(final long startNs) {
+    recordNs(System.nanoTime() - startNs);
+  }
+
+  public void recordNs(final long latencyNs) {
+    recordUs(latencyNs / 1000);
+  }
+
+  public void recordUs(final long latencyUs) {
+    final long value = Math.max(0, latencyUs);
+    counts.incrementAndGet(getBucket(value));
+    count.incrementAndGet();
+    long max = maxUs.get();
+    while (value > max && !maxUs.compareAndSet(max, value)) {
+      max = maxUs.get();
+    }
+  }
+
+  private static int getBucket(final long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    if (exponent >= MAX_EXPONENT) {
+      return NUM_BUCKETS - 1;
+    }
+    final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return SUB_BUCKETS * (exponent - SUB_BUCKET_BITS + 1) + subBucket;
+  }
+
+  // Returns the largest value that falls into a bucket.
+  private static long getBucketMaxUs(final int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    final long subBucket = bucket % SUB_BUCKETS;
+    final int shift = exponent - SUB_BUCKET_BITS;
+    return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getMaxUs() {
+    return maxUs.get();
+  }
+
+  /**
+   * Returns the latency that the given percentage of the recorded latencies do not exceed, as the
+   * upper end of its bucket, or 0 if nothing was recorded.
+   */
+  public long getPercentileUs(final double percentile) {
+    long total = 0;
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      total += counts.get(i);
+    }
+    if (total == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+    long seen = 0;
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      seen += counts.get(i);
+      if (seen >= rank) {
+        return Math.min(getBucketMaxUs(i), getMaxUs());
+      }
+    }
+    return getMaxUs();
+  }
+
+  /** Returns the number of recorded latencies per second since creation or the last reset. */
+  public double getRate() {
+    final long elapsedNs = System.nanoTime() - startNs;
+    return elapsedNs > 0 ? count.get() * 1e9 / elapsedNs : 0;
+  }
+
+  /** Forgets every recorded latency. Latencies recorded concurrently may or may not be kept. */
+  public void reset() {
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    maxUs.set(0);
+    startNs = System.nanoTime();
+  }
+
+  /**
+   * Writes the non-empty buckets as CSV lines of name, bucket upper end in microseconds and
+   * count, which can be merged across runs and devices without losing the distribution.
+   */
+  public void writeCsv(final Writer writer) throws IOException {
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      final long bucketCount = counts.get(i);
+      if (bucketCount > 0) {
+        writer.write(name + "," + getBucketMaxUs(i) + "," + bucketCount + "\n");
+      }
+    }
+  }
+
+  /** Returns the median, 90th and 99th percentile, maximum and rate, in milliseconds. */
+  @Override
+  public String toString() {
+    return String.format(
+        Locale.US,
+        "%s: p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms n=%d (%.1f/s)",
+        name,
+        getPercentileUs(50) / 1000.0,
+        getPercentileUs(90) / 1000.0,
+        getPercentileUs(99) / 1000.0,
+        getMaxUs() / 1000.0,
+        getCount(),
+        getRate());
+  }
+}
@@ -0,0 +1,217 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Allocation-free logging for code that runs on every frame.
+ *
+ * <p>Messages are registered once, as format strings whose only conversions are up to three %d,
+ * and are then logged by id with primitive arguments. Logging an event only claims a slot in a
+ * preallocated ring and stores the id, a timestamp and the arguments into it, without locking,
+ * boxing or formatting anything. A background thread started by {@link #start} formats the events
+ * and writes them to the platform log. If the writers get a whole ring ahead of it, the oldest
+ * events are overwritten and counted as lost instead of slowing the writers down.
+ */
+public final class LogRingBuffer {
+  private static final int DEFAULT_CAPACITY = 1024;
+  private static final int MAX_MESSAGES = 256;
+  private static final long FLUSH_INTERVAL_MS = 500;
+
+  // Layout of each slot: timestamp, message id and up to three arguments.
+  private static final int SLOT_SIZE = 5;
+
+  private static LogRingBuffer instance;
+
+  private final Logger logger = new Logger(LogRingBuffer.class);
+  private final int mask;
+  private final AtomicLongArray slots;
+  // Sequence number plus one of the event in each slot, or 0 while it is being written.
+  private final AtomicLongArray published;
+  private final AtomicLong nextSequence = new AtomicLong();
+
+  private final String[] formats = new String[MAX_MESSAGES];
+  private final int[] levels = new int[MAX_MESSAGES];
+  private int numMessages;
+  private volatile int minLogLevel;
+
+  // Only touched by the flushing thread, or by stop() once it has finished.
+  private long flushedSequence;
+  private long lostEvents;
+
+  private Thread flusher;
+
+  /** Returns the ring shared by the whole app. */
+  public static synchronized LogRingBuffer getInstance() {
+    if (instance == null) {
+      instance = new LogRingBuffer(DEFAULT_CAPACITY);
+    }
+    return instance;
+  }
+
+  /** @param capacity Number of events the ring holds, a power of two. */
+  public LogRingBuffer(final int capacity) {
+    if (Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+    }
+    mask = capacity - 1;
+    slots = new AtomicLongArray(capacity * SLOT_SIZE);
+    published = new AtomicLongArray(capacity);
+  }
+
+  /**
+   * Registers a message.
+   *
+   * @param level Log level of the message, as in android.util.Log.
+   * @param format Format string with at most three %d conversions.
+   * @return The id to log the message with.
+   */
+  public synchronized int register(final int level, final String format) {
+    if (numMessages == MAX_MESSAGES) {
+      throw new IllegalStateException("Too many messages");
+    }
+    formats[numMessages] = format;
+    levels[numMessages] = level;
+    return numMessages++;
+  }
+
+  /** Drops the events of messages below the level from now on. */
+  public void setMinLogLevel(final int minLogLevel) {
+    this.minLogLevel = minLogLevel;
+  }
+
+  public void log(final int message) {
+    log(message, 0, 0, 0);
+  }
+
+  public void log(final int message, final long arg0) {
+    log(message, arg0, 0, 0);
+  }
+
+  public void log(final int message, final long arg0, final long arg1) {
+    log(message, arg0, arg1, 0);
+  }
+
+  public void log(final int message, final long arg0, final long arg1, final long arg2) {
+    if (levels[message] < minLogLevel) {
+      return;
+    }
+    final long sequence = nextSequence.getAndIncrement();
+    final int slot = (int) sequence & mask;
+    final int offset = slot * SLOT_SIZE;
+    published.set(slot, 0);
+    slots.lazySet(offset, System.nanoTime());
+    slots.lazySet(offset + 1, message);
+    slots.lazySet(offset + 2, arg0);
+    slots.lazySet(offset + 3, arg1);
+    slots.lazySet(offset + 4, arg2);
+    published.lazySet(slot, sequence + 1);
+  }
+
+  /** Starts writing the events to the platform log in the background. */
+  public synchronized void start() {
+    if (flusher != null) {
+      return;
+    }
+    flusher =
+        new Thread("LogRingBuffer") {
+          @Override
+          public void run() {
+            while (!isInterrupted()) {
+              flush();
+              try {
+                Thread.sleep(FLUSH_INTERVAL_MS);
+              } catch (final InterruptedException e) {
+                break;
+              }
+            }
+          }
+        };
+    flusher.setDaemon(true);
+    flusher.setPriority(Thread.MIN_PRIORITY);
+    flusher.start();
+  }
+
+  /** Stops the background thread, after writing out the events logged so far. */
+  public void stop() {
+    final Thread thread;
+    synchronized (this) {
+      thread = flusher;
+      flusher = null;
+    }
+    if (thread == null) {
+      return;
+    }
+    thread.interrupt();
+    try {
+      thread.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    flush();
+  }
+
+  private void flush() {
+    final long end = nextSequence.get();
+    final long capacity = mask + 1;
+    if (end - flushedSequence > capacity) {
+      lostEvents += end - capacity - flushedSequence;
+      flushedSequence = end - capacity;
+    }
+
+    final long now = System.nanoTime();
+    while (flushedSequence < end) {
+      final long sequence = flushedSequence;
+      final int slot = (int) sequence & mask;
+      final int offset = slot * SLOT_SIZE;
+      final long stamp = published.get(slot);
+      if (stamp < sequence + 1) {
+        // Claimed but not written yet; picked up on the next flush.
+        break;
+      }
+      final long time = slots.get(offset);
+      final int message = (int) slots.get(offset + 1);
+      final long arg0 = slots.get(offset + 2);
+      final long arg1 = slots.get(offset + 3);
+      final long arg2 = slots.get(offset + 4);
+      ++flushedSequence;
+      if (stamp != sequence + 1 || published.get(slot) != stamp) {
+        // Overwritten by a writer that wrapped around.
+        ++lostEvents;
+        continue;
+      }
+
+      final String format;
+      final int level;
+      synchronized (this) {
+        format = formats[message];
+        level = levels[message];
+      }
+      logger.log(
+          level,
+          "%s (%d ms ago)",
+          String.format(format, arg0, arg1, arg2),
+          (now - time) / 1000000);
+    }
+
+    if (lostEvents > 0) {
+      logger.w("Lost %d events", lostEvents);
+      lostEvents = 0;
+    }
+  }
+}
@@ -19,7 +19,14 @@ import android.util.Log;
 import java.util.HashSet;
 import java.util.Set;
 
-/** Wrapper for the platform log function, allows convenient message prefixing and log disabling. */
+/**
+ * Wrapper for the platform log function, allows convenient message prefixing and log disabling.
+ *
+ * <p>Messages are only formatted when their level is enabled, and the enabled levels are looked
+ * up once rather than on every call. Code that runs on every frame should still check {@link
+ * #isLoggable} before building arguments, or log through a {@link LogRingBuffer}, so that a
+ * disabled message costs no allocation at all.
+ */
 public final class Logger {
   private static final String DEFAULT_TAG = "tensorflow";
   private static final int DEFAULT_MIN_LOG_LEVEL = Log.DEBUG;
@@ -37,9 +44,13 @@ public final class Logger {
   private final String tag;
   private final String messagePrefix;
   private int minLogLevel = DEFAULT_MIN_LOG_LEVEL;
+  // Bit i is set if level i is enabled, or -1 before the levels were first looked up.
+  // Log.isLoggable() reads a system property, which is too slow to repeat for every message.
+  private volatile int enabledLevels = -1;
 
   /**
-   * Creates a Logger using the class name as the message prefix.
+   * Creates a Logger using the class name as the message prefix. Cheaper than the constructors
+   * that have to find the caller's name on the stack.
    *
    * @param clazz the simple name of this class is used as the message prefix.
    */
@@ -104,8 +115,7 @@ public final class Logger {
       final String className = elem.getClassName();
       if (!IGNORED_CLASS_NAMES.contains(className)) {
         // We're only interested in the simple name of the class, not the complete package.
-        final String[] classParts = className.split("\\.");
-        return classParts[classParts.length - 1];
+        return className.substring(className.lastIndexOf('.') + 1);
       }
     }
 
@@ -114,16 +124,55 @@ public final class Logger {
 
   public void setMinLogLevel(final int minLogLevel) {
     this.minLogLevel = minLogLevel;
+    enabledLevels = -1;
   }
 
   public boolean isLoggable(final int logLevel) {
-    return logLevel >= minLogLevel || Log.isLoggable(tag, logLevel);
+    int levels = enabledLevels;
+    if (levels == -1) {
+      levels = 0;
+      for (int level = Log.VERBOSE; level <= Log.ASSERT; ++level) {
+        if (level >= minLogLevel || Log.isLoggable(tag, level)) {
+          levels |= 1 << level;
+        }
+      }
+      enabledLevels = levels;
+    }
+    return (levels & (1 << logLevel)) != 0;
   }
 
   private String toMessage(final String format, final Object... args) {
     return messagePrefix + (args.length > 0 ? String.format(format, args) : format);
   }
 
+  /** Logs at a level given at runtime, as one of the android.util.Log priorities. */
+  public void log(final int logLevel, final String format, final Object... args) {
+    if (isLoggable(logLevel)) {
+      Log.println(logLevel, tag, toMessage(format, args));
+    }
+  }
+
+  // The fixed arity overloads of v() and d() spare callers the varargs array when the level is
+  // disabled; primitive arguments are still boxed, though.
+
+  public void v(final String format) {
+    if (isLoggable(Log.VERBOSE)) {
+      Log.v(tag, messagePrefix + format);
+    }
+  }
+
+  public void v(final String format, final Object arg) {
+    if (isLoggable(Log.VERBOSE)) {
+      Log.v(tag, toMessage(format, arg));
+    }
+  }
+
+  public void v(final String format, final Object arg0, final Object arg1) {
+    if (isLoggable(Log.VERBOSE)) {
+      Log.v(tag, toMessage(format, arg0, arg1));
+    }
+  }
+
   public void v(final String format, final Object... args) {
     if (isLoggable(Log.VERBOSE)) {
       Log.v(tag, toMessage(format, args));
@@ -136,6 +185,24 @@ public final class Logger {
     }
   }
 
+  public void d(final String format) {
+    if (isLoggable(Log.DEBUG)) {
+      Log.d(tag, messagePrefix + format);
+    }
+  }
+
+  public void d(final String format, final Object arg) {
+    if (isLoggable(Log.DEBUG)) {
+      Log.d(tag, toMessage(format, arg));
+    }
+  }
+
+  public void d(final String format, final Object arg0, final Object arg1) {
+    if (isLoggable(Log.DEBUG)) {
+      Log.d(tag, toMessage(format, arg0, arg1));
+    }
+  }
+
   public void d(final String format, final Object... args) {
     if (isLoggable(Log.DEBUG)) {
       Log.d(tag, toMessage(format, args));
@@ -0,0 +1,200 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+/**
+ * A fixed set of preview callback buffers for android.hardware.Camera.
+ *
+ * <p>With setPreviewCallbackWithBuffer() the camera can only fill a frame if the app has queued a
+ * buffer for it, so a single buffer means every frame that arrives while the previous one is being
+ * processed is lost inside the camera. The pool keeps several buffers and tracks who owns each one:
+ * the camera, the app waiting to process it, or the app processing it. Only one frame is processed
+ * at a time; while that happens the newest delivered frame waits as pending and any older pending
+ * frame goes straight back to the camera, so processing always resumes on the latest frame.
+ *
+ * <p>The counters tell how well the pool size fits the device: dropped frames are delivered frames
+ * that were superseded before being processed, starvations are the times the app held every buffer
+ * so the camera had nothing to fill.
+ */
+public class PreviewBufferPool {
+  /** Hands a buffer back to the camera, typically through Camera.addCallbackBuffer(). */
+  public interface BufferSink {
+    void addBuffer(byte[] buffer);
+  }
+
+  private static final int WITH_CAMERA = 0;
+  private static final int PENDING = 1;
+  private static final int PROCESSING = 2;
+
+  private final int numBuffers;
+
+  private byte[][] buffers = new byte[0][];
+  private int[] owners = new int[0];
+  private BufferSink sink;
+  private int withCamera;
+  private byte[] pending;
+  private byte[] processing;
+
+  private long deliveredFrames;
+  private long droppedFrames;
+  private long starvations;
+
+  public PreviewBufferPool(final int numBuffers) {
+    if (numBuffers < 1) {
+      throw new IllegalArgumentException("Need at least one buffer, got " + numBuffers);
+    }
+    this.numBuffers = numBuffers;
+  }
+
+  /**
+   * Allocates the buffers for a preview session and queues all of them with the camera. Buffers of
+   * an earlier session are never reused, so one still being processed cannot be refilled; handing
+   * such a buffer to release() later is harmless.
+   *
+   * @param bufferSize Size of one frame, e.g. from ImageUtils.getYUVByteSize().
+   * @param sink Receives buffers for the camera to fill.
+   */
+  public synchronized void start(final int bufferSize, final BufferSink sink) {
+    buffers = new byte[numBuffers][];
+    owners = new int[numBuffers];
+    this.sink = sink;
+    pending = null;
+    processing = null;
+    withCamera = numBuffers;
+    for (int i = 0; i < numBuffers; ++i) {
+      buffers[i] = new byte[bufferSize];
+      owners[i] = WITH_CAMERA;
+      sink.addBuffer(buffers[i]);
+    }
+  }
+
+  /** Forgets the buffers of the current session once the camera has been released. */
+  public synchronized void stop() {
+    buffers = new byte[0][];
+    owners = new int[0];
+    sink = null;
+    pending = null;
+    processing = null;
+    withCamera = 0;
+  }
+
+  /**
+   * Takes a buffer the camera has just filled.
+   *
+   * @return The buffer to process now, or null if another frame is being processed; the frame is
+   *     then kept and returned by release() unless a newer one replaces it first.
+   */
+  public synchronized byte[] onFrame(final byte[] buffer) {
+    final int index = indexOf(buffer);
+    if (index < 0) {
+      // Delivered after stop(), the camera is gone.
+      return null;
+    }
+    if (owners[index] != WITH_CAMERA) {
+      throw new IllegalStateException("Frame delivered in a buffer the camera does not own");
+    }
+    ++deliveredFrames;
+    --withCamera;
+
+    final byte[] result;
+    if (processing == null) {
+      owners[index] = PROCESSING;
+      processing = buffer;
+      result = buffer;
+    } else {
+      if (pending != null) {
+        ++droppedFrames;
+        giveToCamera(pending);
+      }
+      owners[index] = PENDING;
+      pending = buffer;
+      result = null;
+    }
+
+    if (withCamera == 0) {
+      ++starvations;
+    }
+    return result;
+  }
+
+  /**
+   * Hands a processed buffer back to the camera.
+   *
+   * @return The newest frame that arrived meanwhile, which is now being processed, or null.
+   */
+  public synchronized byte[] release(final byte[] buffer) {
+    final int index = indexOf(buffer);
+    if (index < 0) {
+      return null;
+    }
+    if (owners[index] != PROCESSING) {
+      throw new IllegalStateException("Released a buffer that is not being processed");
+    }
+    processing = null;
+    giveToCamera(buffer);
+
+    final byte[] next = pending;
+    if (next != null) {
+      pending = null;
+      owners[indexOf(next)] = PROCESSING;
+      processing = next;
+    }
+    return next;
+  }
+
+  private void giveToCamera(final byte[] buffer) {
+    owners[indexOf(buffer)] = WITH_CAMERA;
+    ++withCamera;
+    sink.addBuffer(buffer);
+  }
+
+  private int indexOf(final byte[] buffer) {
+    for (int i = 0; i < buffers.length; ++i) {
+      if (buffers[i] == buffer) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public int getNumBuffers() {
+    return numBuffers;
+  }
+
+  /** Returns how many buffers are currently queued with the camera. */
+  public synchronized int getBuffersWithCamera() {
+    return withCamera;
+  }
+
+  public synchronized long getDeliveredFrames() {
+    return deliveredFrames;
+  }
+
+  public synchronized long getDroppedFrames() {
+    return droppedFrames;
+  }
+
+  public synchronized long getStarvations() {
+    return starvations;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "%d buffers, %d frames delivered, %d dropped, %d starvations",
+        numBuffers, deliveredFrames, droppedFrames, starvations);
+  }
+}
@@ -0,0 +1,224 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Samples YUV420 camera planes straight into a model input buffer.
+ *
+ * <p>The rotation, crop and scale that would otherwise be applied by drawing the converted frame
+ * through the matrix from {@link ImageUtils#getTransformationMatrix} are resolved once into a
+ * table of source offsets, one per destination pixel. Each frame then only decodes the pixels the
+ * model actually sees, with the same nearest-neighbour sampling an unfiltered Canvas would use.
+ */
+public class YuvInputSampler {
+  private final int dstWidth;
+  private final int dstHeight;
+  private final int uOffset;
+  private final int vOffset;
+
+  // Offset of the sampled luminance value for each destination pixel, in row-major order.
+  private final int[] yIndex;
+  // Offset of the sampled chroma pair for each destination pixel, relative to uOffset/vOffset.
+  private final int[] uvIndex;
+
+  // Scratch buffer for the quantized path, so the output can be written with one bulk put.
+  private final byte[] rgbBytes;
+
+  /**
+   * Creates a sampler for a fixed frame layout and destination transform.
+   *
+   * @param frameWidth Width of the camera frame.
+   * @param frameHeight Height of the camera frame.
+   * @param yRowStride Row stride of the luminance plane.
+   * @param uvRowStride Row stride of the chroma planes.
+   * @param uvPixelStride Pixel stride of the chroma planes, 1 for planar and 2 for semi-planar.
+   * @param uOffset Offset of the first U sample within the U plane array.
+   * @param vOffset Offset of the first V sample within the V plane array.
+   * @param dstWidth Width of the model input.
+   * @param dstHeight Height of the model input.
+   * @param dstToFrame Affine matrix values, as returned by Matrix.getValues(), mapping destination
+   *     coordinates back into the frame, i.e. the inverse of the frame to crop transform.
+   */
+  public YuvInputSampler(
+      final int frameWidth,
+      final int frameHeight,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int uOffset,
+      final int vOffset,
+      final int dstWidth,
+      final int dstHeight,
+      final float[] dstToFrame) {
+    this.dstWidth = dstWidth;
+    this.dstHeight = dstHeight;
+    this.uOffset = uOffset;
+    this.vOffset = vOffset;
+
+    yIndex = new int[dstWidth * dstHeight];
+    uvIndex = new int[dstWidth * dstHeight];
+    rgbBytes = new byte[dstWidth * dstHeight * 3];
+
+    // Matrix.getValues() order: MSCALE_X, MSKEW_X, MTRANS_X, MSKEW_Y, MSCALE_Y, MTRANS_Y.
+    final float scaleX = dstToFrame[0];
+    final float skewX = dstToFrame[1];
+    final float transX = dstToFrame[2];
+    final float skewY = dstToFrame[3];
+    final float scaleY = dstToFrame[4];
+    final float transY = dstToFrame[5];
+
+    int index = 0;
+    for (int j = 0; j < dstHeight; ++j) {
+      final float cy = j + 0.5f;
+      for (int i = 0; i < dstWidth; ++i, ++index) {
+        final float cx = i + 0.5f;
+        int sx = (int) Math.floor(scaleX * cx + skewX * cy + transX);
+        int sy = (int) Math.floor(skewY * cx + scaleY * cy + transY);
+        sx = sx < 0 ? 0 : (sx >= frameWidth ? frameWidth - 1 : sx);
+        sy = sy < 0 ? 0 : (sy >= frameHeight ? frameHeight - 1 : sy);
+
+        yIndex[index] = yRowStride * sy + sx;
+        uvIndex[index] = uvRowStride * (sy >> 1) + (sx >> 1) * uvPixelStride;
+      }
+    }
+  }
+
+  /**
+   * Creates a sampler for an NV21 buffer as delivered by the android.hardware.Camera preview
+   * callback, where the interleaved VU plane follows the luminance plane in the same array.
+   */
+  public static YuvInputSampler forNv21(
+      final int frameWidth,
+      final int frameHeight,
+      final int dstWidth,
+      final int dstHeight,
+      final float[] dstToFrame) {
+    final int frameSize = frameWidth * frameHeight;
+    return new YuvInputSampler(
+        frameWidth,
+        frameHeight,
+        frameWidth,
+        frameWidth,
+        2,
+        frameSize + 1,
+        frameSize,
+        dstWidth,
+        dstHeight,
+        dstToFrame);
+  }
+
+  public int getWidth() {
+    return dstWidth;
+  }
+
+  public int getHeight() {
+    return dstHeight;
+  }
+
+  /**
+   * Fills a quantized (uint8 RGB) model input from the given planes, starting at the buffer's
+   * current position.
+   */
+  public void sampleQuantized(
+      final byte[] yData, final byte[] uData, final byte[] vData, final ByteBuffer out) {
+    final boolean tables = ImageUtils.isUsingLookupTables();
+    final int count = yIndex.length;
+    for (int i = 0, o = 0; i < count; ++i) {
+      final int uv = uvIndex[i];
+      final int y = 0xff & yData[yIndex[i]];
+      final int u = 0xff & uData[uOffset + uv];
+      final int v = 0xff & vData[vOffset + uv];
+      final int rgb = tables ? ImageUtils.YUV2RGBTable(y, u, v) : ImageUtils.YUV2RGB(y, u, v);
+      rgbBytes[o++] = (byte) ((rgb >> 16) & 0xFF);
+      rgbBytes[o++] = (byte) ((rgb >> 8) & 0xFF);
+      rgbBytes[o++] = (byte) (rgb & 0xFF);
+    }
+    out.put(rgbBytes);
+  }
+
+  /**
+   * Fills a float model input from the given planes, normalizing each channel as (value - mean) /
+   * std, starting at the buffer's current position.
+   */
+  public void sampleFloat(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final ByteBuffer out,
+      final float mean,
+      final float std) {
+    final boolean tables = ImageUtils.isUsingLookupTables();
+    final int count = yIndex.length;
+    for (int i = 0; i < count; ++i) {
+      final int uv = uvIndex[i];
+      final int y = 0xff & yData[yIndex[i]];
+      final int u = 0xff & uData[uOffset + uv];
+      final int v = 0xff & vData[vOffset + uv];
+      final int rgb = tables ? ImageUtils.YUV2RGBTable(y, u, v) : ImageUtils.YUV2RGB(y, u, v);
+      out.putFloat((((rgb >> 16) & 0xFF) - mean) / std);
+      out.putFloat((((rgb >> 8) & 0xFF) - mean) / std);
+      out.putFloat(((rgb & 0xFF) - mean) / std);
+    }
+  }
+
+  /**
+   * Fills a quantized model input from planes held in ByteBuffers, such as the direct buffers of a
+   * Camera2 Image, reading them in place.
+   */
+  public void sampleQuantized(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final ByteBuffer out) {
+    final boolean tables = ImageUtils.isUsingLookupTables();
+    final int count = yIndex.length;
+    for (int i = 0, o = 0; i < count; ++i) {
+      final int uv = uvIndex[i];
+      final int y = 0xff & yData.get(yIndex[i]);
+      final int u = 0xff & uData.get(uOffset + uv);
+      final int v = 0xff & vData.get(vOffset + uv);
+      final int rgb = tables ? ImageUtils.YUV2RGBTable(y, u, v) : ImageUtils.YUV2RGB(y, u, v);
+      rgbBytes[o++] = (byte) ((rgb >> 16) & 0xFF);
+      rgbBytes[o++] = (byte) ((rgb >> 8) & 0xFF);
+      rgbBytes[o++] = (byte) (rgb & 0xFF);
+    }
+    out.put(rgbBytes);
+  }
+
+  /** Fills a float model input from planes held in ByteBuffers, reading them in place. */
+  public void sampleFloat(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final ByteBuffer out,
+      final float mean,
+      final float std) {
+    final boolean tables = ImageUtils.isUsingLookupTables();
+    final int count = yIndex.length;
+    for (int i = 0; i < count; ++i) {
+      final int uv = uvIndex[i];
+      final int y = 0xff & yData.get(yIndex[i]);
+      final int u = 0xff & uData.get(uOffset + uv);
+      final int v = 0xff & vData.get(vOffset + uv);
+      final int rgb = tables ? ImageUtils.YUV2RGBTable(y, u, v) : ImageUtils.YUV2RGB(y, u, v);
+      out.putFloat((((rgb >> 16) & 0xFF) - mean) / std);
+      out.putFloat((((rgb >> 8) & 0xFF) - mean) / std);
+      out.putFloat(((rgb & 0xFF) - mean) / std);
+    }
+  }
+}
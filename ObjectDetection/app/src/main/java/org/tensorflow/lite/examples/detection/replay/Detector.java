@@ -0,0 +1,63 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.replay;
+
+import java.nio.ByteBuffer;
+import org.tensorflow.lite.examples.detection.env.YuvInputSampler;
+
+/**
+ * The model as seen by {@link ReplayPipeline}, reduced to primitive arrays so that it can be backed
+ * by a fake on a plain JVM as well as by the TensorFlow Lite interpreter on a device.
+ */
+public interface Detector {
+  int getInputWidth();
+
+  int getInputHeight();
+
+  int getNumClasses();
+
+  /** Upper bound on the number of detections returned by a single call to detect(). */
+  int getMaxDetections();
+
+  /** Returns a buffer sized and ordered for the model input. */
+  ByteBuffer createInputBuffer();
+
+  /** Fills an input buffer from the planes of a frame. */
+  void fillInput(
+      ByteBuffer yPlane,
+      ByteBuffer uPlane,
+      ByteBuffer vPlane,
+      YuvInputSampler sampler,
+      ByteBuffer input);
+
+  /**
+   * Tells the detector which part of the crop the inputs detected next were sampled from, as
+   * normalized left, top, right and bottom; the whole crop is 0, 0, 1, 1. Only a stand-in that
+   * reports a known scene instead of looking at the input needs this, when frames are tiled.
+   */
+  void setInputRegion(float left, float top, float right, float bottom);
+
+  /**
+   * Runs the model on a filled input buffer.
+   *
+   * @param timestampNs Capture time of the frame the input was filled from.
+   * @param boxes Receives left, top, right, bottom of each detection in input pixels.
+   * @param classes Receives the class of each detection.
+   * @param scores Receives the confidence of each detection.
+   * @return The number of detections.
+   */
+  int detect(ByteBuffer input, long timestampNs, float[] boxes, int[] classes, float[] scores);
+}
@@ -0,0 +1,57 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.replay;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * A sequence of YUV420 frames with a fixed layout, such as a camera stream or a recording of one.
+ *
+ * <p>The planes are laid out as for a Camera2 Image: the chroma planes have their own row stride
+ * and a pixel stride of 1 for planar or 2 for semi-planar data. The planes returned for a frame
+ * are only valid until the next call to {@link #next}.
+ */
+public interface FrameSource extends Closeable {
+  int getWidth();
+
+  int getHeight();
+
+  int getYRowStride();
+
+  int getUvRowStride();
+
+  int getUvPixelStride();
+
+  /** Clockwise rotation, in degrees, that brings the frames upright. */
+  int getRotation();
+
+  /**
+   * Advances to the next frame.
+   *
+   * @return false if there are no more frames.
+   */
+  boolean next();
+
+  /** Returns the capture time of the current frame in nanoseconds, on an arbitrary time base. */
+  long getTimestampNs();
+
+  ByteBuffer getYPlane();
+
+  ByteBuffer getUPlane();
+
+  ByteBuffer getVPlane();
+}
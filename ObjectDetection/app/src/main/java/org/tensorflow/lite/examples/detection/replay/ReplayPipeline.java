@@ -0,0 +1,574 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.replay;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import org.tensorflow.lite.examples.detection.env.ImageUtils;
+import org.tensorflow.lite.examples.detection.env.LatencyHistogram;
+import org.tensorflow.lite.examples.detection.env.YuvInputSampler;
+import org.tensorflow.lite.examples.detection.tflite.DetectionPostprocessor;
+import org.tensorflow.lite.examples.detection.tflite.InterpreterTuner;
+import org.tensorflow.lite.examples.detection.tflite.RoiScheduler;
+import org.tensorflow.lite.examples.detection.tflite.TileLayout;
+import org.tensorflow.lite.examples.detection.tflite.TileMerger;
+import org.tensorflow.lite.examples.detection.tflite.TilePlanner;
+import org.tensorflow.lite.examples.detection.tracking.IouTracker;
+import org.tensorflow.lite.examples.detection.tracking.LuminanceFlow;
+import org.tensorflow.lite.examples.detection.tracking.PresenceVoter;
+import org.tensorflow.lite.examples.detection.tracking.SceneChangeGate;
+
+/**
+ * Runs recorded frames through the same stages as DetectorActivity, without a device.
+ *
+ * <p>Each frame is sampled into the model input, detected, postprocessed, mapped back into the
+ * frame, tracked and voted on for announcements, with the boxes carried along by luminance flow on
+ * frames the detector skips, whether by interval or because the scene change gate found nothing
+ * new. Only the Android-free cores of those stages are used: the tracker and voter are driven
+ * directly rather than through MultiBoxTracker, and the rotation and crop are computed without a
+ * Matrix, so the pipeline runs on a plain JVM against any {@link Detector}. Frames are processed
+ * one after the other as fast as possible, or paced by their timestamps to reproduce the camera's
+ * timing. With tiling or a region of interest, each detected frame is run through the detector
+ * once per tile and the postprocessed tiles are merged before mapping, and the stage latencies
+ * cover all of them.
+ */
+public class ReplayPipeline {
+  // The values used by DetectorActivity, TFLiteObjectDetectionAPIModel and MultiBoxTracker.
+  private static final float MINIMUM_CONFIDENCE = 0.5f;
+  private static final float CLASS_IOU_THRESHOLD = 0.6f;
+  private static final float CROSS_CLASS_IOU_THRESHOLD = 0.8f;
+  private static final float MIN_SIZE = 16.0f;
+  private static final int MAX_TRACKS = 64;
+  private static final int ANNOUNCE_WINDOW_FRAMES = 15;
+  private static final int ANNOUNCE_ENTER_FRAMES = 10;
+  private static final int ANNOUNCE_LEAVE_FRAMES = 3;
+  private static final float TILE_OVERLAP = 0.25f;
+
+  private final FrameSource source;
+  private final Detector detector;
+  private final int detectionInterval;
+  private final boolean realTime;
+  private final PresenceVoter.Listener announcementListener;
+
+  private final float[] cropToFrame;
+  private final YuvInputSampler sampler;
+  private final ByteBuffer input;
+  private final DetectionPostprocessor postprocessor;
+  private final IouTracker tracker;
+  private final LuminanceFlow luminanceFlow;
+  private final PresenceVoter presenceVoter;
+  private final SceneChangeGate sceneChangeGate;
+  private InterpreterTuner interpreterTuner;
+
+  private TilePlanner tilePlanner;
+  private RoiScheduler roiScheduler;
+  private TileMerger tileMerger;
+  // Samplers for the tiles of each layout, and the part of the crop each tile shows in normalized
+  // left, top, right, bottom.
+  private final HashMap<TileLayout, YuvInputSampler[]> tileSamplers =
+      new HashMap<TileLayout, YuvInputSampler[]>();
+  private final HashMap<TileLayout, float[]> tileRegions = new HashMap<TileLayout, float[]>();
+  // The layout of the last detected frame, null if it was not tiled.
+  private TileLayout layout;
+  private final float[] searchedBox = new float[4];
+  private final float[] searchedRegion = new float[4];
+
+  private final float[] boxes;
+  private final int[] classes;
+  private final float[] scores;
+  private final float[] detectionBoxes;
+  private final int[] detectionClasses;
+  private final float[] detectionScores;
+  private final float[] frameBoxes;
+  private final int[] frameClasses;
+  private final float[] frameScores;
+  private final float[] trackBox = new float[4];
+  private final float[] motion = new float[2];
+
+  private final LatencyHistogram preprocessLatency = new LatencyHistogram("preprocess");
+  private final LatencyHistogram detectLatency = new LatencyHistogram("detect");
+  private final LatencyHistogram postprocessLatency = new LatencyHistogram("postprocess");
+  private final LatencyHistogram trackLatency = new LatencyHistogram("track");
+  private final LatencyHistogram frameLatency = new LatencyHistogram("frame");
+
+  // Time spent in each stage on the current frame, over all of its tiles.
+  private long preprocessNs;
+  private long detectNs;
+  private long postprocessNs;
+
+  private int numFrames;
+  private int numDetectedFrames;
+  private int numEnters;
+  private int numLeaves;
+  private long elapsedNs;
+
+  private final PresenceVoter.Listener countingListener =
+      new PresenceVoter.Listener() {
+        @Override
+        public void onEnter(final int classId, final int count) {
+          ++numEnters;
+          if (announcementListener != null) {
+            announcementListener.onEnter(classId, count);
+          }
+        }
+
+        @Override
+        public void onLeave(final int classId) {
+          ++numLeaves;
+          if (announcementListener != null) {
+            announcementListener.onLeave(classId);
+          }
+        }
+      };
+
+  /**
+   * @param source Frames to replay; the pipeline reads but does not close it.
+   * @param detector The model, or a stand-in for it.
+   * @param detectionInterval Run the detector on every n-th frame, as DETECTION_INTERVAL_FRAMES.
+   * @param maxHeartbeatFrames Most frames between detections while the scene change gate finds the
+   *     scene static, as SCENE_GATE_MAX_HEARTBEAT_FRAMES; 1 only measures what it would skip.
+   * @param realTime Whether to pace the frames by their timestamps rather than run flat out.
+   * @param announcementListener Receives the announcement decisions, may be null.
+   */
+  public ReplayPipeline(
+      final FrameSource source,
+      final Detector detector,
+      final int detectionInterval,
+      final int maxHeartbeatFrames,
+      final boolean realTime,
+      final PresenceVoter.Listener announcementListener) {
+    this.source = source;
+    this.detector = detector;
+    this.detectionInterval = detectionInterval;
+    this.realTime = realTime;
+    this.announcementListener = announcementListener;
+
+    final int frameWidth = source.getWidth();
+    final int frameHeight = source.getHeight();
+    final int inputWidth = detector.getInputWidth();
+    final int inputHeight = detector.getInputHeight();
+    cropToFrame =
+        ImageUtils.invertTransformation(
+            ImageUtils.getTransformationValues(
+                frameWidth, frameHeight, inputWidth, inputHeight, source.getRotation(), false));
+    sampler = createSampler(cropToFrame);
+    input = detector.createInputBuffer();
+
+    final int maxDetections = detector.getMaxDetections();
+    postprocessor =
+        new DetectionPostprocessor(
+            maxDetections,
+            maxDetections,
+            MINIMUM_CONFIDENCE,
+            CLASS_IOU_THRESHOLD,
+            CROSS_CLASS_IOU_THRESHOLD);
+    tracker = new IouTracker(MAX_TRACKS, maxDetections);
+    luminanceFlow = new LuminanceFlow(frameWidth, frameHeight);
+    presenceVoter =
+        new PresenceVoter(
+            detector.getNumClasses(),
+            ANNOUNCE_WINDOW_FRAMES,
+            ANNOUNCE_ENTER_FRAMES,
+            ANNOUNCE_LEAVE_FRAMES);
+    sceneChangeGate =
+        new SceneChangeGate(
+            frameWidth, frameHeight, detector.getNumClasses(), maxHeartbeatFrames);
+
+    boxes = new float[maxDetections * 4];
+    classes = new int[maxDetections];
+    scores = new float[maxDetections];
+    detectionBoxes = new float[maxDetections * 4];
+    detectionClasses = new int[maxDetections];
+    detectionScores = new float[maxDetections];
+    frameBoxes = new float[maxDetections * 4];
+    frameClasses = new int[maxDetections];
+    frameScores = new float[maxDetections];
+  }
+
+  private YuvInputSampler createSampler(final float[] inputToFrame) {
+    return new YuvInputSampler(
+        source.getWidth(),
+        source.getHeight(),
+        source.getYRowStride(),
+        source.getUvRowStride(),
+        source.getUvPixelStride(),
+        0,
+        0,
+        detector.getInputWidth(),
+        detector.getInputHeight(),
+        inputToFrame);
+  }
+
+  /**
+   * Passes the latency of every detection to a tuner, as DetectorActivity does, which may then
+   * reconfigure the detector between frames.
+   */
+  public void setInterpreterTuner(final InterpreterTuner interpreterTuner) {
+    this.interpreterTuner = interpreterTuner;
+  }
+
+  /**
+   * Detects frames in tiles, as DetectorActivity does with TILED_INFERENCE. A planner picks the
+   * layout of each frame from those of the given modes, so that all tiles fit the budget.
+   *
+   * @param modes The layouts to choose from, from the cheapest to the most thorough.
+   * @param frameBudgetMs Time the detections of one frame should take together, in milliseconds.
+   */
+  public void setTiling(final TileLayout.Mode[] modes, final float frameBudgetMs) {
+    final int inputSize = getSquareInputSize();
+    final boolean rotated = source.getRotation() % 180 != 0;
+    final int uprightWidth = rotated ? source.getHeight() : source.getWidth();
+    final int uprightHeight = rotated ? source.getWidth() : source.getHeight();
+    final TileLayout[] layouts = new TileLayout[modes.length];
+    for (int i = 0; i < modes.length; ++i) {
+      layouts[i] =
+          TileLayout.create(
+              modes[i], uprightWidth, uprightHeight, inputSize, inputSize, TILE_OVERLAP);
+    }
+    tilePlanner = new TilePlanner(layouts, frameBudgetMs);
+    roiScheduler = null;
+    createTileMerger(tilePlanner.getMaxTiles());
+  }
+
+  /**
+   * Detects a region of interest, and the full frame in its place on every n-th frame, as
+   * DetectorActivity does with REGION_OF_INTEREST, instead of tiling.
+   *
+   * @param region Left, top, right and bottom of the region, as fractions of the upright frame.
+   * @param fullFrameInterval Detect the full frame instead of the region on every n-th detected
+   *     frame.
+   */
+  public void setRegionOfInterest(final float[] region, final int fullFrameInterval) {
+    final int inputSize = getSquareInputSize();
+    roiScheduler =
+        new RoiScheduler(
+            region[0], region[1], region[2], region[3], inputSize, inputSize, fullFrameInterval);
+    tilePlanner = null;
+    createTileMerger(roiScheduler.getMaxTiles());
+  }
+
+  private int getSquareInputSize() {
+    final int inputSize = detector.getInputWidth();
+    if (detector.getInputHeight() != inputSize) {
+      throw new IllegalArgumentException("Tiling needs a square model input");
+    }
+    return inputSize;
+  }
+
+  private void createTileMerger(final int maxTiles) {
+    final int maxDetections = detector.getMaxDetections();
+    tileMerger =
+        new TileMerger(
+            maxTiles,
+            maxDetections,
+            maxDetections,
+            CLASS_IOU_THRESHOLD,
+            CROSS_CLASS_IOU_THRESHOLD);
+  }
+
+  /** Returns the samplers of a layout's tiles, creating them and their regions on first use. */
+  private YuvInputSampler[] getTileSamplers(final TileLayout layout) {
+    YuvInputSampler[] samplers = tileSamplers.get(layout);
+    if (samplers == null) {
+      final int inputSize = detector.getInputWidth();
+      samplers = new YuvInputSampler[layout.getNumTiles()];
+      final float[] regions = new float[layout.getNumTiles() * 4];
+      for (int tile = 0; tile < layout.getNumTiles(); ++tile) {
+        final float[] tileToCrop = layout.getTileToCrop(tile);
+        samplers[tile] = createSampler(ImageUtils.concatTransformations(cropToFrame, tileToCrop));
+        // The crop is the model input, so a tile spans its scale times the crop.
+        regions[tile * 4] = tileToCrop[2] / inputSize;
+        regions[tile * 4 + 1] = tileToCrop[5] / inputSize;
+        regions[tile * 4 + 2] = regions[tile * 4] + tileToCrop[0];
+        regions[tile * 4 + 3] = regions[tile * 4 + 1] + tileToCrop[4];
+      }
+      tileSamplers.put(layout, samplers);
+      tileRegions.put(layout, regions);
+    }
+    return samplers;
+  }
+
+  /**
+   * Replays the remaining frames of the source.
+   *
+   * @throws InterruptedException If interrupted while waiting for the next frame in real time.
+   */
+  public void run() throws InterruptedException {
+    final long startNs = System.nanoTime();
+    long firstTimestampNs = 0;
+    while (source.next()) {
+      if (realTime) {
+        if (numFrames == 0) {
+          firstTimestampNs = source.getTimestampNs();
+        }
+        final long dueNs = startNs + source.getTimestampNs() - firstTimestampNs;
+        final long waitNs = dueNs - System.nanoTime();
+        if (waitNs > 0) {
+          Thread.sleep(waitNs / 1000000, (int) (waitNs % 1000000));
+        }
+      }
+      processFrame();
+    }
+    elapsedNs = System.nanoTime() - startNs;
+  }
+
+  private void processFrame() {
+    final long frameStartNs = System.nanoTime();
+
+    luminanceFlow.setFrame(source.getYPlane(), source.getYRowStride());
+    propagate();
+
+    if (numFrames++ % detectionInterval == 0
+        && sceneChangeGate.shouldDetect(
+            source.getYPlane(), source.getYRowStride(), source.getTimestampNs())) {
+      // Frames are detected as soon as they are accepted, so none is ever dropped.
+      final boolean heartbeat = sceneChangeGate.isHeartbeat();
+      sceneChangeGate.detectionQueued();
+      preprocessNs = 0;
+      detectNs = 0;
+      postprocessNs = 0;
+      final int numResults = tileMerger != null ? detectTiles() : detectInput(sampler);
+      preprocessLatency.recordNs(preprocessNs);
+      detectLatency.recordNs(detectNs);
+      postprocessLatency.recordNs(postprocessNs);
+
+      final long startNs = System.nanoTime();
+      handleResults(numResults, heartbeat);
+      trackLatency.recordSince(startNs);
+      ++numDetectedFrames;
+    }
+
+    frameLatency.recordSince(frameStartNs);
+  }
+
+  /**
+   * Samples, detects and postprocesses the current frame through one sampler.
+   *
+   * @return The number of detections, in detectionBoxes, detectionClasses and detectionScores.
+   */
+  private int detectInput(final YuvInputSampler inputSampler) {
+    long startNs = System.nanoTime();
+    input.clear();
+    detector.fillInput(
+        source.getYPlane(), source.getUPlane(), source.getVPlane(), inputSampler, input);
+    input.rewind();
+    preprocessNs += System.nanoTime() - startNs;
+
+    startNs = System.nanoTime();
+    final int numCandidates =
+        detector.detect(input, source.getTimestampNs(), boxes, classes, scores);
+    final long runNs = System.nanoTime() - startNs;
+    detectNs += runNs;
+    if (interpreterTuner != null) {
+      interpreterTuner.recordRun(runNs / 1000);
+    }
+
+    startNs = System.nanoTime();
+    final int numResults =
+        postprocessor.process(
+            numCandidates,
+            boxes,
+            classes,
+            scores,
+            detectionBoxes,
+            detectionClasses,
+            detectionScores);
+    postprocessNs += System.nanoTime() - startNs;
+    return numResults;
+  }
+
+  /**
+   * Detects the current frame in the tiles the planner or the region of interest scheduler picks
+   * and merges them into the crop.
+   */
+  private int detectTiles() {
+    layout = roiScheduler != null ? roiScheduler.getLayout() : tilePlanner.getLayout();
+    final YuvInputSampler[] samplers = getTileSamplers(layout);
+    final float[] regions = tileRegions.get(layout);
+    tileMerger.begin(layout);
+    for (int tile = 0; tile < layout.getNumTiles(); ++tile) {
+      final int r = tile * 4;
+      detector.setInputRegion(regions[r], regions[r + 1], regions[r + 2], regions[r + 3]);
+      final long tileDetectNs = detectNs;
+      final int numTileResults = detectInput(samplers[tile]);
+
+      final long startNs = System.nanoTime();
+      int numKept = 0;
+      for (int i = 0; i < numTileResults; ++i) {
+        final int b = i * 4;
+        if (tileMerger.add(
+            tile,
+            detectionBoxes[b],
+            detectionBoxes[b + 1],
+            detectionBoxes[b + 2],
+            detectionBoxes[b + 3],
+            detectionClasses[i],
+            detectionScores[i])) {
+          ++numKept;
+        }
+      }
+      postprocessNs += System.nanoTime() - startNs;
+      if (roiScheduler != null) {
+        roiScheduler.recordRun(layout, (detectNs - tileDetectNs) / 1000, numKept);
+      }
+    }
+    detector.setInputRegion(0, 0, 1, 1);
+
+    final long startNs = System.nanoTime();
+    final int numResults = tileMerger.finish(detectionBoxes, detectionClasses, detectionScores);
+    postprocessNs += System.nanoTime() - startNs;
+    if (roiScheduler != null) {
+      roiScheduler.recordFrame(layout);
+    } else {
+      tilePlanner.recordFrame(layout, detectNs / 1000);
+    }
+    return numResults;
+  }
+
+  private void handleResults(final int numResults, final boolean heartbeat) {
+    int numDetections = 0;
+    for (int i = 0; i < numResults; ++i) {
+      presenceVoter.add(detectionClasses[i]);
+      sceneChangeGate.addDetection(detectionClasses[i]);
+
+      final int b = numDetections * 4;
+      mapToFrame(detectionBoxes, i * 4, frameBoxes, b);
+      if (frameBoxes[b + 2] - frameBoxes[b] < MIN_SIZE
+          || frameBoxes[b + 3] - frameBoxes[b + 1] < MIN_SIZE) {
+        continue;
+      }
+      frameClasses[numDetections] = detectionClasses[i];
+      frameScores[numDetections] = detectionScores[i];
+      ++numDetections;
+    }
+    sceneChangeGate.endDetections(heartbeat);
+    if (layout != null && !layout.hasFullFrame()) {
+      // Tracks outside the region of interest are kept until the next full frame, and vote as
+      // they were last seen.
+      layout.getBounds(searchedBox);
+      mapToFrame(searchedBox, 0, searchedRegion, 0);
+      tracker.update(
+          numDetections,
+          frameBoxes,
+          frameClasses,
+          frameScores,
+          searchedRegion[0],
+          searchedRegion[1],
+          searchedRegion[2],
+          searchedRegion[3]);
+      tracker.addUnsearchedClasses(presenceVoter);
+    } else {
+      tracker.update(numDetections, frameBoxes, frameClasses, frameScores);
+    }
+    presenceVoter.endFrame(countingListener);
+  }
+
+  /** Moves the confirmed tracks along with the image, as MultiBoxTracker.onFrame() does. */
+  private void propagate() {
+    for (int t = 0; t < tracker.getNumTracks(); ++t) {
+      if (!tracker.isConfirmed(t)) {
+        continue;
+      }
+      tracker.getBox(t, trackBox, 0);
+      if (luminanceFlow.estimate(trackBox[0], trackBox[1], trackBox[2], trackBox[3], motion)) {
+        tracker.translate(t, motion[0], motion[1]);
+      }
+    }
+  }
+
+  /** Maps a box from input to frame coordinates, as Matrix.mapRect() does for cropToFrame. */
+  private void mapToFrame(final float[] src, final int s, final float[] dst, final int d) {
+    final float[] m = cropToFrame;
+    float left = Float.MAX_VALUE;
+    float top = Float.MAX_VALUE;
+    float right = -Float.MAX_VALUE;
+    float bottom = -Float.MAX_VALUE;
+    for (int corner = 0; corner < 4; ++corner) {
+      final float x = src[s + (corner & 1) * 2];
+      final float y = src[s + 1 + (corner >> 1) * 2];
+      final float fx = m[0] * x + m[1] * y + m[2];
+      final float fy = m[3] * x + m[4] * y + m[5];
+      left = Math.min(left, fx);
+      top = Math.min(top, fy);
+      right = Math.max(right, fx);
+      bottom = Math.max(bottom, fy);
+    }
+    dst[d] = left;
+    dst[d + 1] = top;
+    dst[d + 2] = right;
+    dst[d + 3] = bottom;
+  }
+
+  public int getNumFrames() {
+    return numFrames;
+  }
+
+  public int getNumDetectedFrames() {
+    return numDetectedFrames;
+  }
+
+  public int getNumEnters() {
+    return numEnters;
+  }
+
+  public int getNumLeaves() {
+    return numLeaves;
+  }
+
+  /** Returns the frames processed per second of wall time over the last run. */
+  public double getFramesPerSecond() {
+    return elapsedNs > 0 ? numFrames * 1e9 / elapsedNs : 0.0;
+  }
+
+  /** Writes the per-stage histograms as CSV, in the format of the on-device latency exports. */
+  public void writeStats(final Writer writer) throws IOException {
+    preprocessLatency.writeCsv(writer);
+    detectLatency.writeCsv(writer);
+    postprocessLatency.writeCsv(writer);
+    trackLatency.writeCsv(writer);
+    frameLatency.writeCsv(writer);
+    if (tilePlanner != null) {
+      tilePlanner.writeStats(writer);
+    }
+    if (roiScheduler != null) {
+      roiScheduler.writeStats(writer);
+    }
+  }
+
+  public String getStatString() {
+    return String.format(
+            "%d frames, %d detected, %.1f fps, %d announcements, %d departures\n",
+            numFrames, numDetectedFrames, getFramesPerSecond(), numEnters, numLeaves)
+        + preprocessLatency
+        + "\n"
+        + detectLatency
+        + "\n"
+        + postprocessLatency
+        + "\n"
+        + trackLatency
+        + "\n"
+        + frameLatency
+        + "\n"
+        + sceneChangeGate.getStatString()
+        + (interpreterTuner != null ? "\n" + interpreterTuner.getStatString() : "")
+        + (tilePlanner != null
+            ? "\n" + tilePlanner.getStatString() + "\n" + tileMerger.getStatString()
+            : "")
+        + (roiScheduler != null ? "\n" + roiScheduler.getStatString() : "");
+  }
+}
@@ -0,0 +1,195 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.replay;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A recorded sequence of YUV420 frames, memory-mapped for reading.
+ *
+ * <p>The file starts with a header of little endian ints: the magic number, the format version,
+ * the frame width and height, the luminance row stride, the chroma row and pixel strides, the
+ * rotation in degrees, the sizes of the Y, U and V planes in bytes and the chroma layout. Every
+ * frame follows as its timestamp in nanoseconds, as a little endian long, and the planes as they
+ * were in memory, so all frames have the same size and frame i is found without an index. For
+ * NV21 the two chroma planes are views of one interleaved VU plane, which is stored only once.
+ * Frames are read in place from the mapping; nothing is copied.
+ */
+public class YuvSequence implements FrameSource {
+  static final int MAGIC = 0x53565559; // "YUVS"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 12 * 4;
+  static final int TIMESTAMP_SIZE = 8;
+
+  /** Chroma layout of separately stored U and V planes. */
+  static final int CHROMA_PLANAR = 0;
+  /** Chroma layout of a single VU plane, where the U plane starts one byte into the V plane. */
+  static final int CHROMA_INTERLEAVED_VU = 1;
+
+  private final RandomAccessFile file;
+  private final MappedByteBuffer mapping;
+  private final int width;
+  private final int height;
+  private final int yRowStride;
+  private final int uvRowStride;
+  private final int uvPixelStride;
+  private final int rotation;
+  private final int ySize;
+  private final int uSize;
+  private final int vSize;
+  private final int chromaLayout;
+  private final int frameSize;
+  private final int numFrames;
+
+  private int frameIndex = -1;
+  private long timestampNs;
+  private ByteBuffer yPlane;
+  private ByteBuffer uPlane;
+  private ByteBuffer vPlane;
+
+  /** Opens a recording; the whole file is mapped, so it must be smaller than 2 GB. */
+  public YuvSequence(final File path) throws IOException {
+    file = new RandomAccessFile(path, "r");
+    try {
+      final long length = file.length();
+      if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+        throw new IOException("Cannot map " + path + " of " + length + " bytes");
+      }
+      mapping = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+      mapping.order(ByteOrder.LITTLE_ENDIAN);
+      if (mapping.getInt(0) != MAGIC || mapping.getInt(4) != VERSION) {
+        throw new IOException(path + " is not a version " + VERSION + " YUV sequence");
+      }
+      width = mapping.getInt(8);
+      height = mapping.getInt(12);
+      yRowStride = mapping.getInt(16);
+      uvRowStride = mapping.getInt(20);
+      uvPixelStride = mapping.getInt(24);
+      rotation = mapping.getInt(28);
+      ySize = mapping.getInt(32);
+      uSize = mapping.getInt(36);
+      vSize = mapping.getInt(40);
+      chromaLayout = mapping.getInt(44);
+      frameSize = TIMESTAMP_SIZE + ySize + getChromaSize(chromaLayout, uSize, vSize);
+      numFrames = (int) ((length - HEADER_SIZE) / frameSize);
+    } catch (final IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  public int getNumFrames() {
+    return numFrames;
+  }
+
+  /** Goes back to before the first frame, so the sequence can be replayed. */
+  public void rewind() {
+    frameIndex = -1;
+  }
+
+  @Override
+  public boolean next() {
+    if (frameIndex + 1 >= numFrames) {
+      return false;
+    }
+    ++frameIndex;
+    final int offset = HEADER_SIZE + frameIndex * frameSize;
+    timestampNs = mapping.getLong(offset);
+    final int chromaOffset = offset + TIMESTAMP_SIZE + ySize;
+    yPlane = slice(offset + TIMESTAMP_SIZE, ySize);
+    if (chromaLayout == CHROMA_INTERLEAVED_VU) {
+      vPlane = slice(chromaOffset, vSize);
+      uPlane = slice(chromaOffset + 1, uSize);
+    } else {
+      uPlane = slice(chromaOffset, uSize);
+      vPlane = slice(chromaOffset + uSize, vSize);
+    }
+    return true;
+  }
+
+  /** Returns the number of bytes the chroma planes of a frame take up in the file. */
+  static int getChromaSize(final int chromaLayout, final int uSize, final int vSize) {
+    return chromaLayout == CHROMA_INTERLEAVED_VU ? Math.max(uSize + 1, vSize) : uSize + vSize;
+  }
+
+  private ByteBuffer slice(final int offset, final int size) {
+    final ByteBuffer buffer = mapping.duplicate();
+    buffer.limit(offset + size);
+    buffer.position(offset);
+    return buffer.slice();
+  }
+
+  @Override
+  public int getWidth() {
+    return width;
+  }
+
+  @Override
+  public int getHeight() {
+    return height;
+  }
+
+  @Override
+  public int getYRowStride() {
+    return yRowStride;
+  }
+
+  @Override
+  public int getUvRowStride() {
+    return uvRowStride;
+  }
+
+  @Override
+  public int getUvPixelStride() {
+    return uvPixelStride;
+  }
+
+  @Override
+  public int getRotation() {
+    return rotation;
+  }
+
+  @Override
+  public long getTimestampNs() {
+    return timestampNs;
+  }
+
+  @Override
+  public ByteBuffer getYPlane() {
+    return yPlane;
+  }
+
+  @Override
+  public ByteBuffer getUPlane() {
+    return uPlane;
+  }
+
+  @Override
+  public ByteBuffer getVPlane() {
+    return vPlane;
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+}
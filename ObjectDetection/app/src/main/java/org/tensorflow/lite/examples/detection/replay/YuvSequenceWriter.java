@@ -0,0 +1,194 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.replay;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/** Records YUV420 frames in the format read by {@link YuvSequence}. */
+public class YuvSequenceWriter implements Closeable {
+  private final FileChannel channel;
+  private final int ySize;
+  private final int uSize;
+  private final int vSize;
+  private final int chromaLayout;
+  private final ByteBuffer timestamp =
+      ByteBuffer.allocate(YuvSequence.TIMESTAMP_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  private int numFrames;
+
+  /**
+   * Creates the file and writes the header. Every frame must then have planes of exactly the given
+   * sizes, which for a camera stream do not change once it is running.
+   */
+  public YuvSequenceWriter(
+      final File file,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int rotation,
+      final int ySize,
+      final int uSize,
+      final int vSize)
+      throws IOException {
+    this(
+        file,
+        width,
+        height,
+        yRowStride,
+        uvRowStride,
+        uvPixelStride,
+        rotation,
+        ySize,
+        uSize,
+        vSize,
+        YuvSequence.CHROMA_PLANAR);
+  }
+
+  private YuvSequenceWriter(
+      final File file,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int rotation,
+      final int ySize,
+      final int uSize,
+      final int vSize,
+      final int chromaLayout)
+      throws IOException {
+    this.ySize = ySize;
+    this.uSize = uSize;
+    this.vSize = vSize;
+    this.chromaLayout = chromaLayout;
+    channel = new FileOutputStream(file).getChannel();
+
+    final ByteBuffer header =
+        ByteBuffer.allocate(YuvSequence.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    header
+        .putInt(YuvSequence.MAGIC)
+        .putInt(YuvSequence.VERSION)
+        .putInt(width)
+        .putInt(height)
+        .putInt(yRowStride)
+        .putInt(uvRowStride)
+        .putInt(uvPixelStride)
+        .putInt(rotation)
+        .putInt(ySize)
+        .putInt(uSize)
+        .putInt(vSize)
+        .putInt(chromaLayout);
+    header.flip();
+    try {
+      writeFully(header);
+    } catch (final IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Appends a frame of separately stored planes. The planes are written from their current
+   * positions, which are left unchanged.
+   */
+  public void writeFrame(
+      final long timestampNs,
+      final ByteBuffer yPlane,
+      final ByteBuffer uPlane,
+      final ByteBuffer vPlane)
+      throws IOException {
+    if (chromaLayout != YuvSequence.CHROMA_PLANAR) {
+      throw new IllegalStateException("Recording interleaved chroma, use writeNv21Frame()");
+    }
+    if (yPlane.remaining() != ySize || uPlane.remaining() != uSize || vPlane.remaining() != vSize) {
+      throw new IllegalArgumentException(
+          String.format(
+              "Planes of %d, %d and %d bytes do not match the recording's %d, %d and %d",
+              yPlane.remaining(), uPlane.remaining(), vPlane.remaining(), ySize, uSize, vSize));
+    }
+    writeTimestamp(timestampNs);
+    writeFully(yPlane.duplicate());
+    writeFully(uPlane.duplicate());
+    writeFully(vPlane.duplicate());
+    ++numFrames;
+  }
+
+  /**
+   * Appends an NV21 frame as delivered by the android.hardware.Camera preview callback. It is read
+   * back as a luminance plane and the two overlapping views of the interleaved VU plane that
+   * Camera2 would return. The writer must have been created with {@link #forNv21}.
+   */
+  public void writeNv21Frame(final long timestampNs, final byte[] nv21) throws IOException {
+    if (chromaLayout != YuvSequence.CHROMA_INTERLEAVED_VU) {
+      throw new IllegalStateException("Not recording NV21 frames");
+    }
+    final int size = ySize + YuvSequence.getChromaSize(chromaLayout, uSize, vSize);
+    if (nv21.length < size) {
+      throw new IllegalArgumentException(
+          "NV21 frame of " + nv21.length + " bytes is smaller than " + size);
+    }
+    writeTimestamp(timestampNs);
+    writeFully(ByteBuffer.wrap(nv21, 0, size));
+    ++numFrames;
+  }
+
+  /** Creates a writer for NV21 frames, see {@link #writeNv21Frame}. */
+  public static YuvSequenceWriter forNv21(
+      final File file, final int width, final int height, final int rotation) throws IOException {
+    final int frameSize = width * height;
+    final int chromaSize = frameSize / 2 - 1;
+    return new YuvSequenceWriter(
+        file,
+        width,
+        height,
+        width,
+        width,
+        2,
+        rotation,
+        frameSize,
+        chromaSize,
+        chromaSize,
+        YuvSequence.CHROMA_INTERLEAVED_VU);
+  }
+
+  private void writeTimestamp(final long timestampNs) throws IOException {
+    timestamp.clear();
+    timestamp.putLong(timestampNs).flip();
+    writeFully(timestamp);
+  }
+
+  private void writeFully(final ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  public int getNumFrames() {
+    return numFrames;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,326 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.speech;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+/**
+ * Keeps recently spoken phrases as synthesized audio, so they can be played back without waiting
+ * for the speech engine.
+ *
+ * <p>A phrase is synthesized to a file in the background the first time it is needed, and then
+ * decoded into a SoundPool, which starts playing in a few milliseconds. The cache is bounded by
+ * the size of its files, evicting the least recently played phrase first. The audio depends on
+ * the engine's locale and voice, so every phrase is thrown away when either changes.
+ *
+ * <p>The cache only decides which phrases to keep; synthesizing, decoding and playing them is left
+ * to an {@link Audio}, which the speech service backs with its engine and a SoundPool.
+ */
+public class PhraseCache {
+  /** Synthesizes and plays the phrases of the cache. */
+  public interface Audio {
+    /**
+     * Starts synthesizing a phrase into a WAV file in the background. The end of the synthesis
+     * must be reported to {@link PhraseCache#onSynthesisDone}.
+     *
+     * @return false if the synthesis could not be started.
+     */
+    boolean synthesize(String text, File file, String utteranceId);
+
+    /**
+     * Starts decoding a WAV file for playback. The end of the decoding must be reported to
+     * {@link PhraseCache#onLoaded}.
+     *
+     * @return The id of the sound.
+     */
+    int load(File file);
+
+    void unload(int soundId);
+
+    /**
+     * Starts playing a decoded sound.
+     *
+     * @return The id of the stream playing it, or 0 if it could not be played.
+     */
+    int play(int soundId);
+
+    void stop(int streamId);
+  }
+
+  private static final Logger LOGGER = new Logger();
+
+  // Utterance ids of syntheses start with this, to tell them apart from spoken utterances.
+  private static final String SYNTHESIS_ID_PREFIX = "phrase-";
+  // Size of the canonical WAV header written by the engines, and the offset of the byte rate in it.
+  private static final int WAV_HEADER_SIZE = 44;
+  private static final int WAV_BYTE_RATE_OFFSET = 28;
+
+  private static class Phrase {
+    final String text;
+    final File file;
+    int soundId;
+    boolean loaded;
+    // Size of the file once synthesized, 0 while it is being synthesized.
+    long bytes;
+    long durationMs;
+
+    Phrase(final String text, final File file) {
+      this.text = text;
+      this.file = file;
+    }
+  }
+
+  private final File directory;
+  private final long maxBytes;
+  private final Audio audio;
+
+  // Every phrase that is synthesized or being synthesized, least recently played first.
+  private final LinkedHashMap<String, Phrase> phrases =
+      new LinkedHashMap<String, Phrase>(16, 0.75f, true);
+  private final HashMap<String, Phrase> synthesizing = new HashMap<String, Phrase>();
+  private final HashMap<Integer, Phrase> loading = new HashMap<Integer, Phrase>();
+
+  private String voiceKey;
+  private long totalBytes;
+  private int nextId;
+  private int playingStreamId;
+
+  private int hits;
+  private int misses;
+  private int evictions;
+  private int invalidations;
+
+  /**
+   * @param directory Directory for the audio files. Anything already in it is deleted, since it
+   *     may have been synthesized with another voice.
+   * @param maxBytes Maximum total size of the audio files.
+   * @param audio Synthesizes and plays the phrases.
+   */
+  public PhraseCache(final File directory, final long maxBytes, final Audio audio) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.audio = audio;
+    deleteFiles();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      LOGGER.w("Could not create %s", directory);
+    }
+  }
+
+  /** Returns whether an utterance id belongs to a synthesis started by the cache. */
+  public static boolean isSynthesisId(final String utteranceId) {
+    return utteranceId.startsWith(SYNTHESIS_ID_PREFIX);
+  }
+
+  /**
+   * Sets the locale and voice the engine speaks with, dropping every phrase if they changed.
+   *
+   * @param voiceKey Anything that identifies both, e.g. the voice name and locale.
+   */
+  public synchronized void setVoice(final String voiceKey) {
+    if (voiceKey.equals(this.voiceKey)) {
+      return;
+    }
+    if (this.voiceKey != null) {
+      LOGGER.i(
+          "Voice changed from %s to %s, dropping %d phrases",
+          this.voiceKey,
+          voiceKey,
+          phrases.size());
+      ++invalidations;
+    }
+    this.voiceKey = voiceKey;
+    clear();
+  }
+
+  /**
+   * Starts synthesizing a phrase in the background, unless it is cached or being synthesized
+   * already.
+   */
+  public synchronized void prefetch(final String text) {
+    if (phrases.containsKey(text)) {
+      return;
+    }
+    final String utteranceId = SYNTHESIS_ID_PREFIX + nextId++;
+    final Phrase phrase = new Phrase(text, new File(directory, utteranceId + ".wav"));
+    if (!audio.synthesize(text, phrase.file, utteranceId)) {
+      LOGGER.w("Could not synthesize \"%s\"", text);
+      return;
+    }
+    phrases.put(text, phrase);
+    synthesizing.put(utteranceId, phrase);
+  }
+
+  /** Loads a synthesized phrase for playback, or forgets it if the synthesis failed. */
+  public synchronized void onSynthesisDone(final String utteranceId, final boolean success) {
+    final Phrase phrase = synthesizing.remove(utteranceId);
+    if (phrase == null) {
+      // Dropped while it was being synthesized.
+      return;
+    }
+    phrase.durationMs = success ? readDurationMs(phrase.file) : -1;
+    if (phrase.durationMs < 0) {
+      remove(phrase);
+      return;
+    }
+    phrase.bytes = phrase.file.length();
+    totalBytes += phrase.bytes;
+    phrase.soundId = audio.load(phrase.file);
+    loading.put(phrase.soundId, phrase);
+    evict();
+  }
+
+  /** Makes a decoded phrase playable, or forgets it if it could not be decoded. */
+  public synchronized void onLoaded(final int soundId, final boolean success) {
+    final Phrase phrase = loading.remove(soundId);
+    if (phrase == null) {
+      return;
+    }
+    if (success) {
+      phrase.loaded = true;
+    } else {
+      LOGGER.w("Could not load \"%s\"", phrase.text);
+      remove(phrase);
+    }
+  }
+
+  /**
+   * Starts playing a cached phrase.
+   *
+   * @return The duration of the phrase in milliseconds, or -1 if it is not cached and must be
+   *     spoken by the engine.
+   */
+  public synchronized long play(final String text) {
+    final Phrase phrase = phrases.get(text);
+    if (phrase == null || !phrase.loaded) {
+      ++misses;
+      return -1;
+    }
+    playingStreamId = audio.play(phrase.soundId);
+    if (playingStreamId == 0) {
+      ++misses;
+      return -1;
+    }
+    ++hits;
+    return phrase.durationMs;
+  }
+
+  /** Stops the phrase that is playing, if any. */
+  public synchronized void stop() {
+    if (playingStreamId != 0) {
+      audio.stop(playingStreamId);
+      playingStreamId = 0;
+    }
+  }
+
+  /**
+   * Forgets the phrases that are being synthesized, e.g. because the engine's queue was flushed
+   * and they will never be done.
+   */
+  public synchronized void cancelSyntheses() {
+    for (final Phrase phrase : synthesizing.values()) {
+      remove(phrase);
+    }
+    synthesizing.clear();
+  }
+
+  /** Drops every phrase. */
+  public synchronized void clear() {
+    stop();
+    for (final Phrase phrase : phrases.values()) {
+      if (phrase.soundId != 0) {
+        audio.unload(phrase.soundId);
+      }
+    }
+    phrases.clear();
+    synthesizing.clear();
+    loading.clear();
+    totalBytes = 0;
+    deleteFiles();
+  }
+
+  public synchronized String getStatString() {
+    return String.format(
+        "phrases=%d (%d KB) hits=%d misses=%d evictions=%d invalidations=%d",
+        phrases.size(), totalBytes / 1024, hits, misses, evictions, invalidations);
+  }
+
+  // Removes the least recently played phrases until the files fit into the budget. Phrases still
+  // being synthesized have no size yet and are skipped.
+  private void evict() {
+    final Iterator<Phrase> it = phrases.values().iterator();
+    while (totalBytes > maxBytes && it.hasNext()) {
+      final Phrase phrase = it.next();
+      if (phrase.bytes > 0) {
+        it.remove();
+        release(phrase);
+        ++evictions;
+      }
+    }
+  }
+
+  private void remove(final Phrase phrase) {
+    phrases.remove(phrase.text);
+    release(phrase);
+  }
+
+  private void release(final Phrase phrase) {
+    if (phrase.soundId != 0) {
+      loading.remove(phrase.soundId);
+      audio.unload(phrase.soundId);
+    }
+    totalBytes -= phrase.bytes;
+    if (phrase.file.exists() && !phrase.file.delete()) {
+      LOGGER.w("Could not delete %s", phrase.file);
+    }
+  }
+
+  private void deleteFiles() {
+    final File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (final File file : files) {
+      if (!file.delete()) {
+        LOGGER.w("Could not delete %s", file);
+      }
+    }
+  }
+
+  // Returns the playing time of a WAV file, or -1 if it cannot be read.
+  private static long readDurationMs(final File file) {
+    try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+      if (input.length() <= WAV_HEADER_SIZE) {
+        return -1;
+      }
+      input.seek(WAV_BYTE_RATE_OFFSET);
+      // The header is little endian.
+      final int byteRate = Integer.reverseBytes(input.readInt());
+      if (byteRate <= 0) {
+        return -1;
+      }
+      return (input.length() - WAV_HEADER_SIZE) * 1000 / byteRate;
+    } catch (final IOException e) {
+      LOGGER.w(e, "Could not read %s", file);
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,315 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.speech;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.SoundPool;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
+import android.speech.tts.Voice;
+import android.widget.Toast;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Locale;
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.speech.UtteranceQueue.Priority;
+import org.tensorflow.lite.examples.detection.speech.UtteranceQueue.Utterance;
+
+/**
+ * The one text to speech engine of the app.
+ *
+ * <p>Binding a TextToSpeech engine takes hundreds of milliseconds, so it is created once for the
+ * process and shared by every activity. Announcements go through an {@link UtteranceQueue}, and
+ * the engine is handed a single utterance at a time, so which one goes next and whether it is
+ * still worth saying is decided right before it is spoken rather than when it was queued. A
+ * hazard interrupts anything less urgent that is being spoken.
+ *
+ * <p>Spoken phrases are also synthesized into a {@link PhraseCache} in the background, and played
+ * from there the next time they come up, which starts the audio in tens of milliseconds instead
+ * of the hundreds the engine takes to synthesize a phrase from scratch.
+ */
+public class SpeechService {
+  private static final Logger LOGGER = new Logger();
+
+  private static final int MAX_QUEUE_DEPTH = 8;
+  private static final long MIN_REPEAT_INTERVAL_MS = 5000;
+  // A phrase takes around 50 KB, so this holds the announcements of every label in the model.
+  private static final long MAX_PHRASE_CACHE_BYTES = 8 * 1024 * 1024;
+
+  private static SpeechService instance;
+
+  private final Context context;
+  private final UtteranceQueue queue = new UtteranceQueue(MAX_QUEUE_DEPTH, MIN_REPEAT_INTERVAL_MS);
+  private final PhraseCache phraseCache;
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  // Phrases to synthesize once the engine is ready.
+  private final ArrayList<String> pendingPrefetches = new ArrayList<String>();
+  private TextToSpeech textToSpeech;
+  private Locale locale = Locale.US;
+  private boolean ready;
+  // The utterance the engine or the phrase cache is speaking or about to speak.
+  private Utterance speaking;
+
+  /** Returns the shared service, creating its engine on first use. */
+  public static synchronized SpeechService getInstance(final Context context) {
+    if (instance == null) {
+      instance = new SpeechService(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  private SpeechService(final Context context) {
+    this.context = context;
+    phraseCache =
+        new PhraseCache(
+            new File(context.getCacheDir(), "phrases"), MAX_PHRASE_CACHE_BYTES, new EngineAudio());
+    synchronized (this) {
+      textToSpeech =
+          new TextToSpeech(
+              context,
+              new TextToSpeech.OnInitListener() {
+                @Override
+                public void onInit(final int status) {
+                  onEngineInitialized(status);
+                }
+              });
+      textToSpeech.setOnUtteranceProgressListener(
+          new UtteranceProgressListener() {
+            @Override
+            public void onStart(final String utteranceId) {
+              if (!PhraseCache.isSynthesisId(utteranceId)) {
+                onUtteranceStarted(utteranceId);
+              }
+            }
+
+            @Override
+            public void onDone(final String utteranceId) {
+              if (PhraseCache.isSynthesisId(utteranceId)) {
+                phraseCache.onSynthesisDone(utteranceId, true);
+              } else {
+                onUtteranceFinished(utteranceId);
+              }
+            }
+
+            @Override
+            public void onError(final String utteranceId) {
+              LOGGER.w("Failed to speak utterance %s", utteranceId);
+              if (PhraseCache.isSynthesisId(utteranceId)) {
+                phraseCache.onSynthesisDone(utteranceId, false);
+              } else {
+                onUtteranceFinished(utteranceId);
+              }
+            }
+          });
+    }
+  }
+
+  /**
+   * Queues an announcement. May be called from any thread.
+   *
+   * @param key What the announcement is about, e.g. its label; a pending announcement with the
+   *     same key is replaced, and one spoken recently suppresses it.
+   * @param text The text to say.
+   * @param priority How urgent the announcement is.
+   * @param maxAgeMs Time after which the announcement is no longer worth saying.
+   */
+  public synchronized void speak(
+      final String key, final String text, final Priority priority, final long maxAgeMs) {
+    if (!queue.offer(key, text, priority, SystemClock.uptimeMillis(), maxAgeMs)) {
+      return;
+    }
+    if (speaking != null
+        && priority == Priority.HAZARD
+        && speaking.getPriority() != Priority.HAZARD) {
+      LOGGER.d("Interrupting \"%s\" for a hazard", speaking.getText());
+      // Stopping the engine also flushes the phrases it was synthesizing.
+      textToSpeech.stop();
+      phraseCache.stop();
+      phraseCache.cancelSyntheses();
+      speaking = null;
+    }
+    speakNext();
+  }
+
+  /**
+   * Synthesizes a phrase into the cache ahead of time, so that it plays without delay the first
+   * time it is spoken, too.
+   */
+  public synchronized void prefetch(final String text) {
+    if (ready) {
+      phraseCache.prefetch(text);
+    } else {
+      pendingPrefetches.add(text);
+    }
+  }
+
+  /** Switches the language, dropping the phrases cached in the previous one. */
+  public synchronized void setLanguage(final Locale locale) {
+    this.locale = locale;
+    if (ready) {
+      applyLanguage();
+    }
+  }
+
+  private void applyLanguage() {
+    final int ttsLang = textToSpeech.setLanguage(locale);
+    if (ttsLang == TextToSpeech.LANG_MISSING_DATA || ttsLang == TextToSpeech.LANG_NOT_SUPPORTED) {
+      LOGGER.e("The Language is not supported!");
+    }
+    updateVoice();
+  }
+
+  public synchronized String getStatString() {
+    return queue.getStatString() + " " + phraseCache.getStatString();
+  }
+
+  private synchronized void onEngineInitialized(final int status) {
+    if (status != TextToSpeech.SUCCESS) {
+      LOGGER.e("TTS initialization failed: %d", status);
+      Toast.makeText(context, "TTS Initialization failed!", Toast.LENGTH_SHORT).show();
+      return;
+    }
+    ready = true;
+    applyLanguage();
+    for (final String text : pendingPrefetches) {
+      phraseCache.prefetch(text);
+    }
+    pendingPrefetches.clear();
+    speakNext();
+  }
+
+  // Tells the cache which voice the engine speaks with, which can also change in the system
+  // settings while the app is running.
+  private void updateVoice() {
+    final Voice voice = textToSpeech.getVoice();
+    phraseCache.setVoice(
+        voice != null ? voice.getName() + "/" + voice.getLocale() : String.valueOf(locale));
+  }
+
+  private synchronized void onUtteranceStarted(final String utteranceId) {
+    if (speaking != null && speaking.getId().equals(utteranceId)) {
+      queue.onStarted(speaking, SystemClock.uptimeMillis());
+      LOGGER.d("Speaking \"%s\": %s", speaking.getText(), getStatString());
+    }
+  }
+
+  private synchronized void onPhraseFinished(final String utteranceId) {
+    if (speaking != null && speaking.getId().equals(utteranceId)) {
+      phraseCache.stop();
+      speaking = null;
+      speakNext();
+    }
+  }
+
+  private synchronized void onUtteranceFinished(final String utteranceId) {
+    if (speaking != null && speaking.getId().equals(utteranceId)) {
+      speaking = null;
+      speakNext();
+    }
+  }
+
+  private void speakNext() {
+    while (ready && speaking == null) {
+      final Utterance utterance = queue.poll(SystemClock.uptimeMillis());
+      if (utterance == null) {
+        return;
+      }
+      speaking = utterance;
+      updateVoice();
+
+      final long durationMs = phraseCache.play(utterance.getText());
+      if (durationMs >= 0) {
+        queue.onStarted(utterance, SystemClock.uptimeMillis());
+        LOGGER.d("Playing \"%s\": %s", utterance.getText(), getStatString());
+        // SoundPool does not report the end of a sound.
+        handler.postDelayed(
+            new Runnable() {
+              @Override
+              public void run() {
+                onPhraseFinished(utterance.getId());
+              }
+            },
+            durationMs);
+        return;
+      }
+
+      // Queued behind any running synthesis, which is faster than real time.
+      final int speechStatus =
+          textToSpeech.speak(utterance.getText(), TextToSpeech.QUEUE_ADD, null, utterance.getId());
+      if (speechStatus == TextToSpeech.ERROR) {
+        LOGGER.e("Error in converting Text to Speech!");
+        speaking = null;
+      } else {
+        phraseCache.prefetch(utterance.getText());
+      }
+    }
+  }
+
+  /** Synthesizes the phrases of the cache with the engine and plays them through a SoundPool. */
+  private class EngineAudio implements PhraseCache.Audio {
+    private final SoundPool soundPool;
+
+    EngineAudio() {
+      soundPool =
+          new SoundPool.Builder()
+              .setMaxStreams(1)
+              .setAudioAttributes(
+                  new AudioAttributes.Builder()
+                      .setUsage(AudioAttributes.USAGE_ASSISTANCE_ACCESSIBILITY)
+                      .setContentType(AudioAttributes.CONTENT_TYPE_SPEECH)
+                      .build())
+              .build();
+      soundPool.setOnLoadCompleteListener(
+          new SoundPool.OnLoadCompleteListener() {
+            @Override
+            public void onLoadComplete(
+                final SoundPool soundPool, final int sampleId, final int status) {
+              phraseCache.onLoaded(sampleId, status == 0);
+            }
+          });
+    }
+
+    @Override
+    public boolean synthesize(final String text, final File file, final String utteranceId) {
+      // Only called once the engine is ready, with the service locked.
+      return textToSpeech.synthesizeToFile(text, null, file, utteranceId) == TextToSpeech.SUCCESS;
+    }
+
+    @Override
+    public int load(final File file) {
+      return soundPool.load(file.getPath(), 1);
+    }
+
+    @Override
+    public void unload(final int soundId) {
+      soundPool.unload(soundId);
+    }
+
+    @Override
+    public int play(final int soundId) {
+      return soundPool.play(soundId, 1.0f, 1.0f, 1, 0, 1.0f);
+    }
+
+    @Override
+    public void stop(final int streamId) {
+      soundPool.stop(streamId);
+    }
+  }
+}
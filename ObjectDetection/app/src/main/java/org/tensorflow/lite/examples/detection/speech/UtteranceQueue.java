@@ -0,0 +1,248 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.speech;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Orders pending announcements for a single speech engine.
+ *
+ * <p>An utterance is identified by a key, typically the label it is about. Offering an utterance
+ * whose key is already queued merges the two instead of saying the same thing twice, and a key
+ * that was spoken recently is not queued again until its repeat interval has passed. Utterances
+ * that have waited past their deadline are dropped rather than spoken late; of the rest, the most
+ * urgent priority is spoken first and the oldest one within a priority.
+ *
+ * <p>The queue is only a policy and never calls the engine. It is safe to use from several
+ * threads.
+ */
+public class UtteranceQueue {
+  /** How urgent an utterance is, most urgent first. */
+  public enum Priority {
+    /** Something the user may run into. */
+    HAZARD,
+    /** A reply to something the user just did. */
+    FEEDBACK,
+    /** A description of the surroundings. */
+    SCENERY
+  }
+
+  /** A queued announcement. */
+  public static class Utterance {
+    private final String id;
+    private final String key;
+    private String text;
+    private Priority priority;
+    private final long enqueuedAtMs;
+    private long deadlineMs;
+
+    Utterance(
+        final String id,
+        final String key,
+        final String text,
+        final Priority priority,
+        final long enqueuedAtMs,
+        final long deadlineMs) {
+      this.id = id;
+      this.key = key;
+      this.text = text;
+      this.priority = priority;
+      this.enqueuedAtMs = enqueuedAtMs;
+      this.deadlineMs = deadlineMs;
+    }
+
+    /** Returns an id that is unique within the queue, for the engine's progress callbacks. */
+    public String getId() {
+      return id;
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    public String getText() {
+      return text;
+    }
+
+    public Priority getPriority() {
+      return priority;
+    }
+
+    public long getEnqueuedAtMs() {
+      return enqueuedAtMs;
+    }
+  }
+
+  private final int maxDepth;
+  private final long minRepeatIntervalMs;
+
+  private final ArrayList<Utterance> pending = new ArrayList<Utterance>();
+  // Time each key was last taken to be spoken.
+  private final HashMap<String, Long> lastSpokenMs = new HashMap<String, Long>();
+  private int nextId;
+
+  private int offered;
+  private int merged;
+  private int rateLimited;
+  private int overflowed;
+  private int expired;
+  private int spoken;
+  private int maxQueueDepth;
+  private long totalLatencyMs;
+  private long maxLatencyMs;
+  private long lastLatencyMs;
+  private int latencySamples;
+
+  /**
+   * @param maxDepth Maximum number of pending utterances. When full, the least urgent one makes
+   *     room for a new one that is at least as urgent.
+   * @param minRepeatIntervalMs Minimum time between two utterances with the same key.
+   */
+  public UtteranceQueue(final int maxDepth, final long minRepeatIntervalMs) {
+    this.maxDepth = maxDepth;
+    this.minRepeatIntervalMs = minRepeatIntervalMs;
+  }
+
+  /**
+   * Queues an utterance, or merges it into a pending one with the same key, which then takes the
+   * newer text, the more urgent priority and the later deadline.
+   *
+   * @param key Identifies what the utterance is about; the text is used if null.
+   * @param maxAgeMs Time after which the utterance is dropped if it has not been spoken.
+   * @return false if the utterance was rejected by the rate limit or a full queue.
+   */
+  public synchronized boolean offer(
+      final String key,
+      final String text,
+      final Priority priority,
+      final long nowMs,
+      final long maxAgeMs) {
+    ++offered;
+    final String utteranceKey = key != null ? key : text;
+    final long deadlineMs = nowMs + maxAgeMs;
+
+    for (int i = 0; i < pending.size(); ++i) {
+      final Utterance utterance = pending.get(i);
+      if (utterance.key.equals(utteranceKey)) {
+        utterance.text = text;
+        if (priority.ordinal() < utterance.priority.ordinal()) {
+          utterance.priority = priority;
+        }
+        utterance.deadlineMs = Math.max(utterance.deadlineMs, deadlineMs);
+        ++merged;
+        return true;
+      }
+    }
+
+    final Long lastMs = lastSpokenMs.get(utteranceKey);
+    if (lastMs != null && nowMs - lastMs < minRepeatIntervalMs) {
+      ++rateLimited;
+      return false;
+    }
+
+    if (pending.size() >= maxDepth) {
+      final int worst = findNext(true);
+      if (pending.get(worst).priority.ordinal() < priority.ordinal()) {
+        ++overflowed;
+        return false;
+      }
+      pending.remove(worst);
+      ++overflowed;
+    }
+
+    pending.add(
+        new Utterance(
+            Integer.toString(nextId++), utteranceKey, text, priority, nowMs, deadlineMs));
+    maxQueueDepth = Math.max(maxQueueDepth, pending.size());
+    return true;
+  }
+
+  /**
+   * Drops the utterances that are past their deadline and removes the most urgent of the rest,
+   * which counts as spoken for the rate limit from now on.
+   *
+   * @return The utterance to speak, or null if none is pending.
+   */
+  public synchronized Utterance poll(final long nowMs) {
+    for (int i = pending.size() - 1; i >= 0; --i) {
+      if (pending.get(i).deadlineMs < nowMs) {
+        pending.remove(i);
+        ++expired;
+      }
+    }
+    if (pending.isEmpty()) {
+      return null;
+    }
+
+    final Utterance utterance = pending.remove(findNext(false));
+    lastSpokenMs.put(utterance.key, nowMs);
+    ++spoken;
+    return utterance;
+  }
+
+  // Returns the index of the pending utterance to speak next, or the one to speak last.
+  private int findNext(final boolean last) {
+    int best = 0;
+    for (int i = 1; i < pending.size(); ++i) {
+      final Utterance candidate = pending.get(i);
+      final Utterance current = pending.get(best);
+      int order = candidate.priority.ordinal() - current.priority.ordinal();
+      if (order == 0) {
+        order = Long.compare(candidate.enqueuedAtMs, current.enqueuedAtMs);
+      }
+      if (last ? order >= 0 : order < 0) {
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  /** Records that the engine started speaking an utterance, for the latency statistics. */
+  public synchronized void onStarted(final Utterance utterance, final long nowMs) {
+    lastLatencyMs = nowMs - utterance.enqueuedAtMs;
+    totalLatencyMs += lastLatencyMs;
+    maxLatencyMs = Math.max(maxLatencyMs, lastLatencyMs);
+    ++latencySamples;
+  }
+
+  public synchronized int size() {
+    return pending.size();
+  }
+
+  /** Drops every pending utterance and forgets when each key was last spoken. */
+  public synchronized void clear() {
+    pending.clear();
+    lastSpokenMs.clear();
+  }
+
+  public synchronized String getStatString() {
+    return String.format(
+        "depth=%d (max %d) offered=%d merged=%d rateLimited=%d overflowed=%d expired=%d"
+            + " spoken=%d latency=%dms (avg %dms, max %dms)",
+        pending.size(),
+        maxQueueDepth,
+        offered,
+        merged,
+        rateLimited,
+        overflowed,
+        expired,
+        spoken,
+        lastLatencyMs,
+        latencySamples > 0 ? totalLatencyMs / latencySamples : 0,
+        maxLatencyMs);
+  }
+}
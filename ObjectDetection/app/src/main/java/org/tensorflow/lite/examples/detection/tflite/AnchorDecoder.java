@@ -0,0 +1,134 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * Decodes the raw outputs of anchor based models exported without their postprocessing, such as
+ * SSD MobileNet before TFLite_Detection_PostProcess or EfficientDet: box encodings as [1, N, 4]
+ * ty, tx, th, tw relative to N anchors, and class scores as [1, N, C].
+ *
+ * <p>Spec keys: output.boxes and output.scores give the index of each output, 0 and 1 by default.
+ * scores.background is the number of leading score columns that are not labels, 1 for SSD and 0
+ * for EfficientDet; scores.sigmoid tells whether the scores are logits, as they are for both.
+ * box.scale holds the y, x, h and w scales of the encoding, 10, 10, 5, 5 for SSD and 1, 1, 1, 1
+ * for EfficientDet. The anchors are generated from the anchors.* keys, see {@link
+ * AnchorGenerator}, and must match the number of predictions.
+ */
+class AnchorDecoder implements OutputDecoder {
+  static final String NAME = "ssd_anchors";
+
+  static final Factory FACTORY =
+      new Factory() {
+        @Override
+        public OutputDecoder create(final ModelSpec spec, final ModelOutput[] outputs) {
+          return new AnchorDecoder(spec, outputs);
+        }
+      };
+
+  private final ModelOutput boxes;
+  private final ModelOutput scores;
+  private final float[] anchors;
+  private final int numAnchors;
+  private final int numColumns;
+  private final int background;
+  private final boolean sigmoid;
+  private final float yScale;
+  private final float xScale;
+  private final float hScale;
+  private final float wScale;
+  private final float inputSize;
+  private final int labelOffset;
+
+  private AnchorDecoder(final ModelSpec spec, final ModelOutput[] outputs) {
+    boxes = spec.getOutput(outputs, "output.boxes", 0);
+    scores = spec.getOutput(outputs, "output.scores", 1);
+    anchors = AnchorGenerator.generate(spec);
+    numAnchors = anchors.length / 4;
+    boxes.checkNumElements("Box encodings", numAnchors * 4);
+    numColumns = scores.getDimension(-1);
+    scores.checkNumElements("Scores", numAnchors * numColumns);
+    background = spec.getInt("scores.background", 1);
+    if (background < 0 || background >= numColumns) {
+      throw new IllegalArgumentException(
+          "Model spec scores.background is " + background + " of " + numColumns + " columns");
+    }
+    sigmoid = spec.getBoolean("scores.sigmoid", true);
+    final float[] scale = spec.getFloats("box.scale", new float[] {10.0f, 10.0f, 5.0f, 5.0f});
+    if (scale.length != 4) {
+      throw new IllegalArgumentException("Model spec box.scale needs 4 values");
+    }
+    yScale = scale[0];
+    xScale = scale[1];
+    hScale = scale[2];
+    wScale = scale[3];
+    inputSize = spec.getInputSize();
+    labelOffset = spec.getLabelOffset();
+  }
+
+  @Override
+  public int getMaxCandidates() {
+    return numAnchors;
+  }
+
+  @Override
+  public int decode(
+      final float minScore,
+      final float[] outBoxes,
+      final int[] outClasses,
+      final float[] outScores) {
+    // The sigmoid is monotonic, so the best class and the threshold test are done on the logits
+    // and only the candidates that pass pay for an exp().
+    final float minValue = sigmoid ? logit(minScore) : minScore;
+    int numCandidates = 0;
+    for (int i = 0, s = 0; i < numAnchors; ++i, s += numColumns) {
+      final int best = scores.argMax(s + background, numColumns - background, 1);
+      final float bestValue = scores.get(best);
+      if (bestValue < minValue) {
+        continue;
+      }
+
+      final int a = i * 4;
+      final float ty = boxes.get(a) / yScale;
+      final float tx = boxes.get(a + 1) / xScale;
+      final float th = boxes.get(a + 2) / hScale;
+      final float tw = boxes.get(a + 3) / wScale;
+      final float yCenter = ty * anchors[a + 2] + anchors[a];
+      final float xCenter = tx * anchors[a + 3] + anchors[a + 1];
+      final float halfHeight = 0.5f * (float) Math.exp(th) * anchors[a + 2];
+      final float halfWidth = 0.5f * (float) Math.exp(tw) * anchors[a + 3];
+
+      final int b = numCandidates * 4;
+      outBoxes[b] = (xCenter - halfWidth) * inputSize;
+      outBoxes[b + 1] = (yCenter - halfHeight) * inputSize;
+      outBoxes[b + 2] = (xCenter + halfWidth) * inputSize;
+      outBoxes[b + 3] = (yCenter + halfHeight) * inputSize;
+      outClasses[numCandidates] = best - s - background + labelOffset;
+      outScores[numCandidates] =
+          sigmoid ? 1.0f / (1.0f + (float) Math.exp(-bestValue)) : bestValue;
+      ++numCandidates;
+    }
+    return numCandidates;
+  }
+
+  private static float logit(final float p) {
+    if (p <= 0.0f) {
+      return Float.NEGATIVE_INFINITY;
+    } else if (p >= 1.0f) {
+      return Float.POSITIVE_INFINITY;
+    }
+    return (float) Math.log(p / (1.0f - p));
+  }
+}
@@ -0,0 +1,176 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * Generates the anchors of raw-output detection models, as center y, center x, height and width
+ * relative to the input, in the order the model predicts them.
+ *
+ * <p>The "ssd" generator follows the multiple grid anchor generator of the TensorFlow Object
+ * Detection API used by SSD and SSDLite: per layer a grid of anchors with scales growing linearly
+ * from the first to the last layer. Spec keys: anchors.layers, anchors.min_scale,
+ * anchors.max_scale, anchors.aspect_ratios, anchors.strides (one per layer),
+ * anchors.reduce_lowest_layer and anchors.interpolated_scale_aspect_ratio, with the defaults of
+ * SSD MobileNet.
+ *
+ * <p>The "multilevel" generator follows EfficientDet: per pyramid level a grid with stride 2^level
+ * and, per cell, anchors of anchors.num_scales octave scales times anchors.aspect_ratios, sized
+ * anchors.scale times the stride. Spec keys: anchors.min_level, anchors.max_level,
+ * anchors.num_scales, anchors.aspect_ratios and anchors.scale.
+ */
+final class AnchorGenerator {
+  private AnchorGenerator() {}
+
+  /** Generates the anchors named by anchors.generator, "ssd" by default. */
+  static float[] generate(final ModelSpec spec) {
+    final String generator = spec.getString("anchors.generator", "ssd");
+    if (generator.equals("ssd")) {
+      return generateSsd(spec);
+    } else if (generator.equals("multilevel")) {
+      return generateMultiLevel(spec);
+    }
+    throw new IllegalArgumentException("Unknown anchor generator " + generator);
+  }
+
+  static float[] generateSsd(final ModelSpec spec) {
+    final int inputSize = spec.getInputSize();
+    final int numLayers = spec.getInt("anchors.layers", 6);
+    final float minScale = spec.getFloat("anchors.min_scale", 0.2f);
+    final float maxScale = spec.getFloat("anchors.max_scale", 0.95f);
+    final float[] aspectRatios =
+        spec.getFloats("anchors.aspect_ratios", new float[] {1.0f, 2.0f, 0.5f, 3.0f, 0.3333f});
+    final float[] strides =
+        spec.getFloats("anchors.strides", new float[] {16, 32, 64, 128, 256, 512});
+    final boolean reduceLowestLayer = spec.getBoolean("anchors.reduce_lowest_layer", true);
+    final float interpolatedAspectRatio =
+        spec.getFloat("anchors.interpolated_scale_aspect_ratio", 1.0f);
+    if (strides.length != numLayers) {
+      throw new IllegalArgumentException(
+          "Model spec has " + strides.length + " anchor strides for " + numLayers + " layers");
+    }
+
+    // Count first, so that the anchors can be written into one array.
+    int numAnchors = 0;
+    for (int layer = 0; layer < numLayers; ++layer) {
+      final int gridSize = (int) Math.ceil(inputSize / strides[layer]);
+      final int perCell =
+          layer == 0 && reduceLowestLayer
+              ? 3
+              : aspectRatios.length + (interpolatedAspectRatio > 0 ? 1 : 0);
+      numAnchors += gridSize * gridSize * perCell;
+    }
+
+    final float[] anchors = new float[numAnchors * 4];
+    final float[] heights = new float[aspectRatios.length + 1];
+    final float[] widths = new float[aspectRatios.length + 1];
+    int a = 0;
+    for (int layer = 0; layer < numLayers; ++layer) {
+      final float scale = getSsdScale(minScale, maxScale, layer, numLayers);
+      int perCell = 0;
+      if (layer == 0 && reduceLowestLayer) {
+        perCell = setAnchorSize(heights, widths, perCell, 0.1f, 1.0f);
+        perCell = setAnchorSize(heights, widths, perCell, scale, 2.0f);
+        perCell = setAnchorSize(heights, widths, perCell, scale, 0.5f);
+      } else {
+        for (final float aspectRatio : aspectRatios) {
+          perCell = setAnchorSize(heights, widths, perCell, scale, aspectRatio);
+        }
+        if (interpolatedAspectRatio > 0) {
+          final float nextScale =
+              layer == numLayers - 1 ? 1.0f : getSsdScale(minScale, maxScale, layer + 1, numLayers);
+          perCell =
+              setAnchorSize(
+                  heights,
+                  widths,
+                  perCell,
+                  (float) Math.sqrt(scale * nextScale),
+                  interpolatedAspectRatio);
+        }
+      }
+
+      final int gridSize = (int) Math.ceil(inputSize / strides[layer]);
+      for (int y = 0; y < gridSize; ++y) {
+        for (int x = 0; x < gridSize; ++x) {
+          for (int i = 0; i < perCell; ++i) {
+            anchors[a++] = (y + 0.5f) / gridSize;
+            anchors[a++] = (x + 0.5f) / gridSize;
+            anchors[a++] = heights[i];
+            anchors[a++] = widths[i];
+          }
+        }
+      }
+    }
+    return anchors;
+  }
+
+  private static float getSsdScale(
+      final float minScale, final float maxScale, final int layer, final int numLayers) {
+    return numLayers == 1
+        ? (minScale + maxScale) / 2
+        : minScale + (maxScale - minScale) * layer / (numLayers - 1);
+  }
+
+  private static int setAnchorSize(
+      final float[] heights,
+      final float[] widths,
+      final int index,
+      final float scale,
+      final float aspectRatio) {
+    final float ratioSqrt = (float) Math.sqrt(aspectRatio);
+    heights[index] = scale / ratioSqrt;
+    widths[index] = scale * ratioSqrt;
+    return index + 1;
+  }
+
+  static float[] generateMultiLevel(final ModelSpec spec) {
+    final int inputSize = spec.getInputSize();
+    final int minLevel = spec.getInt("anchors.min_level", 3);
+    final int maxLevel = spec.getInt("anchors.max_level", 7);
+    final int numScales = spec.getInt("anchors.num_scales", 3);
+    final float[] aspectRatios =
+        spec.getFloats("anchors.aspect_ratios", new float[] {1.0f, 2.0f, 0.5f});
+    final float anchorScale = spec.getFloat("anchors.scale", 4.0f);
+    final int perCell = numScales * aspectRatios.length;
+
+    int numAnchors = 0;
+    for (int level = minLevel; level <= maxLevel; ++level) {
+      final int gridSize = (int) Math.ceil(inputSize / (float) (1 << level));
+      numAnchors += gridSize * gridSize * perCell;
+    }
+
+    final float[] anchors = new float[numAnchors * 4];
+    int a = 0;
+    for (int level = minLevel; level <= maxLevel; ++level) {
+      final int stride = 1 << level;
+      final int gridSize = (int) Math.ceil(inputSize / (float) stride);
+      for (int y = 0; y < gridSize; ++y) {
+        for (int x = 0; x < gridSize; ++x) {
+          for (int s = 0; s < numScales; ++s) {
+            final float size = anchorScale * stride * (float) Math.pow(2, s / (float) numScales);
+            for (final float aspectRatio : aspectRatios) {
+              final float ratioSqrt = (float) Math.sqrt(aspectRatio);
+              anchors[a++] = (y + 0.5f) * stride / inputSize;
+              anchors[a++] = (x + 0.5f) * stride / inputSize;
+              anchors[a++] = size / ratioSqrt / inputSize;
+              anchors[a++] = size * ratioSqrt / inputSize;
+            }
+          }
+        }
+      }
+    }
+    return anchors;
+  }
+}
@@ -1,105 +1,238 @@
-/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
-
-Licensed under the Apache License, Version 2.0 (the "License");
-you may not use this file except in compliance with the License.
-You may obtain a copy of the License at
-
-    http://www.apache.org/licenses/LICENSE-2.0
-
-Unless required by applicable law or agreed to in writing, software
-distributed under the License is distributed on an "AS IS" BASIS,
-WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
-See the License for the specific language governing permissions and
-limitations under the License.
-==============================================================================*/
-
-package org.tensorflow.lite.examples.detection.tflite;
-
-import android.graphics.Bitmap;
-import android.graphics.RectF;
-import java.util.List;
-
-/** Generic interface for interacting with different recognition engines. */
-public interface Classifier {
-  List<Recognition> recognizeImage(Bitmap bitmap);
-
-  void enableStatLogging(final boolean debug);
-
-  String getStatString();
-
-  void close();
-
-  void setNumThreads(int num_threads);
-
-  void setUseNNAPI(boolean isChecked);
-
-  /** An immutable result returned by a Classifier describing what was recognized. */
-  public class Recognition {
-    /**
-     * A unique identifier for what has been recognized. Specific to the class, not the instance of
-     * the object.
-     */
-    private final String id;
-
-    /** Display name for the recognition. */
-    private final String title;
-
-    /**
-     * A sortable score for how good the recognition is relative to others. Higher should be better.
-     */
-    private final Float confidence;
-
-    /** Optional location within the source image for the location of the recognized object. */
-    private RectF location;
-
-    public Recognition(
-        final String id, final String title, final Float confidence, final RectF location) {
-      this.id = id;
-      this.title = title;
-      this.confidence = confidence;
-      this.location = location;
-    }
-
-    public String getId() {
-      return id;
-    }
-
-    public String getTitle() {
-      return title;
-    }
-
-    public Float getConfidence() {
-      return confidence;
-    }
-
-    public RectF getLocation() {
-      return new RectF(location);
-    }
-
-    public void setLocation(RectF location) {
-      this.location = location;
-    }
-
-    @Override
-    public String toString() {
-      String resultString = "";
-      if (id != null) {
-        resultString += "[" + id + "] ";
-      }
-
-      if (title != null) {
-        resultString += title + " ";
-      }
-
-      if (confidence != null) {
-        resultString += String.format("(%.1f%%) ", confidence * 100.0f);
-      }
-
-      if (location != null) {
-        resultString += location + " ";
-      }
-
-      return resultString.trim();
-    }
-  }
-}
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.Bitmap;
+import android.graphics.RectF;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.tensorflow.lite.examples.detection.env.LatencyHistogram;
+import org.tensorflow.lite.examples.detection.env.YuvInputSampler;
+
+/**
+ * Generic interface for interacting with different recognition engines.
+ *
+ * <p>Detections are returned in a {@link DetectionBatch} the caller owns and reuses. The methods
+ * returning lists of {@link Recognition}s wrap the same detections for older callers.
+ */
+public interface Classifier {
+  List<Recognition> recognizeImage(Bitmap bitmap);
+
+  /** Recognizes a Bitmap of the model's input size into the given batch. */
+  void recognizeImage(Bitmap bitmap, DetectionBatch results);
+
+  /**
+   * Recognizes a YUV420 camera frame without an intermediate Bitmap. The planes are sampled
+   * straight into the model input by the given sampler, which must have been created for the
+   * model's input size; locations are returned in that input's coordinates.
+   */
+  List<Recognition> recognizeImage(
+      byte[] yData, byte[] uData, byte[] vData, YuvInputSampler sampler);
+
+  /**
+   * Allocates a model input buffer that can be filled by fillInput() on one thread while the
+   * classifier runs on another one.
+   */
+  ByteBuffer createInputBuffer();
+
+  /** Samples a YUV420 frame into an input buffer obtained from createInputBuffer(). */
+  void fillInput(
+      byte[] yData, byte[] uData, byte[] vData, YuvInputSampler sampler, ByteBuffer input);
+
+  /**
+   * Samples a YUV420 frame held in ByteBuffers, such as the direct plane buffers of a Camera2
+   * Image, into an input buffer without copying the planes first.
+   */
+  void fillInput(
+      ByteBuffer yData,
+      ByteBuffer uData,
+      ByteBuffer vData,
+      YuvInputSampler sampler,
+      ByteBuffer input);
+
+  /** Recognizes the contents of an input buffer previously filled by fillInput(). */
+  List<Recognition> recognizeInput(ByteBuffer input);
+
+  /**
+   * Recognizes the contents of a filled input buffer into the given batch, in the input's
+   * coordinates. The batch must hold at least getMaxResults() detections.
+   */
+  void recognizeInput(ByteBuffer input, DetectionBatch results);
+
+  /** Starts or stops recording the latency of each stage of recognition. */
+  void enableStatLogging(final boolean debug);
+
+  /** Returns percentiles of the stage latencies recorded since stat logging was enabled. */
+  String getStatString();
+
+  /**
+   * Writes the recorded stage latencies as CSV lines of stage, latency bucket in microseconds and
+   * count; see {@link LatencyHistogram#writeCsv}.
+   */
+  void writeStats(Writer writer) throws IOException;
+
+  void close();
+
+  void setNumThreads(int num_threads);
+
+  void setUseNNAPI(boolean isChecked);
+
+  /** Drops recognitions below the given confidence. Nothing is dropped by default. */
+  void setMinimumConfidence(float minimumConfidence);
+
+  /** Returns the number of labels, which bounds the class index of every recognition. */
+  int getNumClasses();
+
+  /** Returns the label of a class index. */
+  String getClassTitle(int classIndex);
+
+  /** Returns the most detections a single recognition returns. */
+  int getMaxResults();
+
+  /** Returns the width and height of the square model input that sampled frames must match. */
+  int getInputSize();
+
+  /**
+   * A result returned by a Classifier describing what was recognized. Callers treat it as
+   * immutable, but a classifier that recycles its results may overwrite it on the next call to
+   * recognizeImage.
+   *
+   * <p>Only kept as an adapter for callers written against lists of results; the camera path
+   * passes {@link DetectionBatch}es from the detector to the tracker and the overlay.
+   */
+  public class Recognition {
+    /**
+     * A unique identifier for what has been recognized. Specific to the class, not the instance of
+     * the object.
+     */
+    private String id;
+
+    /** Display name for the recognition. */
+    private String title;
+
+    /** Index of the title in the classifier's labels, or -1 if unknown. */
+    private int classIndex;
+
+    /**
+     * A sortable score for how good the recognition is relative to others. Higher should be better.
+     * Kept unboxed so that recycled results can be refilled without allocating.
+     */
+    private float confidence;
+
+    private boolean hasConfidence;
+
+    /** Optional location within the source image for the location of the recognized object. */
+    private RectF location;
+
+    public Recognition(
+        final String id, final String title, final Float confidence, final RectF location) {
+      this(id, title, -1, confidence, location);
+    }
+
+    public Recognition(
+        final String id,
+        final String title,
+        final int classIndex,
+        final Float confidence,
+        final RectF location) {
+      this.id = id;
+      this.title = title;
+      this.classIndex = classIndex;
+      this.hasConfidence = confidence != null;
+      this.confidence = hasConfidence ? confidence : 0.0f;
+      this.location = location;
+    }
+
+    /** Overwrites this result in place, reusing its location rectangle when there is one. */
+    void set(
+        final String id,
+        final String title,
+        final int classIndex,
+        final float confidence,
+        final float left,
+        final float top,
+        final float right,
+        final float bottom) {
+      this.id = id;
+      this.title = title;
+      this.classIndex = classIndex;
+      this.confidence = confidence;
+      this.hasConfidence = true;
+      if (location == null) {
+        location = new RectF(left, top, right, bottom);
+      } else {
+        location.set(left, top, right, bottom);
+      }
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getTitle() {
+      return title;
+    }
+
+    /**
+     * Returns the index of the title in the classifier's labels, which lets callers key per-class
+     * state by an integer instead of the title, or -1 if unknown.
+     */
+    public int getClassIndex() {
+      return classIndex;
+    }
+
+    public Float getConfidence() {
+      return hasConfidence ? confidence : null;
+    }
+
+    /** Returns the confidence without boxing it, or 0 if there is none. */
+    public float getConfidenceValue() {
+      return confidence;
+    }
+
+    public RectF getLocation() {
+      return new RectF(location);
+    }
+
+    public void setLocation(RectF location) {
+      this.location = location;
+    }
+
+    @Override
+    public String toString() {
+      String resultString = "";
+      if (id != null) {
+        resultString += "[" + id + "] ";
+      }
+
+      if (title != null) {
+        resultString += title + " ";
+      }
+
+      if (hasConfidence) {
+        resultString += String.format("(%.1f%%) ", confidence * 100.0f);
+      }
+
+      if (location != null) {
+        resultString += location + " ";
+      }
+
+      return resultString.trim();
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The output decoders a model spec can name. The decoders for SSD style models with and without
+ * the postprocessing op and for YOLO style heads are built in; others can be registered before
+ * the model is created.
+ */
+public final class DecoderRegistry {
+  private static final Map<String, OutputDecoder.Factory> FACTORIES =
+      new TreeMap<String, OutputDecoder.Factory>();
+
+  static {
+    register(SsdPostprocessedDecoder.NAME, SsdPostprocessedDecoder.FACTORY);
+    register(AnchorDecoder.NAME, AnchorDecoder.FACTORY);
+    register(YoloDecoder.NAME, YoloDecoder.FACTORY);
+  }
+
+  private DecoderRegistry() {}
+
+  /** Makes a decoder available under a name, replacing any decoder of that name. */
+  public static synchronized void register(final String name, final OutputDecoder.Factory factory) {
+    FACTORIES.put(name, factory);
+  }
+
+  /**
+   * Creates the decoder named by a model spec for the model's outputs.
+   *
+   * @throws IllegalArgumentException If there is no such decoder, or it does not fit the model.
+   */
+  public static synchronized OutputDecoder create(
+      final ModelSpec spec, final ModelOutput[] outputs) {
+    final String name = spec.getDecoder();
+    final OutputDecoder.Factory factory = FACTORIES.get(name);
+    if (factory == null) {
+      throw new IllegalArgumentException(
+          "Unknown decoder " + name + ", expected one of " + FACTORIES.keySet());
+    }
+    return factory.create(spec, outputs);
+  }
+}
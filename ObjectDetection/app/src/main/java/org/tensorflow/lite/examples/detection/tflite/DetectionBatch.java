@@ -0,0 +1,138 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * The detections of one frame as parallel primitive arrays, passed from the detector through the
+ * tracker to the announcer and the overlay without being converted on the way.
+ *
+ * <p>Detection i has its left, top, right and bottom at boxes[4i] to boxes[4i + 3], its class index
+ * at classes[i] and its score at scores[i], for i below getCount(). A batch is allocated once at
+ * its capacity and refilled for every frame, so whoever receives one may only read it until the
+ * call it was passed to returns, and must copy what it wants to keep. The coordinates are those of
+ * whoever filled it last, e.g. the model input, until it is transformed.
+ */
+public final class DetectionBatch {
+  private final float[] boxes;
+  private final int[] classes;
+  private final float[] scores;
+  private int count;
+
+  /** @param capacity Most detections the batch can hold. */
+  public DetectionBatch(final int capacity) {
+    boxes = new float[capacity * 4];
+    classes = new int[capacity];
+    scores = new float[capacity];
+  }
+
+  public int getCapacity() {
+    return classes.length;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  /**
+   * Sets the number of valid detections after the arrays were written directly, e.g. by {@link
+   * DetectionPostprocessor#process}.
+   */
+  public void setCount(final int count) {
+    if (count < 0 || count > classes.length) {
+      throw new IllegalArgumentException(
+          "Count " + count + " out of range for capacity " + classes.length);
+    }
+    this.count = count;
+  }
+
+  public void clear() {
+    count = 0;
+  }
+
+  /** Appends a detection. */
+  public void add(
+      final float left,
+      final float top,
+      final float right,
+      final float bottom,
+      final int classId,
+      final float score) {
+    if (count == classes.length) {
+      throw new IllegalStateException("Batch is full at " + count + " detections");
+    }
+    final int b = count * 4;
+    boxes[b] = left;
+    boxes[b + 1] = top;
+    boxes[b + 2] = right;
+    boxes[b + 3] = bottom;
+    classes[count] = classId;
+    scores[count] = score;
+    ++count;
+  }
+
+  /** Returns the boxes, four values per detection; only the first getCount() are valid. */
+  public float[] getBoxes() {
+    return boxes;
+  }
+
+  /** Returns the class index of each detection; only the first getCount() are valid. */
+  public int[] getClasses() {
+    return classes;
+  }
+
+  /** Returns the score of each detection; only the first getCount() are valid. */
+  public float[] getScores() {
+    return scores;
+  }
+
+  /** Replaces the contents with those of another batch, which must fit. */
+  public void copyFrom(final DetectionBatch other) {
+    setCount(other.count);
+    System.arraycopy(other.boxes, 0, boxes, 0, count * 4);
+    System.arraycopy(other.classes, 0, classes, 0, count);
+    System.arraycopy(other.scores, 0, scores, 0, count);
+  }
+
+  /**
+   * Maps every box through an affine transform and replaces it with the bounds of its mapped
+   * corners, as Matrix.mapRect() does.
+   *
+   * @param values Affine matrix values in the order returned by Matrix.getValues().
+   */
+  public void transform(final float[] values) {
+    final float scaleX = values[0];
+    final float skewX = values[1];
+    final float transX = values[2];
+    final float skewY = values[3];
+    final float scaleY = values[4];
+    final float transY = values[5];
+    for (int i = 0, b = 0; i < count; ++i, b += 4) {
+      final float left = boxes[b];
+      final float top = boxes[b + 1];
+      final float right = boxes[b + 2];
+      final float bottom = boxes[b + 3];
+      // A mapped coordinate is the sum of a term in x and a term in y, so its extremes over the
+      // four corners are the sums of the extremes of the two terms.
+      boxes[b] =
+          Math.min(scaleX * left, scaleX * right) + Math.min(skewX * top, skewX * bottom) + transX;
+      boxes[b + 1] =
+          Math.min(skewY * left, skewY * right) + Math.min(scaleY * top, scaleY * bottom) + transY;
+      boxes[b + 2] =
+          Math.max(scaleX * left, scaleX * right) + Math.max(skewX * top, skewX * bottom) + transX;
+      boxes[b + 3] =
+          Math.max(skewY * left, skewY * right) + Math.max(scaleY * top, scaleY * bottom) + transY;
+    }
+  }
+}
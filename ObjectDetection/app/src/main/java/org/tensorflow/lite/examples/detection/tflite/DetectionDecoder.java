@@ -0,0 +1,93 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * Turns the outputs of one model run into detections. The {@link OutputDecoder} named by the spec
+ * collects the candidates above the score threshold and a {@link DetectionPostprocessor}
+ * suppresses and ranks them. Both work in buffers allocated here once, so decoding a frame
+ * allocates nothing.
+ */
+final class DetectionDecoder {
+  private final OutputDecoder decoder;
+  private final DetectionPostprocessor postprocessor;
+  // The candidates decoded from the outputs, flattened for the postprocessor.
+  private final float[] candidateBoxes;
+  private final int[] candidateClasses;
+  private final float[] candidateScores;
+
+  /**
+   * @param spec Names the decoder and describes the outputs.
+   * @param outputs The buffers the interpreter writes its outputs into.
+   * @param maxResults Most detections returned for a frame.
+   * @param classIouThreshold Overlap above which a detection is suppressed by a better one of the
+   *     same class.
+   * @param crossClassIouThreshold Overlap above which a detection is suppressed by a better one of
+   *     any class.
+   */
+  DetectionDecoder(
+      final ModelSpec spec,
+      final ModelOutput[] outputs,
+      final int maxResults,
+      final float classIouThreshold,
+      final float crossClassIouThreshold) {
+    decoder = DecoderRegistry.create(spec, outputs);
+    final int maxCandidates = decoder.getMaxCandidates();
+    postprocessor =
+        new DetectionPostprocessor(
+            maxCandidates, maxResults, 0.0f, classIouThreshold, crossClassIouThreshold);
+    candidateBoxes = new float[maxCandidates * 4];
+    candidateClasses = new int[maxCandidates];
+    candidateScores = new float[maxCandidates];
+  }
+
+  int getMaxResults() {
+    return postprocessor.getMaxResults();
+  }
+
+  /** Drops detections below the given score. */
+  void setScoreThreshold(final float scoreThreshold) {
+    postprocessor.setScoreThreshold(scoreThreshold);
+  }
+
+  /**
+   * Decodes the outputs as last written by the interpreter into the batch, in input coordinates.
+   * The batch must hold at least getMaxResults() detections.
+   */
+  void decode(final DetectionBatch results) {
+    if (results.getCapacity() < postprocessor.getMaxResults()) {
+      throw new IllegalArgumentException(
+          "Batch holds "
+              + results.getCapacity()
+              + " detections but up to "
+              + postprocessor.getMaxResults()
+              + " are returned");
+    }
+    // Candidates below the threshold would be dropped by the postprocessor anyway, so the decoder
+    // skips them before decoding their boxes.
+    final int numCandidates =
+        decoder.decode(
+            postprocessor.getScoreThreshold(), candidateBoxes, candidateClasses, candidateScores);
+    results.setCount(
+        postprocessor.process(
+            numCandidates,
+            candidateBoxes,
+            candidateClasses,
+            candidateScores,
+            results.getBoxes(),
+            results.getClasses(),
+            results.getScores()));
+  }
+}
@@ -0,0 +1,389 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.tensorflow.lite.examples.detection.env.YuvInputSampler;
+
+/**
+ * Overlaps preprocessing of the next frame with inference on the current one.
+ *
+ * <p>The pipeline owns a small set of model input buffers. submit() is called on the camera thread
+ * and samples a frame into a free buffer, so the camera frame can be released right away; runNext()
+ * is called on the inference thread and runs the classifier on the newest filled buffer. A filled
+ * buffer that has not been picked up yet is overwritten by the next submitted frame, so the
+ * interpreter always starts on the most recent frame and never works through a backlog.
+ *
+ * <p>With a {@link TileMerger}, a frame can also be submitted as several tiles, which are sampled
+ * together on the camera thread, recognized one after the other on the inference thread and
+ * merged into one set of results in crop coordinates.
+ *
+ * <p>A pipeline created on a {@link DetectorPool} borrows whichever detector of the pool is idle
+ * for each frame, so that the pipelines of several streams share the pool's detectors.
+ */
+public class DetectionPipeline {
+  /**
+   * Receives the results of a frame on the inference thread. The batch is reused for the next
+   * frame, so it may be changed, e.g. transformed into frame coordinates, but not kept.
+   */
+  public interface ResultCallback {
+    void onResults(long timestamp, DetectionBatch results);
+  }
+
+  private static class Frame {
+    // One input per tile; untiled frames only use the first.
+    final ByteBuffer[] inputs;
+    TileLayout layout;
+    long timestamp;
+
+    Frame(final ByteBuffer[] inputs) {
+      this.inputs = inputs;
+    }
+  }
+
+  // Fills the inputs, and recognizes them unless there is a pool.
+  private final Classifier classifier;
+  private final DetectorPool pool;
+  private final TileMerger tileMerger;
+  // Buffers that are neither waiting for nor being used by the interpreter.
+  private final ArrayBlockingQueue<Frame> freeFrames;
+  // At most one filled buffer waiting for the interpreter.
+  private final ArrayBlockingQueue<Frame> readyFrames = new ArrayBlockingQueue<Frame>(1);
+
+  // The results passed to the callback, merged over the tiles of a tiled frame.
+  private final DetectionBatch results;
+  // The results of a single tile before they are merged.
+  private DetectionBatch tileResults;
+  // Time and kept detections of each tile of the last tiled frame.
+  private long[] lastTileRunTimesUs;
+  private int[] lastTileDetections;
+
+  private volatile long lastRunTimeUs;
+  private volatile int lastNumRuns;
+  private volatile TileLayout lastLayout;
+  // Frames are dropped on the camera thread as well as on the inference thread.
+  private final AtomicInteger processedFrames = new AtomicInteger();
+  private final AtomicInteger droppedFrames = new AtomicInteger();
+
+  /**
+   * @param classifier The classifier to run. Its recognizeInput() is only ever called from the
+   *     thread calling runNext().
+   * @param numBuffers Number of input buffers; two lets one frame be prepared while another one
+   *     is being recognized.
+   */
+  public DetectionPipeline(final Classifier classifier, final int numBuffers) {
+    this(classifier, numBuffers, null, 1);
+  }
+
+  /**
+   * Creates a pipeline that can also detect frames in tiles.
+   *
+   * @param tileMerger Merges the results of the tiles of a frame.
+   * @param maxTiles Most tiles of a submitted frame; each buffer holds an input per tile.
+   */
+  public DetectionPipeline(
+      final Classifier classifier,
+      final int numBuffers,
+      final TileMerger tileMerger,
+      final int maxTiles) {
+    this(classifier, null, numBuffers, tileMerger, maxTiles);
+  }
+
+  /**
+   * Creates a pipeline that runs each frame on an idle detector of a pool. runNext() waits for one
+   * if they are all busy with the frames of other pipelines.
+   */
+  public DetectionPipeline(final DetectorPool pool, final int numBuffers) {
+    this(pool, numBuffers, null, 1);
+  }
+
+  /** Creates a pipeline on a pool that can also detect frames in tiles. */
+  public DetectionPipeline(
+      final DetectorPool pool,
+      final int numBuffers,
+      final TileMerger tileMerger,
+      final int maxTiles) {
+    // The detectors of a pool share the model, so any of them can fill the inputs; fillInput()
+    // does not touch the interpreter and is safe next to a running detector.
+    this(pool.getDetector(0), pool, numBuffers, tileMerger, maxTiles);
+  }
+
+  private DetectionPipeline(
+      final Classifier classifier,
+      final DetectorPool pool,
+      final int numBuffers,
+      final TileMerger tileMerger,
+      final int maxTiles) {
+    this.classifier = classifier;
+    this.pool = pool;
+    this.tileMerger = tileMerger;
+    freeFrames = new ArrayBlockingQueue<Frame>(numBuffers);
+    for (int i = 0; i < numBuffers; ++i) {
+      final ByteBuffer[] inputs = new ByteBuffer[maxTiles];
+      for (int tile = 0; tile < maxTiles; ++tile) {
+        inputs[tile] = classifier.createInputBuffer();
+      }
+      freeFrames.add(new Frame(inputs));
+    }
+    int maxResults = classifier.getMaxResults();
+    if (tileMerger != null) {
+      maxResults = Math.max(maxResults, tileMerger.getMaxResults());
+      tileResults = new DetectionBatch(classifier.getMaxResults());
+      lastTileRunTimesUs = new long[maxTiles];
+      lastTileDetections = new int[maxTiles];
+    }
+    results = new DetectionBatch(maxResults);
+  }
+
+  /**
+   * Samples a frame into a free input buffer. The planes are no longer referenced once this
+   * returns.
+   *
+   * @return true if the frame was queued and runNext() should be scheduled, false if every buffer
+   *     was busy and the frame was dropped.
+   */
+  public boolean submit(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final YuvInputSampler sampler,
+      final long timestamp) {
+    final Frame frame = takeFrameToFill();
+    if (frame == null) {
+      return false;
+    }
+    classifier.fillInput(yData, uData, vData, sampler, frame.inputs[0]);
+    frame.layout = null;
+    frame.timestamp = timestamp;
+    readyFrames.add(frame);
+    return true;
+  }
+
+  /**
+   * Samples the tiles of a frame into a free set of input buffers.
+   *
+   * @param layout The tiles to detect the frame in.
+   * @param samplers A sampler for each tile, mapping its model input into the frame.
+   * @return true if the frame was queued, as for a single input.
+   */
+  public boolean submit(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final TileLayout layout,
+      final YuvInputSampler[] samplers,
+      final long timestamp) {
+    final Frame frame = takeFrameToFill();
+    if (frame == null) {
+      return false;
+    }
+    for (int tile = 0; tile < layout.getNumTiles(); ++tile) {
+      classifier.fillInput(yData, uData, vData, samplers[tile], frame.inputs[tile]);
+    }
+    frame.layout = layout;
+    frame.timestamp = timestamp;
+    readyFrames.add(frame);
+    return true;
+  }
+
+  /**
+   * Same as the byte[] version for planes held in ByteBuffers, such as the direct buffers of a
+   * Camera2 Image, which are read in place and can be released once this returns.
+   */
+  public boolean submit(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final YuvInputSampler sampler,
+      final long timestamp) {
+    final Frame frame = takeFrameToFill();
+    if (frame == null) {
+      return false;
+    }
+    classifier.fillInput(yData, uData, vData, sampler, frame.inputs[0]);
+    frame.layout = null;
+    frame.timestamp = timestamp;
+    readyFrames.add(frame);
+    return true;
+  }
+
+  /** Same as the byte[] version for planes held in ByteBuffers. */
+  public boolean submit(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final TileLayout layout,
+      final YuvInputSampler[] samplers,
+      final long timestamp) {
+    final Frame frame = takeFrameToFill();
+    if (frame == null) {
+      return false;
+    }
+    for (int tile = 0; tile < layout.getNumTiles(); ++tile) {
+      classifier.fillInput(yData, uData, vData, samplers[tile], frame.inputs[tile]);
+    }
+    frame.layout = layout;
+    frame.timestamp = timestamp;
+    readyFrames.add(frame);
+    return true;
+  }
+
+  private Frame takeFrameToFill() {
+    // Only the submitting thread adds to readyFrames, so a frame taken back from it was never
+    // started and can be overwritten with the newer one.
+    Frame frame = readyFrames.poll();
+    if (frame != null) {
+      droppedFrames.incrementAndGet();
+    } else {
+      frame = freeFrames.poll();
+      if (frame == null) {
+        droppedFrames.incrementAndGet();
+      }
+    }
+    return frame;
+  }
+
+  /**
+   * Recognizes the newest submitted frame, if it has not been picked up already, and passes the
+   * results to the callback before returning.
+   *
+   * @return true if a frame was processed, false if there was none or the thread was interrupted
+   *     while waiting for a detector of the pool, which drops the frame.
+   */
+  public boolean runNext(final ResultCallback callback) {
+    final Frame frame = readyFrames.poll();
+    if (frame == null) {
+      return false;
+    }
+
+    final Classifier detector;
+    if (pool != null) {
+      try {
+        detector = pool.acquire();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        freeFrames.add(frame);
+        droppedFrames.incrementAndGet();
+        return false;
+      }
+    } else {
+      detector = classifier;
+    }
+
+    final long startTime = System.nanoTime();
+    final TileLayout layout = frame.layout;
+    try {
+      if (layout != null) {
+        recognizeTiles(detector, layout, frame.inputs);
+      } else {
+        detector.recognizeInput(frame.inputs[0], results);
+      }
+    } finally {
+      // The results are in the pipeline's own batch, so another pipeline can have it right away.
+      if (pool != null) {
+        pool.release(detector);
+      }
+    }
+    lastRunTimeUs = (System.nanoTime() - startTime) / 1000;
+    lastNumRuns = layout != null ? layout.getNumTiles() : 1;
+    lastLayout = layout;
+    final long timestamp = frame.timestamp;
+    // The buffer can be refilled while the results are being handled.
+    freeFrames.add(frame);
+    processedFrames.incrementAndGet();
+
+    callback.onResults(timestamp, results);
+    return true;
+  }
+
+  private void recognizeTiles(
+      final Classifier detector, final TileLayout layout, final ByteBuffer[] inputs) {
+    tileMerger.begin(layout);
+    final float[] boxes = tileResults.getBoxes();
+    final int[] classes = tileResults.getClasses();
+    final float[] scores = tileResults.getScores();
+    for (int tile = 0; tile < layout.getNumTiles(); ++tile) {
+      final long startTime = System.nanoTime();
+      detector.recognizeInput(inputs[tile], tileResults);
+      int numKept = 0;
+      for (int i = 0; i < tileResults.getCount(); ++i) {
+        if (tileMerger.add(
+            tile,
+            boxes[i * 4],
+            boxes[i * 4 + 1],
+            boxes[i * 4 + 2],
+            boxes[i * 4 + 3],
+            classes[i],
+            scores[i])) {
+          ++numKept;
+        }
+      }
+      lastTileRunTimesUs[tile] = (System.nanoTime() - startTime) / 1000;
+      lastTileDetections[tile] = numKept;
+    }
+    results.setCount(
+        tileMerger.finish(results.getBoxes(), results.getClasses(), results.getScores()));
+  }
+
+  /** Returns the time the classifier took on the last frame, in milliseconds. */
+  public long getLastRunTimeMs() {
+    return lastRunTimeUs / 1000;
+  }
+
+  /**
+   * Returns the time the classifier took on the last frame, in microseconds, over all of its tiles
+   * if it was tiled.
+   */
+  public long getLastRunTimeUs() {
+    return lastRunTimeUs;
+  }
+
+  /** Returns the number of classifier runs of the last frame, one per tile. */
+  public int getLastNumRuns() {
+    return lastNumRuns;
+  }
+
+  /**
+   * Returns the time the classifier took on a tile of the last frame, in microseconds. Only valid
+   * on the inference thread, e.g. in the result callback, and if the frame was tiled.
+   */
+  public long getLastTileRunTimeUs(final int tile) {
+    return lastTileRunTimesUs[tile];
+  }
+
+  /**
+   * Returns the detections of a tile of the last frame that were merged, i.e. not cut off by the
+   * tile. Only valid where getLastTileRunTimeUs() is.
+   */
+  public int getLastTileDetections(final int tile) {
+    return lastTileDetections[tile];
+  }
+
+  /** Returns the tiles the last frame was detected in, or null if it was not tiled. */
+  public TileLayout getLastLayout() {
+    return lastLayout;
+  }
+
+  public int getProcessedFrames() {
+    return processedFrames.get();
+  }
+
+  public int getDroppedFrames() {
+    return droppedFrames.get();
+  }
+}
@@ -0,0 +1,205 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * Turns candidate detections into the final ones: score thresholding, non-max suppression and
+ * top-K selection on flat primitive arrays, without allocating.
+ *
+ * <p>Candidates scoring at least the threshold are put into a binary heap by score, in linear
+ * time, and taken out best first. A candidate is suppressed if it overlaps a detection kept
+ * before it by more than the class threshold and both have the same class, or by more than the
+ * cross-class threshold whatever their classes, which drops an object reported as two similar
+ * classes. Taking candidates out stops as soon as K detections are kept, so a raw model output of
+ * thousands of candidates costs a heap build and a few dozen removals rather than a full sort.
+ *
+ * <p>An instance keeps its scratch arrays between calls and must not be used from more than one
+ * thread at a time.
+ */
+public class DetectionPostprocessor {
+  private final int maxCandidates;
+  private final int maxResults;
+  private final float classIouThreshold;
+  private final float crossClassIouThreshold;
+  private float scoreThreshold;
+
+  // Indices of the candidates not yet taken, as a max-heap by score.
+  private final int[] heap;
+  private final float[] keptAreas;
+
+  /**
+   * @param maxCandidates Most candidates a single call is given.
+   * @param maxResults Most detections kept, the K of top-K.
+   * @param scoreThreshold Candidates scoring below this are dropped before suppression.
+   * @param classIouThreshold Intersection over union above which a candidate is suppressed by a
+   *     better one of the same class.
+   * @param crossClassIouThreshold Intersection over union above which a candidate is suppressed by
+   *     a better one of any class; above 1 to suppress within classes only.
+   */
+  public DetectionPostprocessor(
+      final int maxCandidates,
+      final int maxResults,
+      final float scoreThreshold,
+      final float classIouThreshold,
+      final float crossClassIouThreshold) {
+    this.maxCandidates = maxCandidates;
+    this.maxResults = maxResults;
+    this.scoreThreshold = scoreThreshold;
+    this.classIouThreshold = classIouThreshold;
+    this.crossClassIouThreshold = crossClassIouThreshold;
+    heap = new int[maxCandidates];
+    keptAreas = new float[maxResults];
+  }
+
+  public void setScoreThreshold(final float scoreThreshold) {
+    this.scoreThreshold = scoreThreshold;
+  }
+
+  public float getScoreThreshold() {
+    return scoreThreshold;
+  }
+
+  public int getMaxResults() {
+    return maxResults;
+  }
+
+  /**
+   * Selects the detections among the first numCandidates candidates.
+   *
+   * @param numCandidates Number of valid candidates, such as the model's num_detections output;
+   *     entries past it are ignored.
+   * @param boxes Left, top, right and bottom of each candidate.
+   * @param classes Class of each candidate.
+   * @param scores Score of each candidate.
+   * @param outBoxes Receives left, top, right and bottom of each detection, best first. Must not
+   *     be the candidate array.
+   * @param outClasses Receives the class of each detection.
+   * @param outScores Receives the score of each detection.
+   * @return The number of detections, at most maxResults.
+   */
+  public int process(
+      final int numCandidates,
+      final float[] boxes,
+      final int[] classes,
+      final float[] scores,
+      final float[] outBoxes,
+      final int[] outClasses,
+      final float[] outScores) {
+    if (numCandidates > maxCandidates) {
+      throw new IllegalArgumentException(
+          numCandidates + " candidates but at most " + maxCandidates + " expected");
+    }
+
+    int heapSize = 0;
+    for (int i = 0; i < numCandidates; ++i) {
+      if (scores[i] >= scoreThreshold) {
+        heap[heapSize++] = i;
+      }
+    }
+    for (int i = heapSize / 2 - 1; i >= 0; --i) {
+      siftDown(i, heapSize, scores);
+    }
+
+    int numKept = 0;
+    while (heapSize > 0 && numKept < maxResults) {
+      final int candidate = heap[0];
+      heap[0] = heap[--heapSize];
+      siftDown(0, heapSize, scores);
+
+      final int c = candidate * 4;
+      final float left = boxes[c];
+      final float top = boxes[c + 1];
+      final float right = boxes[c + 2];
+      final float bottom = boxes[c + 3];
+      final float area = getArea(left, top, right, bottom);
+      if (!isSuppressed(
+          left, top, right, bottom, area, classes[candidate], numKept, outBoxes, outClasses)) {
+        final int k = numKept * 4;
+        outBoxes[k] = left;
+        outBoxes[k + 1] = top;
+        outBoxes[k + 2] = right;
+        outBoxes[k + 3] = bottom;
+        outClasses[numKept] = classes[candidate];
+        outScores[numKept] = scores[candidate];
+        keptAreas[numKept] = area;
+        ++numKept;
+      }
+    }
+    return numKept;
+  }
+
+  private boolean isSuppressed(
+      final float left,
+      final float top,
+      final float right,
+      final float bottom,
+      final float area,
+      final int classId,
+      final int numKept,
+      final float[] keptBoxes,
+      final int[] keptClasses) {
+    for (int k = 0; k < numKept; ++k) {
+      final float threshold =
+          keptClasses[k] == classId
+              ? Math.min(classIouThreshold, crossClassIouThreshold)
+              : crossClassIouThreshold;
+      if (threshold > 1) {
+        continue;
+      }
+      final int b = k * 4;
+      final float intersection =
+          getArea(
+              Math.max(left, keptBoxes[b]),
+              Math.max(top, keptBoxes[b + 1]),
+              Math.min(right, keptBoxes[b + 2]),
+              Math.min(bottom, keptBoxes[b + 3]));
+      final float union = area + keptAreas[k] - intersection;
+      if (union > 0 && intersection > threshold * union) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static float getArea(
+      final float left, final float top, final float right, final float bottom) {
+    return Math.max(0, right - left) * Math.max(0, bottom - top);
+  }
+
+  // Ties go to the lower index, so that the result does not depend on the heap layout.
+  private static boolean isBetter(final int a, final int b, final float[] scores) {
+    return scores[a] > scores[b] || (scores[a] == scores[b] && a < b);
+  }
+
+  private void siftDown(int i, final int size, final float[] scores) {
+    final int value = heap[i];
+    while (true) {
+      int child = 2 * i + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && isBetter(heap[child + 1], heap[child], scores)) {
+        ++child;
+      }
+      if (!isBetter(heap[child], value, scores)) {
+        break;
+      }
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = value;
+  }
+}
@@ -0,0 +1,260 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.content.res.AssetManager;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.tensorflow.lite.examples.detection.env.Logger;
+
+/**
+ * A fixed set of detectors for running several camera streams at once.
+ *
+ * <p>A single detector wraps one interpreter and must not be used from more than one thread. The
+ * pool memory-maps the model once and creates one detector per instance on top of it, each with
+ * its own interpreter and pre-allocated buffers. Streams acquire an idle detector for a frame and
+ * release it when they are done with it; a {@link DetectionPipeline} created on the pool does so
+ * for every frame, so the frames of all streams go to whichever detector is free.
+ *
+ * <p>The interpreter thread budget is split across the instances as evenly as possible, the
+ * remainder going to the first ones, so that together they never ask for more threads than the
+ * budget. Every instance needs a thread, so the budget must be at least the number of instances.
+ */
+public class DetectorPool {
+  private static final Logger LOGGER = new Logger();
+
+  private final Classifier[] detectors;
+  private final ArrayBlockingQueue<Classifier> idleDetectors;
+  // Whether each detector has been acquired and not released yet, guarded by itself.
+  private final boolean[] checkedOut;
+  // Serializes changes to the configuration, which take every detector out of the pool.
+  private final Object configLock = new Object();
+  private volatile int threadBudget;
+
+  private DetectorPool(final Classifier[] detectors, final int threadBudget) {
+    this.detectors = detectors;
+    this.threadBudget = threadBudget;
+    idleDetectors = new ArrayBlockingQueue<Classifier>(detectors.length);
+    for (final Classifier detector : detectors) {
+      idleDetectors.add(detector);
+    }
+    checkedOut = new boolean[detectors.length];
+  }
+
+  /**
+   * Creates a pool of object detectors sharing the model described by a spec in Assets.
+   *
+   * @param assetManager The asset manager to be used to load assets.
+   * @param specFilename The filepath of the model spec, which names the model and label files.
+   * @param recycleResults Whether each detector reuses its results between calls.
+   * @param numInstances Number of detectors, typically one per stream.
+   * @param threadBudget Total number of interpreter threads across all detectors, e.g. the
+   *     number of cores.
+   */
+  public static DetectorPool create(
+      final AssetManager assetManager,
+      final String specFilename,
+      final boolean recycleResults,
+      final int numInstances,
+      final int threadBudget)
+      throws IOException {
+    return create(
+        assetManager,
+        TFLiteObjectDetectionAPIModel.loadModelSpec(assetManager, specFilename),
+        recycleResults,
+        numInstances,
+        threadBudget);
+  }
+
+  /**
+   * Creates a pool of object detectors sharing one model.
+   *
+   * @param spec Describes the model, which it must name along with its label file, and how to
+   *     decode its outputs.
+   * @see #create(AssetManager, String, boolean, int, int)
+   */
+  public static DetectorPool create(
+      final AssetManager assetManager,
+      final ModelSpec spec,
+      final boolean recycleResults,
+      final int numInstances,
+      final int threadBudget)
+      throws IOException {
+    checkThreadBudget(threadBudget, numInstances);
+    final MappedByteBuffer model =
+        TFLiteObjectDetectionAPIModel.loadModelFile(assetManager, spec.getModelFile());
+    final Vector<String> labels =
+        TFLiteObjectDetectionAPIModel.loadLabels(assetManager, spec.getLabelsFile());
+
+    LOGGER.i("Creating %d detectors with %d threads in all", numInstances, threadBudget);
+    final Classifier[] detectors = new Classifier[numInstances];
+    for (int i = 0; i < numInstances; ++i) {
+      detectors[i] =
+          TFLiteObjectDetectionAPIModel.create(
+              model,
+              labels,
+              spec,
+              recycleResults,
+              getThreadsForInstance(threadBudget, numInstances, i));
+    }
+    return new DetectorPool(detectors, threadBudget);
+  }
+
+  private static void checkThreadBudget(final int threadBudget, final int numInstances) {
+    if (numInstances < 1 || threadBudget < numInstances) {
+      throw new IllegalArgumentException(
+          "Cannot split " + threadBudget + " threads across " + numInstances + " detectors");
+    }
+  }
+
+  /** Returns the share of instance i of a thread budget split across numInstances. */
+  static int getThreadsForInstance(
+      final int threadBudget, final int numInstances, final int instance) {
+    return threadBudget / numInstances + (instance < threadBudget % numInstances ? 1 : 0);
+  }
+
+  public int size() {
+    return detectors.length;
+  }
+
+  /**
+   * Returns detector i, for reading its configuration or filling its inputs. It may only be run
+   * between acquiring it and releasing it.
+   */
+  public Classifier getDetector(final int i) {
+    return detectors[i];
+  }
+
+  /** Returns an idle detector, waiting until one is released if all of them are busy. */
+  public Classifier acquire() throws InterruptedException {
+    final Classifier detector = idleDetectors.take();
+    setCheckedOut(detector, true);
+    return detector;
+  }
+
+  /**
+   * Returns an idle detector, or null if none becomes available within the timeout. Streams that
+   * would rather drop a frame than wait can pass a timeout of zero.
+   */
+  public Classifier tryAcquire(final long timeout, final TimeUnit unit)
+      throws InterruptedException {
+    final Classifier detector = idleDetectors.poll(timeout, unit);
+    if (detector != null) {
+      setCheckedOut(detector, true);
+    }
+    return detector;
+  }
+
+  /**
+   * Hands a detector back to the pool. Results of a detector that recycles them must not be used
+   * after this.
+   *
+   * @throws IllegalArgumentException if the detector is not from this pool.
+   * @throws IllegalStateException if the detector is not checked out, e.g. already released.
+   */
+  public void release(final Classifier detector) {
+    setCheckedOut(detector, false);
+    idleDetectors.add(detector);
+  }
+
+  private void setCheckedOut(final Classifier detector, final boolean acquired) {
+    int index = -1;
+    for (int i = 0; i < detectors.length; ++i) {
+      if (detectors[i] == detector) {
+        index = i;
+        break;
+      }
+    }
+    if (index < 0) {
+      throw new IllegalArgumentException("Detector is not from this pool");
+    }
+    synchronized (checkedOut) {
+      if (checkedOut[index] == acquired) {
+        throw new IllegalStateException(
+            "Detector " + index + (acquired ? " is already checked out" : " is not checked out"));
+      }
+      checkedOut[index] = acquired;
+    }
+  }
+
+  /**
+   * Changes the total interpreter thread budget, splitting it again across the detectors. Waits
+   * until every detector is idle, so it must not be called while holding one.
+   */
+  public void setThreadBudget(final int threadBudget) {
+    checkThreadBudget(threadBudget, detectors.length);
+    synchronized (configLock) {
+      acquireAll();
+      this.threadBudget = threadBudget;
+      for (int i = 0; i < detectors.length; ++i) {
+        detectors[i].setNumThreads(getThreadsForInstance(threadBudget, detectors.length, i));
+      }
+      releaseAll();
+    }
+  }
+
+  public int getThreadBudget() {
+    return threadBudget;
+  }
+
+  /**
+   * Switches every detector between NNAPI and the CPU. Waits until every detector is idle, like
+   * setThreadBudget().
+   */
+  public void setUseNNAPI(final boolean useNNAPI) {
+    synchronized (configLock) {
+      acquireAll();
+      for (final Classifier detector : detectors) {
+        detector.setUseNNAPI(useNNAPI);
+      }
+      releaseAll();
+    }
+  }
+
+  /** Takes every detector out of the pool, waiting for those in use to be released. */
+  private void acquireAll() {
+    boolean interrupted = false;
+    int numAcquired = 0;
+    while (numAcquired < detectors.length) {
+      try {
+        acquire();
+        ++numAcquired;
+      } catch (final InterruptedException e) {
+        // The configuration must not change under a running detector, so keep waiting.
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void releaseAll() {
+    for (final Classifier detector : detectors) {
+      release(detector);
+    }
+  }
+
+  /** Closes every detector. None of them may be in use or used afterwards. */
+  public void close() {
+    for (final Classifier detector : detectors) {
+      detector.close();
+    }
+  }
+}
@@ -0,0 +1,376 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.util.Arrays;
+import org.tensorflow.lite.examples.detection.env.LatencyHistogram;
+
+/**
+ * Picks the interpreter thread count and delegate from the latency of live runs.
+ *
+ * <p>Tuning sweeps the candidate configurations one after the other on the frames that are being
+ * detected anyway: the CPU with one thread, then with one more thread at a time up to the maximum,
+ * and finally NNAPI with the best CPU thread count for the operations it falls back on. Each
+ * candidate first gets a few runs to warm up, which covers thread pool start-up and NNAPI model
+ * compilation, and is then timed over a fixed number of runs. Adding threads stops as soon as one
+ * more thread no longer helps. The pick is the cheapest configuration whose 90th percentile meets
+ * the target latency, counting NNAPI as free since it leaves the CPU cores to the camera and
+ * tracking, or the fastest one if none does.
+ *
+ * <p>Afterwards the tuner keeps timing runs in windows, and tunes again when the 90th percentile
+ * moves away from the tuned one by more than a factor for several windows in a row: slower when
+ * the device throttles, or faster when it cools down again. A configuration remembered from an
+ * earlier session can be applied instead of the first sweep, in which case the first window sets
+ * the reference latency.
+ *
+ * <p>All methods are meant to be called on the thread that runs the interpreter, between runs, so
+ * that a new configuration never changes under a running interpreter. Nothing here depends on
+ * Android, so the tuner can be driven by a stand-in interpreter on a plain JVM.
+ */
+public class InterpreterTuner {
+  /** What the tuner configures, normally the detector whose runs it is given. */
+  public interface Target {
+    void setNumThreads(int numThreads);
+
+    void setUseNNAPI(boolean useNNAPI);
+  }
+
+  /** Receives the configuration picked by each sweep, e.g. to remember it for the device. */
+  public interface Listener {
+    void onTuned(Config config, long p90Us);
+  }
+
+  /** A thread count and whether to run on NNAPI. */
+  public static final class Config {
+    private static final String CPU = "cpu";
+    private static final String NNAPI = "nnapi";
+
+    private final int numThreads;
+    private final boolean useNNAPI;
+
+    public Config(final int numThreads, final boolean useNNAPI) {
+      this.numThreads = numThreads;
+      this.useNNAPI = useNNAPI;
+    }
+
+    public int getNumThreads() {
+      return numThreads;
+    }
+
+    public boolean getUseNNAPI() {
+      return useNNAPI;
+    }
+
+    /** Returns the form read by parse(), e.g. "cpu:4" or "nnapi:2". */
+    @Override
+    public String toString() {
+      return (useNNAPI ? NNAPI : CPU) + ":" + numThreads;
+    }
+
+    /** Reads a configuration written by toString(), returning null if it is malformed. */
+    public static Config parse(final String value) {
+      if (value == null) {
+        return null;
+      }
+      final int colon = value.indexOf(':');
+      if (colon < 0) {
+        return null;
+      }
+      final String delegate = value.substring(0, colon);
+      if (!delegate.equals(CPU) && !delegate.equals(NNAPI)) {
+        return null;
+      }
+      final int numThreads;
+      try {
+        numThreads = Integer.parseInt(value.substring(colon + 1));
+      } catch (final NumberFormatException e) {
+        return null;
+      }
+      return numThreads > 0 ? new Config(numThreads, delegate.equals(NNAPI)) : null;
+    }
+  }
+
+  // Runs after switching to a candidate that are not timed.
+  private static final int WARMUP_RUNS = 5;
+  // Runs timed per candidate.
+  private static final int MEASURED_RUNS = 20;
+  // Runs per window while monitoring.
+  private static final int MONITOR_RUNS = 50;
+  // Factor by which the 90th percentile of a window has to differ from the tuned one to drift.
+  private static final float DRIFT_RATIO = 1.5f;
+  // Consecutive drifted windows that trigger tuning again, so that a single hiccup does not.
+  private static final int DRIFT_WINDOWS = 2;
+  // Latency of a candidate that has not been timed.
+  private static final long UNTIMED = -1;
+
+  private enum State {
+    STOPPED,
+    SWEEPING,
+    MONITORING
+  }
+
+  private final Target target;
+  private final int maxThreads;
+  private final boolean tryNNAPI;
+  private final long targetLatencyUs;
+  private final Listener listener;
+
+  private final LatencyHistogram window = new LatencyHistogram("tuner");
+
+  private State state = State.STOPPED;
+  private Config config;
+  private long configP90Us = UNTIMED;
+
+  // The candidate being timed and the runs it has had so far.
+  private int candidateThreads;
+  private boolean candidateNNAPI;
+  private int candidateRuns;
+  // 90th percentile of each candidate of the current or last sweep, by thread count.
+  private final long[] cpuP90Us;
+  private long nnapiP90Us = UNTIMED;
+  private int nnapiThreads;
+
+  private int driftedWindows;
+  private int numSweeps;
+  private int numRuns;
+
+  /**
+   * @param target The interpreter to configure.
+   * @param maxThreads Most threads to try, e.g. the number of cores.
+   * @param tryNNAPI Whether NNAPI is available and worth trying.
+   * @param targetLatencyMs Latency the 90th percentile of runs should meet, in milliseconds.
+   * @param listener Receives each picked configuration, may be null.
+   */
+  public InterpreterTuner(
+      final Target target,
+      final int maxThreads,
+      final boolean tryNNAPI,
+      final float targetLatencyMs,
+      final Listener listener) {
+    this.target = target;
+    this.maxThreads = Math.max(1, maxThreads);
+    this.tryNNAPI = tryNNAPI;
+    this.targetLatencyUs = (long) (targetLatencyMs * 1000);
+    this.listener = listener;
+    cpuP90Us = new long[this.maxThreads + 1];
+    Arrays.fill(cpuP90Us, UNTIMED);
+  }
+
+  /**
+   * Starts tuning.
+   *
+   * @param known A configuration picked in an earlier session, which is applied and monitored
+   *     without a sweep, or null to sweep first. It is ignored if it is no longer a candidate.
+   */
+  public synchronized void start(final Config known) {
+    if (known != null
+        && known.getNumThreads() <= maxThreads
+        && (tryNNAPI || !known.getUseNNAPI())) {
+      apply(known);
+      configP90Us = UNTIMED;
+      startMonitoring();
+    } else {
+      startSweep();
+    }
+  }
+
+  /**
+   * Stops changing the configuration, e.g. because it was set by hand. The target keeps whatever
+   * configuration it has.
+   */
+  public synchronized void stop() {
+    state = State.STOPPED;
+  }
+
+  public synchronized boolean isTuning() {
+    return state == State.SWEEPING;
+  }
+
+  /** Returns the configuration applied last, or null if none has been. */
+  public synchronized Config getConfig() {
+    return config;
+  }
+
+  /** Returns the number of sweeps started, including the first one. */
+  public synchronized int getNumSweeps() {
+    return numSweeps;
+  }
+
+  /**
+   * Records the latency of an interpreter run, which may apply another configuration before the
+   * next run.
+   */
+  public synchronized void recordRun(final long latencyUs) {
+    if (state == State.STOPPED) {
+      return;
+    }
+    ++numRuns;
+    if (state == State.SWEEPING) {
+      recordSweepRun(latencyUs);
+    } else {
+      recordMonitorRun(latencyUs);
+    }
+  }
+
+  private void startSweep() {
+    state = State.SWEEPING;
+    ++numSweeps;
+    Arrays.fill(cpuP90Us, UNTIMED);
+    nnapiP90Us = UNTIMED;
+    startCandidate(1, false);
+  }
+
+  private void startCandidate(final int numThreads, final boolean useNNAPI) {
+    candidateThreads = numThreads;
+    candidateNNAPI = useNNAPI;
+    candidateRuns = 0;
+    window.reset();
+    apply(new Config(numThreads, useNNAPI));
+  }
+
+  private void recordSweepRun(final long latencyUs) {
+    if (candidateRuns++ < WARMUP_RUNS) {
+      return;
+    }
+    window.recordUs(latencyUs);
+    if (window.getCount() < MEASURED_RUNS) {
+      return;
+    }
+
+    final long p90Us = window.getPercentileUs(90);
+    if (candidateNNAPI) {
+      nnapiP90Us = p90Us;
+      nnapiThreads = candidateThreads;
+      finishSweep();
+      return;
+    }
+    cpuP90Us[candidateThreads] = p90Us;
+    final boolean helped = candidateThreads == 1 || p90Us < cpuP90Us[candidateThreads - 1];
+    if (helped && candidateThreads < maxThreads) {
+      startCandidate(candidateThreads + 1, false);
+    } else if (tryNNAPI) {
+      startCandidate(getFastestCpuThreads(), true);
+    } else {
+      finishSweep();
+    }
+  }
+
+  private int getFastestCpuThreads() {
+    int best = 1;
+    for (int t = 2; t <= maxThreads; ++t) {
+      if (cpuP90Us[t] != UNTIMED && cpuP90Us[t] < cpuP90Us[best]) {
+        best = t;
+      }
+    }
+    return best;
+  }
+
+  private void finishSweep() {
+    // Candidates that meet the target, cheapest first: NNAPI, then by thread count.
+    Config picked = null;
+    long pickedP90Us = 0;
+    if (nnapiP90Us != UNTIMED && nnapiP90Us <= targetLatencyUs) {
+      picked = new Config(nnapiThreads, true);
+      pickedP90Us = nnapiP90Us;
+    }
+    for (int t = 1; picked == null && t <= maxThreads; ++t) {
+      if (cpuP90Us[t] != UNTIMED && cpuP90Us[t] <= targetLatencyUs) {
+        picked = new Config(t, false);
+        pickedP90Us = cpuP90Us[t];
+      }
+    }
+    if (picked == null) {
+      final int fastestThreads = getFastestCpuThreads();
+      if (nnapiP90Us != UNTIMED && nnapiP90Us < cpuP90Us[fastestThreads]) {
+        picked = new Config(nnapiThreads, true);
+        pickedP90Us = nnapiP90Us;
+      } else {
+        picked = new Config(fastestThreads, false);
+        pickedP90Us = cpuP90Us[fastestThreads];
+      }
+    }
+
+    apply(picked);
+    configP90Us = pickedP90Us;
+    startMonitoring();
+    if (listener != null) {
+      listener.onTuned(picked, pickedP90Us);
+    }
+  }
+
+  private void startMonitoring() {
+    state = State.MONITORING;
+    driftedWindows = 0;
+    window.reset();
+  }
+
+  private void recordMonitorRun(final long latencyUs) {
+    window.recordUs(latencyUs);
+    if (window.getCount() < MONITOR_RUNS) {
+      return;
+    }
+    final long p90Us = window.getPercentileUs(90);
+    window.reset();
+    if (configP90Us == UNTIMED) {
+      // Started from a remembered configuration, which this window has timed.
+      configP90Us = p90Us;
+      return;
+    }
+    if (p90Us > configP90Us * DRIFT_RATIO || p90Us * DRIFT_RATIO < configP90Us) {
+      if (++driftedWindows >= DRIFT_WINDOWS) {
+        startSweep();
+      }
+    } else {
+      driftedWindows = 0;
+    }
+  }
+
+  private void apply(final Config newConfig) {
+    target.setNumThreads(newConfig.getNumThreads());
+    target.setUseNNAPI(newConfig.getUseNNAPI());
+    config = newConfig;
+  }
+
+  /** Returns the applied configuration and the latency of every candidate of the last sweep. */
+  public synchronized String getStatString() {
+    if (config == null) {
+      return "interpreter tuner: not started";
+    }
+    final StringBuilder builder = new StringBuilder();
+    builder.append(
+        String.format(
+            "interpreter tuner: %s%s, p90 %.1fms, target %.1fms, %d sweeps in %d runs",
+            config,
+            state == State.SWEEPING ? " (sweeping)" : "",
+            Math.max(0, configP90Us) / 1000.0,
+            targetLatencyUs / 1000.0,
+            numSweeps,
+            numRuns));
+    if (numSweeps > 0) {
+      builder.append("; last sweep");
+    }
+    for (int t = 1; t <= maxThreads; ++t) {
+      if (cpuP90Us[t] != UNTIMED) {
+        builder.append(String.format(" %s %.1fms", new Config(t, false), cpuP90Us[t] / 1000.0));
+      }
+    }
+    if (nnapiP90Us != UNTIMED) {
+      builder.append(
+          String.format(" %s %.1fms", new Config(nnapiThreads, true), nnapiP90Us / 1000.0));
+    }
+    return builder.toString();
+  }
+}
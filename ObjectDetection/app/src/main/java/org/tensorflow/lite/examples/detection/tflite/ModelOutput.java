@@ -0,0 +1,130 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * One output tensor of a model, held in a direct buffer that the interpreter writes into and read
+ * back as floats whatever its type, so that decoders work the same on float and quantized models.
+ */
+public final class ModelOutput {
+  /** Element types a decoder can read. */
+  public enum Type {
+    FLOAT32,
+    UINT8,
+    INT8
+  }
+
+  private final int[] shape;
+  // The type as flags, so that get() does not switch on every element.
+  private final boolean isFloat;
+  private final boolean isUnsigned;
+  private final float scale;
+  private final int zeroPoint;
+  private final int numElements;
+  private final ByteBuffer buffer;
+
+  /**
+   * @param shape Dimensions of the tensor.
+   * @param type Element type.
+   * @param scale Quantization scale, ignored for FLOAT32.
+   * @param zeroPoint Quantization zero point, ignored for FLOAT32.
+   */
+  public ModelOutput(final int[] shape, final Type type, final float scale, final int zeroPoint) {
+    this.shape = shape.clone();
+    isFloat = type == Type.FLOAT32;
+    isUnsigned = type == Type.UINT8;
+    this.scale = scale;
+    this.zeroPoint = zeroPoint;
+    int count = 1;
+    for (final int dimension : shape) {
+      count *= dimension;
+    }
+    numElements = count;
+    buffer =
+        ByteBuffer.allocateDirect(numElements * (isFloat ? 4 : 1))
+            .order(ByteOrder.nativeOrder());
+  }
+
+  /** Returns the buffer to bind to the interpreter output. Rewind it before every run. */
+  public ByteBuffer getBuffer() {
+    return buffer;
+  }
+
+  public int getNumDimensions() {
+    return shape.length;
+  }
+
+  /** Returns a dimension, counting from the end for negative indices, e.g. -1 for the last. */
+  public int getDimension(final int index) {
+    return shape[index < 0 ? shape.length + index : index];
+  }
+
+  public int getNumElements() {
+    return numElements;
+  }
+
+  /** Throws unless the tensor has the given number of elements. */
+  public void checkNumElements(final String name, final int expected) {
+    if (numElements != expected) {
+      throw new IllegalArgumentException(
+          name + " output has " + numElements + " elements, expected " + expected);
+    }
+  }
+
+  /** Returns an element in row-major order, dequantized. */
+  public float get(final int index) {
+    if (isFloat) {
+      return buffer.getFloat(index << 2);
+    }
+    final int value = isUnsigned ? buffer.get(index) & 0xff : buffer.get(index);
+    return (value - zeroPoint) * scale;
+  }
+
+  /**
+   * Returns the index of the largest of count elements, the first at start and the others stride
+   * elements apart. Quantized elements are compared as they are stored, which their positive scale
+   * keeps in order, so only the winner needs dequantizing.
+   */
+  public int argMax(final int start, final int count, final int stride) {
+    final int end = start + count * stride;
+    int best = start;
+    if (isFloat) {
+      float bestValue = buffer.getFloat(start << 2);
+      for (int index = start + stride; index < end; index += stride) {
+        final float value = buffer.getFloat(index << 2);
+        if (value > bestValue) {
+          bestValue = value;
+          best = index;
+        }
+      }
+    } else {
+      // Flipping the sign bit orders unsigned bytes like signed ones.
+      final int flip = isUnsigned ? 0x80 : 0;
+      int bestValue = (byte) (buffer.get(start) ^ flip);
+      for (int index = start + stride; index < end; index += stride) {
+        final int value = (byte) (buffer.get(index) ^ flip);
+        if (value > bestValue) {
+          bestValue = value;
+          best = index;
+        }
+      }
+    }
+    return best;
+  }
+}
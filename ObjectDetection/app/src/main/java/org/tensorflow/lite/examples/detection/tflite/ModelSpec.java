@@ -0,0 +1,171 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Describes a detection model: its files, its input and how to decode its outputs.
+ *
+ * <p>A spec is read from a properties file shipped next to the model, so that another model can be
+ * tried by dropping in its files and a spec instead of changing code. The keys every model needs
+ * are:
+ *
+ * <pre>
+ * model=detect.tflite          # model asset
+ * labels=labelmap.txt          # label asset, one label per line
+ * input.size=300               # width and height of the square input
+ * input.quantized=true         # uint8 input, otherwise float normalized by mean and std
+ * input.mean=128
+ * input.std=128
+ * decoder=ssd_postprocessed    # name of the output decoder, see DecoderRegistry
+ * labels.offset=1              # added to the model's class to get the line in the labels
+ * </pre>
+ *
+ * <p>Everything else is read by the decoder, see the decoder classes for their keys.
+ */
+public class ModelSpec {
+  private final Properties properties;
+
+  public ModelSpec(final Properties properties) {
+    this.properties = properties;
+  }
+
+  /** Reads a spec from a properties file. */
+  public static ModelSpec load(final InputStream input) throws IOException {
+    final Properties properties = new Properties();
+    properties.load(input);
+    return new ModelSpec(properties);
+  }
+
+  /** The spec of a model with the SSD postprocessing op, such as the prepackaged one. */
+  public static ModelSpec forSsdPostprocessed(final int inputSize, final boolean isQuantized) {
+    final Properties properties = new Properties();
+    properties.setProperty("input.size", Integer.toString(inputSize));
+    properties.setProperty("input.quantized", Boolean.toString(isQuantized));
+    properties.setProperty("decoder", SsdPostprocessedDecoder.NAME);
+    properties.setProperty("labels.offset", "1");
+    return new ModelSpec(properties);
+  }
+
+  public String getModelFile() {
+    return getString("model");
+  }
+
+  public String getLabelsFile() {
+    return getString("labels");
+  }
+
+  public int getInputSize() {
+    return getInt("input.size");
+  }
+
+  public boolean isInputQuantized() {
+    return getBoolean("input.quantized", true);
+  }
+
+  public float getInputMean() {
+    return getFloat("input.mean", 128.0f);
+  }
+
+  public float getInputStd() {
+    return getFloat("input.std", 128.0f);
+  }
+
+  public String getDecoder() {
+    return getString("decoder");
+  }
+
+  public int getLabelOffset() {
+    return getInt("labels.offset", 0);
+  }
+
+  /** Returns the model output whose index is given by a key, or by default the given index. */
+  public ModelOutput getOutput(
+      final ModelOutput[] outputs, final String key, final int defaultIndex) {
+    final int index = getInt(key, defaultIndex);
+    if (index < 0 || index >= outputs.length) {
+      throw new IllegalArgumentException(
+          "Model spec " + key + " is " + index + ", the model has " + outputs.length + " outputs");
+    }
+    return outputs[index];
+  }
+
+  /** Returns a required value, throwing if the spec lacks it. */
+  public String getString(final String key) {
+    final String value = properties.getProperty(key);
+    if (value == null) {
+      throw new IllegalArgumentException("Model spec has no " + key);
+    }
+    return value.trim();
+  }
+
+  public String getString(final String key, final String defaultValue) {
+    final String value = properties.getProperty(key);
+    return value != null ? value.trim() : defaultValue;
+  }
+
+  public int getInt(final String key) {
+    return parseInt(key, getString(key));
+  }
+
+  public int getInt(final String key, final int defaultValue) {
+    final String value = properties.getProperty(key);
+    return value != null ? parseInt(key, value.trim()) : defaultValue;
+  }
+
+  public float getFloat(final String key, final float defaultValue) {
+    final String value = properties.getProperty(key);
+    return value != null ? parseFloat(key, value.trim()) : defaultValue;
+  }
+
+  public boolean getBoolean(final String key, final boolean defaultValue) {
+    final String value = properties.getProperty(key);
+    return value != null ? Boolean.parseBoolean(value.trim()) : defaultValue;
+  }
+
+  /** Returns a comma separated list of numbers, or the default if the spec lacks it. */
+  public float[] getFloats(final String key, final float[] defaultValue) {
+    final String value = properties.getProperty(key);
+    if (value == null) {
+      return defaultValue;
+    }
+    final String[] parts = value.split(",");
+    final float[] values = new float[parts.length];
+    for (int i = 0; i < parts.length; ++i) {
+      values[i] = parseFloat(key, parts[i].trim());
+    }
+    return values;
+  }
+
+  private static int parseInt(final String key, final String value) {
+    try {
+      return Integer.parseInt(value);
+    } catch (final NumberFormatException e) {
+      throw new IllegalArgumentException("Model spec " + key + " is not an integer: " + value);
+    }
+  }
+
+  private static float parseFloat(final String key, final String value) {
+    try {
+      return Float.parseFloat(value);
+    } catch (final NumberFormatException e) {
+      throw new IllegalArgumentException("Model spec " + key + " is not a number: " + value);
+    }
+  }
+}
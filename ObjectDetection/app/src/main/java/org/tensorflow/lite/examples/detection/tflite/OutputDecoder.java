@@ -0,0 +1,48 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * Turns the outputs of one model run into candidate detections for the {@link
+ * DetectionPostprocessor}.
+ *
+ * <p>A decoder is bound to a model's output tensors when it is created and reads them in place
+ * after every run. Candidates below the minimum score are skipped before their boxes are decoded,
+ * which for raw outputs with thousands of anchors is most of the work saved.
+ */
+public interface OutputDecoder {
+  /** Creates a decoder for a model, reading its settings from the model spec. */
+  interface Factory {
+    /**
+     * @throws IllegalArgumentException If the spec or the outputs do not fit the decoder.
+     */
+    OutputDecoder create(ModelSpec spec, ModelOutput[] outputs);
+  }
+
+  /** Returns the most candidates a single call to decode() produces. */
+  int getMaxCandidates();
+
+  /**
+   * Decodes the outputs of the last run.
+   *
+   * @param minScore Candidates scoring below this may be left out.
+   * @param boxes Receives left, top, right and bottom of each candidate, in input pixels.
+   * @param classes Receives the class of each candidate as a line of the labels file.
+   * @param scores Receives the score of each candidate, from 0 to 1.
+   * @return The number of candidates.
+   */
+  int decode(float minScore, float[] boxes, int[] classes, float[] scores);
+}
@@ -0,0 +1,92 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.detection.tflite;
+
+import android.graphics.RectF;
+import java.util.ArrayList;
+import java.util.List;
+import org.tensorflow.lite.examples.detection.tflite.Classifier.Recognition;
+
+/**
+ * Wraps the detections of a {@link DetectionBatch} in Recognitions for the list-returning
+ * Classifier methods. When recycling, the list and its Recognitions are allocated here once and
+ * overwritten by every call, so wrapping a frame allocates nothing and the results are only valid
+ * until the next call.
+ */
+final class RecognitionAdapter {
+  private final List<String> labels;
+  private final boolean recycleResults;
+  private final String[] recognitionIds;
+  private final ArrayList<Recognition> recognitions;
+  private final Recognition[] recycledRecognitions;
+
+  /**
+   * @param labels The title of each class index, only read after creation.
+   * @param maxResults Most detections of a batch.
+   * @param recycleResults Whether to reuse the list and Recognitions from call to call.
+   */
+  RecognitionAdapter(
+      final List<String> labels, final int maxResults, final boolean recycleResults) {
+    this.labels = labels;
+    this.recycleResults = recycleResults;
+    recognitionIds = new String[maxResults];
+    for (int i = 0; i < maxResults; ++i) {
+      recognitionIds[i] = Integer.toString(i);
+    }
+    if (recycleResults) {
+      recognitions = new ArrayList<>(maxResults);
+      recycledRecognitions = new Recognition[maxResults];
+      for (int i = 0; i < maxResults; ++i) {
+        recycledRecognitions[i] = new Recognition(recognitionIds[i], null, null, new RectF());
+      }
+    } else {
+      recognitions = null;
+      recycledRecognitions = null;
+    }
+  }
+
+  /** Returns the detections of the batch as Recognitions, in the batch's order. */
+  List<Recognition> wrap(final DetectionBatch batch) {
+    final int numResults = batch.getCount();
+    final float[] boxes = batch.getBoxes();
+    final int[] classes = batch.getClasses();
+    final float[] scores = batch.getScores();
+    final ArrayList<Recognition> results =
+        recycleResults ? recognitions : new ArrayList<Recognition>(numResults);
+    results.clear();
+    for (int i = 0; i < numResults; ++i) {
+      final int classIndex = classes[i];
+      final String title = labels.get(classIndex);
+      final float left = boxes[i * 4];
+      final float top = boxes[i * 4 + 1];
+      final float right = boxes[i * 4 + 2];
+      final float bottom = boxes[i * 4 + 3];
+      if (recycleResults) {
+        final Recognition recognition = recycledRecognitions[i];
+        recognition.set(recognitionIds[i], title, classIndex, scores[i], left, top, right, bottom);
+        results.add(recognition);
+      } else {
+        results.add(
+            new Recognition(
+                recognitionIds[i],
+                title,
+                classIndex,
+                scores[i],
+                new RectF(left, top, right, bottom)));
+      }
+    }
+    return results;
+  }
+}
@@ -0,0 +1,144 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import org.tensorflow.lite.examples.detection.env.LatencyHistogram;
+
+/**
+ * Schedules detection on a region of interest, such as the path in front of someone walking, on
+ * every frame, and on the rest of the view at a lower cadence.
+ *
+ * <p>Frames are detected in the region, which reaches the model at close to its native resolution
+ * if it is about as large as the model input in the frame. Every n-th frame is detected in the
+ * full frame instead, at the usual scale, which sweeps the periphery and still covers the region,
+ * so that every frame costs one model run as before while the region gets a closer look on most
+ * of them. Both are single tile {@link TileLayout}s, so they are sampled and run by the tiled path
+ * of {@link DetectionPipeline}, which drops the detections cut off at the region's edges, and
+ * their results come out in crop coordinates either way.
+ *
+ * <p>The full frame is due once the given number of frames has been detected since the last
+ * sweep, counting detected rather than submitted frames, so that a sweep is not lost to a frame
+ * the pipeline dropped. For the region and the full frame the scheduler records the time their
+ * runs took and how often they found anything. getLayout() and the record methods may be called
+ * from different threads.
+ */
+public class RoiScheduler {
+  private static final int REGION = 0;
+  private static final int FULL_FRAME = 1;
+
+  private final TileLayout regionLayout;
+  private final TileLayout sweepLayout;
+  private final int fullFrameInterval;
+
+  private final LatencyHistogram[] latencies = {
+    new LatencyHistogram("roi_region"), new LatencyHistogram("roi_full_frame")
+  };
+  private final long[] numRuns = new long[2];
+  private final long[] numHits = new long[2];
+  private final long[] numDetections = new long[2];
+
+  private int framesSinceSweep;
+
+  /**
+   * @param left Left edge of the region, as a fraction of the width of the upright frame.
+   * @param top Top edge of the region, as a fraction of the height of the upright frame.
+   * @param right Right edge of the region.
+   * @param bottom Bottom edge of the region.
+   * @param cropSize Width and height of the crop the frame is mapped to.
+   * @param inputSize Width and height of the model input.
+   * @param fullFrameInterval Detect the full frame instead of the region on every n-th detected
+   *     frame; 1 does so on every frame.
+   */
+  public RoiScheduler(
+      final float left,
+      final float top,
+      final float right,
+      final float bottom,
+      final int cropSize,
+      final int inputSize,
+      final int fullFrameInterval) {
+    if (fullFrameInterval < 1) {
+      throw new IllegalArgumentException("Full frame interval must be at least 1");
+    }
+    regionLayout = TileLayout.createRegion(left, top, right, bottom, cropSize, inputSize);
+    sweepLayout = TileLayout.createFullFrame(cropSize, inputSize);
+    this.fullFrameInterval = fullFrameInterval;
+  }
+
+  /** Returns the most tiles of a frame, which is one. */
+  public int getMaxTiles() {
+    return Math.max(regionLayout.getNumTiles(), sweepLayout.getNumTiles());
+  }
+
+  /** Returns the layout to detect the next frame with. */
+  public synchronized TileLayout getLayout() {
+    return framesSinceSweep + 1 >= fullFrameInterval ? sweepLayout : regionLayout;
+  }
+
+  /**
+   * Records the run of a detected frame.
+   *
+   * @param layout The layout the frame was detected with, as returned by getLayout().
+   * @param runTimeUs Time of the run, in microseconds.
+   * @param detections Detections the run contributed.
+   */
+  public synchronized void recordRun(
+      final TileLayout layout, final long runTimeUs, final int detections) {
+    final int region = layout.hasFullFrame() ? FULL_FRAME : REGION;
+    latencies[region].recordUs(runTimeUs);
+    ++numRuns[region];
+    numDetections[region] += detections;
+    if (detections > 0) {
+      ++numHits[region];
+    }
+  }
+
+  /** Records that a frame has been detected, after its runs. */
+  public synchronized void recordFrame(final TileLayout layout) {
+    framesSinceSweep = layout.hasFullFrame() ? 0 : framesSinceSweep + 1;
+  }
+
+  public synchronized String getStatString() {
+    return String.format(
+            Locale.US,
+            "roi: full frame every %d frames, region %s, full frame %s\n",
+            fullFrameInterval,
+            getHitString(REGION),
+            getHitString(FULL_FRAME))
+        + latencies[REGION]
+        + "\n"
+        + latencies[FULL_FRAME];
+  }
+
+  private String getHitString(final int region) {
+    final long runs = numRuns[region];
+    return String.format(
+        Locale.US,
+        "%d runs, %.1f%% hits, %.2f detections per run",
+        runs,
+        runs > 0 ? 100.0 * numHits[region] / runs : 0.0,
+        runs > 0 ? numDetections[region] / (double) runs : 0.0);
+  }
+
+  public void writeStats(final Writer writer) throws IOException {
+    for (final LatencyHistogram latency : latencies) {
+      latency.writeCsv(writer);
+    }
+  }
+}
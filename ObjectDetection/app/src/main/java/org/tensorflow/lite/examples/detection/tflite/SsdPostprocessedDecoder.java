@@ -0,0 +1,89 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * Reads the outputs of the TFLite_Detection_PostProcess op, which ends SSD models exported with
+ * their postprocessing, such as the prepackaged SSD MobileNet, and the EfficientDet-Lite models of
+ * Model Maker: boxes as [1, N, 4] ymin, xmin, ymax, xmax relative to the input, classes and scores
+ * as [1, N], and the number of valid detections as [1].
+ *
+ * <p>Spec keys: output.boxes, output.classes, output.scores and output.count give the index of
+ * each output, 0 to 3 by default; exports differ in their order.
+ */
+class SsdPostprocessedDecoder implements OutputDecoder {
+  static final String NAME = "ssd_postprocessed";
+
+  static final Factory FACTORY =
+      new Factory() {
+        @Override
+        public OutputDecoder create(final ModelSpec spec, final ModelOutput[] outputs) {
+          return new SsdPostprocessedDecoder(spec, outputs);
+        }
+      };
+
+  private final ModelOutput boxes;
+  private final ModelOutput classes;
+  private final ModelOutput scores;
+  private final ModelOutput count;
+  private final int maxCandidates;
+  private final float inputSize;
+  private final int labelOffset;
+
+  private SsdPostprocessedDecoder(final ModelSpec spec, final ModelOutput[] outputs) {
+    boxes = spec.getOutput(outputs, "output.boxes", 0);
+    classes = spec.getOutput(outputs, "output.classes", 1);
+    scores = spec.getOutput(outputs, "output.scores", 2);
+    count = spec.getOutput(outputs, "output.count", 3);
+    maxCandidates = scores.getNumElements();
+    boxes.checkNumElements("Boxes", maxCandidates * 4);
+    classes.checkNumElements("Classes", maxCandidates);
+    count.checkNumElements("Count", 1);
+    inputSize = spec.getInputSize();
+    labelOffset = spec.getLabelOffset();
+  }
+
+  @Override
+  public int getMaxCandidates() {
+    return maxCandidates;
+  }
+
+  @Override
+  public int decode(
+      final float minScore,
+      final float[] outBoxes,
+      final int[] outClasses,
+      final float[] outScores) {
+    // Only the first outputs are valid; the rest are left over from earlier runs.
+    final int numValid = Math.max(0, Math.min(maxCandidates, (int) count.get(0)));
+    int numCandidates = 0;
+    for (int i = 0; i < numValid; ++i) {
+      final float score = scores.get(i);
+      if (score < minScore) {
+        continue;
+      }
+      final int b = numCandidates * 4;
+      outBoxes[b] = boxes.get(i * 4 + 1) * inputSize;
+      outBoxes[b + 1] = boxes.get(i * 4) * inputSize;
+      outBoxes[b + 2] = boxes.get(i * 4 + 3) * inputSize;
+      outBoxes[b + 3] = boxes.get(i * 4 + 2) * inputSize;
+      outClasses[numCandidates] = (int) classes.get(i) + labelOffset;
+      outScores[numCandidates] = score;
+      ++numCandidates;
+    }
+    return numCandidates;
+  }
+}
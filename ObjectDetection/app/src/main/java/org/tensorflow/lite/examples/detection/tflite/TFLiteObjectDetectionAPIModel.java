@@ -18,66 +18,83 @@ package org.tensorflow.lite.examples.detection.tflite;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.graphics.RectF;
 import android.os.Trace;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+import org.tensorflow.lite.examples.detection.env.ImageUtils;
+import org.tensorflow.lite.examples.detection.env.LatencyHistogram;
 import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.env.YuvInputSampler;
 
 /**
  * Wrapper for frozen detection models trained using the Tensorflow Object Detection API:
  * github.com/tensorflow/models/tree/master/research/object_detection
+ *
+ * <p>The model is described by a {@link ModelSpec}, and its outputs are turned into candidates by
+ * the {@link OutputDecoder} the spec names, so that other single-shot detectors can be run by
+ * shipping a spec with them.
  */
 public class TFLiteObjectDetectionAPIModel implements Classifier {
   private static final Logger LOGGER = new Logger();
 
   // Only return this many results.
   private static final int NUM_DETECTIONS = 10;
-  // Float model
-  private static final float IMAGE_MEAN = 128.0f;
-  private static final float IMAGE_STD = 128.0f;
+  // A detection is suppressed when it overlaps a better one of the same class by more than
+  // CLASS_IOU_THRESHOLD, or one of any class by more than CROSS_CLASS_IOU_THRESHOLD.
+  private static final float CLASS_IOU_THRESHOLD = 0.6f;
+  private static final float CROSS_CLASS_IOU_THRESHOLD = 0.8f;
   // Number of threads in the java app
   private static final int NUM_THREADS = 4;
   private boolean isModelQuantized;
   // Config values.
   private int inputSize;
+  private float imageMean;
+  private float imageStd;
   // Pre-allocated buffers.
-  private Vector<String> labels = new Vector<String>();
+  private Vector<String> labels;
   private int[] intValues;
-  // outputLocations: array of shape [Batchsize, NUM_DETECTIONS,4]
-  // contains the location of detected boxes
-  private float[][][] outputLocations;
-  // outputClasses: array of shape [Batchsize, NUM_DETECTIONS]
-  // contains the classes of detected boxes
-  private float[][] outputClasses;
-  // outputScores: array of shape [Batchsize, NUM_DETECTIONS]
-  // contains the scores of detected boxes
-  private float[][] outputScores;
-  // numDetections: array of shape [Batchsize]
-  // contains the number of detected boxes
-  private float[] numDetections;
+  // One buffer per output tensor, which the interpreter writes into and the decoder reads.
+  private ModelOutput[] outputs;
+  private DetectionDecoder detectionDecoder;
 
+  // The detections behind the Recognition lists returned to legacy callers.
+  private DetectionBatch detections;
+  private RecognitionAdapter recognitionAdapter;
+
+  private int numBytesPerChannel;
   private ByteBuffer imgData;
+  private Object[] inputArray;
+  private Map<Integer, Object> outputMap;
 
   private Interpreter tfLite;
 
+  // Latency of each stage, only recorded while stat logging is enabled. Preprocessing may run on
+  // another thread than the rest, which the histograms allow for.
+  private volatile boolean logStats;
+  private final LatencyHistogram preprocessLatency = new LatencyHistogram("preprocess");
+  private final LatencyHistogram feedLatency = new LatencyHistogram("feed");
+  private final LatencyHistogram runLatency = new LatencyHistogram("run");
+  private final LatencyHistogram postprocessLatency = new LatencyHistogram("postprocess");
+
   private TFLiteObjectDetectionAPIModel() {}
 
   /** Memory-map the model file in Assets. */
-  private static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
+  static MappedByteBuffer loadModelFile(AssetManager assets, String modelFilename)
       throws IOException {
     AssetFileDescriptor fileDescriptor = assets.openFd(modelFilename);
     FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
@@ -103,131 +120,356 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
       final int inputSize,
       final boolean isQuantized)
       throws IOException {
-    final TFLiteObjectDetectionAPIModel d = new TFLiteObjectDetectionAPIModel();
+    return create(assetManager, modelFilename, labelFilename, inputSize, isQuantized, false);
+  }
+
+  /**
+   * Initializes a native TensorFlow session for the model described by a spec in Assets.
+   *
+   * @param assetManager The asset manager to be used to load assets.
+   * @param specFilename The filepath of the model spec, which names the model and label files.
+   * @param recycleResults If true, the list and Recognitions returned by recognizeImage are
+   *     pre-allocated here and overwritten by the next call, so steady state allocates nothing
+   */
+  public static Classifier create(
+      final AssetManager assetManager, final String specFilename, final boolean recycleResults)
+      throws IOException {
+    final ModelSpec spec = loadModelSpec(assetManager, specFilename);
+    return create(
+        loadModelFile(assetManager, spec.getModelFile()),
+        loadLabels(assetManager, spec.getLabelsFile()),
+        spec,
+        recycleResults,
+        NUM_THREADS);
+  }
+
+  /**
+   * Initializes a native TensorFlow session for classifying images.
+   *
+   * @param assetManager The asset manager to be used to load assets.
+   * @param modelFilename The filepath of the model GraphDef protocol buffer.
+   * @param labelFilename The filepath of label file for classes.
+   * @param inputSize The size of image input
+   * @param isQuantized Boolean representing model is quantized or not
+   * @param recycleResults If true, the list and Recognitions returned by recognizeImage are
+   *     pre-allocated here and overwritten by the next call, so steady state allocates nothing
+   */
+  public static Classifier create(
+      final AssetManager assetManager,
+      final String modelFilename,
+      final String labelFilename,
+      final int inputSize,
+      final boolean isQuantized,
+      final boolean recycleResults)
+      throws IOException {
+    return create(
+        loadModelFile(assetManager, modelFilename),
+        loadLabels(assetManager, labelFilename),
+        ModelSpec.forSsdPostprocessed(inputSize, isQuantized),
+        recycleResults,
+        NUM_THREADS);
+  }
 
+  /** Reads a model spec from Assets. */
+  static ModelSpec loadModelSpec(final AssetManager assetManager, final String specFilename)
+      throws IOException {
+    final InputStream specInput = assetManager.open(getAssetName(specFilename));
+    try {
+      return ModelSpec.load(specInput);
+    } finally {
+      specInput.close();
+    }
+  }
+
+  /** Reads the label file from Assets, one label per line. */
+  static Vector<String> loadLabels(final AssetManager assetManager, final String labelFilename)
+      throws IOException {
+    final Vector<String> labels = new Vector<String>();
     InputStream labelsInput = null;
-    String actualFilename = labelFilename.split("file:///android_asset/")[1];
-    labelsInput = assetManager.open(actualFilename);
+    labelsInput = assetManager.open(getAssetName(labelFilename));
     BufferedReader br = null;
     br = new BufferedReader(new InputStreamReader(labelsInput));
     String line;
     while ((line = br.readLine()) != null) {
       LOGGER.w(line);
-      d.labels.add(line);
+      labels.add(line);
     }
     br.close();
+    return labels;
+  }
+
+  /** Strips the asset URI prefix that the label file names used to carry. */
+  private static String getAssetName(final String filename) {
+    final String prefix = "file:///android_asset/";
+    return filename.startsWith(prefix) ? filename.substring(prefix.length()) : filename;
+  }
 
-    d.inputSize = inputSize;
+  /**
+   * Creates a detector on an already loaded model. Several detectors may share the same model
+   * buffer and labels; each gets its own interpreter and pre-allocated tensors.
+   *
+   * @param model The memory-mapped model file.
+   * @param labels Labels for classes, only read after creation.
+   * @param spec Describes the input and how to decode the outputs.
+   * @param recycleResults Whether recognizeImage reuses its results, see above.
+   * @param numThreads Number of interpreter threads.
+   */
+  static TFLiteObjectDetectionAPIModel create(
+      final MappedByteBuffer model,
+      final Vector<String> labels,
+      final ModelSpec spec,
+      final boolean recycleResults,
+      final int numThreads) {
+    final TFLiteObjectDetectionAPIModel d = new TFLiteObjectDetectionAPIModel();
+    d.labels = labels;
+    d.inputSize = spec.getInputSize();
+    d.imageMean = spec.getInputMean();
+    d.imageStd = spec.getInputStd();
+    final boolean isQuantized = spec.isInputQuantized();
 
     try {
-      d.tfLite = new Interpreter(loadModelFile(assetManager, modelFilename));
+      d.tfLite = new Interpreter(model);
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
 
     d.isModelQuantized = isQuantized;
     // Pre-allocate buffers.
-    int numBytesPerChannel;
     if (isQuantized) {
-      numBytesPerChannel = 1; // Quantized
+      d.numBytesPerChannel = 1; // Quantized
     } else {
-      numBytesPerChannel = 4; // Floating point
+      d.numBytesPerChannel = 4; // Floating point
     }
-    d.imgData = ByteBuffer.allocateDirect(1 * d.inputSize * d.inputSize * 3 * numBytesPerChannel);
-    d.imgData.order(ByteOrder.nativeOrder());
+    d.imgData = d.createInputBuffer();
     d.intValues = new int[d.inputSize * d.inputSize];
 
-    d.tfLite.setNumThreads(NUM_THREADS);
-    d.outputLocations = new float[1][NUM_DETECTIONS][4];
-    d.outputClasses = new float[1][NUM_DETECTIONS];
-    d.outputScores = new float[1][NUM_DETECTIONS];
-    d.numDetections = new float[1];
+    d.tfLite.setNumThreads(numThreads);
+    d.inputArray = new Object[] {d.imgData};
+    d.outputMap = new HashMap<>();
+    d.outputs = new ModelOutput[d.tfLite.getOutputTensorCount()];
+    for (int i = 0; i < d.outputs.length; ++i) {
+      d.outputs[i] = createOutput(d.tfLite.getOutputTensor(i));
+      d.outputMap.put(i, d.outputs[i].getBuffer());
+    }
+    d.detectionDecoder =
+        new DetectionDecoder(
+            spec, d.outputs, NUM_DETECTIONS, CLASS_IOU_THRESHOLD, CROSS_CLASS_IOU_THRESHOLD);
+    d.detections = new DetectionBatch(NUM_DETECTIONS);
+    // When recycling, recognizeImage() refills the same result list and Recognition objects on
+    // every call instead of allocating new ones, so results are only valid until the next call.
+    d.recognitionAdapter = new RecognitionAdapter(labels, NUM_DETECTIONS, recycleResults);
     return d;
   }
 
+  private static ModelOutput createOutput(final Tensor tensor) {
+    final DataType dataType = tensor.dataType();
+    final ModelOutput.Type type;
+    if (dataType == DataType.FLOAT32) {
+      type = ModelOutput.Type.FLOAT32;
+    } else if (dataType == DataType.UINT8) {
+      type = ModelOutput.Type.UINT8;
+    } else if (dataType == DataType.INT8) {
+      type = ModelOutput.Type.INT8;
+    } else {
+      throw new IllegalArgumentException("Unsupported output type " + dataType);
+    }
+    final Tensor.QuantizationParams quantization = tensor.quantizationParams();
+    return new ModelOutput(
+        tensor.shape(), type, quantization.getScale(), quantization.getZeroPoint());
+  }
+
   @Override
   public List<Recognition> recognizeImage(final Bitmap bitmap) {
+    recognizeImage(bitmap, detections);
+    return recognitionAdapter.wrap(detections);
+  }
+
+  @Override
+  public void recognizeImage(final Bitmap bitmap, final DetectionBatch results) {
     // Log this method so that it can be analyzed with systrace.
     Trace.beginSection("recognizeImage");
 
     Trace.beginSection("preprocessBitmap");
+    final boolean timed = logStats;
+    final long preprocessStartNs = timed ? System.nanoTime() : 0;
     // Preprocess the image data from 0-255 int to normalized float based
     // on the provided parameters.
     bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
 
     imgData.rewind();
-    for (int i = 0; i < inputSize; ++i) {
-      for (int j = 0; j < inputSize; ++j) {
-        int pixelValue = intValues[i * inputSize + j];
-        if (isModelQuantized) {
-          // Quantized model
-          imgData.put((byte) ((pixelValue >> 16) & 0xFF));
-          imgData.put((byte) ((pixelValue >> 8) & 0xFF));
-          imgData.put((byte) (pixelValue & 0xFF));
-        } else { // Float model
-          imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-          imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-          imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-        }
-      }
+    ImageUtils.convertARGB8888ToInput(intValues, imgData, isModelQuantized, imageMean, imageStd);
+    if (timed) {
+      preprocessLatency.recordSince(preprocessStartNs);
     }
     Trace.endSection(); // preprocessBitmap
 
-    // Copy the input data into TensorFlow.
+    runDetection(imgData, results);
+    Trace.endSection(); // "recognizeImage"
+  }
+
+  @Override
+  public List<Recognition> recognizeImage(
+      final byte[] yData, final byte[] uData, final byte[] vData, final YuvInputSampler sampler) {
+    Trace.beginSection("recognizeImage");
+    fillInput(yData, uData, vData, sampler, imgData);
+    runDetection(imgData, detections);
+    Trace.endSection(); // "recognizeImage"
+    return recognitionAdapter.wrap(detections);
+  }
+
+  @Override
+  public ByteBuffer createInputBuffer() {
+    final ByteBuffer input =
+        ByteBuffer.allocateDirect(1 * inputSize * inputSize * 3 * numBytesPerChannel);
+    input.order(ByteOrder.nativeOrder());
+    return input;
+  }
+
+  @Override
+  public void fillInput(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final YuvInputSampler sampler,
+      final ByteBuffer input) {
+    checkSampler(sampler);
+    Trace.beginSection("preprocessYuv");
+    final boolean timed = logStats;
+    final long startNs = timed ? System.nanoTime() : 0;
+    input.rewind();
+    if (isModelQuantized) {
+      sampler.sampleQuantized(yData, uData, vData, input);
+    } else {
+      sampler.sampleFloat(yData, uData, vData, input, imageMean, imageStd);
+    }
+    if (timed) {
+      preprocessLatency.recordSince(startNs);
+    }
+    Trace.endSection(); // preprocessYuv
+  }
+
+  @Override
+  public void fillInput(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final YuvInputSampler sampler,
+      final ByteBuffer input) {
+    checkSampler(sampler);
+    Trace.beginSection("preprocessYuv");
+    final boolean timed = logStats;
+    final long startNs = timed ? System.nanoTime() : 0;
+    input.rewind();
+    if (isModelQuantized) {
+      sampler.sampleQuantized(yData, uData, vData, input);
+    } else {
+      sampler.sampleFloat(yData, uData, vData, input, imageMean, imageStd);
+    }
+    if (timed) {
+      preprocessLatency.recordSince(startNs);
+    }
+    Trace.endSection(); // preprocessYuv
+  }
+
+  private void checkSampler(final YuvInputSampler sampler) {
+    if (sampler.getWidth() != inputSize || sampler.getHeight() != inputSize) {
+      throw new IllegalArgumentException(
+          "Sampler produces "
+              + sampler.getWidth()
+              + "x"
+              + sampler.getHeight()
+              + " but the model expects "
+              + inputSize
+              + "x"
+              + inputSize);
+    }
+  }
+
+  @Override
+  public List<Recognition> recognizeInput(final ByteBuffer input) {
+    recognizeInput(input, detections);
+    return recognitionAdapter.wrap(detections);
+  }
+
+  @Override
+  public void recognizeInput(final ByteBuffer input, final DetectionBatch results) {
+    Trace.beginSection("recognizeImage");
+    runDetection(input, results);
+    Trace.endSection(); // "recognizeImage"
+  }
+
+  /** Runs the interpreter on an already filled input buffer and collects the detections. */
+  private void runDetection(final ByteBuffer input, final DetectionBatch results) {
+    // Copy the input data into TensorFlow. The output map was bound to the pre-allocated output
+    // buffers in create(), and the interpreter writes them in place from their position.
+    final boolean timed = logStats;
     Trace.beginSection("feed");
-    outputLocations = new float[1][NUM_DETECTIONS][4];
-    outputClasses = new float[1][NUM_DETECTIONS];
-    outputScores = new float[1][NUM_DETECTIONS];
-    numDetections = new float[1];
-
-    Object[] inputArray = {imgData};
-    Map<Integer, Object> outputMap = new HashMap<>();
-    outputMap.put(0, outputLocations);
-    outputMap.put(1, outputClasses);
-    outputMap.put(2, outputScores);
-    outputMap.put(3, numDetections);
+    final long feedStartNs = timed ? System.nanoTime() : 0;
+    inputArray[0] = input;
+    for (final ModelOutput output : outputs) {
+      output.getBuffer().rewind();
+    }
     Trace.endSection();
 
     // Run the inference call.
     Trace.beginSection("run");
+    final long runStartNs = timed ? System.nanoTime() : 0;
     tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
     Trace.endSection();
+    final long postprocessStartNs = timed ? System.nanoTime() : 0;
+    if (timed) {
+      feedLatency.recordNs(runStartNs - feedStartNs);
+      runLatency.recordNs(postprocessStartNs - runStartNs);
+    }
 
-    // Show the best detections.
-    // after scaling them back to the input size.
-    final ArrayList<Recognition> recognitions = new ArrayList<>(NUM_DETECTIONS);
-    for (int i = 0; i < NUM_DETECTIONS; ++i) {
-      final RectF detection =
-          new RectF(
-              outputLocations[0][i][1] * inputSize,
-              outputLocations[0][i][0] * inputSize,
-              outputLocations[0][i][3] * inputSize,
-              outputLocations[0][i][2] * inputSize);
-      // SSD Mobilenet V1 Model assumes class 0 is background class
-      // in label file and class labels start from 1 to number_of_classes+1,
-      // while outputClasses correspond to class index from 0 to number_of_classes
-      int labelOffset = 1;
-      recognitions.add(
-          new Recognition(
-              "" + i,
-              labels.get((int) outputClasses[0][i] + labelOffset),
-              outputScores[0][i],
-              detection));
+    Trace.beginSection("decode");
+    detectionDecoder.decode(results);
+    Trace.endSection();
+    if (timed) {
+      postprocessLatency.recordSince(postprocessStartNs);
     }
-    Trace.endSection(); // "recognizeImage"
-    return recognitions;
   }
 
   @Override
-  public void enableStatLogging(final boolean logStats) {}
+  public void enableStatLogging(final boolean logStats) {
+    if (logStats && !this.logStats) {
+      preprocessLatency.reset();
+      feedLatency.reset();
+      runLatency.reset();
+      postprocessLatency.reset();
+    }
+    this.logStats = logStats;
+  }
 
   @Override
   public String getStatString() {
-    return "";
+    if (!logStats) {
+      return "";
+    }
+    return preprocessLatency
+        + "\n"
+        + feedLatency
+        + "\n"
+        + runLatency
+        + "\n"
+        + postprocessLatency;
   }
 
   @Override
-  public void close() {}
+  public void writeStats(final Writer writer) throws IOException {
+    preprocessLatency.writeCsv(writer);
+    feedLatency.writeCsv(writer);
+    runLatency.writeCsv(writer);
+    postprocessLatency.writeCsv(writer);
+  }
+
+  @Override
+  public void close() {
+    if (tfLite != null) {
+      tfLite.close();
+      tfLite = null;
+    }
+  }
 
   public void setNumThreads(int num_threads) {
     if (tfLite != null) tfLite.setNumThreads(num_threads);
@@ -237,4 +479,29 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
   public void setUseNNAPI(boolean isChecked) {
     if (tfLite != null) tfLite.setUseNNAPI(isChecked);
   }
+
+  @Override
+  public void setMinimumConfidence(final float minimumConfidence) {
+    detectionDecoder.setScoreThreshold(minimumConfidence);
+  }
+
+  @Override
+  public int getNumClasses() {
+    return labels.size();
+  }
+
+  @Override
+  public String getClassTitle(final int classIndex) {
+    return labels.get(classIndex);
+  }
+
+  @Override
+  public int getMaxResults() {
+    return NUM_DETECTIONS;
+  }
+
+  @Override
+  public int getInputSize() {
+    return inputSize;
+  }
 }
@@ -0,0 +1,264 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.util.Locale;
+
+/**
+ * The tiles a frame is detected in, for finding objects too small to survive being squeezed into
+ * the model input along with the whole frame.
+ *
+ * <p>The first tile is the whole crop, so that large objects are found as before. The others are
+ * squares of the upright frame at about model resolution, so their contents reach the model at
+ * their native size: one in the center, where distant obstacles ahead appear, or a grid of
+ * overlapping tiles covering the whole frame. A region of interest, or the whole crop, can also
+ * be laid out on its own. Tiles are given in crop coordinates, and the crop is assumed to cover
+ * the whole frame, as it does unless the aspect ratio is kept.
+ */
+public final class TileLayout {
+  /**
+   * How a frame is tiled. FULL_FRAME, CENTER and GRID go from the cheapest to the most thorough;
+   * REGION is a region of interest, see {@link #createRegion}.
+   */
+  public enum Mode {
+    FULL_FRAME,
+    CENTER,
+    GRID,
+    REGION
+  }
+
+  /** The layouts {@link #create} makes, from the cheapest to the most thorough. */
+  public static final Mode[] TILING_MODES = {Mode.FULL_FRAME, Mode.CENTER, Mode.GRID};
+
+  private final Mode mode;
+  private final int inputSize;
+  // Whether the first tile is the whole crop.
+  private final boolean fullFrame;
+  // Left, top, right and bottom of each tile in crop coordinates.
+  private final float[] tiles;
+  // Whether each edge of each tile lies inside the crop rather than on its border.
+  private final boolean[] innerEdges;
+
+  private TileLayout(
+      final Mode mode,
+      final int inputSize,
+      final float[] tiles,
+      final int cropSize,
+      final boolean fullFrame) {
+    this.mode = mode;
+    this.inputSize = inputSize;
+    this.tiles = tiles;
+    this.fullFrame = fullFrame;
+    innerEdges = new boolean[tiles.length];
+    for (int i = 0; i < tiles.length; ++i) {
+      // Left and top edges are inner when above zero, right and bottom ones when below the size.
+      innerEdges[i] = i % 4 < 2 ? tiles[i] > 0.5f : tiles[i] < cropSize - 0.5f;
+    }
+  }
+
+  /**
+   * Lays out the tiles of a frame.
+   *
+   * @param mode How to tile the frame.
+   * @param frameWidth Width of the upright frame, i.e. after the sensor rotation.
+   * @param frameHeight Height of the upright frame.
+   * @param cropSize Width and height of the crop the frame is mapped to.
+   * @param inputSize Width and height of the model input.
+   * @param overlap Least fraction of a grid tile shared with each neighbour, so that an object cut
+   *     by one tile's edge lies whole in the next one if it is no larger than that.
+   */
+  public static TileLayout create(
+      final Mode mode,
+      final int frameWidth,
+      final int frameHeight,
+      final int cropSize,
+      final int inputSize,
+      final float overlap) {
+    // Tiles at model resolution, unless the frame is smaller than that.
+    final int tileSize = Math.min(inputSize, Math.min(frameWidth, frameHeight));
+    final float scaleX = cropSize / (float) frameWidth;
+    final float scaleY = cropSize / (float) frameHeight;
+
+    final int columns;
+    final int rows;
+    switch (mode) {
+      case GRID:
+        columns = getNumTiles(frameWidth, tileSize, overlap);
+        rows = getNumTiles(frameHeight, tileSize, overlap);
+        break;
+      case CENTER:
+        columns = rows = 1;
+        break;
+      case FULL_FRAME:
+        columns = rows = 0;
+        break;
+      default:
+        throw new IllegalArgumentException("No tiling for " + mode + ", see createRegion()");
+    }
+
+    final float[] tiles = new float[(1 + columns * rows) * 4];
+    tiles[2] = cropSize;
+    tiles[3] = cropSize;
+    int t = 4;
+    for (int row = 0; row < rows; ++row) {
+      final float top = getTileStart(row, rows, frameHeight, tileSize);
+      for (int column = 0; column < columns; ++column) {
+        final float left = getTileStart(column, columns, frameWidth, tileSize);
+        tiles[t++] = left * scaleX;
+        tiles[t++] = top * scaleY;
+        tiles[t++] = (left + tileSize) * scaleX;
+        tiles[t++] = (top + tileSize) * scaleY;
+      }
+    }
+    return new TileLayout(mode, inputSize, tiles, cropSize, true);
+  }
+
+  /** Lays out the whole crop as a single tile, as {@link Mode#FULL_FRAME} does. */
+  public static TileLayout createFullFrame(final int cropSize, final int inputSize) {
+    return new TileLayout(
+        Mode.FULL_FRAME, inputSize, new float[] {0, 0, cropSize, cropSize}, cropSize, true);
+  }
+
+  /**
+   * Lays out a region of interest as a single tile. The region reaches the model at its native
+   * resolution if it is about as large as the model input in the frame, and squeezed like the
+   * whole frame if it is not square.
+   *
+   * @param left Left edge of the region, as a fraction of the width of the upright frame.
+   * @param top Top edge of the region, as a fraction of the height of the upright frame.
+   * @param right Right edge of the region.
+   * @param bottom Bottom edge of the region.
+   * @param cropSize Width and height of the crop the frame is mapped to.
+   * @param inputSize Width and height of the model input.
+   */
+  public static TileLayout createRegion(
+      final float left,
+      final float top,
+      final float right,
+      final float bottom,
+      final int cropSize,
+      final int inputSize) {
+    if (!(0 <= left && left < right && right <= 1 && 0 <= top && top < bottom && bottom <= 1)) {
+      throw new IllegalArgumentException(
+          "Region " + left + ", " + top + ", " + right + ", " + bottom + " is not in the frame");
+    }
+    final float[] tiles = {left * cropSize, top * cropSize, right * cropSize, bottom * cropSize};
+    return new TileLayout(Mode.REGION, inputSize, tiles, cropSize, false);
+  }
+
+  private static int getNumTiles(final int length, final int tileSize, final float overlap) {
+    if (tileSize >= length) {
+      return 1;
+    }
+    final float step = tileSize * (1 - overlap);
+    return 1 + (int) Math.ceil((length - tileSize) / step);
+  }
+
+  // Spreads the tiles evenly from edge to edge, or centers a single one.
+  private static float getTileStart(
+      final int index, final int count, final int length, final int tileSize) {
+    return count == 1
+        ? (length - tileSize) / 2.0f
+        : index * (length - tileSize) / (float) (count - 1);
+  }
+
+  public Mode getMode() {
+    return mode;
+  }
+
+  public int getNumTiles() {
+    return tiles.length / 4;
+  }
+
+  /** Returns whether the first tile is the whole crop. */
+  public boolean hasFullFrame() {
+    return fullFrame;
+  }
+
+  /**
+   * Writes left, top, right and bottom of the part of the crop the tiles cover together to out,
+   * which is the whole crop unless a region of interest is laid out on its own.
+   */
+  public void getBounds(final float[] out) {
+    out[0] = Float.MAX_VALUE;
+    out[1] = Float.MAX_VALUE;
+    out[2] = -Float.MAX_VALUE;
+    out[3] = -Float.MAX_VALUE;
+    for (int t = 0; t < tiles.length; t += 4) {
+      out[0] = Math.min(out[0], tiles[t]);
+      out[1] = Math.min(out[1], tiles[t + 1]);
+      out[2] = Math.max(out[2], tiles[t + 2]);
+      out[3] = Math.max(out[3], tiles[t + 3]);
+    }
+  }
+
+  /**
+   * Returns the transformation from a tile's model input to crop coordinates, as values in
+   * Matrix.getValues() order.
+   */
+  public float[] getTileToCrop(final int tile) {
+    final int t = tile * 4;
+    return new float[] {
+      (tiles[t + 2] - tiles[t]) / inputSize,
+      0,
+      tiles[t],
+      0,
+      (tiles[t + 3] - tiles[t + 1]) / inputSize,
+      tiles[t + 1],
+      0,
+      0,
+      1
+    };
+  }
+
+  /**
+   * Maps a box from a tile's model input to crop coordinates, in place.
+   *
+   * @param box Left, top, right and bottom, starting at offset.
+   */
+  public void mapToCrop(final int tile, final float[] box, final int offset) {
+    final int t = tile * 4;
+    final float scaleX = (tiles[t + 2] - tiles[t]) / inputSize;
+    final float scaleY = (tiles[t + 3] - tiles[t + 1]) / inputSize;
+    box[offset] = tiles[t] + box[offset] * scaleX;
+    box[offset + 1] = tiles[t + 1] + box[offset + 1] * scaleY;
+    box[offset + 2] = tiles[t] + box[offset + 2] * scaleX;
+    box[offset + 3] = tiles[t + 1] + box[offset + 3] * scaleY;
+  }
+
+  /**
+   * Returns whether a box in a tile's model input comes within margin input pixels of an edge of
+   * the tile that lies inside the crop, where the object may have been cut off.
+   */
+  public boolean touchesInnerEdge(
+      final int tile,
+      final float left,
+      final float top,
+      final float right,
+      final float bottom,
+      final float margin) {
+    final int t = tile * 4;
+    return (innerEdges[t] && left < margin)
+        || (innerEdges[t + 1] && top < margin)
+        || (innerEdges[t + 2] && right > inputSize - margin)
+        || (innerEdges[t + 3] && bottom > inputSize - margin);
+  }
+
+  @Override
+  public String toString() {
+    return mode.name().toLowerCase(Locale.US) + "(" + getNumTiles() + ")";
+  }
+}
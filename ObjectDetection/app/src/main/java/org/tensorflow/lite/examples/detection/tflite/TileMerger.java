@@ -0,0 +1,186 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.util.Locale;
+
+/**
+ * Merges the detections of the tiles of one frame into detections of the whole crop.
+ *
+ * <p>Each tile's detections are mapped from its model input into crop coordinates. Those that
+ * reach an edge of their tile inside the crop are dropped, as the object may continue past it and
+ * is then found whole by the full frame or a neighbouring tile. What remains goes through the same
+ * class-aware suppression as a single model run, now across tiles, so that an object seen by the
+ * full frame and by a tile is reported once, with the better of the two boxes.
+ *
+ * <p>For judging what tiling buys, the merger counts the detections that no full frame detection
+ * of the same class overlaps, i.e. those the full frame alone would have missed, on the frames
+ * whose layout includes the full frame.
+ */
+public class TileMerger {
+  // Distance in input pixels from an inner tile edge within which a detection counts as cut off.
+  private static final float EDGE_MARGIN = 2.0f;
+  // Overlap at which a full frame detection counts as having found the same object.
+  private static final float MATCH_IOU = 0.5f;
+
+  private final int maxCandidates;
+  private final DetectionPostprocessor postprocessor;
+  private final float[] boxes;
+  private final int[] classes;
+  private final float[] scores;
+  private final int[] tiles;
+
+  private TileLayout layout;
+  private int numCandidates;
+
+  private long numFrames;
+  private long numResults;
+  // Results of the frames detected in the full frame as well, and those of them only in tiles.
+  private long numComparedResults;
+  private long numTileOnlyResults;
+  private long numCutOff;
+
+  /**
+   * @param maxTiles Most tiles of a frame.
+   * @param maxDetectionsPerTile Most detections of a single tile.
+   * @param maxResults Most detections kept for the frame.
+   * @param classIouThreshold Overlap above which a detection is suppressed by a better one of the
+   *     same class, see {@link DetectionPostprocessor}.
+   * @param crossClassIouThreshold Overlap above which a detection is suppressed by a better one of
+   *     any class.
+   */
+  public TileMerger(
+      final int maxTiles,
+      final int maxDetectionsPerTile,
+      final int maxResults,
+      final float classIouThreshold,
+      final float crossClassIouThreshold) {
+    maxCandidates = maxTiles * maxDetectionsPerTile;
+    postprocessor =
+        new DetectionPostprocessor(
+            maxCandidates, maxResults, 0.0f, classIouThreshold, crossClassIouThreshold);
+    boxes = new float[maxCandidates * 4];
+    classes = new int[maxCandidates];
+    scores = new float[maxCandidates];
+    tiles = new int[maxCandidates];
+  }
+
+  public int getMaxResults() {
+    return postprocessor.getMaxResults();
+  }
+
+  /** Starts merging the tiles of a frame. */
+  public void begin(final TileLayout layout) {
+    this.layout = layout;
+    numCandidates = 0;
+  }
+
+  /**
+   * Adds a detection of a tile, given in the tile's model input.
+   *
+   * @return Whether it was kept rather than dropped as cut off by the tile.
+   */
+  public boolean add(
+      final int tile,
+      final float left,
+      final float top,
+      final float right,
+      final float bottom,
+      final int classId,
+      final float score) {
+    if (layout.touchesInnerEdge(tile, left, top, right, bottom, EDGE_MARGIN)) {
+      ++numCutOff;
+      return false;
+    }
+    if (numCandidates == maxCandidates) {
+      throw new IllegalStateException("More than " + maxCandidates + " detections in the tiles");
+    }
+    final int b = numCandidates * 4;
+    boxes[b] = left;
+    boxes[b + 1] = top;
+    boxes[b + 2] = right;
+    boxes[b + 3] = bottom;
+    layout.mapToCrop(tile, boxes, b);
+    classes[numCandidates] = classId;
+    scores[numCandidates] = score;
+    tiles[numCandidates] = tile;
+    ++numCandidates;
+    return true;
+  }
+
+  /**
+   * Merges the detections added since begin().
+   *
+   * @param outBoxes Receives left, top, right and bottom of each detection in crop coordinates,
+   *     best first.
+   * @param outClasses Receives the class of each detection.
+   * @param outScores Receives the score of each detection.
+   * @return The number of detections.
+   */
+  public int finish(final float[] outBoxes, final int[] outClasses, final float[] outScores) {
+    final int numKept =
+        postprocessor.process(
+            numCandidates, boxes, classes, scores, outBoxes, outClasses, outScores);
+    ++numFrames;
+    numResults += numKept;
+    if (!layout.hasFullFrame()) {
+      return numKept;
+    }
+    numComparedResults += numKept;
+    for (int k = 0; k < numKept; ++k) {
+      if (!isInFullFrame(outBoxes, k * 4, outClasses[k])) {
+        ++numTileOnlyResults;
+      }
+    }
+    return numKept;
+  }
+
+  private boolean isInFullFrame(final float[] box, final int b, final int classId) {
+    final float area = getArea(box[b], box[b + 1], box[b + 2], box[b + 3]);
+    for (int i = 0; i < numCandidates; ++i) {
+      if (tiles[i] != 0 || classes[i] != classId) {
+        continue;
+      }
+      final int c = i * 4;
+      final float intersection =
+          getArea(
+              Math.max(box[b], boxes[c]),
+              Math.max(box[b + 1], boxes[c + 1]),
+              Math.min(box[b + 2], boxes[c + 2]),
+              Math.min(box[b + 3], boxes[c + 3]));
+      final float union =
+          area + getArea(boxes[c], boxes[c + 1], boxes[c + 2], boxes[c + 3]) - intersection;
+      if (union > 0 && intersection >= MATCH_IOU * union) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static float getArea(
+      final float left, final float top, final float right, final float bottom) {
+    return Math.max(0, right - left) * Math.max(0, bottom - top);
+  }
+
+  public String getStatString() {
+    return String.format(
+        Locale.US,
+        "tiles: %.2f detections per frame, %.1f%% found only in tiles, %d cut off at tile edges",
+        numFrames > 0 ? numResults / (double) numFrames : 0.0,
+        numComparedResults > 0 ? 100.0 * numTileOnlyResults / numComparedResults : 0.0,
+        numCutOff);
+  }
+}
@@ -0,0 +1,115 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.io.IOException;
+import java.io.Writer;
+import org.tensorflow.lite.examples.detection.env.LatencyHistogram;
+
+/**
+ * Picks how to tile the next frame so that detecting all of its tiles fits a latency budget.
+ *
+ * <p>The planner keeps a running estimate of what one model run costs, from the time the tiles of
+ * each frame took, and moves one layout up when the next more thorough one would fit the budget
+ * with room to spare, or one down when the current one no longer fits, e.g. once the device
+ * throttles. It starts with the cheapest layout. The time spent per frame is recorded for each
+ * layout, so that the frame rate given up for the recall of the tiles can be read off the stats.
+ *
+ * <p>getLayout() and recordFrame() may be called from different threads.
+ */
+public class TilePlanner {
+  // Weight of the latest frame in the running estimate of the cost of one run.
+  private static final float SMOOTHING = 0.2f;
+  // A more thorough layout is only taken once its estimate is this far within the budget, so that
+  // the planner does not flip between two layouts on noise.
+  private static final float UPGRADE_HEADROOM = 0.8f;
+
+  private final TileLayout[] layouts;
+  private final long budgetUs;
+  private final LatencyHistogram[] latencies;
+
+  private int current;
+  private float runUs = -1;
+
+  /**
+   * @param layouts The layouts to choose from, from the cheapest to the most thorough. A single
+   *     layout is always used.
+   * @param frameBudgetMs Time the runs of one frame should take together, in milliseconds.
+   */
+  public TilePlanner(final TileLayout[] layouts, final float frameBudgetMs) {
+    this.layouts = layouts.clone();
+    budgetUs = (long) (frameBudgetMs * 1000);
+    latencies = new LatencyHistogram[layouts.length];
+    for (int i = 0; i < layouts.length; ++i) {
+      latencies[i] = new LatencyHistogram("tiles_" + layouts[i]);
+    }
+  }
+
+  /** Returns the most tiles of any layout the planner may pick. */
+  public int getMaxTiles() {
+    int maxTiles = 0;
+    for (final TileLayout layout : layouts) {
+      maxTiles = Math.max(maxTiles, layout.getNumTiles());
+    }
+    return maxTiles;
+  }
+
+  /** Returns the layout to detect the next frame with. */
+  public synchronized TileLayout getLayout() {
+    return layouts[current];
+  }
+
+  /**
+   * Records the time the runs of a frame took.
+   *
+   * @param layout The layout the frame was detected with.
+   * @param runTimeUs Time of all of its runs together, in microseconds.
+   */
+  public synchronized void recordFrame(final TileLayout layout, final long runTimeUs) {
+    for (int i = 0; i < layouts.length; ++i) {
+      if (layouts[i] == layout) {
+        latencies[i].recordUs(runTimeUs);
+      }
+    }
+    final float frameRunUs = runTimeUs / (float) layout.getNumTiles();
+    runUs = runUs < 0 ? frameRunUs : runUs + SMOOTHING * (frameRunUs - runUs);
+
+    if (current + 1 < layouts.length && getCostUs(current + 1) <= UPGRADE_HEADROOM * budgetUs) {
+      ++current;
+    } else if (current > 0 && getCostUs(current) > budgetUs) {
+      --current;
+    }
+  }
+
+  private float getCostUs(final int index) {
+    return runUs * layouts[index].getNumTiles();
+  }
+
+  public synchronized String getStatString() {
+    final StringBuilder builder = new StringBuilder();
+    builder.append("tile plan: ").append(layouts[current]);
+    for (final LatencyHistogram latency : latencies) {
+      builder.append('\n').append(latency);
+    }
+    return builder.toString();
+  }
+
+  public void writeStats(final Writer writer) throws IOException {
+    for (final LatencyHistogram latency : latencies) {
+      latency.writeCsv(writer);
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+/**
+ * Decodes the single output of YOLO style heads: per prediction the box center x, center y, width
+ * and height, an objectness score and one score per class. YOLOv5 exports it as [1, N, 5 + C];
+ * YOLOv8 drops the objectness and exports it transposed, as [1, 4 + C, N].
+ *
+ * <p>Spec keys: output.detections gives the index of the output, 0 by default. yolo.objectness
+ * tells whether the objectness column is present, true by default, in which case the score of a
+ * prediction is its objectness times its best class score. yolo.transposed selects the
+ * [1, fields, N] layout. yolo.normalized tells whether the boxes are relative to the input, as in
+ * the TFLite exports, or in input pixels.
+ */
+class YoloDecoder implements OutputDecoder {
+  static final String NAME = "yolo";
+
+  static final Factory FACTORY =
+      new Factory() {
+        @Override
+        public OutputDecoder create(final ModelSpec spec, final ModelOutput[] outputs) {
+          return new YoloDecoder(spec, outputs);
+        }
+      };
+
+  private final ModelOutput detections;
+  private final boolean objectness;
+  private final int numPredictions;
+  private final int numClasses;
+  // Distance between the same field of consecutive predictions, and between consecutive fields of
+  // one prediction, so that both layouts are read by the same loop.
+  private final int predictionStride;
+  private final int fieldStride;
+  private final float boxScale;
+  private final int labelOffset;
+
+  private YoloDecoder(final ModelSpec spec, final ModelOutput[] outputs) {
+    detections = spec.getOutput(outputs, "output.detections", 0);
+    objectness = spec.getBoolean("yolo.objectness", true);
+    final boolean transposed = spec.getBoolean("yolo.transposed", false);
+    final int numFields = detections.getDimension(transposed ? -2 : -1);
+    numPredictions = detections.getDimension(transposed ? -1 : -2);
+    numClasses = numFields - (objectness ? 5 : 4);
+    if (numClasses < 1) {
+      throw new IllegalArgumentException(
+          "Detections output has " + numFields + " fields per prediction, too few for YOLO");
+    }
+    detections.checkNumElements("Detections", numPredictions * numFields);
+    predictionStride = transposed ? 1 : numFields;
+    fieldStride = transposed ? numPredictions : 1;
+    boxScale = spec.getBoolean("yolo.normalized", true) ? spec.getInputSize() : 1.0f;
+    labelOffset = spec.getLabelOffset();
+  }
+
+  @Override
+  public int getMaxCandidates() {
+    return numPredictions;
+  }
+
+  @Override
+  public int decode(
+      final float minScore,
+      final float[] outBoxes,
+      final int[] outClasses,
+      final float[] outScores) {
+    final int firstClass = (objectness ? 5 : 4) * fieldStride;
+    int numCandidates = 0;
+    for (int i = 0, p = 0; i < numPredictions; ++i, p += predictionStride) {
+      float objectScore = 1.0f;
+      if (objectness) {
+        // Class scores are at most 1, so a low objectness rules the prediction out on its own.
+        objectScore = detections.get(p + 4 * fieldStride);
+        if (objectScore < minScore) {
+          continue;
+        }
+      }
+      final int best = detections.argMax(p + firstClass, numClasses, fieldStride);
+      final float score = objectScore * detections.get(best);
+      if (score < minScore) {
+        continue;
+      }
+
+      final float xCenter = detections.get(p);
+      final float yCenter = detections.get(p + fieldStride);
+      final float halfWidth = 0.5f * detections.get(p + 2 * fieldStride);
+      final float halfHeight = 0.5f * detections.get(p + 3 * fieldStride);
+      final int b = numCandidates * 4;
+      outBoxes[b] = (xCenter - halfWidth) * boxScale;
+      outBoxes[b + 1] = (yCenter - halfHeight) * boxScale;
+      outBoxes[b + 2] = (xCenter + halfWidth) * boxScale;
+      outBoxes[b + 3] = (yCenter + halfHeight) * boxScale;
+      outClasses[numCandidates] = (best - p - firstClass) / fieldStride + labelOffset;
+      outScores[numCandidates] = score;
+      ++numCandidates;
+    }
+    return numCandidates;
+  }
+}
@@ -0,0 +1,138 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+/**
+ * Minimum cost assignment between two sets (Hungarian method with potentials, O(n^2 m)).
+ *
+ * <p>Works on a sub-matrix of a larger row-major cost matrix selected by row and column index
+ * lists, so callers can leave out rows and columns that cannot be matched anyway. All scratch
+ * space is allocated up front for the largest problem.
+ */
+class HungarianSolver {
+  private final float[] u;
+  private final float[] v;
+  private final float[] minv;
+  private final int[] p;
+  private final int[] way;
+  private final boolean[] used;
+  // Assignment of each selected row to a selected column, or -1.
+  private final int[] rowAssignment;
+
+  HungarianSolver(final int capacity) {
+    u = new float[capacity + 1];
+    v = new float[capacity + 1];
+    minv = new float[capacity + 1];
+    p = new int[capacity + 1];
+    way = new int[capacity + 1];
+    used = new boolean[capacity + 1];
+    rowAssignment = new int[capacity];
+  }
+
+  /**
+   * Solves the assignment for rows[0, numRows) and cols[0, numCols) of the cost matrix. If the
+   * sets differ in size, the surplus rows or columns stay unassigned.
+   *
+   * @param cost Row-major costs.
+   * @param stride Number of columns in a row of cost.
+   */
+  void solve(
+      final float[] cost,
+      final int stride,
+      final int[] rows,
+      final int numRows,
+      final int[] cols,
+      final int numCols) {
+    for (int i = 0; i < numRows; ++i) {
+      rowAssignment[i] = -1;
+    }
+    // The method needs no more rows than columns, so the shorter side plays the rows.
+    final boolean transposed = numRows > numCols;
+    final int n = transposed ? numCols : numRows;
+    final int m = transposed ? numRows : numCols;
+
+    for (int j = 0; j <= m; ++j) {
+      v[j] = 0.0f;
+      p[j] = 0;
+      way[j] = 0;
+    }
+    for (int i = 0; i <= n; ++i) {
+      u[i] = 0.0f;
+    }
+
+    for (int i = 1; i <= n; ++i) {
+      p[0] = i;
+      int j0 = 0;
+      for (int j = 0; j <= m; ++j) {
+        minv[j] = Float.MAX_VALUE;
+        used[j] = false;
+      }
+      do {
+        used[j0] = true;
+        final int i0 = p[j0];
+        float delta = Float.MAX_VALUE;
+        int j1 = 0;
+        for (int j = 1; j <= m; ++j) {
+          if (!used[j]) {
+            final float c =
+                (transposed
+                        ? cost[rows[j - 1] * stride + cols[i0 - 1]]
+                        : cost[rows[i0 - 1] * stride + cols[j - 1]])
+                    - u[i0]
+                    - v[j];
+            if (c < minv[j]) {
+              minv[j] = c;
+              way[j] = j0;
+            }
+            if (minv[j] < delta) {
+              delta = minv[j];
+              j1 = j;
+            }
+          }
+        }
+        for (int j = 0; j <= m; ++j) {
+          if (used[j]) {
+            u[p[j]] += delta;
+            v[j] -= delta;
+          } else {
+            minv[j] -= delta;
+          }
+        }
+        j0 = j1;
+      } while (p[j0] != 0);
+      do {
+        final int j1 = way[j0];
+        p[j0] = p[j1];
+        j0 = j1;
+      } while (j0 != 0);
+    }
+
+    for (int j = 1; j <= m; ++j) {
+      if (p[j] != 0) {
+        if (transposed) {
+          rowAssignment[j - 1] = p[j] - 1;
+        } else {
+          rowAssignment[p[j] - 1] = j - 1;
+        }
+      }
+    }
+  }
+
+  /** Returns the index into cols assigned to rows[i] by the last solve(), or -1. */
+  int getAssignment(final int i) {
+    return rowAssignment[i];
+  }
+}
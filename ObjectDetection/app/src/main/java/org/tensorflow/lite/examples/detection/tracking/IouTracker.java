@@ -0,0 +1,419 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+/**
+ * Associates per-frame detections with persistent tracks.
+ *
+ * <p>Each update predicts every track one frame ahead with a constant-velocity model, matches the
+ * predictions to the new detections of the same class by maximizing the total intersection over
+ * union (Hungarian assignment), and then corrects the matched tracks with their detections. A new
+ * track only becomes confirmed after being matched in several consecutive frames, and a track is
+ * only dropped after going unmatched for several frames, so single missed or spurious detections
+ * neither make an object disappear nor conjure up a new one. Track ids are never reused.
+ *
+ * <p>All state lives in preallocated primitive arrays; an update does not allocate.
+ */
+public class IouTracker {
+  /** Matched frames after which a new track is confirmed. */
+  private static final int DEFAULT_HITS_TO_CONFIRM = 2;
+  /** Consecutive unmatched frames after which a confirmed track is dropped. */
+  private static final int DEFAULT_MAX_MISSES = 5;
+  /** Minimum overlap between a prediction and a detection for them to be matched. */
+  private static final float DEFAULT_MIN_IOU = 0.3f;
+  /** Weight of the latest displacement in the velocity estimate. */
+  private static final float VELOCITY_SMOOTHING = 0.5f;
+
+  private final int maxTracks;
+  private final int maxDetections;
+  private final int hitsToConfirm;
+  private final int maxMisses;
+  private final float minIou;
+
+  private int numTracks;
+  private int nextId = 1;
+
+  // Per track state, compacted so that tracks [0, numTracks) are live.
+  private final int[] ids;
+  private final int[] classes;
+  private final float[] scores;
+  // left, top, right, bottom per track.
+  private final float[] boxes;
+  // Per frame change of center x, center y, width and height.
+  private final float[] velocities;
+  private final int[] hits;
+  private final int[] misses;
+  private final boolean[] confirmed;
+  // Whether the track has been moved by translate() since the last update.
+  private final boolean[] translated;
+  // Whether the last update searched where the track is, rather than keeping it unaged.
+  private final boolean[] searched;
+
+  // Scratch space for the assignment.
+  private final float[] cost;
+  private final int[] trackMatch;
+  private final int[] detectionMatch;
+  private final int[] activeTracks;
+  private final int[] activeDetections;
+  private final HungarianSolver solver;
+
+  public IouTracker(final int maxTracks, final int maxDetections) {
+    this(maxTracks, maxDetections, DEFAULT_HITS_TO_CONFIRM, DEFAULT_MAX_MISSES, DEFAULT_MIN_IOU);
+  }
+
+  /**
+   * @param maxTracks Maximum number of live tracks; detections beyond that start no new track.
+   * @param maxDetections Maximum number of detections passed to a single update.
+   * @param hitsToConfirm Matched frames after which a new track is confirmed.
+   * @param maxMisses Consecutive unmatched frames after which a confirmed track is dropped.
+   * @param minIou Minimum intersection over union for a detection to continue a track.
+   */
+  public IouTracker(
+      final int maxTracks,
+      final int maxDetections,
+      final int hitsToConfirm,
+      final int maxMisses,
+      final float minIou) {
+    this.maxTracks = maxTracks;
+    this.maxDetections = maxDetections;
+    this.hitsToConfirm = hitsToConfirm;
+    this.maxMisses = maxMisses;
+    this.minIou = minIou;
+
+    ids = new int[maxTracks];
+    classes = new int[maxTracks];
+    scores = new float[maxTracks];
+    boxes = new float[maxTracks * 4];
+    velocities = new float[maxTracks * 4];
+    hits = new int[maxTracks];
+    misses = new int[maxTracks];
+    confirmed = new boolean[maxTracks];
+    translated = new boolean[maxTracks];
+    searched = new boolean[maxTracks];
+
+    cost = new float[maxTracks * maxDetections];
+    trackMatch = new int[maxTracks];
+    detectionMatch = new int[maxDetections];
+    activeTracks = new int[maxTracks];
+    activeDetections = new int[maxDetections];
+    solver = new HungarianSolver(Math.max(maxTracks, maxDetections));
+  }
+
+  /**
+   * Advances all tracks by one frame.
+   *
+   * @param numDetections Number of detections in this frame, at most maxDetections.
+   * @param detectionBoxes left, top, right, bottom of each detection.
+   * @param detectionClasses Class of each detection; tracks only continue with the same class.
+   * @param detectionScores Confidence of each detection.
+   */
+  public void update(
+      final int numDetections,
+      final float[] detectionBoxes,
+      final int[] detectionClasses,
+      final float[] detectionScores) {
+    update(
+        numDetections,
+        detectionBoxes,
+        detectionClasses,
+        detectionScores,
+        -Float.MAX_VALUE,
+        -Float.MAX_VALUE,
+        Float.MAX_VALUE,
+        Float.MAX_VALUE);
+  }
+
+  /**
+   * Advances all tracks by one frame in which only part of the view was searched, such as a
+   * region of interest. Tracks that do not lie wholly inside that part are still matched, but
+   * not aged while unmatched, so that objects outside it are kept until a detection covers them
+   * again.
+   *
+   * @param searchedLeft Left edge of the searched part, in the coordinates of the boxes.
+   * @param searchedTop Top edge of the searched part.
+   * @param searchedRight Right edge of the searched part.
+   * @param searchedBottom Bottom edge of the searched part.
+   */
+  public void update(
+      final int numDetections,
+      final float[] detectionBoxes,
+      final int[] detectionClasses,
+      final float[] detectionScores,
+      final float searchedLeft,
+      final float searchedTop,
+      final float searchedRight,
+      final float searchedBottom) {
+    if (numDetections > maxDetections) {
+      throw new IllegalArgumentException(
+          numDetections + " detections exceed the capacity of " + maxDetections);
+    }
+
+    predict();
+    associate(numDetections, detectionBoxes, detectionClasses);
+
+    // Correct matched tracks, age the others.
+    for (int t = 0; t < numTracks; ++t) {
+      final int d = trackMatch[t];
+      if (d >= 0) {
+        correct(t, detectionBoxes, d * 4);
+        scores[t] = detectionScores[d];
+        ++hits[t];
+        misses[t] = 0;
+        if (hits[t] >= hitsToConfirm) {
+          confirmed[t] = true;
+        }
+        searched[t] = true;
+      } else {
+        final int b = t * 4;
+        searched[t] =
+            boxes[b] >= searchedLeft
+                && boxes[b + 1] >= searchedTop
+                && boxes[b + 2] <= searchedRight
+                && boxes[b + 3] <= searchedBottom;
+        if (searched[t]) {
+          ++misses[t];
+        }
+      }
+    }
+
+    // Drop tracks that have been lost for too long. Unconfirmed tracks get no grace period.
+    int live = 0;
+    for (int t = 0; t < numTracks; ++t) {
+      final boolean keep = confirmed[t] ? misses[t] <= maxMisses : misses[t] == 0;
+      if (keep) {
+        if (live != t) {
+          moveTrack(t, live);
+        }
+        ++live;
+      }
+    }
+    numTracks = live;
+
+    // Unmatched detections start new tracks while there is room.
+    for (int d = 0; d < numDetections && numTracks < maxTracks; ++d) {
+      if (detectionMatch[d] < 0) {
+        startTrack(detectionBoxes, d * 4, detectionClasses[d], detectionScores[d]);
+      }
+    }
+  }
+
+  /**
+   * Counts the class of every track that the last update kept unaged outside the searched part of
+   * the frame, and that was matched when it was last searched, as present in the voter's current
+   * frame. This keeps a frame searched only in part, such as a region of interest, from voting
+   * objects elsewhere absent.
+   */
+  public void addUnsearchedClasses(final PresenceVoter voter) {
+    for (int t = 0; t < numTracks; ++t) {
+      if (!searched[t] && misses[t] == 0) {
+        voter.add(classes[t]);
+      }
+    }
+  }
+
+  /** Removes all tracks, e.g. when the camera is restarted. Ids keep increasing. */
+  public void clear() {
+    numTracks = 0;
+  }
+
+  /**
+   * Moves track i between updates, e.g. by the motion estimated from the camera frames the
+   * detector skipped. The next update then predicts from the moved position instead of applying
+   * the velocity, which the observed motion already accounts for.
+   */
+  public void translate(final int i, final float dx, final float dy) {
+    final int b = i * 4;
+    boxes[b] += dx;
+    boxes[b + 1] += dy;
+    boxes[b + 2] += dx;
+    boxes[b + 3] += dy;
+    translated[i] = true;
+  }
+
+  private void predict() {
+    for (int t = 0; t < numTracks; ++t) {
+      if (translated[t]) {
+        translated[t] = false;
+        continue;
+      }
+      final int b = t * 4;
+      final float cx = (boxes[b] + boxes[b + 2]) * 0.5f + velocities[b];
+      final float cy = (boxes[b + 1] + boxes[b + 3]) * 0.5f + velocities[b + 1];
+      final float w = Math.max(0.0f, boxes[b + 2] - boxes[b] + velocities[b + 2]);
+      final float h = Math.max(0.0f, boxes[b + 3] - boxes[b + 1] + velocities[b + 3]);
+      boxes[b] = cx - w * 0.5f;
+      boxes[b + 1] = cy - h * 0.5f;
+      boxes[b + 2] = cx + w * 0.5f;
+      boxes[b + 3] = cy + h * 0.5f;
+    }
+  }
+
+  /** Fills trackMatch and detectionMatch with the best assignment, -1 where unmatched. */
+  private void associate(
+      final int numDetections, final float[] detectionBoxes, final int[] detectionClasses) {
+    for (int t = 0; t < numTracks; ++t) {
+      trackMatch[t] = -1;
+    }
+    for (int d = 0; d < numDetections; ++d) {
+      detectionMatch[d] = -1;
+    }
+
+    // Only tracks and detections with at least one candidate take part in the assignment, which
+    // keeps the problem small when most objects are far apart.
+    int numActiveTracks = 0;
+    int numActiveDetections = 0;
+    for (int t = 0; t < numTracks; ++t) {
+      boolean hasCandidate = false;
+      for (int d = 0; d < numDetections; ++d) {
+        final float iou =
+            classes[t] == detectionClasses[d] ? iou(boxes, t * 4, detectionBoxes, d * 4) : 0.0f;
+        cost[t * maxDetections + d] = iou >= minIou ? 1.0f - iou : 1.0f;
+        if (iou >= minIou) {
+          hasCandidate = true;
+          detectionMatch[d] = -2;
+        }
+      }
+      if (hasCandidate) {
+        activeTracks[numActiveTracks++] = t;
+      }
+    }
+    for (int d = 0; d < numDetections; ++d) {
+      if (detectionMatch[d] == -2) {
+        activeDetections[numActiveDetections++] = d;
+        detectionMatch[d] = -1;
+      }
+    }
+    if (numActiveTracks == 0) {
+      return;
+    }
+
+    solver.solve(
+        cost, maxDetections, activeTracks, numActiveTracks, activeDetections, numActiveDetections);
+    for (int i = 0; i < numActiveTracks; ++i) {
+      final int j = solver.getAssignment(i);
+      if (j < 0) {
+        continue;
+      }
+      final int t = activeTracks[i];
+      final int d = activeDetections[j];
+      // The solver may pair up leftovers below the threshold; those stay unmatched.
+      if (cost[t * maxDetections + d] < 1.0f) {
+        trackMatch[t] = d;
+        detectionMatch[d] = t;
+      }
+    }
+  }
+
+  private void correct(final int t, final float[] detectionBoxes, final int d) {
+    final int b = t * 4;
+    // boxes holds the prediction here, so the innovation is the velocity error.
+    final float dcx =
+        (detectionBoxes[d] + detectionBoxes[d + 2] - boxes[b] - boxes[b + 2]) * 0.5f;
+    final float dcy =
+        (detectionBoxes[d + 1] + detectionBoxes[d + 3] - boxes[b + 1] - boxes[b + 3]) * 0.5f;
+    final float dw = (detectionBoxes[d + 2] - detectionBoxes[d]) - (boxes[b + 2] - boxes[b]);
+    final float dh =
+        (detectionBoxes[d + 3] - detectionBoxes[d + 1]) - (boxes[b + 3] - boxes[b + 1]);
+    velocities[b] += VELOCITY_SMOOTHING * dcx;
+    velocities[b + 1] += VELOCITY_SMOOTHING * dcy;
+    velocities[b + 2] += VELOCITY_SMOOTHING * dw;
+    velocities[b + 3] += VELOCITY_SMOOTHING * dh;
+
+    boxes[b] = detectionBoxes[d];
+    boxes[b + 1] = detectionBoxes[d + 1];
+    boxes[b + 2] = detectionBoxes[d + 2];
+    boxes[b + 3] = detectionBoxes[d + 3];
+  }
+
+  private void startTrack(
+      final float[] detectionBoxes, final int d, final int detectionClass, final float score) {
+    final int t = numTracks++;
+    final int b = t * 4;
+    ids[t] = nextId++;
+    classes[t] = detectionClass;
+    scores[t] = score;
+    for (int k = 0; k < 4; ++k) {
+      boxes[b + k] = detectionBoxes[d + k];
+      velocities[b + k] = 0.0f;
+    }
+    hits[t] = 1;
+    misses[t] = 0;
+    confirmed[t] = hitsToConfirm <= 1;
+    translated[t] = false;
+    searched[t] = true;
+  }
+
+  private void moveTrack(final int from, final int to) {
+    ids[to] = ids[from];
+    classes[to] = classes[from];
+    scores[to] = scores[from];
+    System.arraycopy(boxes, from * 4, boxes, to * 4, 4);
+    System.arraycopy(velocities, from * 4, velocities, to * 4, 4);
+    hits[to] = hits[from];
+    misses[to] = misses[from];
+    confirmed[to] = confirmed[from];
+    translated[to] = translated[from];
+    searched[to] = searched[from];
+  }
+
+  static float iou(final float[] a, final int i, final float[] b, final int j) {
+    final float left = Math.max(a[i], b[j]);
+    final float top = Math.max(a[i + 1], b[j + 1]);
+    final float right = Math.min(a[i + 2], b[j + 2]);
+    final float bottom = Math.min(a[i + 3], b[j + 3]);
+    if (right <= left || bottom <= top) {
+      return 0.0f;
+    }
+    final float intersection = (right - left) * (bottom - top);
+    final float areaA = (a[i + 2] - a[i]) * (a[i + 3] - a[i + 1]);
+    final float areaB = (b[j + 2] - b[j]) * (b[j + 3] - b[j + 1]);
+    return intersection / (areaA + areaB - intersection);
+  }
+
+  /** Returns the number of live tracks, confirmed or not. */
+  public int getNumTracks() {
+    return numTracks;
+  }
+
+  /** Returns the id of track i, stable for as long as the track lives. */
+  public int getId(final int i) {
+    return ids[i];
+  }
+
+  public int getClassId(final int i) {
+    return classes[i];
+  }
+
+  /** Returns the confidence of the last detection matched to track i. */
+  public float getScore(final int i) {
+    return scores[i];
+  }
+
+  /** Returns whether track i has been seen often enough to be reported. */
+  public boolean isConfirmed(final int i) {
+    return confirmed[i];
+  }
+
+  /** Returns for how many frames track i has gone unmatched, 0 if it was matched last frame. */
+  public int getMisses(final int i) {
+    return misses[i];
+  }
+
+  /** Copies the left, top, right, bottom of track i into out at the given offset. */
+  public void getBox(final int i, final float[] out, final int offset) {
+    System.arraycopy(boxes, i * 4, out, offset, 4);
+  }
+}
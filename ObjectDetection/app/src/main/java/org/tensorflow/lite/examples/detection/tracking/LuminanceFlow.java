@@ -0,0 +1,195 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Estimates how image regions move between consecutive camera frames, so boxes can follow their
+ * objects in the frames the detector does not see.
+ *
+ * <p>Each frame's luminance plane is subsampled by two into a small buffer. The motion of a box is
+ * found by block matching: a sparse grid of samples from the center of the box in the previous
+ * frame is compared, by sum of absolute differences, against every displacement within a small
+ * search window in the current frame. Regions without enough texture to match reliably report no
+ * motion.
+ */
+public class LuminanceFlow {
+  // Subsampling of the luminance plane in each direction.
+  private static final int SCALE = 2;
+  // Search radius in subsampled pixels, i.e. up to 16 frame pixels of motion per frame.
+  private static final int SEARCH_RADIUS = 8;
+  // Samples per side of the matched patch.
+  private static final int PATCH_SAMPLES = 12;
+  // Minimum mean absolute deviation of the patch for it to be matched at all.
+  private static final int MIN_TEXTURE = 4;
+
+  private final int width;
+  private final int height;
+  private byte[] previous;
+  private byte[] current;
+  private boolean hasPrevious = false;
+  private boolean hasCurrent = false;
+
+  /**
+   * @param frameWidth Width of the camera frames.
+   * @param frameHeight Height of the camera frames.
+   */
+  public LuminanceFlow(final int frameWidth, final int frameHeight) {
+    width = frameWidth / SCALE;
+    height = frameHeight / SCALE;
+    previous = new byte[width * height];
+    current = new byte[width * height];
+  }
+
+  /** Takes the luminance plane of the next frame. */
+  public void setFrame(final byte[] luminance, final int rowStride) {
+    swap();
+    for (int y = 0, o = 0; y < height; ++y) {
+      final int row = y * SCALE * rowStride;
+      for (int x = 0; x < width; ++x) {
+        current[o++] = luminance[row + x * SCALE];
+      }
+    }
+  }
+
+  /** Takes the luminance plane of the next frame from a buffer, read in place. */
+  public void setFrame(final ByteBuffer luminance, final int rowStride) {
+    swap();
+    for (int y = 0, o = 0; y < height; ++y) {
+      final int row = y * SCALE * rowStride;
+      for (int x = 0; x < width; ++x) {
+        current[o++] = luminance.get(row + x * SCALE);
+      }
+    }
+  }
+
+  private void swap() {
+    final byte[] tmp = previous;
+    previous = current;
+    current = tmp;
+    hasPrevious = hasCurrent;
+    hasCurrent = true;
+  }
+
+  /**
+   * Estimates the displacement of a box from the previous frame to the current one.
+   *
+   * @param left Box in frame coordinates, as in the previous frame.
+   * @param out Receives the x and y displacement in frame pixels.
+   * @return false if there is no previous frame or the box cannot be matched reliably, in which
+   *     case out is left untouched.
+   */
+  public boolean estimate(
+      final float left, final float top, final float right, final float bottom, final float[] out) {
+    if (!hasPrevious) {
+      return false;
+    }
+
+    // Match the central half of the box, which is most likely to belong to the object.
+    final float cx = (left + right) * 0.5f / SCALE;
+    final float cy = (top + bottom) * 0.5f / SCALE;
+    final float halfWidth = (right - left) * 0.25f / SCALE;
+    final float halfHeight = (bottom - top) * 0.25f / SCALE;
+    final int step =
+        Math.max(1, (int) (2.0f * Math.min(halfWidth, halfHeight) / PATCH_SAMPLES));
+    final int samples = PATCH_SAMPLES;
+    final int extent = (samples - 1) * step;
+    // Keep the patch and every displacement of it inside the frame, moving it inwards for boxes
+    // at the edge.
+    final int maxX0 = width - 1 - SEARCH_RADIUS - extent;
+    final int maxY0 = height - 1 - SEARCH_RADIUS - extent;
+    if (maxX0 < SEARCH_RADIUS || maxY0 < SEARCH_RADIUS) {
+      return false;
+    }
+    final int x0 = clamp((int) (cx - extent * 0.5f), SEARCH_RADIUS, maxX0);
+    final int y0 = clamp((int) (cy - extent * 0.5f), SEARCH_RADIUS, maxY0);
+
+    if (meanDeviation(x0, y0, step, samples) < MIN_TEXTURE) {
+      return false;
+    }
+
+    int bestSad = sad(x0, y0, step, samples, 0, 0, Integer.MAX_VALUE);
+    int bestDx = 0;
+    int bestDy = 0;
+    for (int dy = -SEARCH_RADIUS; dy <= SEARCH_RADIUS; ++dy) {
+      for (int dx = -SEARCH_RADIUS; dx <= SEARCH_RADIUS; ++dx) {
+        if (dx == 0 && dy == 0) {
+          continue;
+        }
+        // Only strictly better matches win, so ties keep the box still.
+        final int sad = sad(x0, y0, step, samples, dx, dy, bestSad);
+        if (sad < bestSad) {
+          bestSad = sad;
+          bestDx = dx;
+          bestDy = dy;
+        }
+      }
+    }
+
+    out[0] = bestDx * SCALE;
+    out[1] = bestDy * SCALE;
+    return true;
+  }
+
+  private static int clamp(final int value, final int min, final int max) {
+    return value < min ? min : (value > max ? max : value);
+  }
+
+  /** Sum of absolute differences, abandoned as soon as it reaches limit. */
+  private int sad(
+      final int x0,
+      final int y0,
+      final int step,
+      final int samples,
+      final int dx,
+      final int dy,
+      final int limit) {
+    int sum = 0;
+    for (int j = 0; j < samples; ++j) {
+      final int row = (y0 + j * step) * width + x0;
+      final int shiftedRow = row + dy * width + dx;
+      for (int i = 0; i < samples; ++i) {
+        final int offset = i * step;
+        sum += Math.abs((0xff & previous[row + offset]) - (0xff & current[shiftedRow + offset]));
+      }
+      if (sum >= limit) {
+        return sum;
+      }
+    }
+    return sum;
+  }
+
+  private int meanDeviation(final int x0, final int y0, final int step, final int samples) {
+    int sum = 0;
+    for (int j = 0; j < samples; ++j) {
+      final int row = (y0 + j * step) * width + x0;
+      for (int i = 0; i < samples; ++i) {
+        sum += 0xff & previous[row + i * step];
+      }
+    }
+    final int count = samples * samples;
+    final int mean = sum / count;
+    int deviation = 0;
+    for (int j = 0; j < samples; ++j) {
+      final int row = (y0 + j * step) * width + x0;
+      for (int i = 0; i < samples; ++i) {
+        deviation += Math.abs((0xff & previous[row + i * step]) - mean);
+      }
+    }
+    return deviation / count;
+  }
+}
@@ -1,211 +1,325 @@
-/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
-
-Licensed under the Apache License, Version 2.0 (the "License");
-you may not use this file except in compliance with the License.
-You may obtain a copy of the License at
-
-    http://www.apache.org/licenses/LICENSE-2.0
-
-Unless required by applicable law or agreed to in writing, software
-distributed under the License is distributed on an "AS IS" BASIS,
-WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
-See the License for the specific language governing permissions and
-limitations under the License.
-==============================================================================*/
-
-package org.tensorflow.lite.examples.detection.tracking;
-
-import android.content.Context;
-import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Matrix;
-import android.graphics.Paint;
-import android.graphics.Paint.Cap;
-import android.graphics.Paint.Join;
-import android.graphics.Paint.Style;
-import android.graphics.RectF;
-import android.text.TextUtils;
-import android.util.Pair;
-import android.util.TypedValue;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Queue;
-import org.tensorflow.lite.examples.detection.env.BorderedText;
-import org.tensorflow.lite.examples.detection.env.ImageUtils;
-import org.tensorflow.lite.examples.detection.env.Logger;
-import org.tensorflow.lite.examples.detection.tflite.Classifier.Recognition;
-
-/** A tracker that handles non-max suppression and matches existing objects to new detections. */
-public class MultiBoxTracker {
-  private static final float TEXT_SIZE_DIP = 18;
-  private static final float MIN_SIZE = 16.0f;
-  private static final int[] COLORS = {
-    Color.BLUE,
-    Color.RED,
-    Color.GREEN,
-    Color.YELLOW,
-    Color.CYAN,
-    Color.MAGENTA,
-    Color.WHITE,
-    Color.parseColor("#55FF55"),
-    Color.parseColor("#FFA500"),
-    Color.parseColor("#FF8888"),
-    Color.parseColor("#AAAAFF"),
-    Color.parseColor("#FFFFAA"),
-    Color.parseColor("#55AAAA"),
-    Color.parseColor("#AA33AA"),
-    Color.parseColor("#0D0068")
-  };
-  final List<Pair<Float, RectF>> screenRects = new LinkedList<Pair<Float, RectF>>();
-  private final Logger logger = new Logger();
-  private final Queue<Integer> availableColors = new LinkedList<Integer>();
-  private final List<TrackedRecognition> trackedObjects = new LinkedList<TrackedRecognition>();
-  private final Paint boxPaint = new Paint();
-  private final float textSizePx;
-  private final BorderedText borderedText;
-  private Matrix frameToCanvasMatrix;
-  private int frameWidth;
-  private int frameHeight;
-  private int sensorOrientation;
-
-  public MultiBoxTracker(final Context context) {
-    for (final int color : COLORS) {
-      availableColors.add(color);
-    }
-
-    boxPaint.setColor(Color.RED);
-    boxPaint.setStyle(Style.STROKE);
-    boxPaint.setStrokeWidth(10.0f);
-    boxPaint.setStrokeCap(Cap.ROUND);
-    boxPaint.setStrokeJoin(Join.ROUND);
-    boxPaint.setStrokeMiter(100);
-
-    textSizePx =
-        TypedValue.applyDimension(
-            TypedValue.COMPLEX_UNIT_DIP, TEXT_SIZE_DIP, context.getResources().getDisplayMetrics());
-    borderedText = new BorderedText(textSizePx);
-  }
-
-  public synchronized void setFrameConfiguration(
-      final int width, final int height, final int sensorOrientation) {
-    frameWidth = width;
-    frameHeight = height;
-    this.sensorOrientation = sensorOrientation;
-  }
-
-  public synchronized void drawDebug(final Canvas canvas) {
-    final Paint textPaint = new Paint();
-    textPaint.setColor(Color.WHITE);
-    textPaint.setTextSize(60.0f);
-
-    final Paint boxPaint = new Paint();
-    boxPaint.setColor(Color.RED);
-    boxPaint.setAlpha(200);
-    boxPaint.setStyle(Style.STROKE);
-
-    for (final Pair<Float, RectF> detection : screenRects) {
-      final RectF rect = detection.second;
-      canvas.drawRect(rect, boxPaint);
-      canvas.drawText("" + detection.first, rect.left, rect.top, textPaint);
-      borderedText.drawText(canvas, rect.centerX(), rect.centerY(), "" + detection.first);
-    }
-  }
-
-  public synchronized void trackResults(final List<Recognition> results, final long timestamp) {
-    logger.i("Processing %d results from %d", results.size(), timestamp);
-    processResults(results);
-  }
-
-  private Matrix getFrameToCanvasMatrix() {
-    return frameToCanvasMatrix;
-  }
-
-  public synchronized void draw(final Canvas canvas) {
-    final boolean rotated = sensorOrientation % 180 == 90;
-    final float multiplier =
-        Math.min(
-            canvas.getHeight() / (float) (rotated ? frameWidth : frameHeight),
-            canvas.getWidth() / (float) (rotated ? frameHeight : frameWidth));
-    frameToCanvasMatrix =
-        ImageUtils.getTransformationMatrix(
-            frameWidth,
-            frameHeight,
-            (int) (multiplier * (rotated ? frameHeight : frameWidth)),
-            (int) (multiplier * (rotated ? frameWidth : frameHeight)),
-            sensorOrientation,
-            false);
-    for (final TrackedRecognition recognition : trackedObjects) {
-      final RectF trackedPos = new RectF(recognition.location);
-
-      getFrameToCanvasMatrix().mapRect(trackedPos);
-      boxPaint.setColor(recognition.color);
-
-      float cornerSize = Math.min(trackedPos.width(), trackedPos.height()) / 8.0f;
-      canvas.drawRoundRect(trackedPos, cornerSize, cornerSize, boxPaint);
-
-      final String labelString =
-          !TextUtils.isEmpty(recognition.title)
-              ? String.format("%s %.2f", recognition.title, (100 * recognition.detectionConfidence))
-              : String.format("%.2f", (100 * recognition.detectionConfidence));
-      //            borderedText.drawText(canvas, trackedPos.left + cornerSize, trackedPos.top,
-      // labelString);
-      borderedText.drawText(
-          canvas, trackedPos.left + cornerSize, trackedPos.top, labelString + "%", boxPaint);
-    }
-  }
-
-  private void processResults(final List<Recognition> results) {
-    final List<Pair<Float, Recognition>> rectsToTrack = new LinkedList<Pair<Float, Recognition>>();
-
-    screenRects.clear();
-    final Matrix rgbFrameToScreen = new Matrix(getFrameToCanvasMatrix());
-
-    for (final Recognition result : results) {
-      if (result.getLocation() == null) {
-        continue;
-      }
-      final RectF detectionFrameRect = new RectF(result.getLocation());
-
-      final RectF detectionScreenRect = new RectF();
-      rgbFrameToScreen.mapRect(detectionScreenRect, detectionFrameRect);
-
-      logger.v(
-          "Result! Frame: " + result.getLocation() + " mapped to screen:" + detectionScreenRect);
-
-      screenRects.add(new Pair<Float, RectF>(result.getConfidence(), detectionScreenRect));
-
-      if (detectionFrameRect.width() < MIN_SIZE || detectionFrameRect.height() < MIN_SIZE) {
-        logger.w("Degenerate rectangle! " + detectionFrameRect);
-        continue;
-      }
-
-      rectsToTrack.add(new Pair<Float, Recognition>(result.getConfidence(), result));
-    }
-
-    trackedObjects.clear();
-    if (rectsToTrack.isEmpty()) {
-      logger.v("Nothing to track, aborting.");
-      return;
-    }
-
-    for (final Pair<Float, Recognition> potential : rectsToTrack) {
-      final TrackedRecognition trackedRecognition = new TrackedRecognition();
-      trackedRecognition.detectionConfidence = potential.first;
-      trackedRecognition.location = new RectF(potential.second.getLocation());
-      trackedRecognition.title = potential.second.getTitle();
-      trackedRecognition.color = COLORS[trackedObjects.size()];
-      trackedObjects.add(trackedRecognition);
-
-      if (trackedObjects.size() >= COLORS.length) {
-        break;
-      }
-    }
-  }
-
-  private static class TrackedRecognition {
-    RectF location;
-    float detectionConfidence;
-    int color;
-    String title;
-  }
-}
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Paint.Cap;
+import android.graphics.Paint.Join;
+import android.graphics.Paint.Style;
+import android.graphics.RectF;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.TypedValue;
+import java.nio.ByteBuffer;
+import org.tensorflow.lite.examples.detection.env.BorderedText;
+import org.tensorflow.lite.examples.detection.env.ImageUtils;
+import org.tensorflow.lite.examples.detection.env.LogRingBuffer;
+import org.tensorflow.lite.examples.detection.env.Logger;
+import org.tensorflow.lite.examples.detection.tflite.DetectionBatch;
+
+/**
+ * A tracker that matches existing objects to new detections. Overlapping detections have already
+ * been suppressed by the detector's DetectionPostprocessor.
+ */
+public class MultiBoxTracker {
+  private static final float TEXT_SIZE_DIP = 18;
+  private static final float MIN_SIZE = 16.0f;
+  // Capacities of the underlying tracker.
+  private static final int MAX_TRACKS = 64;
+  private static final int MAX_DETECTIONS = 100;
+  private static final int[] COLORS = {
+    Color.BLUE,
+    Color.RED,
+    Color.GREEN,
+    Color.YELLOW,
+    Color.CYAN,
+    Color.MAGENTA,
+    Color.WHITE,
+    Color.parseColor("#55FF55"),
+    Color.parseColor("#FFA500"),
+    Color.parseColor("#FF8888"),
+    Color.parseColor("#AAAAFF"),
+    Color.parseColor("#FFFFAA"),
+    Color.parseColor("#55AAAA"),
+    Color.parseColor("#AA33AA"),
+    Color.parseColor("#0D0068")
+  };
+  private static final Logger LOGGER = new Logger(MultiBoxTracker.class);
+  private static final LogRingBuffer FRAME_LOG = LogRingBuffer.getInstance();
+  private static final int PROCESSING_RESULTS =
+      FRAME_LOG.register(Log.INFO, "Processing %d results from %d");
+  private static final int DEGENERATE_RECTANGLE =
+      FRAME_LOG.register(Log.WARN, "Degenerate rectangle! %dx%d of class %d");
+  private final IouTracker tracker = new IouTracker(MAX_TRACKS, MAX_DETECTIONS);
+  // Indices in the tracker of the confirmed tracks, which are drawn, until its next update.
+  private final int[] trackedObjects = new int[MAX_TRACKS];
+  private int numTrackedObjects;
+  // Title of each class index, for labelling the boxes.
+  private String[] classTitles = new String[0];
+  // The last results as received, for drawDebug(), and those large enough to be tracked.
+  private final DetectionBatch lastResults = new DetectionBatch(MAX_DETECTIONS);
+  private final DetectionBatch detections = new DetectionBatch(MAX_DETECTIONS);
+  private final float[] box = new float[4];
+  private final RectF screenRect = new RectF();
+  // Moves the tracked boxes with the camera frames between detections, once the size is known.
+  private LuminanceFlow luminanceFlow;
+  private final float[] motion = new float[2];
+  private final Paint boxPaint = new Paint();
+  private final float textSizePx;
+  private final BorderedText borderedText;
+  private Matrix frameToCanvasMatrix;
+  private int frameWidth;
+  private int frameHeight;
+  private int sensorOrientation;
+
+  public MultiBoxTracker(final Context context) {
+    boxPaint.setColor(Color.RED);
+    boxPaint.setStyle(Style.STROKE);
+    boxPaint.setStrokeWidth(10.0f);
+    boxPaint.setStrokeCap(Cap.ROUND);
+    boxPaint.setStrokeJoin(Join.ROUND);
+    boxPaint.setStrokeMiter(100);
+
+    textSizePx =
+        TypedValue.applyDimension(
+            TypedValue.COMPLEX_UNIT_DIP, TEXT_SIZE_DIP, context.getResources().getDisplayMetrics());
+    borderedText = new BorderedText(textSizePx);
+  }
+
+  public synchronized void setFrameConfiguration(
+      final int width, final int height, final int sensorOrientation) {
+    frameWidth = width;
+    frameHeight = height;
+    this.sensorOrientation = sensorOrientation;
+    luminanceFlow = new LuminanceFlow(width, height);
+  }
+
+  /** Sets the title of each class index the results will carry, as given by the detector. */
+  public synchronized void setClassTitles(final String[] classTitles) {
+    this.classTitles = classTitles;
+  }
+
+  /**
+   * Follows the tracked objects into a new camera frame, whether or not the detector runs on it,
+   * so that the boxes stay current between detections.
+   *
+   * @param luminance The Y plane of the frame.
+   * @param rowStride Row stride of the Y plane.
+   */
+  public synchronized void onFrame(final byte[] luminance, final int rowStride) {
+    if (luminanceFlow == null) {
+      return;
+    }
+    luminanceFlow.setFrame(luminance, rowStride);
+    propagate();
+  }
+
+  /** Same as the byte[] version for a Y plane held in a buffer, which is read in place. */
+  public synchronized void onFrame(final ByteBuffer luminance, final int rowStride) {
+    if (luminanceFlow == null) {
+      return;
+    }
+    luminanceFlow.setFrame(luminance, rowStride);
+    propagate();
+  }
+
+  private void propagate() {
+    for (int i = 0; i < numTrackedObjects; ++i) {
+      final int track = trackedObjects[i];
+      tracker.getBox(track, box, 0);
+      if (luminanceFlow.estimate(box[0], box[1], box[2], box[3], motion)) {
+        tracker.translate(track, motion[0], motion[1]);
+      }
+    }
+  }
+
+  public synchronized void drawDebug(final Canvas canvas) {
+    final Paint textPaint = new Paint();
+    textPaint.setColor(Color.WHITE);
+    textPaint.setTextSize(60.0f);
+
+    final Paint boxPaint = new Paint();
+    boxPaint.setColor(Color.RED);
+    boxPaint.setAlpha(200);
+    boxPaint.setStyle(Style.STROKE);
+
+    if (frameToCanvasMatrix == null) {
+      return;
+    }
+    final float[] boxes = lastResults.getBoxes();
+    final float[] scores = lastResults.getScores();
+    for (int i = 0; i < lastResults.getCount(); ++i) {
+      final int b = i * 4;
+      screenRect.set(boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3]);
+      frameToCanvasMatrix.mapRect(screenRect);
+      canvas.drawRect(screenRect, boxPaint);
+      canvas.drawText("" + scores[i], screenRect.left, screenRect.top, textPaint);
+      borderedText.drawText(canvas, screenRect.centerX(), screenRect.centerY(), "" + scores[i]);
+    }
+  }
+
+  /**
+   * Matches the results of a frame to the tracked objects.
+   *
+   * @param results The detections in frame coordinates, read before this returns.
+   */
+  public synchronized void trackResults(final DetectionBatch results, final long timestamp) {
+    trackResults(results, timestamp, null);
+  }
+
+  /**
+   * Same as trackResults() for results found in only part of the frame, such as a region of
+   * interest. Objects tracked outside that part are kept as they are rather than counted as lost.
+   *
+   * @param searched The part of the frame that was searched, in frame coordinates, or null for the
+   *     whole frame.
+   */
+  public synchronized void trackResults(
+      final DetectionBatch results, final long timestamp, final RectF searched) {
+    FRAME_LOG.log(PROCESSING_RESULTS, results.getCount(), timestamp);
+    processResults(results, searched);
+  }
+
+  /**
+   * Counts the objects kept outside the part of the frame the last results were searched in as
+   * present in the voter's current frame, as they were when last seen.
+   */
+  public synchronized void addUnsearchedClasses(final PresenceVoter voter) {
+    tracker.addUnsearchedClasses(voter);
+  }
+
+  public synchronized void draw(final Canvas canvas) {
+    final boolean rotated = sensorOrientation % 180 == 90;
+    final float multiplier =
+        Math.min(
+            canvas.getHeight() / (float) (rotated ? frameWidth : frameHeight),
+            canvas.getWidth() / (float) (rotated ? frameHeight : frameWidth));
+    frameToCanvasMatrix =
+        ImageUtils.getTransformationMatrix(
+            frameWidth,
+            frameHeight,
+            (int) (multiplier * (rotated ? frameHeight : frameWidth)),
+            (int) (multiplier * (rotated ? frameWidth : frameHeight)),
+            sensorOrientation,
+            false);
+    for (int i = 0; i < numTrackedObjects; ++i) {
+      final int track = trackedObjects[i];
+      tracker.getBox(track, box, 0);
+      final RectF trackedPos = screenRect;
+      trackedPos.set(box[0], box[1], box[2], box[3]);
+
+      frameToCanvasMatrix.mapRect(trackedPos);
+      boxPaint.setColor(COLORS[tracker.getId(track) % COLORS.length]);
+
+      float cornerSize = Math.min(trackedPos.width(), trackedPos.height()) / 8.0f;
+      canvas.drawRoundRect(trackedPos, cornerSize, cornerSize, boxPaint);
+
+      final String title = getClassTitle(tracker.getClassId(track));
+      final float detectionConfidence = tracker.getScore(track);
+      final String labelString =
+          !TextUtils.isEmpty(title)
+              ? String.format("%s %.2f", title, (100 * detectionConfidence))
+              : String.format("%.2f", (100 * detectionConfidence));
+      //            borderedText.drawText(canvas, trackedPos.left + cornerSize, trackedPos.top,
+      // labelString);
+      borderedText.drawText(
+          canvas, trackedPos.left + cornerSize, trackedPos.top, labelString + "%", boxPaint);
+    }
+  }
+
+  /** Returns the number of objects currently tracked and drawn. */
+  public synchronized int getNumTrackedObjects() {
+    return numTrackedObjects;
+  }
+
+  /**
+   * Returns the id of tracked object i. The id stays the same for as long as the object is
+   * tracked, across frames in which its detection is briefly lost, and is never reused.
+   */
+  public synchronized int getTrackId(final int i) {
+    return tracker.getId(trackedObjects[i]);
+  }
+
+  public synchronized String getTrackTitle(final int i) {
+    return getClassTitle(tracker.getClassId(trackedObjects[i]));
+  }
+
+  /** Copies the location of tracked object i, in frame coordinates, into out. */
+  public synchronized void getTrackLocation(final int i, final RectF out) {
+    tracker.getBox(trackedObjects[i], box, 0);
+    out.set(box[0], box[1], box[2], box[3]);
+  }
+
+  private void processResults(final DetectionBatch results, final RectF searched) {
+    final float[] boxes = results.getBoxes();
+    final int[] classes = results.getClasses();
+    final float[] scores = results.getScores();
+    lastResults.clear();
+    detections.clear();
+    for (int i = 0; i < results.getCount() && i < MAX_DETECTIONS; ++i) {
+      final int b = i * 4;
+      final float left = boxes[b];
+      final float top = boxes[b + 1];
+      final float right = boxes[b + 2];
+      final float bottom = boxes[b + 3];
+      lastResults.add(left, top, right, bottom, classes[i], scores[i]);
+
+      if (right - left < MIN_SIZE || bottom - top < MIN_SIZE) {
+        FRAME_LOG.log(
+            DEGENERATE_RECTANGLE, Math.round(right - left), Math.round(bottom - top), classes[i]);
+        continue;
+      }
+      detections.add(left, top, right, bottom, classes[i], scores[i]);
+    }
+
+    if (searched != null) {
+      tracker.update(
+          detections.getCount(),
+          detections.getBoxes(),
+          detections.getClasses(),
+          detections.getScores(),
+          searched.left,
+          searched.top,
+          searched.right,
+          searched.bottom);
+    } else {
+      tracker.update(
+          detections.getCount(),
+          detections.getBoxes(),
+          detections.getClasses(),
+          detections.getScores());
+    }
+
+    // Report the confirmed tracks, including those coasting on their predicted position.
+    numTrackedObjects = 0;
+    for (int t = 0; t < tracker.getNumTracks(); ++t) {
+      if (tracker.isConfirmed(t)) {
+        trackedObjects[numTrackedObjects++] = t;
+      }
+    }
+    if (numTrackedObjects == 0) {
+      LOGGER.v("Nothing to track.");
+    }
+  }
+
+  private String getClassTitle(final int classId) {
+    return classId >= 0 && classId < classTitles.length ? classTitles[classId] : null;
+  }
+}
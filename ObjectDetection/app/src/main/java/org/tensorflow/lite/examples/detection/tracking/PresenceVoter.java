@@ -0,0 +1,135 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+/**
+ * Decides when a class of object has come into view and when it has gone, for announcements.
+ *
+ * <p>Each frame votes for the classes it contains. The votes of the last few frames are kept in a
+ * ring buffer, and a class enters once it was seen in enough of those frames and only leaves
+ * again once it was seen in few enough of them, so that a detection flickering on and off is
+ * neither announced over and over nor announced at all when it is spurious.
+ *
+ * <p>Classes are identified by their integer index. All state lives in arrays allocated up front,
+ * and ending a frame costs one pass over the classes.
+ */
+public class PresenceVoter {
+  /** Receives the changes found at the end of a frame. */
+  public interface Listener {
+    /**
+     * Called when a class has been seen in enough of the recent frames.
+     *
+     * @param classId Index of the class.
+     * @param count Number of instances of the class in the current frame.
+     */
+    void onEnter(int classId, int count);
+
+    /** Called when a class that entered has been missing from most of the recent frames. */
+    void onLeave(int classId);
+  }
+
+  private final int numClasses;
+  private final int windowFrames;
+  private final int enterVotes;
+  private final int leaveVotes;
+
+  // Instances per class in the current frame.
+  private final int[] counts;
+  // Whether each class was present, for the last windowFrames frames, one row per frame.
+  private final boolean[] history;
+  // Frames out of the last windowFrames in which each class was present.
+  private final int[] votes;
+  private final boolean[] present;
+  private int frameSlot;
+
+  /**
+   * @param numClasses Number of class indices, which are in [0, numClasses).
+   * @param windowFrames Number of recent frames that vote.
+   * @param enterVotes Frames out of the window a class must be seen in to enter.
+   * @param leaveVotes A present class leaves once it was seen in no more frames than this.
+   */
+  public PresenceVoter(
+      final int numClasses, final int windowFrames, final int enterVotes, final int leaveVotes) {
+    if (enterVotes > windowFrames || leaveVotes >= enterVotes) {
+      throw new IllegalArgumentException(
+          "Need leaveVotes < enterVotes <= windowFrames, got "
+              + leaveVotes
+              + ", "
+              + enterVotes
+              + ", "
+              + windowFrames);
+    }
+    this.numClasses = numClasses;
+    this.windowFrames = windowFrames;
+    this.enterVotes = enterVotes;
+    this.leaveVotes = leaveVotes;
+    counts = new int[numClasses];
+    history = new boolean[windowFrames * numClasses];
+    votes = new int[numClasses];
+    present = new boolean[numClasses];
+  }
+
+  /** Counts one instance of a class in the current frame. Out of range ids are ignored. */
+  public void add(final int classId) {
+    if (classId >= 0 && classId < numClasses) {
+      ++counts[classId];
+    }
+  }
+
+  /**
+   * Ends the current frame, reporting the classes that entered or left to the listener, and
+   * starts the next one.
+   */
+  public void endFrame(final Listener listener) {
+    // The row of the oldest frame is replaced by the current one.
+    final int row = frameSlot * numClasses;
+    for (int c = 0; c < numClasses; ++c) {
+      final boolean seen = counts[c] > 0;
+      if (history[row + c] != seen) {
+        votes[c] += seen ? 1 : -1;
+        history[row + c] = seen;
+      }
+
+      if (!present[c] && votes[c] >= enterVotes) {
+        present[c] = true;
+        listener.onEnter(c, counts[c]);
+      } else if (present[c] && votes[c] <= leaveVotes) {
+        present[c] = false;
+        listener.onLeave(c);
+      }
+      counts[c] = 0;
+    }
+    frameSlot = frameSlot + 1 == windowFrames ? 0 : frameSlot + 1;
+  }
+
+  /** Returns whether the class has entered and not left since. */
+  public boolean isPresent(final int classId) {
+    return present[classId];
+  }
+
+  /** Forgets every frame, without reporting the present classes as having left. */
+  public void clear() {
+    for (int c = 0; c < numClasses; ++c) {
+      counts[c] = 0;
+      votes[c] = 0;
+      present[c] = false;
+    }
+    for (int i = 0; i < history.length; ++i) {
+      history[i] = false;
+    }
+    frameSlot = 0;
+  }
+}
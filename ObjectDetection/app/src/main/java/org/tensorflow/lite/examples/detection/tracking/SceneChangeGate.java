@@ -0,0 +1,271 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decides whether a camera frame is worth running the detector on, by comparing it with the last
+ * frame that was.
+ *
+ * <p>Each frame's luminance plane is reduced to a thumbnail of cell means, read from a sparse grid
+ * of samples per cell. The frame counts as changed when enough cells differ from the thumbnail of
+ * the last detected frame, after removing the difference in overall brightness so that exposure
+ * adjustments alone do not count. Changed frames are always detected. While the scene stays
+ * static, frames are skipped and the detector only runs as a heartbeat, with the gap between
+ * heartbeats doubling up to a maximum, so that slow changes the thumbnail misses are still picked
+ * up. The first changed frame brings the detector back to full rate.
+ *
+ * <p>The skip rate measures the saving. A heartbeat that detects a class the previous run did not
+ * found something appear that the gate did not see; the fraction of such heartbeats is the risk of
+ * delaying an event by up to the heartbeat gap. Detector noise alone also produces some, which
+ * running with a heartbeat of 1 measures.
+ *
+ * <p>Frames are decided on the camera thread and their detections come back on the inference
+ * thread, possibly after later frames have been decided, so the gate does not remember what it
+ * decided for a frame: the caller keeps isHeartbeat() with the frame and passes it back to
+ * endDetections(). A frame the gate accepted only becomes the reference once the caller reports
+ * it queued, so that a frame the pipeline drops does not hide the changes after it.
+ */
+public class SceneChangeGate {
+  // Thumbnail size in cells.
+  private static final int CELLS_X = 32;
+  private static final int CELLS_Y = 24;
+  // Samples per cell in each direction.
+  private static final int CELL_SAMPLES = 4;
+  // Difference in mean luminance, beyond the global brightness change, for a cell to change.
+  private static final int CELL_THRESHOLD = 12;
+  // Fraction of cells that have to change for the frame to change, about the area of a person at
+  // ten meters.
+  private static final float CHANGED_FRACTION = 0.005f;
+
+  private final int cellWidth;
+  private final int cellHeight;
+  private final int sampleStepX;
+  private final int sampleStepY;
+  private final int maxHeartbeatFrames;
+  private final int changedCells;
+
+  // Classes detected in the last run and in the one before.
+  private boolean[] detected;
+  private boolean[] previousDetected;
+
+  // Sums of the cell samples of the last detected frame and of the current one.
+  private int[] reference = new int[CELLS_X * CELLS_Y];
+  private int[] current = new int[CELLS_X * CELLS_Y];
+  private boolean hasReference = false;
+
+  private int heartbeatFrames = 1;
+  private int skippedSinceDetection = 0;
+  private long lastDetectionNs;
+  // The last frame shouldDetect() accepted, until it is queued or another frame is decided.
+  private boolean pendingHeartbeat;
+  private long pendingTimestampNs;
+
+  private long numFrames;
+  private long numSkipped;
+  private long numHeartbeats;
+  private long numHeartbeatsChanged;
+  private long longestSkipNs;
+  // Frames compared with a reference, and the cells that changed in them, for the mean change.
+  private long numCompared;
+  private long numChangedCells;
+
+  /**
+   * @param frameWidth Width of the camera frames.
+   * @param frameHeight Height of the camera frames.
+   * @param numClasses Number of classes the detector reports.
+   * @param maxHeartbeatFrames Most frames between detections while the scene is static; 1 turns
+   *     skipping off while still measuring.
+   */
+  public SceneChangeGate(
+      final int frameWidth,
+      final int frameHeight,
+      final int numClasses,
+      final int maxHeartbeatFrames) {
+    cellWidth = frameWidth / CELLS_X;
+    cellHeight = frameHeight / CELLS_Y;
+    sampleStepX = Math.max(1, cellWidth / CELL_SAMPLES);
+    sampleStepY = Math.max(1, cellHeight / CELL_SAMPLES);
+    this.maxHeartbeatFrames = maxHeartbeatFrames;
+    changedCells = Math.max(1, (int) (CHANGED_FRACTION * CELLS_X * CELLS_Y));
+    detected = new boolean[numClasses];
+    previousDetected = new boolean[numClasses];
+  }
+
+  /**
+   * Decides whether to detect on a frame. If it is to be detected, call detectionQueued() once it
+   * has been handed to the detector, which makes it the reference for the following frames.
+   *
+   * @param luminance The Y plane of the frame.
+   * @param rowStride Row stride of the Y plane.
+   * @param timestampNs Arrival time of the frame.
+   */
+  public synchronized boolean shouldDetect(
+      final byte[] luminance, final int rowStride, final long timestampNs) {
+    for (int cy = 0, c = 0; cy < CELLS_Y; ++cy) {
+      for (int cx = 0; cx < CELLS_X; ++cx, ++c) {
+        final int origin = cy * cellHeight * rowStride + cx * cellWidth;
+        int sum = 0;
+        for (int j = 0; j < CELL_SAMPLES; ++j) {
+          final int row = origin + j * sampleStepY * rowStride;
+          for (int i = 0; i < CELL_SAMPLES; ++i) {
+            sum += 0xff & luminance[row + i * sampleStepX];
+          }
+        }
+        current[c] = sum;
+      }
+    }
+    return decide(timestampNs);
+  }
+
+  /** Same as the byte[] version for a Y plane held in a buffer, which is read in place. */
+  public synchronized boolean shouldDetect(
+      final ByteBuffer luminance, final int rowStride, final long timestampNs) {
+    for (int cy = 0, c = 0; cy < CELLS_Y; ++cy) {
+      for (int cx = 0; cx < CELLS_X; ++cx, ++c) {
+        final int origin = cy * cellHeight * rowStride + cx * cellWidth;
+        int sum = 0;
+        for (int j = 0; j < CELL_SAMPLES; ++j) {
+          final int row = origin + j * sampleStepY * rowStride;
+          for (int i = 0; i < CELL_SAMPLES; ++i) {
+            sum += 0xff & luminance.get(row + i * sampleStepX);
+          }
+        }
+        current[c] = sum;
+      }
+    }
+    return decide(timestampNs);
+  }
+
+  private boolean decide(final long timestampNs) {
+    ++numFrames;
+    final boolean changed = !hasReference || isChanged();
+    final boolean detect = changed || skippedSinceDetection + 1 >= heartbeatFrames;
+    if (!detect) {
+      ++skippedSinceDetection;
+      ++numSkipped;
+      longestSkipNs = Math.max(longestSkipNs, timestampNs - lastDetectionNs);
+      return false;
+    }
+
+    pendingHeartbeat = !changed;
+    pendingTimestampNs = timestampNs;
+    return true;
+  }
+
+  /**
+   * Returns whether the frame shouldDetect() last accepted is detected only as a heartbeat, i.e.
+   * without having changed. To be passed to endDetections() with the frame's detections.
+   */
+  public synchronized boolean isHeartbeat() {
+    return pendingHeartbeat;
+  }
+
+  /**
+   * Makes the frame shouldDetect() last accepted the reference, once it has been queued for the
+   * detector. A frame that is dropped instead is not reported, so the next one is still compared
+   * with the last queued frame.
+   */
+  public synchronized void detectionQueued() {
+    if (pendingHeartbeat) {
+      heartbeatFrames = Math.min(heartbeatFrames * 2, maxHeartbeatFrames);
+    } else {
+      heartbeatFrames = 1;
+    }
+    skippedSinceDetection = 0;
+    lastDetectionNs = pendingTimestampNs;
+    final int[] tmp = reference;
+    reference = current;
+    current = tmp;
+    hasReference = true;
+  }
+
+  private boolean isChanged() {
+    final int numCells = CELLS_X * CELLS_Y;
+    long total = 0;
+    for (int c = 0; c < numCells; ++c) {
+      total += current[c] - reference[c];
+    }
+    final int brightness = (int) (total / numCells);
+    final int threshold = CELL_THRESHOLD * CELL_SAMPLES * CELL_SAMPLES;
+    int changed = 0;
+    for (int c = 0; c < numCells; ++c) {
+      if (Math.abs(current[c] - reference[c] - brightness) > threshold) {
+        ++changed;
+      }
+    }
+    ++numCompared;
+    numChangedCells += changed;
+    return changed >= changedCells;
+  }
+
+  /** Adds the class of a detection of the last detected frame, for the missed event statistics. */
+  public synchronized void addDetection(final int classId) {
+    detected[classId] = true;
+  }
+
+  /**
+   * Ends the detections of a frame, which are then compared with those of the previous run.
+   *
+   * @param heartbeat What isHeartbeat() returned for the frame.
+   */
+  public synchronized void endDetections(final boolean heartbeat) {
+    if (heartbeat) {
+      ++numHeartbeats;
+      for (int c = 0; c < detected.length; ++c) {
+        if (detected[c] && !previousDetected[c]) {
+          ++numHeartbeatsChanged;
+          break;
+        }
+      }
+    }
+    final boolean[] tmp = previousDetected;
+    previousDetected = detected;
+    detected = tmp;
+    Arrays.fill(detected, false);
+  }
+
+  /** Returns the fraction of frames skipped so far. */
+  public synchronized float getSkipRate() {
+    return numFrames > 0 ? numSkipped / (float) numFrames : 0.0f;
+  }
+
+  /** Returns the fraction of heartbeats that found a new class in a scene considered static. */
+  public synchronized float getMissedEventRate() {
+    return numHeartbeats > 0 ? numHeartbeatsChanged / (float) numHeartbeats : 0.0f;
+  }
+
+  /** Returns the mean fraction of cells that changed in the frames compared with a reference. */
+  public synchronized float getMeanChangedFraction() {
+    return numCompared > 0 ? numChangedCells / (float) (numCompared * CELLS_X * CELLS_Y) : 0.0f;
+  }
+
+  public synchronized String getStatString() {
+    return String.format(
+        "scene gate: skipped %d of %d frames (%.0f%%), longest gap %dms, new class on %d of %d"
+            + " heartbeats (%.0f%%), mean change %.1f%% of cells",
+        numSkipped,
+        numFrames,
+        100 * getSkipRate(),
+        longestSkipNs / 1000000,
+        numHeartbeatsChanged,
+        numHeartbeats,
+        100 * getMissedEventRate(),
+        100 * getMeanChangedFraction());
+  }
+}
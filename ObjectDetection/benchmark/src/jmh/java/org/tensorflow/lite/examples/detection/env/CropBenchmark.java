@@ -0,0 +1,85 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cropping a camera frame into the model's square input through the getTransformationMatrix()
+ * transform, read straight from the YUV planes by YuvInputSampler for a quantized and a float
+ * model. The bitmap path is covered by ScaledConversionBenchmark, except for the Canvas drawing,
+ * which needs a device.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CropBenchmark {
+  private static final int INPUT_SIZE = 300;
+
+  @Param({"640x480", "1280x720", "1920x1080"})
+  public String resolution;
+
+  @Param({"0", "90"})
+  public int rotation;
+
+  private byte[] nv21;
+  private YuvInputSampler sampler;
+  private ByteBuffer input;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final String[] size = resolution.split("x");
+    final int width = Integer.parseInt(size[0]);
+    final int height = Integer.parseInt(size[1]);
+    nv21 = new byte[ImageUtils.getYUVByteSize(width, height)];
+    new Random(0).nextBytes(nv21);
+
+    final float[] cropToFrame =
+        ImageUtils.invertTransformation(
+            ImageUtils.getTransformationValues(
+                width, height, INPUT_SIZE, INPUT_SIZE, rotation, false));
+    sampler = YuvInputSampler.forNv21(width, height, INPUT_SIZE, INPUT_SIZE, cropToFrame);
+    // Large enough for a float model.
+    input = ByteBuffer.allocateDirect(INPUT_SIZE * INPUT_SIZE * 3 * 4);
+    input.order(ByteOrder.nativeOrder());
+  }
+
+  @Benchmark
+  public ByteBuffer samplerQuantized() {
+    input.rewind();
+    sampler.sampleQuantized(nv21, nv21, nv21, input);
+    return input;
+  }
+
+  @Benchmark
+  public ByteBuffer samplerFloat() {
+    input.rewind();
+    sampler.sampleFloat(nv21, nv21, nv21, input, 128.0f, 128.0f);
+    return input;
+  }
+}
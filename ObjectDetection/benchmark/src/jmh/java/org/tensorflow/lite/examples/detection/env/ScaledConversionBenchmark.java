@@ -0,0 +1,66 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decoding a camera frame at the scale of a 300x300 model input, as DetectorActivity does before
+ * drawing it into the crop when the frame is not sampled into the input directly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScaledConversionBenchmark {
+  private static final int INPUT_SIZE = 300;
+
+  @Param({"640x480", "1280x720", "1920x1080"})
+  public String resolution;
+
+  @Param({"BOX", "BILINEAR"})
+  public ImageUtils.ScaleFilter filter;
+
+  private int width;
+  private int height;
+  private byte[] nv21;
+  private int[] argb;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final String[] size = resolution.split("x");
+    width = Integer.parseInt(size[0]);
+    height = Integer.parseInt(size[1]);
+    nv21 = new byte[ImageUtils.getYUVByteSize(width, height)];
+    new Random(0).nextBytes(nv21);
+    argb = new int[INPUT_SIZE * INPUT_SIZE];
+  }
+
+  @Benchmark
+  public int[] convert() {
+    ImageUtils.convertYUV420SPToARGB8888(nv21, width, height, argb, INPUT_SIZE, INPUT_SIZE, filter);
+    return argb;
+  }
+}
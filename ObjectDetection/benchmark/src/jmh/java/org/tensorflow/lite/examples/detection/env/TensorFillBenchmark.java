@@ -0,0 +1,69 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Filling the model input from the cropped ARGB bitmap, as recognizeImage() does, for quantized and
+ * float models at the input sizes of the common SSD variants.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TensorFillBenchmark {
+  private static final float IMAGE_MEAN = 128.0f;
+  private static final float IMAGE_STD = 128.0f;
+
+  @Param({"300", "320", "640"})
+  public int inputSize;
+
+  @Param({"false", "true"})
+  public boolean quantized;
+
+  private int[] argb;
+  private ByteBuffer input;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final Random random = new Random(0);
+    argb = new int[inputSize * inputSize];
+    for (int i = 0; i < argb.length; ++i) {
+      argb[i] = 0xff000000 | random.nextInt(0x1000000);
+    }
+    input = ByteBuffer.allocateDirect(argb.length * 3 * (quantized ? 1 : 4));
+    input.order(ByteOrder.nativeOrder());
+  }
+
+  @Benchmark
+  public ByteBuffer fill() {
+    input.rewind();
+    ImageUtils.convertARGB8888ToInput(argb, input, quantized, IMAGE_MEAN, IMAGE_STD);
+    return input;
+  }
+}
@@ -0,0 +1,112 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Full frame YUV to ARGB conversion, as done for every preview frame.
+ *
+ * <p>A stripe count of 0 runs the original single-threaded loop; any other count runs the striped
+ * version with a pool of that many threads, the calling thread included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class YuvConversionBenchmark {
+  @Param({"640x480", "1280x720", "1920x1080"})
+  public String resolution;
+
+  @Param({"0", "1", "2", "4", "8"})
+  public int stripes;
+
+  private int width;
+  private int height;
+  private byte[] nv21;
+  private byte[] yPlane;
+  private byte[] uPlane;
+  private byte[] vPlane;
+  private int[] argb;
+  private ExecutorService executor;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final String[] size = resolution.split("x");
+    width = Integer.parseInt(size[0]);
+    height = Integer.parseInt(size[1]);
+
+    final Random random = new Random(0);
+    final int frameSize = width * height;
+    nv21 = new byte[frameSize + 2 * ((width + 1) / 2) * ((height + 1) / 2)];
+    random.nextBytes(nv21);
+
+    // Camera2 style semi-planar layout: the U and V planes view the same interleaved buffer.
+    yPlane = new byte[frameSize];
+    System.arraycopy(nv21, 0, yPlane, 0, frameSize);
+    uPlane = new byte[nv21.length - frameSize];
+    System.arraycopy(nv21, frameSize, uPlane, 0, uPlane.length);
+    vPlane = new byte[uPlane.length];
+    System.arraycopy(uPlane, 1, vPlane, 0, uPlane.length - 1);
+
+    argb = new int[frameSize];
+    if (stripes > 1) {
+      executor = Executors.newFixedThreadPool(stripes - 1);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  @Benchmark
+  public int[] yuv420SP() {
+    if (stripes == 0) {
+      ImageUtils.convertYUV420SPToARGB8888(nv21, width, height, argb);
+    } else {
+      ImageUtils.convertYUV420SPToARGB8888(nv21, width, height, argb, executor, stripes);
+    }
+    return argb;
+  }
+
+  @Benchmark
+  public int[] yuv420() {
+    final int uvRowStride = 2 * ((width + 1) / 2);
+    if (stripes == 0) {
+      ImageUtils.convertYUV420ToARGB8888(
+          yPlane, uPlane, vPlane, width, height, width, uvRowStride, 2, argb);
+    } else {
+      ImageUtils.convertYUV420ToARGB8888(
+          yPlane, uPlane, vPlane, width, height, width, uvRowStride, 2, argb, executor, stripes);
+    }
+    return argb;
+  }
+}
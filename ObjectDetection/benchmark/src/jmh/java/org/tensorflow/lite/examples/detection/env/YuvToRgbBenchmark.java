@@ -0,0 +1,103 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Arithmetic versus table-driven YUV to RGB decoding.
+ *
+ * <p>The pixel benchmark decodes a fixed set of random YUV triples, so the table lookups see a
+ * realistic spread of indices. The frame benchmark runs the single-threaded NV21 conversion with
+ * each method selected.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class YuvToRgbBenchmark {
+  private static final int NUM_PIXELS = 64 * 1024;
+
+  /** A random NV21 frame, kept separate so that only the frame benchmark runs per resolution. */
+  @State(Scope.Benchmark)
+  public static class Frame {
+    @Param({"640x480", "1280x720"})
+    public String resolution;
+
+    int width;
+    int height;
+    byte[] nv21;
+    int[] argb;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      final String[] size = resolution.split("x");
+      width = Integer.parseInt(size[0]);
+      height = Integer.parseInt(size[1]);
+      nv21 = new byte[ImageUtils.getYUVByteSize(width, height)];
+      new Random(0).nextBytes(nv21);
+      argb = new int[width * height];
+    }
+  }
+
+  @Param({"false", "true"})
+  public boolean lookupTables;
+
+  private final int[] ys = new int[NUM_PIXELS];
+  private final int[] us = new int[NUM_PIXELS];
+  private final int[] vs = new int[NUM_PIXELS];
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final Random random = new Random(0);
+    for (int i = 0; i < NUM_PIXELS; ++i) {
+      ys[i] = random.nextInt(256);
+      us[i] = random.nextInt(256);
+      vs[i] = random.nextInt(256);
+    }
+    ImageUtils.setUseLookupTables(lookupTables);
+  }
+
+  @Benchmark
+  public int pixels() {
+    int hash = 0;
+    if (lookupTables) {
+      for (int i = 0; i < NUM_PIXELS; ++i) {
+        hash += ImageUtils.YUV2RGBTable(ys[i], us[i], vs[i]);
+      }
+    } else {
+      for (int i = 0; i < NUM_PIXELS; ++i) {
+        hash += ImageUtils.YUV2RGB(ys[i], us[i], vs[i]);
+      }
+    }
+    return hash;
+  }
+
+  @Benchmark
+  public int[] frame(final Frame frame) {
+    ImageUtils.convertYUV420SPToARGB8888(frame.nv21, frame.width, frame.height, frame.argb);
+    return frame.argb;
+  }
+}
@@ -0,0 +1,102 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Postprocessing of one frame's candidates, from the ten of a model with built-in suppression to
+ * the thousands of a raw SSD output. A fifth of the candidates cluster around a few objects with
+ * scores above the threshold, as the anchors covering an object do; the rest score below it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DetectionPostprocessorBenchmark {
+  private static final int NUM_OBJECTS = 10;
+  private static final int NUM_CLASSES = 90;
+  private static final int MAX_RESULTS = 10;
+  private static final float SCORE_THRESHOLD = 0.5f;
+
+  @Param({"10", "100", "2000"})
+  public int numCandidates;
+
+  private DetectionPostprocessor postprocessor;
+  private float[] boxes;
+  private int[] classes;
+  private float[] scores;
+  private final float[] outBoxes = new float[MAX_RESULTS * 4];
+  private final int[] outClasses = new int[MAX_RESULTS];
+  private final float[] outScores = new float[MAX_RESULTS];
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final Random random = new Random(0);
+    final float[] objects = new float[NUM_OBJECTS * 3];
+    for (int i = 0; i < NUM_OBJECTS; ++i) {
+      objects[i * 3] = random.nextFloat() * 250;
+      objects[i * 3 + 1] = random.nextFloat() * 250;
+      objects[i * 3 + 2] = 20 + random.nextFloat() * 80;
+    }
+
+    boxes = new float[numCandidates * 4];
+    classes = new int[numCandidates];
+    scores = new float[numCandidates];
+    for (int i = 0; i < numCandidates; ++i) {
+      final float x;
+      final float y;
+      final float size;
+      if (random.nextFloat() < 0.2f) {
+        final int object = i % NUM_OBJECTS;
+        x = objects[object * 3] + random.nextFloat() * 10;
+        y = objects[object * 3 + 1] + random.nextFloat() * 10;
+        size = objects[object * 3 + 2] * (0.9f + random.nextFloat() * 0.2f);
+        // Mostly the object's class, sometimes a similar one.
+        classes[i] = random.nextFloat() < 0.8f ? object : object + NUM_OBJECTS;
+        scores[i] = SCORE_THRESHOLD + random.nextFloat() * (1 - SCORE_THRESHOLD);
+      } else {
+        x = random.nextFloat() * 250;
+        y = random.nextFloat() * 250;
+        size = 20 + random.nextFloat() * 80;
+        classes[i] = random.nextInt(NUM_CLASSES);
+        scores[i] = random.nextFloat() * SCORE_THRESHOLD;
+      }
+      boxes[i * 4] = x;
+      boxes[i * 4 + 1] = y;
+      boxes[i * 4 + 2] = x + size;
+      boxes[i * 4 + 3] = y + size;
+    }
+
+    postprocessor =
+        new DetectionPostprocessor(numCandidates, MAX_RESULTS, SCORE_THRESHOLD, 0.6f, 0.8f);
+  }
+
+  @Benchmark
+  public int process() {
+    return postprocessor.process(
+        numCandidates, boxes, classes, scores, outBoxes, outClasses, outScores);
+  }
+}
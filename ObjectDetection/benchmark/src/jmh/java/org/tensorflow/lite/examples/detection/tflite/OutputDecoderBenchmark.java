@@ -0,0 +1,107 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decoding of one frame's raw outputs: the 1917 anchors by 91 classes of SSD MobileNet without
+ * its postprocessing op, and the 6300 predictions by 85 fields of a 320 pixel YOLOv5, as float and
+ * as uint8 tensors. Scores are random and almost all of them below the threshold, as they are
+ * outside the few anchors covering an object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OutputDecoderBenchmark {
+  private static final float SCORE_THRESHOLD = 0.5f;
+
+  @Param({AnchorDecoder.NAME, YoloDecoder.NAME})
+  public String decoderName;
+
+  @Param({"false", "true"})
+  public boolean quantized;
+
+  private OutputDecoder decoder;
+  private float[] boxes;
+  private int[] classes;
+  private float[] scores;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final Random random = new Random(0);
+    final Properties properties = new Properties();
+    properties.setProperty("decoder", decoderName);
+    final ModelOutput[] outputs;
+    if (decoderName.equals(AnchorDecoder.NAME)) {
+      properties.setProperty("input.size", "300");
+      // Logits around -4, of which about one in a thousand clears the threshold.
+      final ModelOutput encodings = createOutput(new int[] {1, 1917, 4}, random, 0.0f, 1.0f);
+      final ModelOutput logits = createOutput(new int[] {1, 1917, 91}, random, -4.0f, 1.2f);
+      outputs = new ModelOutput[] {encodings, logits};
+    } else {
+      properties.setProperty("input.size", "320");
+      final ModelOutput detections = createOutput(new int[] {1, 6300, 85}, random, 0.1f, 0.15f);
+      outputs = new ModelOutput[] {detections};
+    }
+    decoder = DecoderRegistry.create(new ModelSpec(properties), outputs);
+    boxes = new float[decoder.getMaxCandidates() * 4];
+    classes = new int[decoder.getMaxCandidates()];
+    scores = new float[decoder.getMaxCandidates()];
+  }
+
+  /**
+   * Creates an output holding normally distributed values. Quantized outputs cover four standard
+   * deviations either side of the mean in their 256 steps.
+   */
+  private ModelOutput createOutput(
+      final int[] shape, final Random random, final float mean, final float std) {
+    final float scale = 8 * std / 255;
+    final int zeroPoint = Math.round(128 - mean / scale);
+    final ModelOutput output =
+        new ModelOutput(
+            shape,
+            quantized ? ModelOutput.Type.UINT8 : ModelOutput.Type.FLOAT32,
+            scale,
+            zeroPoint);
+    for (int i = 0; i < output.getNumElements(); ++i) {
+      final float value = mean + (float) random.nextGaussian() * std;
+      if (quantized) {
+        final int q = Math.round(value / scale) + zeroPoint;
+        output.getBuffer().put(i, (byte) Math.max(0, Math.min(255, q)));
+      } else {
+        output.getBuffer().putFloat(i * 4, value);
+      }
+    }
+    return output;
+  }
+
+  @Benchmark
+  public int decode() {
+    return decoder.decode(SCORE_THRESHOLD, boxes, classes, scores);
+  }
+}
@@ -0,0 +1,89 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * One tracker update with a grid of slowly moving boxes, all of them matching an existing track.
+ * With overlapping boxes every detection is a candidate for several tracks, which is the worst
+ * case for the assignment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IouTrackerBenchmark {
+  private static final int NUM_FRAMES = 64;
+
+  @Param({"10", "50", "120"})
+  public int numBoxes;
+
+  @Param({"false", "true"})
+  public boolean overlapping;
+
+  private IouTracker tracker;
+  private float[][] frames;
+  private int[] classes;
+  private float[] scores;
+  private int frame;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final Random random = new Random(0);
+    final float spacing = overlapping ? 10.0f : 60.0f;
+    frames = new float[NUM_FRAMES][numBoxes * 4];
+    for (int f = 0; f < NUM_FRAMES; ++f) {
+      for (int i = 0; i < numBoxes; ++i) {
+        final float x = (i % 12) * spacing + f + random.nextFloat();
+        final float y = (i / 12) * spacing + random.nextFloat();
+        frames[f][i * 4] = x;
+        frames[f][i * 4 + 1] = y;
+        frames[f][i * 4 + 2] = x + 50.0f;
+        frames[f][i * 4 + 3] = y + 50.0f;
+      }
+    }
+    classes = new int[numBoxes];
+    scores = new float[numBoxes];
+    for (int i = 0; i < numBoxes; ++i) {
+      classes[i] = i % 3;
+      scores[i] = 0.8f;
+    }
+
+    tracker = new IouTracker(128, 128);
+    for (int f = 0; f < NUM_FRAMES; ++f) {
+      tracker.update(numBoxes, frames[f], classes, scores);
+    }
+  }
+
+  @Benchmark
+  public int update() {
+    // Replays the frames back and forth so the boxes keep moving smoothly.
+    final int cycle = frame++ % (2 * NUM_FRAMES);
+    final float[] boxes = frames[cycle < NUM_FRAMES ? cycle : 2 * NUM_FRAMES - 1 - cycle];
+    tracker.update(numBoxes, boxes, classes, scores);
+    return tracker.getNumTracks();
+  }
+}
@@ -0,0 +1,96 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Carrying the tracked boxes into a new frame, as MultiBoxTracker.onFrame() does for every camera
+ * frame: one downsampled copy of the luminance plane and one motion estimate per box. The frames
+ * alternate between two textures shifted by a few pixels, so every estimate has to search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LuminanceFlowBenchmark {
+  private static final int SHIFT = 6;
+
+  @Param({"640x480", "1280x720"})
+  public String resolution;
+
+  @Param({"1", "10", "50"})
+  public int numBoxes;
+
+  private int width;
+  private LuminanceFlow flow;
+  private byte[][] frames;
+  private float[] boxes;
+  private final float[] motion = new float[2];
+  private int frame;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    final String[] size = resolution.split("x");
+    width = Integer.parseInt(size[0]);
+    final int height = Integer.parseInt(size[1]);
+
+    final Random random = new Random(0);
+    final byte[] texture = new byte[(width + SHIFT) * height];
+    random.nextBytes(texture);
+    frames = new byte[2][width * height];
+    for (int y = 0; y < height; ++y) {
+      System.arraycopy(texture, y * (width + SHIFT), frames[0], y * width, width);
+      System.arraycopy(texture, y * (width + SHIFT) + SHIFT, frames[1], y * width, width);
+    }
+
+    boxes = new float[numBoxes * 4];
+    for (int i = 0; i < numBoxes; ++i) {
+      final float boxSize = 64 + random.nextInt(128);
+      final float x = random.nextFloat() * (width - boxSize);
+      final float y = random.nextFloat() * (height - boxSize);
+      boxes[i * 4] = x;
+      boxes[i * 4 + 1] = y;
+      boxes[i * 4 + 2] = x + boxSize;
+      boxes[i * 4 + 3] = y + boxSize;
+    }
+
+    flow = new LuminanceFlow(width, height);
+    flow.setFrame(frames[1], width);
+  }
+
+  @Benchmark
+  public float propagate() {
+    flow.setFrame(frames[frame++ & 1], width);
+    float total = 0;
+    for (int i = 0; i < numBoxes; ++i) {
+      final int b = i * 4;
+      if (flow.estimate(boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3], motion)) {
+        total += motion[0];
+      }
+    }
+    return total;
+  }
+}
@@ -0,0 +1,242 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.replay;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import org.tensorflow.lite.examples.detection.env.YuvInputSampler;
+import org.tensorflow.lite.examples.detection.tflite.InterpreterTuner;
+
+/**
+ * Stands in for the quantized SSD model on a plain JVM.
+ *
+ * <p>The input is filled exactly as for the real model, so preprocessing costs what it does on a
+ * device. Detection reports the objects of a {@link SyntheticScene} with some jitter, misses some
+ * of them and adds the odd spurious single-frame detection, which is what the tracker and the
+ * announcement voter have to cope with, and optionally takes time to mimic the interpreter.
+ * Objects are missed more often the fewer input pixels they cover, so that small ones are found
+ * more reliably in a tile than in the full frame, and an object is only reported in a tile if at
+ * least half of it lies inside, cut off at the tile's edges.
+ *
+ * <p>That time follows a rough model of a phone for the interpreter tuner to work against: a part
+ * of the model that does not parallelize, four fast cores beyond which extra threads only add
+ * contention, NNAPI a little faster than the CPU after a few slow runs for compiling the model,
+ * and optionally throttling that halves the fast cores and slows them down partway through.
+ */
+class FakeDetector implements Detector, InterpreterTuner.Target {
+  private static final float BOX_JITTER = 0.01f;
+  private static final float SPURIOUS_RATE = 0.05f;
+  // Size in input pixels below which objects are missed more often, in proportion to their size.
+  private static final float RESOLVABLE_SIZE = 24.0f;
+  // Least fraction of an object that must lie in the input region for it to be reported.
+  private static final float MIN_VISIBLE_FRACTION = 0.5f;
+
+  // The latency model, relative to the latency on one CPU thread.
+  private static final float SERIAL_FRACTION = 0.2f;
+  private static final int FAST_CORES = 4;
+  private static final int THROTTLED_FAST_CORES = 2;
+  private static final float THROTTLED_SLOWDOWN = 1.5f;
+  private static final float CONTENTION_PER_THREAD = 0.15f;
+  private static final float NNAPI_FACTOR = 0.7f;
+  private static final int NNAPI_COMPILE_RUNS = 3;
+  private static final float NNAPI_COMPILE_FACTOR = 5.0f;
+
+  private final SyntheticScene scene;
+  private final int inputSize;
+  private final int numClasses;
+  private final int maxDetections;
+  private final long latencyNs;
+  private final float throttleAfterSec;
+  private final float missRate;
+  private final Random random;
+  private final float[] box = new float[4];
+
+  // The part of the scene the input shows, in normalized crop coordinates.
+  private float regionLeft = 0;
+  private float regionTop = 0;
+  private float regionRight = 1;
+  private float regionBottom = 1;
+
+  private boolean started = false;
+  private long firstTimestampNs;
+  private int numThreads = 1;
+  private boolean useNNAPI = false;
+  private int nnapiRuns;
+
+  /**
+   * @param scene The scene to report on.
+   * @param inputSize Width and height of the model input.
+   * @param numClasses Number of classes the model knows.
+   * @param maxDetections Number of detections in the model output.
+   * @param latencyMs Time each detection takes on one CPU thread, in milliseconds.
+   * @param throttleAfterSec Time into the sequence at which the device starts throttling, or
+   *     infinity if it never does.
+   * @param missRate Probability of missing a visible object in a frame.
+   * @param seed Seed for the noise, so that a run can be reproduced.
+   */
+  FakeDetector(
+      final SyntheticScene scene,
+      final int inputSize,
+      final int numClasses,
+      final int maxDetections,
+      final float latencyMs,
+      final float throttleAfterSec,
+      final float missRate,
+      final long seed) {
+    this.scene = scene;
+    this.inputSize = inputSize;
+    this.numClasses = numClasses;
+    this.maxDetections = maxDetections;
+    this.latencyNs = (long) (latencyMs * 1000000);
+    this.throttleAfterSec = throttleAfterSec;
+    this.missRate = missRate;
+    random = new Random(seed);
+  }
+
+  @Override
+  public void setNumThreads(final int numThreads) {
+    this.numThreads = numThreads;
+  }
+
+  @Override
+  public void setUseNNAPI(final boolean useNNAPI) {
+    if (useNNAPI != this.useNNAPI) {
+      nnapiRuns = 0;
+    }
+    this.useNNAPI = useNNAPI;
+  }
+
+  @Override
+  public int getInputWidth() {
+    return inputSize;
+  }
+
+  @Override
+  public int getInputHeight() {
+    return inputSize;
+  }
+
+  @Override
+  public int getNumClasses() {
+    return numClasses;
+  }
+
+  @Override
+  public int getMaxDetections() {
+    return maxDetections;
+  }
+
+  @Override
+  public ByteBuffer createInputBuffer() {
+    return ByteBuffer.allocateDirect(inputSize * inputSize * 3).order(ByteOrder.nativeOrder());
+  }
+
+  @Override
+  public void fillInput(
+      final ByteBuffer yPlane,
+      final ByteBuffer uPlane,
+      final ByteBuffer vPlane,
+      final YuvInputSampler sampler,
+      final ByteBuffer input) {
+    sampler.sampleQuantized(yPlane, uPlane, vPlane, input);
+  }
+
+  @Override
+  public void setInputRegion(
+      final float left, final float top, final float right, final float bottom) {
+    regionLeft = left;
+    regionTop = top;
+    regionRight = right;
+    regionBottom = bottom;
+  }
+
+  @Override
+  public int detect(
+      final ByteBuffer input,
+      final long timestampNs,
+      final float[] boxes,
+      final int[] classes,
+      final float[] scores) {
+    final long startNs = System.nanoTime();
+    if (!started) {
+      started = true;
+      firstTimestampNs = timestampNs;
+    }
+    final float timeSec = (timestampNs - firstTimestampNs) / 1e9f;
+
+    final float regionWidth = regionRight - regionLeft;
+    final float regionHeight = regionBottom - regionTop;
+    int count = 0;
+    for (int i = 0; i < scene.getNumObjects() && count < maxDetections; ++i) {
+      if (!scene.isVisible(i, timeSec)) {
+        continue;
+      }
+      scene.getBox(i, timeSec, box, 0);
+      final float area = (box[2] - box[0]) * (box[3] - box[1]);
+      // Clip to the region and make the box relative to it.
+      box[0] = (Math.max(box[0], regionLeft) - regionLeft) / regionWidth;
+      box[1] = (Math.max(box[1], regionTop) - regionTop) / regionHeight;
+      box[2] = (Math.min(box[2], regionRight) - regionLeft) / regionWidth;
+      box[3] = (Math.min(box[3], regionBottom) - regionTop) / regionHeight;
+      final float width = box[2] - box[0];
+      final float height = box[3] - box[1];
+      if (width <= 0
+          || height <= 0
+          || width * regionWidth * height * regionHeight < MIN_VISIBLE_FRACTION * area) {
+        continue;
+      }
+      final float resolved = Math.min(1.0f, Math.min(width, height) * inputSize / RESOLVABLE_SIZE);
+      if (random.nextFloat() < missRate + (1 - missRate) * (1 - resolved)) {
+        continue;
+      }
+      for (int c = 0; c < 4; ++c) {
+        boxes[count * 4 + c] = (box[c] + (random.nextFloat() * 2 - 1) * BOX_JITTER) * inputSize;
+      }
+      classes[count] = scene.getClass(i);
+      scores[count] = 0.6f + random.nextFloat() * 0.35f;
+      ++count;
+    }
+    if (count < maxDetections && random.nextFloat() < SPURIOUS_RATE) {
+      final float left = random.nextFloat() * 0.8f;
+      final float top = random.nextFloat() * 0.8f;
+      boxes[count * 4] = left * inputSize;
+      boxes[count * 4 + 1] = top * inputSize;
+      boxes[count * 4 + 2] = (left + 0.2f) * inputSize;
+      boxes[count * 4 + 3] = (top + 0.2f) * inputSize;
+      classes[count] = random.nextInt(numClasses);
+      scores[count] = 0.5f + random.nextFloat() * 0.1f;
+      ++count;
+    }
+
+    final long runNs = (long) (latencyNs * getLatencyFactor(timeSec >= throttleAfterSec));
+    while (System.nanoTime() - startNs < runNs) {
+      // Spin rather than sleep, as the interpreter keeps its threads busy.
+    }
+    return count;
+  }
+
+  private float getLatencyFactor(final boolean throttled) {
+    if (useNNAPI) {
+      return nnapiRuns++ < NNAPI_COMPILE_RUNS ? NNAPI_COMPILE_FACTOR : NNAPI_FACTOR;
+    }
+    final int fastCores = throttled ? THROTTLED_FAST_CORES : FAST_CORES;
+    final float factor =
+        (SERIAL_FRACTION + (1 - SERIAL_FRACTION) / Math.min(numThreads, fastCores))
+            * (1 + CONTENTION_PER_THREAD * Math.max(0, numThreads - fastCores));
+    return throttled ? factor * THROTTLED_SLOWDOWN : factor;
+  }
+}
@@ -0,0 +1,338 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.replay;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import org.tensorflow.lite.examples.detection.env.ImageUtils;
+import org.tensorflow.lite.examples.detection.tflite.InterpreterTuner;
+import org.tensorflow.lite.examples.detection.tflite.TileLayout;
+import org.tensorflow.lite.examples.detection.tracking.PresenceVoter;
+
+/**
+ * Replays a recorded YUV sequence through {@link ReplayPipeline} with a {@link FakeDetector}, and
+ * reports the frame rate and the per-stage latency percentiles.
+ *
+ * <pre>
+ * replay [--synthesize FRAMES] [--realtime] [--interval N] [--scene-gate N] [--latency-ms MS]
+ *     [--autotune TARGET_MS] [--throttle-after SEC] [--miss-rate P] [--small-objects N]
+ *     [--tiles full|center|grid|auto] [--tile-budget MS] [--roi N] [--csv FILE] [--verbose]
+ *     SEQUENCE
+ * </pre>
+ *
+ * <p>With --synthesize a scripted sequence of the given number of frames is first generated at the
+ * SEQUENCE path, at the preview size and sensor rotation of a typical phone. With --autotune an
+ * {@link InterpreterTuner} picks the fake detector's thread count and delegate for the given
+ * target latency, which --latency-ms then sets on one CPU thread; --throttle-after makes the fake
+ * device throttle partway through.
+ *
+ * <p>--small-objects adds objects too small to be found reliably in the full frame; pass the same
+ * number when synthesizing and replaying. --tiles detects each frame in the given tiles as well,
+ * or lets a {@link org.tensorflow.lite.examples.detection.tflite.TilePlanner} pick them within the
+ * --tile-budget for the detections of a frame. --roi instead detects the region of interest of
+ * DetectorActivity, and the full frame in its place on every N-th frame.
+ */
+public class ReplayMain {
+  private static final int INPUT_SIZE = 300;
+  private static final int NUM_CLASSES = 90;
+  private static final int MAX_DETECTIONS = 10;
+  private static final int NUM_OBJECTS = 6;
+  private static final long SEED = 42;
+  // The region of interest of DetectorActivity, as fractions of the upright frame.
+  private static final float[] ROI = {0.2f, 0.3f, 0.8f, 0.75f};
+
+  private static final int SYNTHETIC_WIDTH = 640;
+  private static final int SYNTHETIC_HEIGHT = 480;
+  private static final int SYNTHETIC_ROTATION = 90;
+  private static final int SYNTHETIC_FPS = 30;
+  // Threads the tuner may try, as on an eight core phone.
+  private static final int MAX_THREADS = 8;
+
+  public static void main(final String[] args) throws IOException, InterruptedException {
+    int synthesizeFrames = 0;
+    boolean realTime = false;
+    int interval = 1;
+    int maxHeartbeatFrames = 1;
+    float latencyMs = 0;
+    float targetLatencyMs = 0;
+    float throttleAfterSec = Float.POSITIVE_INFINITY;
+    float missRate = 0.1f;
+    int numSmallObjects = 0;
+    String tiles = null;
+    float tileBudgetMs = 150;
+    int roiFullFrameInterval = 0;
+    String csvPath = null;
+    boolean verbose = false;
+    String sequencePath = null;
+    for (int i = 0; i < args.length; ++i) {
+      switch (args[i]) {
+        case "--synthesize":
+          synthesizeFrames = Integer.parseInt(args[++i]);
+          break;
+        case "--realtime":
+          realTime = true;
+          break;
+        case "--interval":
+          interval = Integer.parseInt(args[++i]);
+          break;
+        case "--scene-gate":
+          maxHeartbeatFrames = Integer.parseInt(args[++i]);
+          break;
+        case "--latency-ms":
+          latencyMs = Float.parseFloat(args[++i]);
+          break;
+        case "--autotune":
+          targetLatencyMs = Float.parseFloat(args[++i]);
+          break;
+        case "--throttle-after":
+          throttleAfterSec = Float.parseFloat(args[++i]);
+          break;
+        case "--miss-rate":
+          missRate = Float.parseFloat(args[++i]);
+          break;
+        case "--small-objects":
+          numSmallObjects = Integer.parseInt(args[++i]);
+          break;
+        case "--tiles":
+          tiles = args[++i];
+          break;
+        case "--tile-budget":
+          tileBudgetMs = Float.parseFloat(args[++i]);
+          break;
+        case "--roi":
+          roiFullFrameInterval = Integer.parseInt(args[++i]);
+          break;
+        case "--csv":
+          csvPath = args[++i];
+          break;
+        case "--verbose":
+          verbose = true;
+          break;
+        default:
+          sequencePath = args[i];
+      }
+    }
+    final TileLayout.Mode[] tileModes = getTileModes(tiles);
+    if (sequencePath == null || (tiles != null && tileModes == null)) {
+      System.err.println(
+          "usage: replay [--synthesize FRAMES] [--realtime] [--interval N] [--scene-gate N]"
+              + " [--latency-ms MS] [--autotune TARGET_MS] [--throttle-after SEC]"
+              + " [--miss-rate P] [--small-objects N] [--tiles full|center|grid|auto]"
+              + " [--tile-budget MS] [--roi N] [--csv FILE] [--verbose] SEQUENCE");
+      System.exit(2);
+    }
+
+    final File sequenceFile = new File(sequencePath);
+    final float durationSec =
+        (synthesizeFrames > 0 ? synthesizeFrames : 300) / (float) SYNTHETIC_FPS;
+    final SyntheticScene scene =
+        new SyntheticScene(NUM_OBJECTS, numSmallObjects, NUM_CLASSES, durationSec, SEED);
+    if (synthesizeFrames > 0) {
+      synthesize(scene, sequenceFile, synthesizeFrames);
+    }
+
+    final FakeDetector detector =
+        new FakeDetector(
+            scene,
+            INPUT_SIZE,
+            NUM_CLASSES,
+            MAX_DETECTIONS,
+            latencyMs,
+            throttleAfterSec,
+            missRate,
+            SEED);
+    PresenceVoter.Listener listener = null;
+    if (verbose) {
+      listener =
+          new PresenceVoter.Listener() {
+            @Override
+            public void onEnter(final int classId, final int count) {
+              System.out.println("enter class " + classId + " x" + count);
+            }
+
+            @Override
+            public void onLeave(final int classId) {
+              System.out.println("leave class " + classId);
+            }
+          };
+    }
+
+    try (YuvSequence sequence = new YuvSequence(sequenceFile)) {
+      System.out.printf(
+          "Replaying %d frames of %dx%d, rotation %d%s%n",
+          sequence.getNumFrames(),
+          sequence.getWidth(),
+          sequence.getHeight(),
+          sequence.getRotation(),
+          realTime ? " in real time" : "");
+      final ReplayPipeline pipeline =
+          new ReplayPipeline(
+              sequence, detector, interval, maxHeartbeatFrames, realTime, listener);
+      if (targetLatencyMs > 0) {
+        final InterpreterTuner tuner =
+            new InterpreterTuner(
+                detector,
+                MAX_THREADS,
+                true,
+                targetLatencyMs,
+                new InterpreterTuner.Listener() {
+                  @Override
+                  public void onTuned(final InterpreterTuner.Config config, final long p90Us) {
+                    System.out.printf(
+                        "Tuned to %s at frame %d, p90 %.1fms%n",
+                        config, pipeline.getNumFrames(), p90Us / 1000.0);
+                  }
+                });
+        tuner.start(null);
+        pipeline.setInterpreterTuner(tuner);
+      }
+      if (roiFullFrameInterval > 0) {
+        pipeline.setRegionOfInterest(ROI, roiFullFrameInterval);
+      } else if (tileModes != null) {
+        pipeline.setTiling(tileModes, tileBudgetMs);
+      }
+      pipeline.run();
+      System.out.println(pipeline.getStatString());
+
+      if (csvPath != null) {
+        try (Writer writer = new BufferedWriter(new FileWriter(csvPath))) {
+          writer.write("stage,latency_us,count\n");
+          pipeline.writeStats(writer);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the tile layouts to choose from for the --tiles option, all of them for "auto", or
+   * null if there is no such layout.
+   */
+  private static TileLayout.Mode[] getTileModes(final String tiles) {
+    if (tiles == null) {
+      return null;
+    }
+    switch (tiles) {
+      case "full":
+        return new TileLayout.Mode[] {TileLayout.Mode.FULL_FRAME};
+      case "center":
+        return new TileLayout.Mode[] {TileLayout.Mode.CENTER};
+      case "grid":
+        return new TileLayout.Mode[] {TileLayout.Mode.GRID};
+      case "auto":
+        return TileLayout.TILING_MODES;
+      default:
+        return null;
+    }
+  }
+
+  /** Renders the scene as an NV21 sequence over a static textured background. */
+  private static void synthesize(
+      final SyntheticScene scene, final File file, final int numFrames) throws IOException {
+    final int width = SYNTHETIC_WIDTH;
+    final int height = SYNTHETIC_HEIGHT;
+    final int frameSize = width * height;
+    final float[] cropToFrame =
+        ImageUtils.invertTransformation(
+            ImageUtils.getTransformationValues(
+                width, height, INPUT_SIZE, INPUT_SIZE, SYNTHETIC_ROTATION, false));
+
+    final byte[] background = new byte[frameSize * 3 / 2];
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        background[y * width + x] = (byte) (48 + (hash(x / 2, y / 2) & 63));
+      }
+    }
+    for (int i = frameSize; i < background.length; ++i) {
+      background[i] = (byte) 128;
+    }
+
+    final byte[] frame = new byte[background.length];
+    final float[] box = new float[4];
+    try (YuvSequenceWriter writer =
+        YuvSequenceWriter.forNv21(file, width, height, SYNTHETIC_ROTATION)) {
+      for (int f = 0; f < numFrames; ++f) {
+        System.arraycopy(background, 0, frame, 0, frame.length);
+        final float timeSec = f / (float) SYNTHETIC_FPS;
+        for (int i = 0; i < scene.getNumObjects(); ++i) {
+          if (!scene.isVisible(i, timeSec)) {
+            continue;
+          }
+          scene.getBox(i, timeSec, box, 0);
+          float left = Float.MAX_VALUE;
+          float top = Float.MAX_VALUE;
+          float right = -Float.MAX_VALUE;
+          float bottom = -Float.MAX_VALUE;
+          for (int corner = 0; corner < 4; ++corner) {
+            final float cx = box[(corner & 1) * 2] * INPUT_SIZE;
+            final float cy = box[1 + (corner >> 1) * 2] * INPUT_SIZE;
+            final float fx = cropToFrame[0] * cx + cropToFrame[1] * cy + cropToFrame[2];
+            final float fy = cropToFrame[3] * cx + cropToFrame[4] * cy + cropToFrame[5];
+            left = Math.min(left, fx);
+            top = Math.min(top, fy);
+            right = Math.max(right, fx);
+            bottom = Math.max(bottom, fy);
+          }
+          drawObject(
+              frame,
+              width,
+              height,
+              scene.getClass(i),
+              (int) left,
+              (int) top,
+              (int) right,
+              (int) bottom);
+        }
+        writer.writeNv21Frame(f * 1000000000L / SYNTHETIC_FPS, frame);
+      }
+    }
+    System.out.printf("Wrote %d frames to %s%n", numFrames, file);
+  }
+
+  /** Fills a box with a texture that moves with it and a color that identifies its class. */
+  private static void drawObject(
+      final byte[] nv21,
+      final int width,
+      final int height,
+      final int classId,
+      final int left,
+      final int top,
+      final int right,
+      final int bottom) {
+    final int frameSize = width * height;
+    final byte u = (byte) (32 + (classId * 37) % 192);
+    final byte v = (byte) (32 + (classId * 91) % 192);
+    for (int y = Math.max(0, top); y < Math.min(height, bottom); ++y) {
+      for (int x = Math.max(0, left); x < Math.min(width, right); ++x) {
+        nv21[y * width + x] = (byte) (128 + (hash((x - left) / 3, (y - top) / 3) & 127));
+        if ((x & 1) == 0 && (y & 1) == 0) {
+          final int uv = frameSize + (y >> 1) * width + x;
+          nv21[uv] = v;
+          nv21[uv + 1] = u;
+        }
+      }
+    }
+  }
+
+  private static int hash(final int x, final int y) {
+    int h = x * 73856093 ^ y * 19349663;
+    h ^= h >>> 13;
+    h *= 0x5bd1e995;
+    return h ^ (h >>> 15);
+  }
+}
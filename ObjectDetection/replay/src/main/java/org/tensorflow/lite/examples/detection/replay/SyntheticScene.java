@@ -0,0 +1,113 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.replay;
+
+import java.util.Random;
+
+/**
+ * A scripted scene of textured boxes that move across the view, come and go, for generating test
+ * sequences and for the fake detector to report on.
+ *
+ * <p>Boxes are given in normalized coordinates of the upright model input, so the scene is the
+ * same whatever the frame size and sensor rotation it is rendered at.
+ */
+class SyntheticScene {
+  private static final float MIN_SIZE = 0.15f;
+  private static final float MAX_SIZE = 0.35f;
+  // Small objects, such as distant signs, that are hard to make out in the full frame.
+  private static final float MIN_SMALL_SIZE = 0.02f;
+  private static final float MAX_SMALL_SIZE = 0.06f;
+  private static final float MAX_SPEED = 0.15f;
+
+  private final int numObjects;
+  private final int[] classes;
+  // Center and size at time zero, and velocity in units per second.
+  private final float[] centers;
+  private final float[] sizes;
+  private final float[] velocities;
+  // Time span in seconds during which each object is in view.
+  private final float[] enterSec;
+  private final float[] leaveSec;
+
+  /**
+   * @param numObjects Number of objects to script.
+   * @param numSmallObjects Number of small objects to script in addition. They come after the
+   *     others, which are the same whatever their number.
+   * @param numClasses Classes to draw the objects from.
+   * @param durationSec Length of the scene; every object is in view for part of it.
+   * @param seed Seed for the script, so that a scene can be reproduced.
+   */
+  SyntheticScene(
+      final int numObjects,
+      final int numSmallObjects,
+      final int numClasses,
+      final float durationSec,
+      final long seed) {
+    this.numObjects = numObjects + numSmallObjects;
+    classes = new int[this.numObjects];
+    centers = new float[this.numObjects * 2];
+    sizes = new float[this.numObjects * 2];
+    velocities = new float[this.numObjects * 2];
+    enterSec = new float[this.numObjects];
+    leaveSec = new float[this.numObjects];
+
+    final Random random = new Random(seed);
+    for (int i = 0; i < this.numObjects; ++i) {
+      final boolean small = i >= numObjects;
+      final float minSize = small ? MIN_SMALL_SIZE : MIN_SIZE;
+      final float maxSize = small ? MAX_SMALL_SIZE : MAX_SIZE;
+      classes[i] = random.nextInt(numClasses);
+      for (int axis = 0; axis < 2; ++axis) {
+        sizes[i * 2 + axis] = minSize + random.nextFloat() * (maxSize - minSize);
+        centers[i * 2 + axis] = 0.25f + random.nextFloat() * 0.5f;
+        velocities[i * 2 + axis] = (random.nextFloat() * 2 - 1) * MAX_SPEED;
+      }
+      enterSec[i] = random.nextFloat() * durationSec * 0.5f;
+      leaveSec[i] = enterSec[i] + (0.25f + random.nextFloat() * 0.5f) * durationSec;
+    }
+  }
+
+  int getNumObjects() {
+    return numObjects;
+  }
+
+  int getClass(final int i) {
+    return classes[i];
+  }
+
+  boolean isVisible(final int i, final float timeSec) {
+    return timeSec >= enterSec[i] && timeSec < leaveSec[i];
+  }
+
+  /**
+   * Writes left, top, right, bottom of an object at the given time to out, bouncing it off the
+   * edges of the view.
+   */
+  void getBox(final int i, final float timeSec, final float[] out, final int offset) {
+    for (int axis = 0; axis < 2; ++axis) {
+      final float half = sizes[i * 2 + axis] * 0.5f;
+      final float range = 1.0f - 2 * half;
+      // Reflect the unbounded position into [half, 1 - half].
+      float position = centers[i * 2 + axis] - half + velocities[i * 2 + axis] * timeSec;
+      position = Math.abs(position) % (2 * range);
+      if (position > range) {
+        position = 2 * range - position;
+      }
+      out[offset + axis] = position;
+      out[offset + axis + 2] = position + 2 * half;
+    }
+  }
+}
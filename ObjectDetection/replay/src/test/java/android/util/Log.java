@@ -0,0 +1,92 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package android.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stands in for the framework's Log in the unit tests, where its native methods are missing, and
+ * keeps the lines written so that tests can check them. Every level is loggable.
+ */
+public final class Log {
+  public static final int VERBOSE = 2;
+  public static final int DEBUG = 3;
+  public static final int INFO = 4;
+  public static final int WARN = 5;
+  public static final int ERROR = 6;
+  public static final int ASSERT = 7;
+
+  private static final List<String> messages = new ArrayList<String>();
+
+  private Log() {}
+
+  /** Returns the messages logged since the last call, without their tags, and forgets them. */
+  public static synchronized List<String> takeMessages() {
+    final List<String> taken = new ArrayList<String>(messages);
+    messages.clear();
+    return taken;
+  }
+
+  public static boolean isLoggable(final String tag, final int level) {
+    return true;
+  }
+
+  public static synchronized int println(final int priority, final String tag, final String msg) {
+    messages.add(msg);
+    return msg.length();
+  }
+
+  public static int v(final String tag, final String msg) {
+    return println(VERBOSE, tag, msg);
+  }
+
+  public static int v(final String tag, final String msg, final Throwable tr) {
+    return println(VERBOSE, tag, msg);
+  }
+
+  public static int d(final String tag, final String msg) {
+    return println(DEBUG, tag, msg);
+  }
+
+  public static int d(final String tag, final String msg, final Throwable tr) {
+    return println(DEBUG, tag, msg);
+  }
+
+  public static int i(final String tag, final String msg) {
+    return println(INFO, tag, msg);
+  }
+
+  public static int i(final String tag, final String msg, final Throwable tr) {
+    return println(INFO, tag, msg);
+  }
+
+  public static int w(final String tag, final String msg) {
+    return println(WARN, tag, msg);
+  }
+
+  public static int w(final String tag, final String msg, final Throwable tr) {
+    return println(WARN, tag, msg);
+  }
+
+  public static int e(final String tag, final String msg) {
+    return println(ERROR, tag, msg);
+  }
+
+  public static int e(final String tag, final String msg, final Throwable tr) {
+    return println(ERROR, tag, msg);
+  }
+}
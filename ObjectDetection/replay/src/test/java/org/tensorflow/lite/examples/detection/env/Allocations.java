@@ -0,0 +1,54 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.detection.env;
+
+import java.lang.management.ManagementFactory;
+
+/** Counts the bytes the current thread allocates, for checking that a hot path allocates none. */
+public final class Allocations {
+  private static final com.sun.management.ThreadMXBean THREADS =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  private Allocations() {}
+
+  // Measured rounds after the warm-up. Compiling the task can allocate once in a while, e.g. on
+  // an on-stack replacement, but a path that really allocates does so in every round.
+  private static final int ROUNDS = 5;
+
+  /**
+   * Runs a task the given number of times to warm it up, then measures rounds of as many runs
+   * again, and returns the fewest bytes allocated by a round, less what reading the counter itself
+   * allocates.
+   */
+  public static long measure(final Runnable task, final int runs) {
+    for (int i = 0; i < runs; ++i) {
+      task.run();
+    }
+    final long threadId = Thread.currentThread().getId();
+    final long overheadStart = THREADS.getThreadAllocatedBytes(threadId);
+    final long overhead = THREADS.getThreadAllocatedBytes(threadId) - overheadStart;
+
+    long fewestBytes = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; ++round) {
+      final long start = THREADS.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < runs; ++i) {
+        task.run();
+      }
+      fewestBytes =
+          Math.min(fewestBytes, THREADS.getThreadAllocatedBytes(threadId) - start - overhead);
+    }
+    return fewestBytes;
+  }
+}
@@ -0,0 +1,189 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks the YUV to ARGB conversions, serial and in stripes, from arrays and from buffers and with
+ * and without lookup tables, against YUV2RGB() applied pixel by pixel, on random frames including
+ * odd sizes. The table-driven pixel itself is checked against YUV2RGB() for every input.
+ */
+public class ImageUtilsTest {
+  // Width and height of each frame; odd sizes leave half a chroma block at the edges.
+  private static final int[][] SIZES = {
+    {1, 1}, {2, 2}, {3, 5}, {7, 2}, {33, 17}, {64, 48}, {321, 239}
+  };
+  private static final int[] STRIPES = {1, 2, 4, 8};
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(7);
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+    ImageUtils.setUseLookupTables(false);
+  }
+
+  /** Camera-style planes, with padded rows and U and V samples two bytes apart. */
+  private static final class PlanarFrame {
+    final int width;
+    final int height;
+    final int yRowStride;
+    final int uvRowStride;
+    final int uvPixelStride = 2;
+    final byte[] y;
+    final byte[] u;
+    final byte[] v;
+
+    PlanarFrame(final int width, final int height, final Random random) {
+      this.width = width;
+      this.height = height;
+      yRowStride = width + 3;
+      uvRowStride = (width + 1) / 2 * uvPixelStride + 5;
+      y = randomBytes(yRowStride * height, random);
+      u = randomBytes(uvRowStride * ((height + 1) / 2), random);
+      v = randomBytes(uvRowStride * ((height + 1) / 2), random);
+    }
+
+    int[] expected() {
+      final int[] pixels = new int[width * height];
+      for (int j = 0; j < height; ++j) {
+        for (int i = 0; i < width; ++i) {
+          final int uv = (j / 2) * uvRowStride + (i / 2) * uvPixelStride;
+          pixels[j * width + i] =
+              ImageUtils.YUV2RGB(0xff & y[j * yRowStride + i], 0xff & u[uv], 0xff & v[uv]);
+        }
+      }
+      return pixels;
+    }
+  }
+
+  private static byte[] randomBytes(final int length, final Random random) {
+    final byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  /** Returns a direct copy of the bytes, like the planes of a camera Image. */
+  private static ByteBuffer direct(final byte[] bytes) {
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+    buffer.put(bytes);
+    buffer.rewind();
+    return buffer;
+  }
+
+  /** Returns an NV21 frame: the luminance plane, then rows of interleaved V and U samples. */
+  private static byte[] nv21(final int width, final int height, final Random random) {
+    // Odd widths still store a V and U pair for the last column, so leave room past the end.
+    return randomBytes(width * height + ((height + 1) / 2) * width + 1, random);
+  }
+
+  private static int[] nv21Expected(final byte[] input, final int width, final int height) {
+    final int[] pixels = new int[width * height];
+    final int frameSize = width * height;
+    for (int j = 0; j < height; ++j) {
+      for (int i = 0; i < width; ++i) {
+        final int uv = frameSize + (j / 2) * width + (i / 2) * 2;
+        pixels[j * width + i] =
+            ImageUtils.YUV2RGB(0xff & input[j * width + i], 0xff & input[uv + 1], 0xff & input[uv]);
+      }
+    }
+    return pixels;
+  }
+
+  /** Runs every full-size conversion on random frames of every size. */
+  private void checkConversions() {
+    final Random random = new Random(0);
+    for (final int[] size : SIZES) {
+      final int width = size[0];
+      final int height = size[1];
+      final String name = width + "x" + height;
+
+      final PlanarFrame frame = new PlanarFrame(width, height, random);
+      final int[] expected = frame.expected();
+      final int[] out = new int[width * height];
+      ImageUtils.convertYUV420ToARGB8888(
+          frame.y, frame.u, frame.v, width, height, frame.yRowStride, frame.uvRowStride,
+          frame.uvPixelStride, out);
+      assertArrayEquals(name + " serial", expected, out);
+      ImageUtils.convertYUV420ToARGB8888(
+          direct(frame.y), direct(frame.u), direct(frame.v), width, height, frame.yRowStride,
+          frame.uvRowStride, frame.uvPixelStride, out);
+      assertArrayEquals(name + " buffer", expected, out);
+
+      final byte[] input = nv21(width, height, random);
+      final int[] nv21Expected = nv21Expected(input, width, height);
+      final int[] nv21Out = new int[width * height];
+      ImageUtils.convertYUV420SPToARGB8888(input, width, height, nv21Out);
+      assertArrayEquals(name + " nv21", nv21Expected, nv21Out);
+
+      for (final int stripes : STRIPES) {
+        final String stripeName = name + " in " + stripes + " stripes";
+        final int[] striped = new int[width * height];
+        ImageUtils.convertYUV420ToARGB8888(
+            frame.y, frame.u, frame.v, width, height, frame.yRowStride, frame.uvRowStride,
+            frame.uvPixelStride, striped, executor, stripes);
+        assertArrayEquals(stripeName, expected, striped);
+
+        final int[] stripedBuffer = new int[width * height];
+        ImageUtils.convertYUV420ToARGB8888(
+            ByteBuffer.wrap(frame.y), direct(frame.u), direct(frame.v), width, height,
+            frame.yRowStride, frame.uvRowStride, frame.uvPixelStride, stripedBuffer, executor,
+            stripes);
+        assertArrayEquals(stripeName + " buffer", expected, stripedBuffer);
+
+        final int[] stripedNv21 = new int[width * height];
+        ImageUtils.convertYUV420SPToARGB8888(
+            input, width, height, stripedNv21, executor, stripes);
+        assertArrayEquals(stripeName + " nv21", nv21Expected, stripedNv21);
+      }
+    }
+  }
+
+  @Test
+  public void conversionsMatchScalar() {
+    checkConversions();
+  }
+
+  @Test
+  public void conversionsWithTablesMatchScalar() {
+    ImageUtils.setUseLookupTables(true);
+    checkConversions();
+  }
+
+  @Test
+  public void tableMatchesArithmeticForEveryInput() {
+    for (int y = 0; y < 256; ++y) {
+      for (int u = 0; u < 256; ++u) {
+        for (int v = 0; v < 256; ++v) {
+          final int expected = ImageUtils.YUV2RGB(y, u, v);
+          final int actual = ImageUtils.YUV2RGBTable(y, u, v);
+          if (actual != expected) {
+            assertEquals("y " + y + " u " + u + " v " + v, expected, actual);
+          }
+        }
+      }
+    }
+  }
+}
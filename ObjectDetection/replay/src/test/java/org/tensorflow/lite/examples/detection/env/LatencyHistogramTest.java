@@ -0,0 +1,124 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks the percentiles against the exact ones of the sorted latencies, which they may exceed
+ * by at most a sixteenth, and that concurrent recording loses nothing.
+ */
+public class LatencyHistogramTest {
+  private static final int NUM_LATENCIES = 20000;
+  private static final double[] PERCENTILES = {0, 1, 10, 25, 50, 75, 90, 99, 99.9, 100};
+
+  @Test
+  public void percentilesWithinBucketWidth() {
+    final Random random = new Random(0);
+    final LatencyHistogram histogram = new LatencyHistogram("test");
+    final long[] latencies = new long[NUM_LATENCIES];
+    for (int i = 0; i < NUM_LATENCIES; ++i) {
+      // Spread evenly over the magnitudes from a microsecond to about an hour.
+      latencies[i] = (long) Math.pow(2, random.nextDouble() * 32);
+      histogram.recordUs(latencies[i]);
+    }
+    Arrays.sort(latencies);
+
+    assertEquals(NUM_LATENCIES, histogram.getCount());
+    assertEquals(latencies[NUM_LATENCIES - 1], histogram.getMaxUs());
+    for (final double percentile : PERCENTILES) {
+      final int rank = Math.max(1, (int) Math.ceil(NUM_LATENCIES * percentile / 100.0));
+      final long exact = latencies[rank - 1];
+      final long estimate = histogram.getPercentileUs(percentile);
+      final String message = "p" + percentile + " of exact " + exact + " was " + estimate;
+      assertTrue(message, estimate >= exact);
+      assertTrue(message, estimate <= exact + exact / 16);
+    }
+  }
+
+  @Test
+  public void smallLatenciesAreExact() {
+    final LatencyHistogram histogram = new LatencyHistogram("test");
+    for (int i = 0; i < 16; ++i) {
+      histogram.recordUs(i);
+    }
+    for (int i = 1; i <= 16; ++i) {
+      assertEquals(i - 1, histogram.getPercentileUs(i * 100.0 / 16));
+    }
+  }
+
+  @Test
+  public void clampsOutOfRange() {
+    final LatencyHistogram histogram = new LatencyHistogram("test");
+    assertEquals(0, histogram.getPercentileUs(50));
+    histogram.recordUs(-5);
+    assertEquals(0, histogram.getPercentileUs(100));
+    // Latencies of over an hour share the last bucket and are reported as its upper end.
+    histogram.recordUs(1L << 40);
+    assertEquals(1L << 40, histogram.getMaxUs());
+    assertEquals((1L << 32) - 1, histogram.getPercentileUs(100));
+    histogram.recordNs(1999);
+    assertEquals(3, histogram.getCount());
+
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getMaxUs());
+    assertEquals(0, histogram.getPercentileUs(100));
+  }
+
+  @Test
+  public void recordsConcurrently() throws InterruptedException, IOException {
+    final LatencyHistogram histogram = new LatencyHistogram("test");
+    final int numThreads = 4;
+    final int perThread = 10000;
+    final Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; ++t) {
+      final int seed = t;
+      threads[t] =
+          new Thread() {
+            @Override
+            public void run() {
+              final Random random = new Random(seed);
+              for (int i = 0; i < perThread; ++i) {
+                histogram.recordUs(random.nextInt(100000));
+              }
+            }
+          };
+      threads[t].start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(numThreads * perThread, histogram.getCount());
+
+    final StringWriter csv = new StringWriter();
+    histogram.writeCsv(csv);
+    long total = 0;
+    for (final String line : csv.toString().split("\n")) {
+      final String[] fields = line.split(",");
+      assertEquals("test", fields[0]);
+      total += Long.parseLong(fields[2]);
+    }
+    assertEquals(numThreads * perThread, total);
+  }
+}
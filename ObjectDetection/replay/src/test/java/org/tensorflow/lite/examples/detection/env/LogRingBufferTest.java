@@ -0,0 +1,143 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks what the ring writes to the log, read back from the test's stand-in for the platform
+ * log: the formatted events in order, the events it had to drop, and events from several threads.
+ */
+public class LogRingBufferTest {
+  // What the flusher writes for each event, behind the logger's prefix.
+  private static final Pattern EVENT = Pattern.compile(".*?: (.*) \\(\\d+ ms ago\\)");
+
+  @Before
+  public void setUp() {
+    Log.takeMessages();
+  }
+
+  @Test
+  public void formatsEventsInOrder() {
+    final LogRingBuffer ring = new LogRingBuffer(16);
+    final int none = ring.register(Log.INFO, "Started");
+    final int one = ring.register(Log.WARN, "Frame %d late");
+    final int three = ring.register(Log.DEBUG, "Box %dx%d of class %d");
+    ring.log(none);
+    ring.log(one, 7);
+    ring.log(three, 12, 34, -1);
+
+    // Events below the minimum level are dropped when logged.
+    ring.setMinLogLevel(Log.INFO);
+    ring.log(three, 1, 2, 3);
+    ring.log(one, 8);
+    flush(ring);
+
+    final List<String> expected = new ArrayList<String>();
+    expected.add("Started");
+    expected.add("Frame 7 late");
+    expected.add("Box 12x34 of class -1");
+    expected.add("Frame 8 late");
+    assertEquals(expected, takeEvents());
+  }
+
+  @Test
+  public void countsOverwrittenEvents() {
+    final LogRingBuffer ring = new LogRingBuffer(4);
+    final int message = ring.register(Log.INFO, "Event %d");
+    for (int i = 0; i < 10; ++i) {
+      ring.log(message, i);
+    }
+    flush(ring);
+
+    final List<String> lines = Log.takeMessages();
+    assertEquals(5, lines.size());
+    for (int i = 0; i < 4; ++i) {
+      assertEquals("Event " + (6 + i), parseEvent(lines.get(i)));
+    }
+    assertTrue(lines.get(4), lines.get(4).endsWith("Lost 6 events"));
+  }
+
+  @Test
+  public void keepsEventsOfConcurrentWriters() throws InterruptedException {
+    final int numThreads = 4;
+    final int perThread = 1024;
+    final LogRingBuffer ring = new LogRingBuffer(numThreads * perThread);
+    final int message = ring.register(Log.INFO, "Thread %d event %d");
+    final Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; ++t) {
+      final int thread = t;
+      threads[t] =
+          new Thread() {
+            @Override
+            public void run() {
+              for (int i = 0; i < perThread; ++i) {
+                ring.log(message, thread, i);
+              }
+            }
+          };
+      threads[t].start();
+    }
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+    flush(ring);
+
+    final Set<String> events = new HashSet<String>(takeEvents());
+    assertEquals(numThreads * perThread, events.size());
+    for (int t = 0; t < numThreads; ++t) {
+      for (int i = 0; i < perThread; ++i) {
+        assertTrue(events.contains("Thread " + t + " event " + i));
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsCapacityNotPowerOfTwo() {
+    new LogRingBuffer(12);
+  }
+
+  // Stopping the background thread writes out everything logged so far.
+  private static void flush(final LogRingBuffer ring) {
+    ring.start();
+    ring.stop();
+  }
+
+  private static List<String> takeEvents() {
+    final List<String> events = new ArrayList<String>();
+    for (final String line : Log.takeMessages()) {
+      events.add(parseEvent(line));
+    }
+    return events;
+  }
+
+  private static String parseEvent(final String line) {
+    final Matcher matcher = EVENT.matcher(line);
+    assertTrue(line, matcher.matches());
+    return matcher.group(1);
+  }
+}
@@ -0,0 +1,157 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.Test;
+import org.tensorflow.lite.examples.detection.tracking.PresenceVoter;
+
+/**
+ * Replays a scripted scene with and without a region of interest, and checks that detecting the
+ * periphery only on every few frames still announces every class that detecting the full frame
+ * throughout does.
+ */
+public class RegionOfInterestTest {
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+  private static final int FPS = 30;
+  private static final int NUM_FRAMES = 600;
+  private static final int INPUT_SIZE = 300;
+  private static final int NUM_CLASSES = 90;
+  private static final int MAX_DETECTIONS = 10;
+  private static final float MISS_RATE = 0.1f;
+  private static final long SEED = 42;
+  // The region of interest of DetectorActivity.
+  private static final float[] ROI = {0.2f, 0.3f, 0.8f, 0.75f};
+
+  @Test
+  public void peripheralObjectsAreAnnounced() throws InterruptedException {
+    final Set<Integer> expected = replay(0);
+    assertFalse(expected.isEmpty());
+    for (final int fullFrameInterval : new int[] {2, 3, 4}) {
+      assertEquals("--roi " + fullFrameInterval, expected, replay(fullFrameInterval));
+    }
+  }
+
+  /** Returns the classes announced over the scene, with a region of interest if interval > 0. */
+  private static Set<Integer> replay(final int fullFrameInterval) throws InterruptedException {
+    final SyntheticScene scene =
+        new SyntheticScene(6, 0, NUM_CLASSES, NUM_FRAMES / (float) FPS, SEED);
+    final FakeDetector detector =
+        new FakeDetector(
+            scene,
+            INPUT_SIZE,
+            NUM_CLASSES,
+            MAX_DETECTIONS,
+            0,
+            Float.POSITIVE_INFINITY,
+            MISS_RATE,
+            SEED);
+    final Set<Integer> announced = new TreeSet<Integer>();
+    final ReplayPipeline pipeline =
+        new ReplayPipeline(
+            new BlankFrames(),
+            detector,
+            1,
+            1,
+            false,
+            new PresenceVoter.Listener() {
+              @Override
+              public void onEnter(final int classId, final int count) {
+                announced.add(classId);
+              }
+
+              @Override
+              public void onLeave(final int classId) {}
+            });
+    if (fullFrameInterval > 0) {
+      pipeline.setRegionOfInterest(ROI, fullFrameInterval);
+    }
+    pipeline.run();
+    return announced;
+  }
+
+  /** Empty frames, as the fake detector reports on the scene rather than the pixels. */
+  private static class BlankFrames implements FrameSource {
+    private final ByteBuffer yPlane = ByteBuffer.allocate(WIDTH * HEIGHT);
+    private final ByteBuffer uPlane = ByteBuffer.allocate(WIDTH * HEIGHT / 2);
+    private final ByteBuffer vPlane = ByteBuffer.allocate(WIDTH * HEIGHT / 2);
+    private int frame = -1;
+
+    @Override
+    public int getWidth() {
+      return WIDTH;
+    }
+
+    @Override
+    public int getHeight() {
+      return HEIGHT;
+    }
+
+    @Override
+    public int getYRowStride() {
+      return WIDTH;
+    }
+
+    @Override
+    public int getUvRowStride() {
+      return WIDTH;
+    }
+
+    @Override
+    public int getUvPixelStride() {
+      return 2;
+    }
+
+    @Override
+    public int getRotation() {
+      return 90;
+    }
+
+    @Override
+    public boolean next() {
+      return ++frame < NUM_FRAMES;
+    }
+
+    @Override
+    public long getTimestampNs() {
+      return frame * 1000000000L / FPS;
+    }
+
+    @Override
+    public ByteBuffer getYPlane() {
+      return yPlane;
+    }
+
+    @Override
+    public ByteBuffer getUPlane() {
+      return uPlane;
+    }
+
+    @Override
+    public ByteBuffer getVPlane() {
+      return vPlane;
+    }
+
+    @Override
+    public void close() {}
+  }
+}
@@ -0,0 +1,238 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.speech;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks which phrases the cache keeps, with an audio back end that writes WAV files right away
+ * and leaves reporting the end of each synthesis and decoding to the test.
+ */
+public class PhraseCacheTest {
+  private static final int BYTE_RATE = 32000;
+  // A tenth of a second of audio.
+  private static final int DATA_BYTES = BYTE_RATE / 10;
+  private static final int FILE_BYTES = 44 + DATA_BYTES;
+
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private FakeAudio audio;
+  private File directory;
+
+  @Before
+  public void setUp() throws IOException {
+    audio = new FakeAudio();
+    directory = folder.newFolder("phrases");
+  }
+
+  @Test
+  public void playsOnceLoaded() {
+    final PhraseCache cache = new PhraseCache(directory, 10 * FILE_BYTES, audio);
+    cache.prefetch("hello");
+    assertEquals(-1, cache.play("hello"));
+
+    final String id = audio.takeSynthesisId();
+    assertTrue(PhraseCache.isSynthesisId(id));
+    assertFalse(PhraseCache.isSynthesisId("0"));
+    cache.onSynthesisDone(id, true);
+    assertEquals(-1, cache.play("hello"));
+
+    cache.onLoaded(audio.lastSoundId, true);
+    assertEquals(100, cache.play("hello"));
+    assertEquals(-1, cache.play("goodbye"));
+
+    // Prefetching a cached phrase does nothing.
+    cache.prefetch("hello");
+    assertEquals(0, audio.syntheses.size());
+
+    cache.stop();
+    assertEquals(1, audio.stopped.size());
+    assertEquals(
+        "phrases=1 (3 KB) hits=1 misses=3 evictions=0 invalidations=0", cache.getStatString());
+  }
+
+  @Test
+  public void evictsLeastRecentlyPlayed() {
+    final PhraseCache cache = new PhraseCache(directory, 3 * FILE_BYTES, audio);
+    final int a = cachePhrase(cache, "a");
+    final int b = cachePhrase(cache, "b");
+    cachePhrase(cache, "c");
+    assertTrue(cache.play("a") >= 0);
+
+    cachePhrase(cache, "d");
+    assertEquals(3, directory.listFiles().length);
+    assertTrue(audio.unloaded.contains(b));
+    assertFalse(audio.unloaded.contains(a));
+    assertEquals(-1, cache.play("b"));
+    assertTrue(cache.play("a") >= 0);
+    assertTrue(cache.play("c") >= 0);
+    assertTrue(cache.play("d") >= 0);
+    assertTrue(cache.getStatString().contains("evictions=1"));
+  }
+
+  @Test
+  public void voiceChangeDropsEverything() {
+    final PhraseCache cache = new PhraseCache(directory, 10 * FILE_BYTES, audio);
+    cache.setVoice("en-US");
+    cachePhrase(cache, "car");
+    cache.setVoice("en-US");
+    assertTrue(cache.play("car") >= 0);
+
+    cache.setVoice("de-DE");
+    assertEquals(-1, cache.play("car"));
+    assertEquals(0, directory.listFiles().length);
+    assertEquals(1, audio.unloaded.size());
+    assertTrue(cache.getStatString().contains("invalidations=1"));
+  }
+
+  @Test
+  public void forgetsFailedPhrases() throws IOException {
+    final PhraseCache cache = new PhraseCache(directory, 10 * FILE_BYTES, audio);
+
+    // The engine refused the synthesis: nothing is cached and the next prefetch tries again.
+    audio.refuse = true;
+    cache.prefetch("one");
+    assertEquals(0, audio.syntheses.size());
+    audio.refuse = false;
+    cache.prefetch("one");
+    cache.onSynthesisDone(audio.takeSynthesisId(), false);
+    assertEquals(0, directory.listFiles().length);
+
+    // A file with no audio after the header.
+    cache.prefetch("one");
+    final String id = audio.takeSynthesisId();
+    writeWav(audio.files.get(id), 0);
+    cache.onSynthesisDone(id, true);
+    assertEquals(0, audio.loaded.size());
+
+    // A file that could not be decoded.
+    cachePhrase(cache, "two");
+    cache.prefetch("three");
+    cache.onSynthesisDone(audio.takeSynthesisId(), true);
+    cache.onLoaded(audio.lastSoundId, false);
+    assertEquals(-1, cache.play("three"));
+    assertTrue(cache.play("two") >= 0);
+    assertEquals(1, directory.listFiles().length);
+  }
+
+  @Test
+  public void cancelledSynthesesAreForgotten() {
+    final PhraseCache cache = new PhraseCache(directory, 10 * FILE_BYTES, audio);
+    cache.prefetch("stop");
+    final String id = audio.takeSynthesisId();
+    cache.cancelSyntheses();
+    cache.onSynthesisDone(id, true);
+    assertEquals(0, audio.loaded.size());
+
+    cache.prefetch("stop");
+    assertEquals(1, audio.syntheses.size());
+  }
+
+  @Test
+  public void deletesLeftoverFiles() throws IOException {
+    writeWav(new File(directory, "phrase-0.wav"), DATA_BYTES);
+    new PhraseCache(directory, 10 * FILE_BYTES, audio);
+    assertEquals(0, directory.listFiles().length);
+  }
+
+  /** Synthesizes and loads a phrase, returning its sound id. */
+  private int cachePhrase(final PhraseCache cache, final String text) {
+    cache.prefetch(text);
+    cache.onSynthesisDone(audio.takeSynthesisId(), true);
+    cache.onLoaded(audio.lastSoundId, true);
+    return audio.lastSoundId;
+  }
+
+  private static void writeWav(final File file, final int dataBytes) throws IOException {
+    final byte[] bytes = new byte[44 + dataBytes];
+    // The byte rate, little endian.
+    bytes[28] = (byte) BYTE_RATE;
+    bytes[29] = (byte) (BYTE_RATE >> 8);
+    bytes[30] = (byte) (BYTE_RATE >> 16);
+    bytes[31] = (byte) (BYTE_RATE >> 24);
+    try (OutputStream output = new FileOutputStream(file)) {
+      output.write(bytes);
+    }
+  }
+
+  private static class FakeAudio implements PhraseCache.Audio {
+    final List<String> syntheses = new ArrayList<String>();
+    final Map<String, File> files = new HashMap<String, File>();
+    final Set<Integer> loaded = new HashSet<Integer>();
+    final Set<Integer> unloaded = new HashSet<Integer>();
+    final List<Integer> stopped = new ArrayList<Integer>();
+    boolean refuse;
+    int lastSoundId;
+    int lastStreamId;
+
+    String takeSynthesisId() {
+      return syntheses.remove(0);
+    }
+
+    @Override
+    public boolean synthesize(final String text, final File file, final String utteranceId) {
+      if (refuse) {
+        return false;
+      }
+      try {
+        writeWav(file, DATA_BYTES);
+      } catch (final IOException e) {
+        throw new AssertionError(e);
+      }
+      syntheses.add(utteranceId);
+      files.put(utteranceId, file);
+      return true;
+    }
+
+    @Override
+    public int load(final File file) {
+      loaded.add(++lastSoundId);
+      return lastSoundId;
+    }
+
+    @Override
+    public void unload(final int soundId) {
+      unloaded.add(soundId);
+    }
+
+    @Override
+    public int play(final int soundId) {
+      return ++lastStreamId;
+    }
+
+    @Override
+    public void stop(final int streamId) {
+      stopped.add(streamId);
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.speech;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.tensorflow.lite.examples.detection.speech.UtteranceQueue.Priority;
+import org.tensorflow.lite.examples.detection.speech.UtteranceQueue.Utterance;
+
+/** Checks the order, merging, rate limit, deadlines and overflow of the utterance queue. */
+public class UtteranceQueueTest {
+  private static final long REPEAT_MS = 1000;
+  private static final long MAX_AGE_MS = 5000;
+
+  @Test
+  public void speaksMostUrgentThenOldest() {
+    final UtteranceQueue queue = new UtteranceQueue(8, REPEAT_MS);
+    queue.offer("tree", "tree", Priority.SCENERY, 0, MAX_AGE_MS);
+    queue.offer("bench", "bench", Priority.SCENERY, 1, MAX_AGE_MS);
+    queue.offer("done", "done", Priority.FEEDBACK, 2, MAX_AGE_MS);
+    queue.offer("car", "car", Priority.HAZARD, 3, MAX_AGE_MS);
+    queue.offer("bike", "bike", Priority.HAZARD, 4, MAX_AGE_MS);
+
+    assertEquals("car", queue.poll(10).getText());
+    assertEquals("bike", queue.poll(10).getText());
+    assertEquals("done", queue.poll(10).getText());
+    assertEquals("tree", queue.poll(10).getText());
+    assertEquals("bench", queue.poll(10).getText());
+    assertNull(queue.poll(10));
+  }
+
+  @Test
+  public void mergesSameKey() {
+    final UtteranceQueue queue = new UtteranceQueue(8, REPEAT_MS);
+    queue.offer("person", "one person", Priority.SCENERY, 0, 100);
+    queue.offer("chair", "chair", Priority.FEEDBACK, 1, MAX_AGE_MS);
+    // The merged utterance takes the newer text, the more urgent priority and the later deadline,
+    // but keeps its place by age.
+    assertTrue(queue.offer("person", "two people", Priority.HAZARD, 50, 500));
+    assertTrue(queue.offer("person", "three people", Priority.SCENERY, 60, 100));
+    assertEquals(2, queue.size());
+
+    final Utterance utterance = queue.poll(400);
+    assertEquals("person", utterance.getKey());
+    assertEquals("three people", utterance.getText());
+    assertEquals(Priority.HAZARD, utterance.getPriority());
+    assertEquals(0, utterance.getEnqueuedAtMs());
+  }
+
+  @Test
+  public void usesTextWithoutKey() {
+    final UtteranceQueue queue = new UtteranceQueue(8, REPEAT_MS);
+    queue.offer(null, "hello", Priority.FEEDBACK, 0, MAX_AGE_MS);
+    queue.offer(null, "hello", Priority.FEEDBACK, 1, MAX_AGE_MS);
+    assertEquals(1, queue.size());
+    assertEquals("hello", queue.poll(2).getKey());
+  }
+
+  @Test
+  public void limitsRepeats() {
+    final UtteranceQueue queue = new UtteranceQueue(8, REPEAT_MS);
+    queue.offer("dog", "dog", Priority.SCENERY, 0, MAX_AGE_MS);
+    queue.poll(100);
+    assertFalse(queue.offer("dog", "dog", Priority.HAZARD, 100 + REPEAT_MS - 1, MAX_AGE_MS));
+    assertEquals(0, queue.size());
+    assertTrue(queue.offer("dog", "dog", Priority.SCENERY, 100 + REPEAT_MS, MAX_AGE_MS));
+
+    // Clearing forgets what was spoken.
+    queue.poll(100 + REPEAT_MS);
+    queue.clear();
+    assertTrue(queue.offer("dog", "dog", Priority.SCENERY, 101 + REPEAT_MS, MAX_AGE_MS));
+  }
+
+  @Test
+  public void dropsExpired() {
+    final UtteranceQueue queue = new UtteranceQueue(8, REPEAT_MS);
+    queue.offer("cup", "cup", Priority.HAZARD, 0, 100);
+    queue.offer("book", "book", Priority.SCENERY, 0, 200);
+    assertEquals("book", queue.poll(101).getText());
+    assertEquals(0, queue.size());
+
+    // Expired utterances were not spoken, so they are not rate limited.
+    assertTrue(queue.offer("cup", "cup", Priority.HAZARD, 102, 100));
+  }
+
+  @Test
+  public void overflowEvictsLeastUrgent() {
+    final UtteranceQueue queue = new UtteranceQueue(3, REPEAT_MS);
+    queue.offer("a", "a", Priority.FEEDBACK, 0, MAX_AGE_MS);
+    queue.offer("b", "b", Priority.SCENERY, 1, MAX_AGE_MS);
+    queue.offer("c", "c", Priority.SCENERY, 2, MAX_AGE_MS);
+
+    // The newest of the least urgent makes room, but not for a less urgent newcomer.
+    assertTrue(queue.offer("d", "d", Priority.HAZARD, 3, MAX_AGE_MS));
+    assertTrue(queue.offer("e", "e", Priority.SCENERY, 4, MAX_AGE_MS));
+    assertEquals(3, queue.size());
+    assertTrue(queue.offer("f", "f", Priority.FEEDBACK, 5, MAX_AGE_MS));
+    assertFalse(queue.offer("g", "g", Priority.SCENERY, 6, MAX_AGE_MS));
+
+    assertEquals("d", queue.poll(10).getText());
+    assertEquals("a", queue.poll(10).getText());
+    assertEquals("f", queue.poll(10).getText());
+    assertNull(queue.poll(10));
+  }
+
+  @Test
+  public void idsAreUnique() {
+    final UtteranceQueue queue = new UtteranceQueue(8, REPEAT_MS);
+    queue.offer("x", "x", Priority.SCENERY, 0, MAX_AGE_MS);
+    queue.offer("y", "y", Priority.SCENERY, 0, MAX_AGE_MS);
+    assertFalse(queue.poll(1).getId().equals(queue.poll(1).getId()));
+  }
+}
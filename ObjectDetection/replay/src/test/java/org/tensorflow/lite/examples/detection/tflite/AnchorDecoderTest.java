@@ -0,0 +1,185 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks the anchors of SSD MobileNet and EfficientDet, and the decoded candidates against a
+ * straightforward decode that takes the sigmoid of every score.
+ */
+public class AnchorDecoderTest {
+  private static final int SSD_INPUT_SIZE = 300;
+  private static final int SSD_ANCHORS = 1917;
+  // 90 COCO classes after the background column.
+  private static final int SSD_COLUMNS = 91;
+  private static final int NUM_CASES = 5;
+
+  private static ModelSpec ssdSpec() {
+    final Properties properties = new Properties();
+    properties.setProperty("input.size", Integer.toString(SSD_INPUT_SIZE));
+    properties.setProperty("decoder", AnchorDecoder.NAME);
+    properties.setProperty("labels.offset", "1");
+    return new ModelSpec(properties);
+  }
+
+  private static ModelOutput[] ssdOutputs(final ModelOutput.Type scoreType) {
+    return new ModelOutput[] {
+      new ModelOutput(new int[] {1, SSD_ANCHORS, 4}, ModelOutput.Type.FLOAT32, 0, 0),
+      new ModelOutput(new int[] {1, SSD_ANCHORS, SSD_COLUMNS}, scoreType, 0.1f, 128)
+    };
+  }
+
+  @Test
+  public void ssdAnchorsMatchMobileNet() {
+    final float[] anchors = AnchorGenerator.generate(ssdSpec());
+    assertEquals(SSD_ANCHORS * 4, anchors.length);
+    // The lowest layer is a 19x19 grid with a small square anchor first in each cell.
+    assertArrayEquals(
+        new float[] {0.5f / 19, 0.5f / 19, 0.1f, 0.1f}, slice(anchors, 0, 4), 1e-6f);
+    // The last anchor is the interpolated one of the single cell of the top layer.
+    assertArrayEquals(
+        new float[] {0.5f, 0.5f, (float) Math.sqrt(0.95f), (float) Math.sqrt(0.95f)},
+        slice(anchors, anchors.length - 4, 4),
+        1e-6f);
+
+    final OutputDecoder decoder =
+        DecoderRegistry.create(ssdSpec(), ssdOutputs(ModelOutput.Type.FLOAT32));
+    assertEquals(SSD_ANCHORS, decoder.getMaxCandidates());
+  }
+
+  @Test
+  public void efficientDetAnchorsMatchLite0() {
+    final Properties properties = new Properties();
+    properties.setProperty("input.size", "320");
+    properties.setProperty("anchors.generator", "multilevel");
+    assertEquals(19206 * 4, AnchorGenerator.generate(new ModelSpec(properties)).length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void anchorCountMustMatchOutputs() {
+    final ModelOutput[] outputs = {
+      new ModelOutput(new int[] {1, 1000, 4}, ModelOutput.Type.FLOAT32, 0, 0),
+      new ModelOutput(new int[] {1, 1000, SSD_COLUMNS}, ModelOutput.Type.FLOAT32, 0, 0)
+    };
+    DecoderRegistry.create(ssdSpec(), outputs);
+  }
+
+  @Test
+  public void matchesStraightforwardDecode() {
+    final Random random = new Random(0);
+    final ModelSpec spec = ssdSpec();
+    final float[] anchors = AnchorGenerator.generate(spec);
+    final ModelOutput[] outputs = ssdOutputs(ModelOutput.Type.FLOAT32);
+    final OutputDecoder decoder = DecoderRegistry.create(spec, outputs);
+    final float[] boxes = new float[SSD_ANCHORS * 4];
+    final int[] classes = new int[SSD_ANCHORS];
+    final float[] scores = new float[SSD_ANCHORS];
+
+    for (int n = 0; n < NUM_CASES; ++n) {
+      for (int i = 0; i < SSD_ANCHORS * 4; ++i) {
+        outputs[0].getBuffer().putFloat(i * 4, (float) random.nextGaussian() * 2);
+      }
+      for (int i = 0; i < SSD_ANCHORS * SSD_COLUMNS; ++i) {
+        // Mostly unlikely, with the background column as likely as the others.
+        outputs[1].getBuffer().putFloat(i * 4, (float) random.nextGaussian() * 2 - 5);
+      }
+      final float minScore = 0.2f + 0.1f * n;
+      final int numCandidates = decoder.decode(minScore, boxes, classes, scores);
+
+      int expected = 0;
+      for (int i = 0; i < SSD_ANCHORS; ++i) {
+        int bestColumn = 1;
+        double bestScore = 0;
+        for (int c = 1; c < SSD_COLUMNS; ++c) {
+          final double score = 1 / (1 + Math.exp(-outputs[1].get(i * SSD_COLUMNS + c)));
+          if (score > bestScore) {
+            bestScore = score;
+            bestColumn = c;
+          }
+        }
+        if (bestScore < minScore) {
+          continue;
+        }
+        final String name = "case " + n + " anchor " + i;
+        final int a = i * 4;
+        final double yCenter = outputs[0].get(a) / 10 * anchors[a + 2] + anchors[a];
+        final double xCenter = outputs[0].get(a + 1) / 10 * anchors[a + 3] + anchors[a + 1];
+        final double height = Math.exp(outputs[0].get(a + 2) / 5) * anchors[a + 2];
+        final double width = Math.exp(outputs[0].get(a + 3) / 5) * anchors[a + 3];
+        final float[] expectedBox = {
+          (float) ((xCenter - width / 2) * SSD_INPUT_SIZE),
+          (float) ((yCenter - height / 2) * SSD_INPUT_SIZE),
+          (float) ((xCenter + width / 2) * SSD_INPUT_SIZE),
+          (float) ((yCenter + height / 2) * SSD_INPUT_SIZE)
+        };
+        assertArrayEquals(name, expectedBox, slice(boxes, expected * 4, 4), 1e-3f);
+        // The background column is skipped, and labels.offset moves the class past it again.
+        assertEquals(name, bestColumn, classes[expected]);
+        assertEquals(name, bestScore, scores[expected], 1e-6);
+        ++expected;
+      }
+      assertEquals("case " + n, expected, numCandidates);
+    }
+  }
+
+  @Test
+  public void quantizedScoresDecodeLikeFloats() {
+    final Random random = new Random(0);
+    final ModelSpec spec = ssdSpec();
+    final ModelOutput[] floatOutputs = ssdOutputs(ModelOutput.Type.FLOAT32);
+    final ModelOutput[] quantizedOutputs = ssdOutputs(ModelOutput.Type.UINT8);
+    quantizedOutputs[0] = floatOutputs[0];
+    for (int i = 0; i < SSD_ANCHORS * 4; ++i) {
+      floatOutputs[0].getBuffer().putFloat(i * 4, (float) random.nextGaussian());
+    }
+    for (int i = 0; i < SSD_ANCHORS * SSD_COLUMNS; ++i) {
+      // Bytes on both sides of the sign bit, which argMax() has to order as unsigned.
+      quantizedOutputs[1].getBuffer().put(i, (byte) (60 + random.nextInt(140)));
+      floatOutputs[1].getBuffer().putFloat(i * 4, quantizedOutputs[1].get(i));
+    }
+
+    final float[] floatBoxes = new float[SSD_ANCHORS * 4];
+    final int[] floatClasses = new int[SSD_ANCHORS];
+    final float[] floatScores = new float[SSD_ANCHORS];
+    final int numFloat =
+        DecoderRegistry.create(spec, floatOutputs)
+            .decode(0.8f, floatBoxes, floatClasses, floatScores);
+    final float[] quantizedBoxes = new float[SSD_ANCHORS * 4];
+    final int[] quantizedClasses = new int[SSD_ANCHORS];
+    final float[] quantizedScores = new float[SSD_ANCHORS];
+    final int numQuantized =
+        DecoderRegistry.create(spec, quantizedOutputs)
+            .decode(0.8f, quantizedBoxes, quantizedClasses, quantizedScores);
+
+    assertTrue(numFloat > 0);
+    assertEquals(numFloat, numQuantized);
+    assertArrayEquals(floatBoxes, quantizedBoxes, 0.0f);
+    assertArrayEquals(floatClasses, quantizedClasses);
+    assertArrayEquals(floatScores, quantizedScores, 0.0f);
+  }
+
+  private static float[] slice(final float[] values, final int start, final int length) {
+    final float[] result = new float[length];
+    System.arraycopy(values, start, result, 0, length);
+    return result;
+  }
+}
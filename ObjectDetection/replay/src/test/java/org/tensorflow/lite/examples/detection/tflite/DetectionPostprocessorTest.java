@@ -0,0 +1,164 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks the heap-based top-K and suppression against a brute-force reference that sorts the
+ * candidates by selection and compares every pair, over random frames with crowded boxes, tied
+ * scores and degenerate boxes.
+ */
+public class DetectionPostprocessorTest {
+  private static final int MAX_CANDIDATES = 40;
+  private static final int NUM_CLASSES = 3;
+  private static final int NUM_CASES = 2000;
+
+  @Test
+  public void matchesBruteForce() {
+    final Random random = new Random(0);
+    final float[] boxes = new float[MAX_CANDIDATES * 4];
+    final int[] classes = new int[MAX_CANDIDATES];
+    final float[] scores = new float[MAX_CANDIDATES];
+
+    for (int n = 0; n < NUM_CASES; ++n) {
+      final int numCandidates = random.nextInt(MAX_CANDIDATES + 1);
+      final int maxResults = 1 + random.nextInt(12);
+      final float scoreThreshold = random.nextInt(5) / 10.0f;
+      final float classIou = 0.2f + random.nextInt(7) / 10.0f;
+      // Also cover suppression within classes only.
+      final float crossClassIou = random.nextInt(4) == 0 ? 1.5f : 0.3f + random.nextInt(7) / 10.0f;
+      for (int i = 0; i < numCandidates; ++i) {
+        // A few centers, so that boxes overlap often.
+        final float x = random.nextInt(4) * 20 + random.nextFloat() * 10;
+        final float y = random.nextInt(4) * 20 + random.nextFloat() * 10;
+        final float width = random.nextInt(10) == 0 ? 0 : 5 + random.nextFloat() * 20;
+        boxes[i * 4] = x;
+        boxes[i * 4 + 1] = y;
+        boxes[i * 4 + 2] = x + width;
+        boxes[i * 4 + 3] = y + 5 + random.nextFloat() * 20;
+        classes[i] = random.nextInt(NUM_CLASSES);
+        scores[i] = random.nextInt(20) / 20.0f;
+      }
+
+      final DetectionPostprocessor postprocessor =
+          new DetectionPostprocessor(
+              MAX_CANDIDATES, maxResults, scoreThreshold, classIou, crossClassIou);
+      final float[] outBoxes = new float[maxResults * 4];
+      final int[] outClasses = new int[maxResults];
+      final float[] outScores = new float[maxResults];
+      final int numKept =
+          postprocessor.process(
+              numCandidates, boxes, classes, scores, outBoxes, outClasses, outScores);
+
+      final int[] expected =
+          selectBruteForce(
+              numCandidates,
+              boxes,
+              classes,
+              scores,
+              maxResults,
+              scoreThreshold,
+              classIou,
+              crossClassIou);
+      final String message = "case " + n;
+      assertEquals(message, expected.length, numKept);
+      for (int k = 0; k < numKept; ++k) {
+        final int i = expected[k];
+        assertArrayEquals(
+            message,
+            Arrays.copyOfRange(boxes, i * 4, i * 4 + 4),
+            Arrays.copyOfRange(outBoxes, k * 4, k * 4 + 4),
+            0.0f);
+        assertEquals(message, classes[i], outClasses[k]);
+        assertEquals(message, scores[i], outScores[k], 0.0f);
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsTooManyCandidates() {
+    final DetectionPostprocessor postprocessor = new DetectionPostprocessor(1, 1, 0, 0.5f, 0.5f);
+    postprocessor.process(
+        2, new float[8], new int[2], new float[2], new float[4], new int[1], new float[1]);
+  }
+
+  /** Returns the indices of the candidates kept, best first. */
+  private static int[] selectBruteForce(
+      final int numCandidates,
+      final float[] boxes,
+      final int[] classes,
+      final float[] scores,
+      final int maxResults,
+      final float scoreThreshold,
+      final float classIou,
+      final float crossClassIou) {
+    final boolean[] taken = new boolean[numCandidates];
+    final int[] kept = new int[maxResults];
+    int numKept = 0;
+    while (numKept < maxResults) {
+      int best = -1;
+      for (int i = 0; i < numCandidates; ++i) {
+        if (!taken[i]
+            && scores[i] >= scoreThreshold
+            && (best < 0 || scores[i] > scores[best])) {
+          best = i;
+        }
+      }
+      if (best < 0) {
+        break;
+      }
+      taken[best] = true;
+
+      boolean suppressed = false;
+      for (int k = 0; k < numKept && !suppressed; ++k) {
+        final int other = kept[k];
+        final float threshold =
+            classes[other] == classes[best] ? Math.min(classIou, crossClassIou) : crossClassIou;
+        suppressed = threshold <= 1 && overlaps(boxes, best, other, threshold);
+      }
+      if (!suppressed) {
+        kept[numKept++] = best;
+      }
+    }
+    return Arrays.copyOf(kept, numKept);
+  }
+
+  private static boolean overlaps(
+      final float[] boxes, final int a, final int b, final float threshold) {
+    final float intersection =
+        getArea(
+            Math.max(boxes[a * 4], boxes[b * 4]),
+            Math.max(boxes[a * 4 + 1], boxes[b * 4 + 1]),
+            Math.min(boxes[a * 4 + 2], boxes[b * 4 + 2]),
+            Math.min(boxes[a * 4 + 3], boxes[b * 4 + 3]));
+    final float union =
+        getArea(boxes[a * 4], boxes[a * 4 + 1], boxes[a * 4 + 2], boxes[a * 4 + 3])
+            + getArea(boxes[b * 4], boxes[b * 4 + 1], boxes[b * 4 + 2], boxes[b * 4 + 3])
+            - intersection;
+    return union > 0 && intersection > threshold * union;
+  }
+
+  private static float getArea(
+      final float left, final float top, final float right, final float bottom) {
+    return Math.max(0, right - left) * Math.max(0, bottom - top);
+  }
+}
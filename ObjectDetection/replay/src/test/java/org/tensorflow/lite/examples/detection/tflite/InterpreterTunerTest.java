@@ -0,0 +1,239 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Drives the tuner with a stand-in interpreter whose latency depends only on its configuration,
+ * and checks which configurations it sweeps, which one it picks, and when it tunes again.
+ */
+public class InterpreterTunerTest {
+  // Runs a sweep gives each candidate, warm-up included.
+  private static final int CANDIDATE_RUNS = 25;
+  // Runs per monitoring window, and drifted windows in a row that start another sweep.
+  private static final int MONITOR_RUNS = 50;
+  private static final int DRIFT_WINDOWS = 2;
+
+  /** An interpreter with a fixed latency per thread count on the CPU, and one on NNAPI. */
+  private static final class FakeInterpreter implements InterpreterTuner.Target {
+    private final float[] cpuLatencyMs;
+    private final float nnapiLatencyMs;
+    // Every configuration applied, in order.
+    final List<String> applied = new ArrayList<>();
+    float slowdown = 1.0f;
+    private int numThreads = 1;
+    private boolean useNNAPI;
+
+    /**
+     * @param cpuLatencyMs Latency with 1, 2, ... threads on the CPU.
+     * @param nnapiLatencyMs Latency on NNAPI, whatever the thread count.
+     */
+    FakeInterpreter(final float[] cpuLatencyMs, final float nnapiLatencyMs) {
+      this.cpuLatencyMs = cpuLatencyMs;
+      this.nnapiLatencyMs = nnapiLatencyMs;
+    }
+
+    @Override
+    public void setNumThreads(final int numThreads) {
+      this.numThreads = numThreads;
+    }
+
+    @Override
+    public void setUseNNAPI(final boolean useNNAPI) {
+      this.useNNAPI = useNNAPI;
+      // The tuner sets the delegate last.
+      applied.add(new InterpreterTuner.Config(numThreads, useNNAPI).toString());
+    }
+
+    long runUs() {
+      final float latencyMs = useNNAPI ? nnapiLatencyMs : cpuLatencyMs[numThreads - 1];
+      return (long) (latencyMs * slowdown * 1000);
+    }
+  }
+
+  /** Remembers the configurations the tuner reports. */
+  private static final class RecordingListener implements InterpreterTuner.Listener {
+    final List<String> tuned = new ArrayList<>();
+    long lastP90Us;
+
+    @Override
+    public void onTuned(final InterpreterTuner.Config config, final long p90Us) {
+      tuned.add(config.toString());
+      lastP90Us = p90Us;
+    }
+  }
+
+  private static void run(
+      final InterpreterTuner tuner, final FakeInterpreter interpreter, final int runs) {
+    for (int i = 0; i < runs; ++i) {
+      tuner.recordRun(interpreter.runUs());
+    }
+  }
+
+  /** Runs a whole sweep of the given number of candidates and returns the tuned configuration. */
+  private static String sweep(
+      final InterpreterTuner tuner, final FakeInterpreter interpreter, final int candidates) {
+    run(tuner, interpreter, candidates * CANDIDATE_RUNS - 1);
+    assertTrue(tuner.isTuning());
+    run(tuner, interpreter, 1);
+    assertFalse(tuner.isTuning());
+    return tuner.getConfig().toString();
+  }
+
+  @Test
+  public void addingThreadsStopsWhenItNoLongerHelps() {
+    final FakeInterpreter interpreter =
+        new FakeInterpreter(new float[] {80, 45, 40, 48, 20, 10, 5, 3}, 0);
+    final RecordingListener listener = new RecordingListener();
+    final InterpreterTuner tuner = new InterpreterTuner(interpreter, 8, false, 30, listener);
+    tuner.start(null);
+    assertEquals(1, tuner.getNumSweeps());
+
+    // Nothing meets the target, so the fastest thread count tried is picked.
+    assertEquals("cpu:3", sweep(tuner, interpreter, 4));
+    assertEquals(
+        Arrays.asList("cpu:1", "cpu:2", "cpu:3", "cpu:4", "cpu:3"), interpreter.applied);
+    assertEquals(Arrays.asList("cpu:3"), listener.tuned);
+    // The reported latency is the upper end of its histogram bucket.
+    assertTrue(listener.lastP90Us >= 40000 && listener.lastP90Us < 40000 * 17 / 16);
+  }
+
+  @Test
+  public void cheapestCpuConfigurationThatMeetsTargetIsPicked() {
+    final FakeInterpreter interpreter = new FakeInterpreter(new float[] {80, 45, 28, 20}, 0);
+    final InterpreterTuner tuner = new InterpreterTuner(interpreter, 4, false, 30, null);
+    tuner.start(null);
+    // Every thread helps, so all are tried, but three are enough.
+    assertEquals("cpu:3", sweep(tuner, interpreter, 4));
+  }
+
+  @Test
+  public void nnapiIsPickedWhenItMeetsTarget() {
+    // NNAPI runs with the fastest CPU thread count, and counts as free even if the CPU is faster.
+    final FakeInterpreter interpreter = new FakeInterpreter(new float[] {80, 45, 28, 20}, 30);
+    final InterpreterTuner tuner = new InterpreterTuner(interpreter, 4, true, 35, null);
+    tuner.start(null);
+    assertEquals("nnapi:4", sweep(tuner, interpreter, 5));
+    assertEquals("nnapi:4", interpreter.applied.get(4));
+  }
+
+  @Test
+  public void cpuIsPickedWhenOnlyItMeetsTarget() {
+    final FakeInterpreter interpreter = new FakeInterpreter(new float[] {80, 45, 28, 20}, 50);
+    final InterpreterTuner tuner = new InterpreterTuner(interpreter, 4, true, 35, null);
+    tuner.start(null);
+    assertEquals("cpu:3", sweep(tuner, interpreter, 5));
+  }
+
+  @Test
+  public void fastestIsPickedWhenNothingMeetsTarget() {
+    FakeInterpreter interpreter = new FakeInterpreter(new float[] {80, 45, 28, 20}, 15);
+    InterpreterTuner tuner = new InterpreterTuner(interpreter, 4, true, 10, null);
+    tuner.start(null);
+    assertEquals("nnapi:4", sweep(tuner, interpreter, 5));
+
+    interpreter = new FakeInterpreter(new float[] {80, 45, 28, 20}, 25);
+    tuner = new InterpreterTuner(interpreter, 4, true, 10, null);
+    tuner.start(null);
+    assertEquals("cpu:4", sweep(tuner, interpreter, 5));
+  }
+
+  @Test
+  public void driftStartsAnotherSweep() {
+    final FakeInterpreter interpreter = new FakeInterpreter(new float[] {80, 45, 28, 20}, 0);
+    final RecordingListener listener = new RecordingListener();
+    final InterpreterTuner tuner = new InterpreterTuner(interpreter, 4, false, 50, listener);
+    tuner.start(null);
+    assertEquals("cpu:2", sweep(tuner, interpreter, 4));
+
+    // A single slow window is a hiccup.
+    interpreter.slowdown = 2;
+    run(tuner, interpreter, MONITOR_RUNS);
+    interpreter.slowdown = 1;
+    run(tuner, interpreter, MONITOR_RUNS);
+    assertFalse(tuner.isTuning());
+
+    // Throttling that lasts tunes again, and more threads are needed to meet the target.
+    interpreter.slowdown = 2;
+    run(tuner, interpreter, DRIFT_WINDOWS * MONITOR_RUNS - 1);
+    assertFalse(tuner.isTuning());
+    run(tuner, interpreter, 1);
+    assertTrue(tuner.isTuning());
+    assertEquals(2, tuner.getNumSweeps());
+    assertEquals("cpu:4", sweep(tuner, interpreter, 4));
+
+    // So does cooling down again.
+    interpreter.slowdown = 1;
+    run(tuner, interpreter, DRIFT_WINDOWS * MONITOR_RUNS);
+    assertTrue(tuner.isTuning());
+    assertEquals("cpu:2", sweep(tuner, interpreter, 4));
+    assertEquals(Arrays.asList("cpu:2", "cpu:4", "cpu:2"), listener.tuned);
+  }
+
+  @Test
+  public void rememberedConfigurationSkipsTheSweep() {
+    final FakeInterpreter interpreter = new FakeInterpreter(new float[] {80, 45, 28, 20}, 30);
+    final InterpreterTuner tuner = new InterpreterTuner(interpreter, 4, true, 50, null);
+    tuner.start(InterpreterTuner.Config.parse("nnapi:2"));
+    assertFalse(tuner.isTuning());
+    assertEquals(0, tuner.getNumSweeps());
+    assertEquals(Arrays.asList("nnapi:2"), interpreter.applied);
+
+    // The first window times it, and drift from there tunes again.
+    run(tuner, interpreter, MONITOR_RUNS);
+    interpreter.slowdown = 2;
+    run(tuner, interpreter, DRIFT_WINDOWS * MONITOR_RUNS);
+    assertTrue(tuner.isTuning());
+    assertEquals(1, tuner.getNumSweeps());
+  }
+
+  @Test
+  public void invalidRememberedConfigurationIsSwept() {
+    final float[] cpuLatencyMs = {80, 45, 28, 20};
+    FakeInterpreter interpreter = new FakeInterpreter(cpuLatencyMs, 30);
+    InterpreterTuner tuner = new InterpreterTuner(interpreter, 4, true, 50, null);
+    tuner.start(new InterpreterTuner.Config(8, false));
+    assertTrue(tuner.isTuning());
+    assertEquals("cpu:1", tuner.getConfig().toString());
+
+    // NNAPI is no longer available.
+    interpreter = new FakeInterpreter(cpuLatencyMs, 30);
+    tuner = new InterpreterTuner(interpreter, 4, false, 50, null);
+    tuner.start(new InterpreterTuner.Config(2, true));
+    assertTrue(tuner.isTuning());
+    assertEquals(Arrays.asList("cpu:1"), interpreter.applied);
+  }
+
+  @Test
+  public void configRoundTripsAndRejectsMalformedValues() {
+    for (final String value : new String[] {"cpu:1", "cpu:4", "nnapi:2"}) {
+      assertEquals(value, InterpreterTuner.Config.parse(value).toString());
+    }
+    for (final String value :
+        new String[] {null, "", "cpu", "cpu:", "cpu:0", "cpu:-1", "gpu:2", "nnapi:x", ":2"}) {
+      assertNull(value, InterpreterTuner.Config.parse(value));
+    }
+  }
+}
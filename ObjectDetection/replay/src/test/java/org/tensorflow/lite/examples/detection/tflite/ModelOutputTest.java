@@ -0,0 +1,104 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks that argMax() over raw float, uint8 and int8 elements picks the same element as a scan of
+ * the dequantized values, including bytes on both sides of the sign bit.
+ */
+public class ModelOutputTest {
+  private static final int NUM_ELEMENTS = 64;
+  private static final int NUM_CASES = 2000;
+
+  /** Returns the first of the largest dequantized elements, the way argMax() breaks ties. */
+  private static int argMaxBruteForce(
+      final ModelOutput output, final int start, final int count, final int stride) {
+    int best = start;
+    for (int i = 1; i < count; ++i) {
+      final int index = start + i * stride;
+      if (output.get(index) > output.get(best)) {
+        best = index;
+      }
+    }
+    return best;
+  }
+
+  private static void checkRandom(final ModelOutput.Type type, final float scale, final int zero) {
+    final Random random = new Random(0);
+    final ModelOutput output = new ModelOutput(new int[] {1, NUM_ELEMENTS}, type, scale, zero);
+    for (int n = 0; n < NUM_CASES; ++n) {
+      for (int i = 0; i < NUM_ELEMENTS; ++i) {
+        if (type == ModelOutput.Type.FLOAT32) {
+          output.getBuffer().putFloat(i * 4, random.nextInt(40) - 20.0f);
+        } else {
+          // Few distinct values, so that ties are common.
+          output.getBuffer().put(i, (byte) (random.nextInt(16) * 17));
+        }
+      }
+      final int stride = 1 + random.nextInt(4);
+      final int count = 1 + random.nextInt(NUM_ELEMENTS / stride);
+      final int start = random.nextInt(NUM_ELEMENTS - (count - 1) * stride);
+      assertEquals(
+          type + " case " + n,
+          argMaxBruteForce(output, start, count, stride),
+          output.argMax(start, count, stride));
+    }
+  }
+
+  @Test
+  public void floatMatchesBruteForce() {
+    checkRandom(ModelOutput.Type.FLOAT32, 0, 0);
+  }
+
+  @Test
+  public void uint8MatchesBruteForce() {
+    checkRandom(ModelOutput.Type.UINT8, 1 / 255.0f, 0);
+  }
+
+  @Test
+  public void int8MatchesBruteForce() {
+    checkRandom(ModelOutput.Type.INT8, 1 / 256.0f, -128);
+  }
+
+  @Test
+  public void uint8AboveSignBitIsLarger() {
+    final ModelOutput output = new ModelOutput(new int[] {4}, ModelOutput.Type.UINT8, 0.5f, 10);
+    // 200 is negative as a signed byte, and must still beat 100.
+    final int[] values = {100, 127, 200, 128};
+    for (int i = 0; i < values.length; ++i) {
+      output.getBuffer().put(i, (byte) values[i]);
+    }
+    assertEquals(2, output.argMax(0, 4, 1));
+    assertEquals(95.0f, output.get(2), 0.0f);
+    assertEquals(3, output.argMax(1, 2, 2));
+  }
+
+  @Test
+  public void int8BelowZeroIsSmaller() {
+    final ModelOutput output = new ModelOutput(new int[] {4}, ModelOutput.Type.INT8, 0.5f, -128);
+    final int[] values = {-100, -1, 50, -128};
+    for (int i = 0; i < values.length; ++i) {
+      output.getBuffer().put(i, (byte) values[i]);
+    }
+    assertEquals(2, output.argMax(0, 4, 1));
+    assertEquals(89.0f, output.get(2), 0.0f);
+    assertEquals(1, output.argMax(1, 2, 2));
+  }
+}
@@ -0,0 +1,207 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.RectF;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+import org.tensorflow.lite.examples.detection.env.Allocations;
+import org.tensorflow.lite.examples.detection.env.YuvInputSampler;
+import org.tensorflow.lite.examples.detection.tflite.Classifier.Recognition;
+
+/**
+ * Checks that the detector's steady-state path around the interpreter, from the camera frame to
+ * the model input and from the output buffers to the recycled Recognitions, allocates nothing. The
+ * interpreter needs its native library, so its outputs are stood in for by buffers filled like
+ * those of the prepackaged SSD MobileNet.
+ */
+public class RecycledResultsTest {
+  private static final int INPUT_SIZE = 300;
+  private static final int NUM_CLASSES = 91;
+  private static final int NUM_OUTPUTS = 10;
+  private static final int MAX_RESULTS = 10;
+  private static final int RUNS = 1000;
+  private static final int FRAME_WIDTH = 640;
+  private static final int FRAME_HEIGHT = 480;
+  // Least size of a fresh Recognition and of its RectF, each a header and four fields of at least
+  // four bytes.
+  private static final int MIN_RECOGNITION_BYTES = 2 * (8 + 4 * 4);
+
+  private ModelOutput[] outputs;
+  private List<String> labels;
+  private DetectionDecoder decoder;
+  private DetectionBatch batch;
+
+  @Before
+  public void setUp() {
+    final Random random = new Random(0);
+    final ModelOutput boxes =
+        new ModelOutput(new int[] {1, NUM_OUTPUTS, 4}, ModelOutput.Type.FLOAT32, 0.0f, 0);
+    final ModelOutput classes =
+        new ModelOutput(new int[] {1, NUM_OUTPUTS}, ModelOutput.Type.FLOAT32, 0.0f, 0);
+    final ModelOutput scores =
+        new ModelOutput(new int[] {1, NUM_OUTPUTS}, ModelOutput.Type.FLOAT32, 0.0f, 0);
+    final ModelOutput count = new ModelOutput(new int[] {1}, ModelOutput.Type.FLOAT32, 0.0f, 0);
+    for (int i = 0; i < NUM_OUTPUTS; ++i) {
+      // Boxes as ymin, xmin, ymax, xmax relative to the input.
+      final float y = random.nextFloat() * 0.8f;
+      final float x = random.nextFloat() * 0.8f;
+      boxes.getBuffer().putFloat(i * 16, y);
+      boxes.getBuffer().putFloat(i * 16 + 4, x);
+      boxes.getBuffer().putFloat(i * 16 + 8, y + 0.2f);
+      boxes.getBuffer().putFloat(i * 16 + 12, x + 0.2f);
+      classes.getBuffer().putFloat(i * 4, random.nextInt(NUM_CLASSES - 1));
+      scores.getBuffer().putFloat(i * 4, random.nextFloat());
+    }
+    count.getBuffer().putFloat(0, NUM_OUTPUTS);
+    outputs = new ModelOutput[] {boxes, classes, scores, count};
+
+    labels = new ArrayList<String>();
+    for (int i = 0; i < NUM_CLASSES; ++i) {
+      labels.add("class" + i);
+    }
+    decoder =
+        new DetectionDecoder(
+            ModelSpec.forSsdPostprocessed(INPUT_SIZE, true), outputs, MAX_RESULTS, 0.6f, 0.8f);
+    batch = new DetectionBatch(MAX_RESULTS);
+  }
+
+  @Test
+  public void decodingAllocatesNothing() {
+    decoder.decode(batch);
+    assertTrue(batch.getCount() > 0);
+
+    final long bytes =
+        Allocations.measure(
+            new Runnable() {
+              @Override
+              public void run() {
+                decoder.decode(batch);
+              }
+            },
+            RUNS);
+    assertEquals(0, bytes);
+  }
+
+  @Test
+  public void recycledRecognitionsAllocateNothing() {
+    final RecognitionAdapter adapter = new RecognitionAdapter(labels, MAX_RESULTS, true);
+    final List<Recognition> first = adapter.wrap(batch);
+
+    final long bytes =
+        Allocations.measure(
+            new Runnable() {
+              @Override
+              public void run() {
+                decoder.decode(batch);
+                adapter.wrap(batch);
+              }
+            },
+            RUNS);
+    assertEquals(0, bytes);
+    assertSame(first, adapter.wrap(batch));
+  }
+
+  @Test
+  public void recognizeImageAllocatesNothing() {
+    // What recognizeImage() does with an NV21 frame, but for running the interpreter.
+    final byte[] frame = new byte[FRAME_WIDTH * FRAME_HEIGHT * 3 / 2];
+    new Random(0).nextBytes(frame);
+    final float scaleX = FRAME_WIDTH / (float) INPUT_SIZE;
+    final float scaleY = FRAME_HEIGHT / (float) INPUT_SIZE;
+    final YuvInputSampler sampler =
+        YuvInputSampler.forNv21(
+            FRAME_WIDTH,
+            FRAME_HEIGHT,
+            INPUT_SIZE,
+            INPUT_SIZE,
+            new float[] {scaleX, 0, 0, 0, scaleY, 0, 0, 0, 1});
+    final ByteBuffer input = ByteBuffer.allocateDirect(INPUT_SIZE * INPUT_SIZE * 3);
+    final RecognitionAdapter adapter = new RecognitionAdapter(labels, MAX_RESULTS, true);
+
+    final long bytes =
+        Allocations.measure(
+            new Runnable() {
+              @Override
+              public void run() {
+                input.rewind();
+                sampler.sampleQuantized(frame, frame, frame, input);
+                for (final ModelOutput output : outputs) {
+                  output.getBuffer().rewind();
+                }
+                decoder.decode(batch);
+                adapter.wrap(batch);
+              }
+            },
+            RUNS);
+    assertEquals(0, bytes);
+    assertTrue(batch.getCount() > 0);
+  }
+
+  @Test
+  public void freshRecognitionsAreCounted() {
+    // Makes sure the measurement sees allocations at all.
+    final RecognitionAdapter adapter = new RecognitionAdapter(labels, MAX_RESULTS, false);
+    decoder.decode(batch);
+
+    final long bytes =
+        Allocations.measure(
+            new Runnable() {
+              @Override
+              public void run() {
+                adapter.wrap(batch);
+              }
+            },
+            RUNS);
+    assertTrue(bytes >= (long) RUNS * batch.getCount() * MIN_RECOGNITION_BYTES);
+  }
+
+  @Test
+  public void recognitionsMatchBatch() {
+    decoder.decode(batch);
+    final List<Recognition> results = new RecognitionAdapter(labels, MAX_RESULTS, true).wrap(batch);
+
+    assertEquals(batch.getCount(), results.size());
+    for (int i = 0; i < results.size(); ++i) {
+      final Recognition result = results.get(i);
+      final RectF location = result.getLocation();
+      assertEquals(Integer.toString(i), result.getId());
+      assertEquals(batch.getClasses()[i], result.getClassIndex());
+      assertEquals(labels.get(batch.getClasses()[i]), result.getTitle());
+      assertEquals(batch.getScores()[i], result.getConfidenceValue(), 0.0f);
+      assertEquals(batch.getScores()[i], result.getConfidence(), 0.0f);
+      assertEquals(batch.getBoxes()[i * 4], location.left, 0.0f);
+      assertEquals(batch.getBoxes()[i * 4 + 1], location.top, 0.0f);
+      assertEquals(batch.getBoxes()[i * 4 + 2], location.right, 0.0f);
+      assertEquals(batch.getBoxes()[i * 4 + 3], location.bottom, 0.0f);
+    }
+  }
+
+  @Test
+  public void missingConfidenceReadsAsZero() {
+    final Recognition recognition = new Recognition("0", "class0", null, new RectF());
+    assertNull(recognition.getConfidence());
+    assertEquals(0.0f, recognition.getConfidenceValue(), 0.0f);
+  }
+}
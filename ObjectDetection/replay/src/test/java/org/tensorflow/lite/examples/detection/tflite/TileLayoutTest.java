@@ -0,0 +1,206 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks where the tiles of each layout fall, which of their edges count as inside the crop, and
+ * that boxes map from a tile's model input to the crop consistently with its transformation.
+ */
+public class TileLayoutTest {
+  private static final int CROP_SIZE = 300;
+  private static final int INPUT_SIZE = 300;
+  private static final float OVERLAP = 0.25f;
+
+  /** Returns left, top, right and bottom of a tile in crop coordinates. */
+  private static float[] getTile(final TileLayout layout, final int tile) {
+    final float[] box = {0, 0, INPUT_SIZE, INPUT_SIZE};
+    layout.mapToCrop(tile, box, 0);
+    return box;
+  }
+
+  @Test
+  public void gridIsSpreadEvenlyWithOverlap() {
+    // A portrait frame takes two columns and three rows of 300 pixel tiles.
+    final TileLayout layout =
+        TileLayout.create(TileLayout.Mode.GRID, 480, 640, CROP_SIZE, INPUT_SIZE, OVERLAP);
+    assertEquals(7, layout.getNumTiles());
+    assertTrue(layout.hasFullFrame());
+    assertArrayEquals(new float[] {0, 0, CROP_SIZE, CROP_SIZE}, getTile(layout, 0), 1e-4f);
+
+    final float scaleX = CROP_SIZE / 480.0f;
+    final float scaleY = CROP_SIZE / 640.0f;
+    final float[] lefts = {0, 180};
+    final float[] tops = {0, 170, 340};
+    int tile = 1;
+    for (final float top : tops) {
+      for (final float left : lefts) {
+        assertArrayEquals(
+            "tile " + tile,
+            new float[] {
+              left * scaleX, top * scaleY, (left + 300) * scaleX, (top + 300) * scaleY
+            },
+            getTile(layout, tile),
+            1e-3f);
+        ++tile;
+      }
+    }
+
+    final float[] bounds = new float[4];
+    layout.getBounds(bounds);
+    assertArrayEquals(new float[] {0, 0, CROP_SIZE, CROP_SIZE}, bounds, 1e-4f);
+  }
+
+  @Test
+  public void gridTilesOverlapAndCoverTheFrame() {
+    final Random random = new Random(0);
+    for (int n = 0; n < 500; ++n) {
+      final int width = 100 + random.nextInt(2000);
+      final int height = 100 + random.nextInt(2000);
+      final float overlap = random.nextInt(6) / 10.0f;
+      final TileLayout layout =
+          TileLayout.create(TileLayout.Mode.GRID, width, height, CROP_SIZE, INPUT_SIZE, overlap);
+      final int tileSize = Math.min(INPUT_SIZE, Math.min(width, height));
+      // Tile edges in frame pixels; tiles go row by row, so the first row gives the columns.
+      final float scaleX = width / (float) CROP_SIZE;
+      final float scaleY = height / (float) CROP_SIZE;
+      final String name = width + "x" + height + " overlap " + overlap;
+
+      int columns = 0;
+      while (1 + columns < layout.getNumTiles()
+          && getTile(layout, 1 + columns)[1] == getTile(layout, 1)[1]) {
+        ++columns;
+      }
+      final int rows = (layout.getNumTiles() - 1) / columns;
+      assertEquals(name, 1 + rows * columns, layout.getNumTiles());
+      for (int row = 0; row < rows; ++row) {
+        for (int column = 0; column < columns; ++column) {
+          final float[] tile = getTile(layout, 1 + row * columns + column);
+          assertEquals(name, tileSize, (tile[2] - tile[0]) * scaleX, 0.01f);
+          assertEquals(name, tileSize, (tile[3] - tile[1]) * scaleY, 0.01f);
+          if (column == 0 && columns > 1) {
+            assertEquals(name, 0, tile[0], 1e-3f);
+          }
+          if (column == columns - 1 && columns > 1) {
+            assertEquals(name, CROP_SIZE, tile[2], 1e-3f);
+          }
+          if (column > 0) {
+            final float[] previous = getTile(layout, row * columns + column);
+            assertTrue(name, (previous[2] - tile[0]) * scaleX >= overlap * tileSize - 0.01f);
+          }
+          if (row > 0) {
+            final float[] above = getTile(layout, 1 + (row - 1) * columns + column);
+            assertTrue(name, (above[3] - tile[1]) * scaleY >= overlap * tileSize - 0.01f);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void centerTileIsCentered() {
+    final TileLayout layout =
+        TileLayout.create(TileLayout.Mode.CENTER, 480, 640, CROP_SIZE, INPUT_SIZE, OVERLAP);
+    assertEquals(2, layout.getNumTiles());
+    assertArrayEquals(
+        new float[] {
+          90 * CROP_SIZE / 480.0f,
+          170 * CROP_SIZE / 640.0f,
+          390 * CROP_SIZE / 480.0f,
+          470 * CROP_SIZE / 640.0f
+        },
+        getTile(layout, 1),
+        1e-3f);
+    assertEquals(
+        1,
+        TileLayout.create(TileLayout.Mode.FULL_FRAME, 480, 640, CROP_SIZE, INPUT_SIZE, OVERLAP)
+            .getNumTiles());
+  }
+
+  @Test
+  public void onlyEdgesInsideTheCropCutObjectsOff() {
+    final TileLayout grid =
+        TileLayout.create(TileLayout.Mode.GRID, 480, 640, CROP_SIZE, INPUT_SIZE, OVERLAP);
+    final float margin = 2;
+    final float far = INPUT_SIZE - 1;
+    // The full frame has no inner edges.
+    assertFalse(grid.touchesInnerEdge(0, 0, 0, INPUT_SIZE, INPUT_SIZE, margin));
+    // The top left tile lies on the crop's left and top borders only.
+    assertFalse(grid.touchesInnerEdge(1, 0, 0, 100, 100, margin));
+    assertTrue(grid.touchesInnerEdge(1, 100, 100, far, 200, margin));
+    assertTrue(grid.touchesInnerEdge(1, 100, 100, 200, far, margin));
+    // The middle right tile lies on the right border only.
+    assertFalse(grid.touchesInnerEdge(4, 100, 100, INPUT_SIZE, 200, margin));
+    assertTrue(grid.touchesInnerEdge(4, 1, 100, 200, 200, margin));
+    assertTrue(grid.touchesInnerEdge(4, 100, 1, 200, 200, margin));
+    assertTrue(grid.touchesInnerEdge(4, 100, 100, 200, far, margin));
+    // Boxes clear of the margin are never cut off.
+    for (int tile = 0; tile < grid.getNumTiles(); ++tile) {
+      assertFalse(grid.touchesInnerEdge(tile, 3, 3, INPUT_SIZE - 3, INPUT_SIZE - 3, margin));
+    }
+
+    // A region is cut off wherever it does not reach the crop border.
+    final TileLayout region = TileLayout.createRegion(0, 0.25f, 0.5f, 1, CROP_SIZE, INPUT_SIZE);
+    assertFalse(region.hasFullFrame());
+    assertFalse(region.touchesInnerEdge(0, 0, 100, 100, INPUT_SIZE, margin));
+    assertTrue(region.touchesInnerEdge(0, 100, 1, 200, 200, margin));
+    assertTrue(region.touchesInnerEdge(0, 100, 100, far, 200, margin));
+  }
+
+  @Test
+  public void mapToCropMatchesTransformation() {
+    final Random random = new Random(0);
+    final TileLayout[] layouts = {
+      TileLayout.create(TileLayout.Mode.GRID, 480, 640, CROP_SIZE, INPUT_SIZE, OVERLAP),
+      TileLayout.createRegion(0.1f, 0.3f, 0.6f, 0.7f, CROP_SIZE, INPUT_SIZE)
+    };
+    for (final TileLayout layout : layouts) {
+      for (int tile = 0; tile < layout.getNumTiles(); ++tile) {
+        final float[] matrix = layout.getTileToCrop(tile);
+        for (int n = 0; n < 20; ++n) {
+          final float[] box = new float[6];
+          for (int i = 2; i < 6; ++i) {
+            box[i] = random.nextFloat() * INPUT_SIZE;
+          }
+          final float[] expected = {
+            matrix[0] * box[2] + matrix[1] * box[3] + matrix[2],
+            matrix[3] * box[2] + matrix[4] * box[3] + matrix[5],
+            matrix[0] * box[4] + matrix[1] * box[5] + matrix[2],
+            matrix[3] * box[4] + matrix[4] * box[5] + matrix[5]
+          };
+          // At an offset, as boxes are mapped inside larger arrays.
+          layout.mapToCrop(tile, box, 2);
+          final float[] mapped = new float[4];
+          System.arraycopy(box, 2, mapped, 0, 4);
+          assertArrayEquals(layout + " tile " + tile, expected, mapped, 1e-3f);
+          assertEquals(0, box[0], 0.0f);
+          assertEquals(0, box[1], 0.0f);
+        }
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void regionOutsideTheFrameIsRejected() {
+    TileLayout.createRegion(0.5f, 0, 1.5f, 1, CROP_SIZE, INPUT_SIZE);
+  }
+}
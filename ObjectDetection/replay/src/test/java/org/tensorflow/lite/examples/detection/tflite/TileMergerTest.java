@@ -0,0 +1,107 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Merges hand-placed detections of a grid layout and of a region, and checks which are dropped as
+ * cut off, how duplicates across tiles are merged, and the statistics.
+ */
+public class TileMergerTest {
+  private static final int CROP_SIZE = 300;
+  private static final int INPUT_SIZE = 300;
+  private static final int MAX_RESULTS = 10;
+
+  private final float[] boxes = new float[MAX_RESULTS * 4];
+  private final int[] classes = new int[MAX_RESULTS];
+  private final float[] scores = new float[MAX_RESULTS];
+
+  private static TileMerger createMerger() {
+    return new TileMerger(7, MAX_RESULTS, MAX_RESULTS, 0.5f, 1.0f);
+  }
+
+  private float[] getBox(final int result) {
+    final float[] box = new float[4];
+    System.arraycopy(boxes, result * 4, box, 0, 4);
+    return box;
+  }
+
+  @Test
+  public void mergesTilesIntoCropDetections() {
+    // The top left grid tile covers the crop from (0, 0) to (187.5, 140.625), so its input pixels
+    // are 0.625 crop pixels wide and 0.46875 high.
+    final TileLayout layout =
+        TileLayout.create(TileLayout.Mode.GRID, 480, 640, CROP_SIZE, INPUT_SIZE, 0.25f);
+    final TileMerger merger = createMerger();
+    merger.begin(layout);
+    // An object in the full frame, found again by the tile with a better score.
+    assertTrue(merger.add(0, 30, 30, 60, 60, 1, 0.6f));
+    assertTrue(merger.add(1, 48, 64, 96, 128, 1, 0.9f));
+    // A small object only the tile finds.
+    assertTrue(merger.add(1, 100, 100, 120, 120, 2, 0.8f));
+    // One reaching the tile's right edge, inside the crop, which may be cut off.
+    assertFalse(merger.add(1, 250, 100, INPUT_SIZE - 1, 120, 2, 0.95f));
+    // One reaching the tile's left edge, which is the crop's border.
+    assertTrue(merger.add(1, 0, 200, 20, 220, 3, 0.7f));
+
+    assertEquals(3, merger.finish(boxes, classes, scores));
+    assertArrayEquals(
+        new float[] {0.9f, 0.8f, 0.7f}, new float[] {scores[0], scores[1], scores[2]}, 0);
+    assertArrayEquals(new int[] {1, 2, 3}, new int[] {classes[0], classes[1], classes[2]});
+    assertArrayEquals(new float[] {30, 30, 60, 60}, getBox(0), 1e-3f);
+    assertArrayEquals(new float[] {62.5f, 46.875f, 75, 56.25f}, getBox(1), 1e-3f);
+    assertArrayEquals(new float[] {0, 93.75f, 12.5f, 103.125f}, getBox(2), 1e-3f);
+    // Two of the three were not found by the full frame.
+    assertEquals(
+        "tiles: 3.00 detections per frame, 66.7% found only in tiles, 1 cut off at tile edges",
+        merger.getStatString());
+
+    // A region has no full frame to compare with, but its edges cut objects off too.
+    merger.begin(TileLayout.createRegion(0.25f, 0.25f, 0.75f, 0.75f, CROP_SIZE, INPUT_SIZE));
+    assertTrue(merger.add(0, 30, 30, 60, 60, 1, 0.5f));
+    assertFalse(merger.add(0, 1, 30, 60, 60, 2, 0.5f));
+    assertEquals(1, merger.finish(boxes, classes, scores));
+    assertArrayEquals(new float[] {90, 90, 105, 105}, getBox(0), 1e-3f);
+    assertEquals(
+        "tiles: 2.00 detections per frame, 66.7% found only in tiles, 2 cut off at tile edges",
+        merger.getStatString());
+  }
+
+  @Test
+  public void emptyFramesMergeToNothing() {
+    final TileMerger merger = createMerger();
+    assertEquals(
+        "tiles: 0.00 detections per frame, 0.0% found only in tiles, 0 cut off at tile edges",
+        merger.getStatString());
+    merger.begin(TileLayout.createFullFrame(CROP_SIZE, INPUT_SIZE));
+    assertEquals(0, merger.finish(boxes, classes, scores));
+    assertEquals(MAX_RESULTS, merger.getMaxResults());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void tooManyDetectionsAreRejected() {
+    final TileMerger merger = new TileMerger(1, 2, MAX_RESULTS, 0.5f, 1.0f);
+    merger.begin(TileLayout.createFullFrame(CROP_SIZE, INPUT_SIZE));
+    for (int i = 0; i < 3; ++i) {
+      merger.add(0, 10 * i, 10, 10 * i + 5, 15, 0, 0.5f);
+    }
+  }
+}
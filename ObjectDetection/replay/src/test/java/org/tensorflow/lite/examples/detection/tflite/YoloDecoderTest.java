@@ -0,0 +1,168 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+package org.tensorflow.lite.examples.detection.tflite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks the YOLOv5 and transposed YOLOv8 layouts against a straightforward decode of the same
+ * predictions, and the class of a detection with a label offset.
+ */
+public class YoloDecoderTest {
+  private static final int INPUT_SIZE = 320;
+  private static final int NUM_PREDICTIONS = 500;
+  private static final int NUM_CLASSES = 7;
+
+  private static ModelSpec spec(
+      final boolean objectness, final boolean transposed, final int labelOffset) {
+    final Properties properties = new Properties();
+    properties.setProperty("input.size", Integer.toString(INPUT_SIZE));
+    properties.setProperty("decoder", YoloDecoder.NAME);
+    properties.setProperty("labels.offset", Integer.toString(labelOffset));
+    properties.setProperty("yolo.objectness", Boolean.toString(objectness));
+    properties.setProperty("yolo.transposed", Boolean.toString(transposed));
+    return new ModelSpec(properties);
+  }
+
+  /** Random predictions as [prediction][field]: box, objectness if any, then class scores. */
+  private static float[][] randomPredictions(final int numFields, final Random random) {
+    final float[][] predictions = new float[NUM_PREDICTIONS][numFields];
+    for (final float[] prediction : predictions) {
+      prediction[0] = random.nextFloat();
+      prediction[1] = random.nextFloat();
+      prediction[2] = random.nextFloat() * 0.5f;
+      prediction[3] = random.nextFloat() * 0.5f;
+      for (int f = 4; f < numFields; ++f) {
+        prediction[f] = random.nextFloat();
+      }
+    }
+    return predictions;
+  }
+
+  /** Writes the predictions in the model's layout. */
+  private static ModelOutput output(final float[][] predictions, final boolean transposed) {
+    final int numFields = predictions[0].length;
+    final ModelOutput output =
+        new ModelOutput(
+            transposed
+                ? new int[] {1, numFields, NUM_PREDICTIONS}
+                : new int[] {1, NUM_PREDICTIONS, numFields},
+            ModelOutput.Type.FLOAT32,
+            0,
+            0);
+    for (int p = 0; p < NUM_PREDICTIONS; ++p) {
+      for (int f = 0; f < numFields; ++f) {
+        final int index = transposed ? f * NUM_PREDICTIONS + p : p * numFields + f;
+        output.getBuffer().putFloat(index * 4, predictions[p][f]);
+      }
+    }
+    return output;
+  }
+
+  private static void checkLayout(final boolean objectness, final boolean transposed) {
+    final Random random = new Random(0);
+    final int firstClass = objectness ? 5 : 4;
+    final float[][] predictions = randomPredictions(firstClass + NUM_CLASSES, random);
+    final OutputDecoder decoder =
+        DecoderRegistry.create(
+            spec(objectness, transposed, 0), new ModelOutput[] {output(predictions, transposed)});
+    assertEquals(NUM_PREDICTIONS, decoder.getMaxCandidates());
+    final float[] boxes = new float[NUM_PREDICTIONS * 4];
+    final int[] classes = new int[NUM_PREDICTIONS];
+    final float[] scores = new float[NUM_PREDICTIONS];
+    final float minScore = 0.5f;
+    final int numCandidates = decoder.decode(minScore, boxes, classes, scores);
+
+    int expected = 0;
+    for (int p = 0; p < NUM_PREDICTIONS; ++p) {
+      final float[] prediction = predictions[p];
+      int bestClass = 0;
+      for (int c = 1; c < NUM_CLASSES; ++c) {
+        if (prediction[firstClass + c] > prediction[firstClass + bestClass]) {
+          bestClass = c;
+        }
+      }
+      final float score = (objectness ? prediction[4] : 1.0f) * prediction[firstClass + bestClass];
+      if (score < minScore) {
+        continue;
+      }
+      final String name = "prediction " + p;
+      final float[] expectedBox = {
+        (prediction[0] - prediction[2] / 2) * INPUT_SIZE,
+        (prediction[1] - prediction[3] / 2) * INPUT_SIZE,
+        (prediction[0] + prediction[2] / 2) * INPUT_SIZE,
+        (prediction[1] + prediction[3] / 2) * INPUT_SIZE
+      };
+      final float[] box = new float[4];
+      System.arraycopy(boxes, expected * 4, box, 0, 4);
+      assertArrayEquals(name, expectedBox, box, 1e-3f);
+      assertEquals(name, bestClass, classes[expected]);
+      assertEquals(name, score, scores[expected], 1e-6f);
+      ++expected;
+    }
+    assertTrue(expected > 0);
+    assertEquals(expected, numCandidates);
+  }
+
+  @Test
+  public void yoloV5LayoutMatchesStraightforwardDecode() {
+    checkLayout(true, false);
+  }
+
+  @Test
+  public void transposedLayoutMatchesStraightforwardDecode() {
+    checkLayout(false, true);
+    checkLayout(true, true);
+  }
+
+  @Test
+  public void classIsShiftedByLabelOffset() {
+    final int numFields = 4 + NUM_CLASSES;
+    final float[][] predictions = new float[NUM_PREDICTIONS][numFields];
+    // Only the last prediction scores, for its last class.
+    final float[] prediction = predictions[NUM_PREDICTIONS - 1];
+    prediction[0] = 0.5f;
+    prediction[1] = 0.25f;
+    prediction[2] = 0.2f;
+    prediction[3] = 0.1f;
+    prediction[numFields - 2] = 0.6f;
+    prediction[numFields - 1] = 0.9f;
+
+    final OutputDecoder decoder =
+        DecoderRegistry.create(
+            spec(false, true, 1), new ModelOutput[] {output(predictions, true)});
+    final float[] boxes = new float[NUM_PREDICTIONS * 4];
+    final int[] classes = new int[NUM_PREDICTIONS];
+    final float[] scores = new float[NUM_PREDICTIONS];
+    assertEquals(1, decoder.decode(0.3f, boxes, classes, scores));
+    assertEquals(NUM_CLASSES, classes[0]);
+    assertEquals(0.9f, scores[0], 0.0f);
+    final float[] box = new float[4];
+    System.arraycopy(boxes, 0, box, 0, 4);
+    assertArrayEquals(new float[] {128, 64, 192, 96}, box, 1e-3f);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void tooFewFieldsAreRejected() {
+    final float[][] predictions = new float[NUM_PREDICTIONS][5];
+    DecoderRegistry.create(spec(true, false, 0), new ModelOutput[] {output(predictions, false)});
+  }
+}
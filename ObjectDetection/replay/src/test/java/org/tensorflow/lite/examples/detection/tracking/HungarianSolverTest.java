@@ -0,0 +1,133 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks the assignments against the cheapest one found by trying them all, on random
+ * sub-matrices of a larger cost matrix with rows and columns picked in any order.
+ */
+public class HungarianSolverTest {
+  private static final int SIZE = 8;
+  private static final int MAX_SELECTED = 6;
+  private static final int NUM_CASES = 2000;
+
+  @Test
+  public void findsCheapestAssignment() {
+    final Random random = new Random(0);
+    final float[] cost = new float[SIZE * SIZE];
+    final int[] rows = new int[MAX_SELECTED];
+    final int[] cols = new int[MAX_SELECTED];
+    final HungarianSolver solver = new HungarianSolver(MAX_SELECTED);
+
+    for (int n = 0; n < NUM_CASES; ++n) {
+      for (int i = 0; i < cost.length; ++i) {
+        // Coarse costs half of the time, so that there are ties.
+        cost[i] = n % 2 == 0 ? random.nextFloat() : random.nextInt(4) / 4.0f;
+      }
+      final int numRows = pickDistinct(random, rows);
+      final int numCols = pickDistinct(random, cols);
+      solver.solve(cost, SIZE, rows, numRows, cols, numCols);
+
+      final String message = "case " + n;
+      final boolean[] usedCols = new boolean[numCols];
+      int numAssigned = 0;
+      float total = 0;
+      for (int i = 0; i < numRows; ++i) {
+        final int j = solver.getAssignment(i);
+        if (j < 0) {
+          continue;
+        }
+        assertTrue(message, j < numCols);
+        assertFalse(message, usedCols[j]);
+        usedCols[j] = true;
+        ++numAssigned;
+        total += cost[rows[i] * SIZE + cols[j]];
+      }
+      assertEquals(message, Math.min(numRows, numCols), numAssigned);
+      assertEquals(
+          message,
+          minCost(cost, rows, numRows, cols, numCols, 0, new boolean[numCols]),
+          total,
+          1e-4f);
+    }
+  }
+
+  /** Fills indices with a random number of distinct indices in random order. */
+  private static int pickDistinct(final Random random, final int[] indices) {
+    final int count = random.nextInt(indices.length + 1);
+    final int[] all = new int[SIZE];
+    for (int i = 0; i < SIZE; ++i) {
+      all[i] = i;
+    }
+    for (int i = 0; i < count; ++i) {
+      final int k = i + random.nextInt(SIZE - i);
+      final int swap = all[i];
+      all[i] = all[k];
+      all[k] = swap;
+      indices[i] = all[i];
+    }
+    return count;
+  }
+
+  /**
+   * Returns the cheapest cost of assigning min(numRows, numCols) pairs, rows from the given one
+   * on. A row is only left out while there are more rows left than free columns.
+   */
+  private static float minCost(
+      final float[] cost,
+      final int[] rows,
+      final int numRows,
+      final int[] cols,
+      final int numCols,
+      final int row,
+      final boolean[] usedCols) {
+    if (row == numRows) {
+      return 0;
+    }
+    int numFree = 0;
+    for (int j = 0; j < numCols; ++j) {
+      if (!usedCols[j]) {
+        ++numFree;
+      }
+    }
+    if (numFree == 0) {
+      return 0;
+    }
+    float best = Float.MAX_VALUE;
+    if (numRows - row > numFree) {
+      best = minCost(cost, rows, numRows, cols, numCols, row + 1, usedCols);
+    }
+    for (int j = 0; j < numCols; ++j) {
+      if (!usedCols[j]) {
+        usedCols[j] = true;
+        best =
+            Math.min(
+                best,
+                cost[rows[row] * SIZE + cols[j]]
+                    + minCost(cost, rows, numRows, cols, numCols, row + 1, usedCols));
+        usedCols[j] = false;
+      }
+    }
+    return best;
+  }
+}
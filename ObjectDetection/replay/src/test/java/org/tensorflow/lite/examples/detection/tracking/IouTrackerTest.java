@@ -0,0 +1,269 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks that the tracker pairs tracks and detections for the largest total overlap, as found by
+ * trying every matching, and the life cycle of tracks.
+ */
+public class IouTrackerTest {
+  private static final int MAX_BOXES = 6;
+  private static final int NUM_CLASSES = 2;
+  private static final float MIN_IOU = 0.3f;
+  private static final int NUM_CASES = 2000;
+
+  @Test
+  public void maximizesTotalOverlap() {
+    final Random random = new Random(0);
+    final float[] trackBoxes = new float[MAX_BOXES * 4];
+    final int[] trackClasses = new int[MAX_BOXES];
+    final float[] detectionBoxes = new float[MAX_BOXES * 4];
+    final int[] detectionClasses = new int[MAX_BOXES];
+    final float[] scores = new float[MAX_BOXES];
+    final float[] box = new float[4];
+
+    for (int n = 0; n < NUM_CASES; ++n) {
+      final int numTracks = random.nextInt(MAX_BOXES + 1);
+      final int numDetections = random.nextInt(MAX_BOXES + 1);
+      fillBoxes(random, numTracks, trackBoxes, trackClasses);
+      fillBoxes(random, numDetections, detectionBoxes, detectionClasses);
+
+      // The first frame starts a track with ids 1 to numTracks at each box; with no velocity yet,
+      // the second frame predicts them where they were.
+      final IouTracker tracker = new IouTracker(2 * MAX_BOXES, MAX_BOXES, 2, 5, MIN_IOU);
+      tracker.update(numTracks, trackBoxes, trackClasses, scores);
+      tracker.update(numDetections, detectionBoxes, detectionClasses, scores);
+
+      // A continued track has taken over the box of its detection.
+      final String message = "case " + n;
+      final boolean[] matched = new boolean[numDetections];
+      float total = 0;
+      for (int i = 0; i < tracker.getNumTracks(); ++i) {
+        final int t = tracker.getId(i) - 1;
+        if (t >= numTracks) {
+          continue;
+        }
+        tracker.getBox(i, box, 0);
+        final int d = findBox(box, detectionBoxes, numDetections);
+        assertTrue(message, d >= 0);
+        assertFalse(message, matched[d]);
+        matched[d] = true;
+        assertEquals(message, trackClasses[t], detectionClasses[d]);
+        final float iou = IouTracker.iou(trackBoxes, t * 4, detectionBoxes, d * 4);
+        assertTrue(message, iou >= MIN_IOU);
+        total += iou;
+      }
+      assertEquals(
+          message,
+          maxOverlap(
+              trackBoxes,
+              trackClasses,
+              numTracks,
+              detectionBoxes,
+              detectionClasses,
+              numDetections,
+              0,
+              new boolean[numDetections]),
+          total,
+          1e-4f);
+    }
+  }
+
+  @Test
+  public void confirmsAndDropsTracks() {
+    final IouTracker tracker = new IouTracker(4, 4, 2, 2, MIN_IOU);
+    final float[] boxes = {0, 0, 10, 10, 50, 50, 60, 60};
+    final int[] classes = {0, 1};
+    final float[] scores = {0.9f, 0.8f};
+
+    tracker.update(2, boxes, classes, scores);
+    assertEquals(2, tracker.getNumTracks());
+    assertFalse(tracker.isConfirmed(0));
+
+    // Only the first box is seen again: it is confirmed, the unconfirmed second one is dropped.
+    tracker.update(1, boxes, classes, scores);
+    assertEquals(1, tracker.getNumTracks());
+    assertEquals(1, tracker.getId(0));
+    assertTrue(tracker.isConfirmed(0));
+
+    // A confirmed track survives maxMisses empty frames, and no more.
+    tracker.update(0, boxes, classes, scores);
+    tracker.update(0, boxes, classes, scores);
+    assertEquals(1, tracker.getNumTracks());
+    assertEquals(2, tracker.getMisses(0));
+    tracker.update(0, boxes, classes, scores);
+    assertEquals(0, tracker.getNumTracks());
+
+    // Ids are never reused, not even after a clear.
+    tracker.update(1, boxes, classes, scores);
+    assertEquals(3, tracker.getId(0));
+    tracker.clear();
+    tracker.update(1, boxes, classes, scores);
+    assertEquals(4, tracker.getId(0));
+  }
+
+  @Test
+  public void keepsUnsearchedTracks() {
+    final IouTracker tracker = new IouTracker(4, 4, 1, 0, MIN_IOU);
+    final float[] boxes = {0, 0, 10, 10, 50, 50, 60, 60};
+    final int[] classes = {0, 0};
+    final float[] scores = {0.9f, 0.8f};
+    tracker.update(2, boxes, classes, scores);
+
+    // Only the left half was searched, so the track on the right is not aged.
+    tracker.update(0, boxes, classes, scores, 0, 0, 30, 100);
+    assertEquals(1, tracker.getNumTracks());
+    assertEquals(2, tracker.getId(0));
+  }
+
+  @Test
+  public void unsearchedTracksKeepVoting() {
+    final IouTracker tracker = new IouTracker(4, 4, 2, 2, MIN_IOU);
+    final PresenceVoter voter = new PresenceVoter(2, 15, 10, 3);
+    final boolean[] entered = new boolean[2];
+    final boolean[] left = new boolean[2];
+    final PresenceVoter.Listener listener =
+        new PresenceVoter.Listener() {
+          @Override
+          public void onEnter(final int classId, final int count) {
+            entered[classId] = true;
+          }
+
+          @Override
+          public void onLeave(final int classId) {
+            left[classId] = true;
+          }
+        };
+    // Off the path, and cut by the edge of the region, so only found on full frames.
+    final float[] boxes = {0, 0, 10, 10, 35, 45, 50, 55};
+    final int[] classes = {0, 1};
+    final float[] scores = {0.9f, 0.8f};
+
+    // Every third frame is a full frame, the others only search the region.
+    for (int frame = 0; frame < 30; ++frame) {
+      if (frame % 3 == 0) {
+        tracker.update(2, boxes, classes, scores);
+      } else {
+        tracker.update(0, boxes, classes, scores, 40, 40, 60, 60);
+        tracker.addUnsearchedClasses(voter);
+      }
+      voter.endFrame(listener);
+    }
+    assertTrue(entered[0]);
+    assertTrue(entered[1]);
+
+    // Once a full frame misses them, they no longer vote on the region frames.
+    for (int frame = 0; frame < 15; ++frame) {
+      if (frame % 3 == 0) {
+        tracker.update(0, boxes, classes, scores);
+      } else {
+        tracker.update(0, boxes, classes, scores, 40, 40, 60, 60);
+        tracker.addUnsearchedClasses(voter);
+      }
+      voter.endFrame(listener);
+    }
+    assertTrue(left[0]);
+    assertTrue(left[1]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsTooManyDetections() {
+    new IouTracker(1, 1).update(2, new float[8], new int[2], new float[2]);
+  }
+
+  private static void fillBoxes(
+      final Random random, final int count, final float[] boxes, final int[] classes) {
+    for (int i = 0; i < count; ++i) {
+      // Near a few spots, so that most boxes have several candidates.
+      final float x = random.nextInt(3) * 15 + random.nextFloat() * 8;
+      final float y = random.nextInt(2) * 15 + random.nextFloat() * 8;
+      boxes[i * 4] = x;
+      boxes[i * 4 + 1] = y;
+      boxes[i * 4 + 2] = x + 10 + random.nextFloat() * 10;
+      boxes[i * 4 + 3] = y + 10 + random.nextFloat() * 10;
+      classes[i] = random.nextInt(NUM_CLASSES);
+    }
+  }
+
+  private static int findBox(final float[] box, final float[] boxes, final int count) {
+    for (int i = 0; i < count; ++i) {
+      if (box[0] == boxes[i * 4]
+          && box[1] == boxes[i * 4 + 1]
+          && box[2] == boxes[i * 4 + 2]
+          && box[3] == boxes[i * 4 + 3]) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns the largest total overlap of pairs of the same class, tracks from t on. */
+  private static float maxOverlap(
+      final float[] trackBoxes,
+      final int[] trackClasses,
+      final int numTracks,
+      final float[] detectionBoxes,
+      final int[] detectionClasses,
+      final int numDetections,
+      final int t,
+      final boolean[] usedDetections) {
+    if (t == numTracks) {
+      return 0;
+    }
+    float best =
+        maxOverlap(
+            trackBoxes,
+            trackClasses,
+            numTracks,
+            detectionBoxes,
+            detectionClasses,
+            numDetections,
+            t + 1,
+            usedDetections);
+    for (int d = 0; d < numDetections; ++d) {
+      if (usedDetections[d] || trackClasses[t] != detectionClasses[d]) {
+        continue;
+      }
+      final float iou = IouTracker.iou(trackBoxes, t * 4, detectionBoxes, d * 4);
+      if (iou < MIN_IOU) {
+        continue;
+      }
+      usedDetections[d] = true;
+      best =
+          Math.max(
+              best,
+              iou
+                  + maxOverlap(
+                      trackBoxes,
+                      trackClasses,
+                      numTracks,
+                      detectionBoxes,
+                      detectionClasses,
+                      numDetections,
+                      t + 1,
+                      usedDetections));
+      usedDetections[d] = false;
+    }
+    return best;
+  }
+}
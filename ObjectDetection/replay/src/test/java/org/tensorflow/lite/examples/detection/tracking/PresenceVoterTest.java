@@ -0,0 +1,147 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks the voter against a plain count over the last frames kept in a list, on random
+ * sightings, and the enter and leave reports of a simple scene.
+ */
+public class PresenceVoterTest {
+  private static final int NUM_CLASSES = 4;
+  private static final int NUM_FRAMES = 5000;
+
+  @Test
+  public void matchesSlidingCount() {
+    final Random random = new Random(0);
+    final int window = 5;
+    final int enterVotes = 3;
+    final int leaveVotes = 1;
+    final PresenceVoter voter = new PresenceVoter(NUM_CLASSES, window, enterVotes, leaveVotes);
+    final boolean[][] seen = new boolean[NUM_FRAMES][NUM_CLASSES];
+    final boolean[] present = new boolean[NUM_CLASSES];
+    final int[] entered = new int[NUM_CLASSES];
+    final int[] left = new int[NUM_CLASSES];
+    final PresenceVoter.Listener listener =
+        new PresenceVoter.Listener() {
+          @Override
+          public void onEnter(final int classId, final int count) {
+            ++entered[classId];
+          }
+
+          @Override
+          public void onLeave(final int classId) {
+            ++left[classId];
+          }
+        };
+
+    for (int frame = 0; frame < NUM_FRAMES; ++frame) {
+      for (int c = 0; c < NUM_CLASSES; ++c) {
+        // Each class comes and goes in runs, with some flicker.
+        final boolean on = ((frame + 7 * c) / (20 + 10 * c)) % 2 == 0;
+        seen[frame][c] = random.nextFloat() < (on ? 0.8f : 0.1f);
+        if (seen[frame][c]) {
+          voter.add(c);
+        }
+      }
+      voter.add(-1);
+      voter.add(NUM_CLASSES);
+
+      final int[] expectedEntered = entered.clone();
+      final int[] expectedLeft = left.clone();
+      for (int c = 0; c < NUM_CLASSES; ++c) {
+        int votes = 0;
+        for (int f = Math.max(0, frame - window + 1); f <= frame; ++f) {
+          if (seen[f][c]) {
+            ++votes;
+          }
+        }
+        if (!present[c] && votes >= enterVotes) {
+          present[c] = true;
+          ++expectedEntered[c];
+        } else if (present[c] && votes <= leaveVotes) {
+          present[c] = false;
+          ++expectedLeft[c];
+        }
+      }
+      voter.endFrame(listener);
+
+      for (int c = 0; c < NUM_CLASSES; ++c) {
+        final String message = "frame " + frame + " class " + c;
+        assertEquals(message, present[c], voter.isPresent(c));
+        assertEquals(message, expectedEntered[c], entered[c]);
+        assertEquals(message, expectedLeft[c], left[c]);
+      }
+    }
+  }
+
+  @Test
+  public void reportsCountAndLeave() {
+    final PresenceVoter voter = new PresenceVoter(2, 3, 2, 0);
+    final StringBuilder events = new StringBuilder();
+    final PresenceVoter.Listener listener =
+        new PresenceVoter.Listener() {
+          @Override
+          public void onEnter(final int classId, final int count) {
+            events.append("enter ").append(classId).append(' ').append(count).append('\n');
+          }
+
+          @Override
+          public void onLeave(final int classId) {
+            events.append("leave ").append(classId).append('\n');
+          }
+        };
+
+    voter.add(1);
+    voter.endFrame(listener);
+    voter.add(1);
+    voter.add(1);
+    voter.endFrame(listener);
+    assertTrue(voter.isPresent(1));
+    assertFalse(voter.isPresent(0));
+    for (int i = 0; i < 3; ++i) {
+      voter.endFrame(listener);
+    }
+    assertEquals("enter 1 2\nleave 1\n", events.toString());
+
+    // A cleared voter starts from an empty window and reports nothing.
+    voter.add(0);
+    voter.endFrame(listener);
+    voter.add(0);
+    voter.endFrame(listener);
+    voter.clear();
+    assertFalse(voter.isPresent(0));
+    voter.add(0);
+    voter.endFrame(listener);
+    assertEquals("enter 1 2\nleave 1\nenter 0 1\n", events.toString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsEnterVotesBeyondWindow() {
+    new PresenceVoter(1, 3, 4, 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsLeaveVotesNotBelowEnterVotes() {
+    new PresenceVoter(1, 3, 2, 2);
+  }
+}
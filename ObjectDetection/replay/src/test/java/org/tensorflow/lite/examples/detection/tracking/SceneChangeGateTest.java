@@ -0,0 +1,252 @@
+/* Copyright 2019 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.lite.examples.detection.tracking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Runs the gate on a textured frame that stays put, moves in part or only changes in brightness,
+ * and checks which frames it detects, how its heartbeats space out, and that a frame the pipeline
+ * drops does not become the reference.
+ */
+public class SceneChangeGateTest {
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+  // Wider than the frame, as camera planes often are.
+  private static final int ROW_STRIDE = 672;
+  private static final int NUM_CLASSES = 3;
+  private static final int MAX_HEARTBEAT_FRAMES = 8;
+  // Frames are 1/30s apart.
+  private static final long FRAME_NS = 33333333L;
+
+  /** Returns a random texture with room to brighten and darken. */
+  private static byte[] texture(final long seed) {
+    final Random random = new Random(seed);
+    final byte[] luminance = new byte[ROW_STRIDE * HEIGHT];
+    for (int i = 0; i < luminance.length; ++i) {
+      luminance[i] = (byte) (60 + random.nextInt(120));
+    }
+    return luminance;
+  }
+
+  /** Returns a copy of the frame with every pixel brighter by the shift. */
+  private static byte[] shifted(final byte[] luminance, final int shift) {
+    final byte[] result = new byte[luminance.length];
+    for (int i = 0; i < luminance.length; ++i) {
+      result[i] = (byte) ((0xff & luminance[i]) + shift);
+    }
+    return result;
+  }
+
+  /** Returns a copy of the frame with a block of 20x20 cells at the top left brightened. */
+  private static byte[] withBlock(final byte[] luminance, final int cellsX, final int shift) {
+    final byte[] result = luminance.clone();
+    for (int y = 0; y < HEIGHT / 24; ++y) {
+      for (int x = 0; x < cellsX * WIDTH / 32; ++x) {
+        result[y * ROW_STRIDE + x] = (byte) ((0xff & luminance[y * ROW_STRIDE + x]) + shift);
+      }
+    }
+    return result;
+  }
+
+  /** Offers a frame to the gate, queueing it if accepted, and returns whether it was accepted. */
+  private static boolean offer(final SceneChangeGate gate, final byte[] frame, final long index) {
+    if (!gate.shouldDetect(frame, ROW_STRIDE, index * FRAME_NS)) {
+      return false;
+    }
+    gate.detectionQueued();
+    return true;
+  }
+
+  /** Returns whether the gate takes the frame for a change, without queueing it. */
+  private static boolean isChange(
+      final SceneChangeGate gate, final byte[] frame, final long index) {
+    return gate.shouldDetect(frame, ROW_STRIDE, index * FRAME_NS) && !gate.isHeartbeat();
+  }
+
+  @Test
+  public void heartbeatsDoubleWhileStaticAndResetOnChange() {
+    final SceneChangeGate gate = 
+        new SceneChangeGate(WIDTH, HEIGHT, NUM_CLASSES, MAX_HEARTBEAT_FRAMES);
+    final byte[] still = texture(0);
+    long index = 0;
+
+    // The first frame has nothing to be compared with.
+    assertTrue(gate.shouldDetect(still, ROW_STRIDE, 0));
+    assertFalse(gate.isHeartbeat());
+    gate.detectionQueued();
+    ++index;
+
+    // Heartbeats come after 1, 2, 4 and 8 frames, and stay 8 apart.
+    final int[] gaps = {1, 2, 4, 8, 8, 8};
+    for (final int gap : gaps) {
+      for (int i = 1; i < gap; ++i, ++index) {
+        assertFalse("frame " + index, gate.shouldDetect(still, ROW_STRIDE, index * FRAME_NS));
+      }
+      assertTrue("frame " + index, gate.shouldDetect(still, ROW_STRIDE, index * FRAME_NS));
+      assertTrue(gate.isHeartbeat());
+      gate.detectionQueued();
+      ++index;
+    }
+
+    // A change is detected at once, and brings the next heartbeat back to the next frame.
+    final byte[] moved = withBlock(still, 4, 60);
+    assertTrue(gate.shouldDetect(moved, ROW_STRIDE, index * FRAME_NS));
+    assertFalse(gate.isHeartbeat());
+    gate.detectionQueued();
+    ++index;
+    assertTrue(gate.shouldDetect(moved, ROW_STRIDE, index * FRAME_NS));
+    assertTrue(gate.isHeartbeat());
+    gate.detectionQueued();
+    ++index;
+    assertFalse(gate.shouldDetect(moved, ROW_STRIDE, index * FRAME_NS));
+
+    final long frames = index + 1;
+    final long detected = 1 + gaps.length + 2;
+    assertEquals((frames - detected) / (float) frames, gate.getSkipRate(), 1e-6f);
+  }
+
+  @Test
+  public void changedFramesAreAlwaysDetected() {
+    final SceneChangeGate gate =
+        new SceneChangeGate(WIDTH, HEIGHT, NUM_CLASSES, MAX_HEARTBEAT_FRAMES);
+    final byte[] first = texture(0);
+    final byte[] second = withBlock(first, 3, 60);
+    for (int i = 0; i < 100; ++i) {
+      assertTrue("frame " + i, offer(gate, i % 2 == 0 ? first : second, i));
+      assertFalse(gate.isHeartbeat());
+    }
+    assertEquals(0.0f, gate.getSkipRate(), 0.0f);
+  }
+
+  @Test
+  public void changesBelowTheThresholdAreSkipped() {
+    final SceneChangeGate gate =
+        new SceneChangeGate(WIDTH, HEIGHT, NUM_CLASSES, MAX_HEARTBEAT_FRAMES);
+    final byte[] still = texture(0);
+    assertTrue(offer(gate, still, 0));
+    assertTrue(offer(gate, still, 1));
+    // Two cells are too few, and a change of 8 in a cell is too small.
+    assertFalse(isChange(gate, withBlock(still, 2, 60), 2));
+    assertFalse(isChange(gate, withBlock(still, 8, 8), 3));
+    assertTrue(isChange(gate, withBlock(still, 3, 60), 4));
+  }
+
+  @Test
+  public void exposureShiftsAreNotChanges() {
+    final SceneChangeGate gate =
+        new SceneChangeGate(WIDTH, HEIGHT, NUM_CLASSES, MAX_HEARTBEAT_FRAMES);
+    final byte[] still = texture(0);
+    assertTrue(offer(gate, still, 0));
+    assertTrue(offer(gate, still, 1));
+    assertFalse(isChange(gate, shifted(still, 40), 2));
+    assertFalse(isChange(gate, shifted(still, -40), 3));
+    // Movement still shows through a change of brightness.
+    assertTrue(isChange(gate, withBlock(shifted(still, 40), 4, -50), 4));
+  }
+
+  @Test
+  public void droppedFramesDoNotBecomeTheReference() {
+    final SceneChangeGate gate =
+        new SceneChangeGate(WIDTH, HEIGHT, NUM_CLASSES, MAX_HEARTBEAT_FRAMES);
+    final byte[] still = texture(0);
+    final byte[] moved = withBlock(still, 4, 60);
+    assertTrue(offer(gate, still, 0));
+    assertTrue(offer(gate, still, 1));
+
+    // The pipeline is busy and drops the changed frame, so the next one still counts as changed.
+    assertTrue(gate.shouldDetect(moved, ROW_STRIDE, 2 * FRAME_NS));
+    assertTrue(gate.shouldDetect(moved, ROW_STRIDE, 3 * FRAME_NS));
+    assertFalse(gate.isHeartbeat());
+    gate.detectionQueued();
+    assertTrue(gate.shouldDetect(moved, ROW_STRIDE, 4 * FRAME_NS));
+    assertTrue(gate.isHeartbeat());
+
+    // A dropped heartbeat does not double the gap either.
+    final SceneChangeGate other =
+        new SceneChangeGate(WIDTH, HEIGHT, NUM_CLASSES, MAX_HEARTBEAT_FRAMES);
+    assertTrue(offer(other, still, 0));
+    assertTrue(other.shouldDetect(still, ROW_STRIDE, FRAME_NS));
+    assertTrue(other.isHeartbeat());
+    assertTrue(other.shouldDetect(still, ROW_STRIDE, 2 * FRAME_NS));
+    assertTrue(other.isHeartbeat());
+    other.detectionQueued();
+    assertFalse(other.shouldDetect(still, ROW_STRIDE, 3 * FRAME_NS));
+    assertTrue(other.shouldDetect(still, ROW_STRIDE, 4 * FRAME_NS));
+  }
+
+  @Test
+  public void bufferMatchesArray() {
+    final SceneChangeGate arrayGate =
+        new SceneChangeGate(WIDTH, HEIGHT, NUM_CLASSES, MAX_HEARTBEAT_FRAMES);
+    final SceneChangeGate bufferGate =
+        new SceneChangeGate(WIDTH, HEIGHT, NUM_CLASSES, MAX_HEARTBEAT_FRAMES);
+    final byte[][] frames = {texture(0), withBlock(texture(0), 3, 60), texture(1)};
+    final Random random = new Random(0);
+    for (int i = 0; i < 200; ++i) {
+      final byte[] frame = frames[random.nextInt(random.nextInt(8) == 0 ? 3 : 1)];
+      final boolean detect = arrayGate.shouldDetect(frame, ROW_STRIDE, i * FRAME_NS);
+      final ByteBuffer buffer = ByteBuffer.wrap(frame);
+      assertEquals(detect, bufferGate.shouldDetect(buffer, ROW_STRIDE, i * FRAME_NS));
+      if (detect) {
+        assertEquals(arrayGate.isHeartbeat(), bufferGate.isHeartbeat());
+        arrayGate.detectionQueued();
+        bufferGate.detectionQueued();
+      }
+    }
+    assertEquals(arrayGate.getStatString(), bufferGate.getStatString());
+  }
+
+  @Test
+  public void meanChangeCountsEveryComparedFrame() {
+    final SceneChangeGate gate =
+        new SceneChangeGate(WIDTH, HEIGHT, NUM_CLASSES, MAX_HEARTBEAT_FRAMES);
+    final byte[] still = texture(0);
+    assertEquals(0.0f, gate.getMeanChangedFraction(), 0.0f);
+    assertTrue(offer(gate, still, 0));
+    assertTrue(offer(gate, withBlock(still, 4, 60), 1));
+    assertTrue(offer(gate, still, 2));
+    assertTrue(offer(gate, still, 3));
+    // Four cells changed twice, and not at all the last time.
+    assertEquals(8.0f / (3 * 32 * 24), gate.getMeanChangedFraction(), 1e-6f);
+  }
+
+  @Test
+  public void heartbeatsThatFindNewClassesAreCounted() {
+    final SceneChangeGate gate =
+        new SceneChangeGate(WIDTH, HEIGHT, NUM_CLASSES, MAX_HEARTBEAT_FRAMES);
+    gate.addDetection(0);
+    gate.endDetections(false);
+    // Same class on a heartbeat, then a new one, then a class that had been seen before.
+    gate.addDetection(0);
+    gate.endDetections(true);
+    gate.addDetection(0);
+    gate.addDetection(1);
+    gate.endDetections(true);
+    gate.addDetection(1);
+    gate.endDetections(true);
+    // New classes found on a changed frame are not the gate's misses.
+    gate.addDetection(2);
+    gate.endDetections(false);
+    assertEquals(1.0f / 3, gate.getMissedEventRate(), 1e-6f);
+  }
+}